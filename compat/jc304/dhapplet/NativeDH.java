@@ -0,0 +1,75 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet;
+
+/**
+ * NativeDH for the jc304 build profile. Java Card 3.0.4 has no plain DH key
+ * agreement, so getInstance() reports no support and DH runs every key size
+ * on the RSA engine. Keep the signatures in line with src/dhapplet/NativeDH.
+ *
+ * @author Thotheolh
+ */
+public class NativeDH {
+
+    private NativeDH() {
+    }
+
+    /**
+     * @param sizes number of key sizes
+     * @return null as plain DH is not available before Java Card 3.1
+     */
+    public static NativeDH getInstance(byte sizes) {
+        return null;
+    }
+
+    public boolean build(byte index, short bits) {
+        return false;
+    }
+
+    public boolean select(byte index) {
+        return false;
+    }
+
+    public void setKey(byte[] P, short pOffset, byte[] G, short gOffset, short length,
+            byte[] exp, short offset, short expLength) {
+    }
+
+    public void modexp(byte[] base, short offset, short length, byte[] output, short outOffset) {
+    }
+
+    public short getX(byte[] output, short offset) {
+        return 0;
+    }
+
+    public void clearKey() {
+    }
+}
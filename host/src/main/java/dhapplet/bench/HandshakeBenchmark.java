@@ -0,0 +1,288 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet.bench;
+
+import dhapplet.sim.Simulator;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times each instruction of the step by step handshake on a simulated card
+ * for the 2048, 3072 and 4096 bit MODP groups, with the modexps done by RSA
+ * as on most cards or by native DH.
+ *
+ * INIT is timed generating a fresh key, taking a key precomputed by REFILL
+ * and loading a given private key. GET and SET move the whole Y in the
+ * 128 byte parts DHClient uses. FINAL is timed after a fresh INIT and SET,
+ * TEST against the channel of a finished handshake.
+ *
+ * The times are the simulator's on the host JVM, not a card's. They show
+ * how the applet's own work changes between builds, which is what a
+ * regression needs, and the APDU traffic of each instruction.
+ *
+ * @author Thotheolh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HandshakeBenchmark {
+
+    static final byte[] AID = {(byte) 0xED, (byte) 0xE4, (byte) 0xFB, (byte) 0xEB, (byte) 0x9E, (byte) 0xD8};
+    static final byte[] ALL_SIZES = {0x01, 0x01, 0x07};
+    static final int CLA = 0xB0;
+    static final int INS_INIT = 0x10;
+    static final int INS_GET = 0x11;
+    static final int INS_SET = 0x12;
+    static final int INS_REFILL = 0x13;
+    static final int INS_FINAL = 0x1F;
+    static final int INS_TEST = 0x20;
+    static final int P1_Y = 0x01;
+    static final int P1_P = 0x02;
+    static final int P1_GROUP = 0x06;
+    static final int P1_INIT_WITH_PRIVKEY = 0x1F;
+    static final int PART_LENGTH = 128;
+    static final int OFFSET_UNIT = 4;
+    static final int TAG_LENGTH = 16;
+    static final int EXP_LENGTH = 40;
+
+    /**
+     * The simulated card with the applet installed for one group and engine.
+     * The benchmarks needing work before each invocation take a subclass,
+     * as JMH would give a state depending on it a card of its own.
+     */
+    @State(Scope.Thread)
+    public static class Card {
+
+        @Param({"2048", "3072", "4096"})
+        int bits;
+
+        @Param({"rsa", "native"})
+        String engine;
+
+        private Simulator simulator;
+        int length;
+        byte[] hostY;
+        byte[] privateKey;
+
+        @Setup(Level.Trial)
+        public void install() {
+            simulator = new Simulator();
+            simulator.setNativeDh(engine.equals("native"));
+            simulator.setSeed(bits);
+            simulator.install("dhapplet.DHApplet", AID, ALL_SIZES);
+            check(simulator.select(AID));
+            length = bits / 8;
+            send(INS_SET, P1_GROUP, groupOf(bits), null);
+
+            // The host's key pair and a private key for INIT with a given key
+            Random random = new Random(bits);
+            BigInteger p = new BigInteger(1, get(P1_P));
+            BigInteger x = new BigInteger(EXP_LENGTH * 8, random).setBit(EXP_LENGTH * 8 - 1);
+            hostY = fixed(BigInteger.TWO.modPow(x, p), length);
+            privateKey = new byte[length];
+            random.nextBytes(privateKey);
+            privateKey[0] = 0;
+
+            // A finished handshake for TEST, with a key on the card for GET
+            send(INS_INIT, 0x00, 0x00, null);
+            set(hostY);
+            send(INS_FINAL, 0x00, 0x00, null);
+            send(INS_INIT, 0x00, 0x00, null);
+        }
+
+        byte[] get(int p1) {
+            byte[] value = new byte[length];
+            for (int offset = 0; offset < length; offset += PART_LENGTH) {
+                byte[] part = send(INS_GET, p1, offset / OFFSET_UNIT, null, PART_LENGTH);
+                System.arraycopy(part, 0, value, offset, part.length);
+            }
+            return value;
+        }
+
+        byte[] set(byte[] value) {
+            byte[] response = null;
+            for (int offset = 0; offset < value.length; offset += PART_LENGTH) {
+                response = send(INS_SET, P1_Y, offset / OFFSET_UNIT,
+                        Arrays.copyOfRange(value, offset, Math.min(value.length, offset + PART_LENGTH)));
+            }
+            return response;
+        }
+
+        byte[] send(int ins, int p1, int p2, byte[] data) {
+            return send(ins, p1, p2, data, 0);
+        }
+
+        /**
+         * Sends a short command, or an extended one if the data does not fit.
+         *
+         * @param le 0 for none
+         * @return the response data
+         * @throws IllegalStateException on a status word other than 9000
+         */
+        byte[] send(int ins, int p1, int p2, byte[] data, int le) {
+            int nc = data != null ? data.length : 0;
+            boolean extended = nc > 255 || le > 256;
+            byte[] command = new byte[4 + (nc > 0 ? (extended ? 3 : 1) + nc : 0) + (le > 0 ? (extended ? (nc > 0 ? 2 : 3) : 1) : 0)];
+            command[0] = (byte) CLA;
+            command[1] = (byte) ins;
+            command[2] = (byte) p1;
+            command[3] = (byte) p2;
+            int offset = 4;
+            if (nc > 0) {
+                if (extended) {
+                    command[offset++] = 0;
+                    command[offset++] = (byte) (nc >> 8);
+                }
+                command[offset++] = (byte) nc;
+                System.arraycopy(data, 0, command, offset, nc);
+                offset += nc;
+            }
+            if (le > 0) {
+                if (extended) {
+                    if (nc == 0) {
+                        command[offset++] = 0;
+                    }
+                    command[offset++] = (byte) (le >> 8);
+                }
+                command[offset] = (byte) le;
+            }
+            return check(simulator.transmit(command));
+        }
+
+        private byte[] check(byte[] response) {
+            int sw = ((response[response.length - 2] & 0xFF) << 8) | (response[response.length - 1] & 0xFF);
+            if (sw != 0x9000) {
+                throw new IllegalStateException(String.format("card answered %04X", sw), simulator.getLastException());
+            }
+            return Arrays.copyOf(response, response.length - 2);
+        }
+    }
+
+    /**
+     * A card with one precomputed key put in the pool before each pooled
+     * INIT.
+     */
+    @State(Scope.Thread)
+    public static class Refilled extends Card {
+
+        @Setup(Level.Invocation)
+        public void refill() {
+            send(INS_REFILL, 0x00, 0x01, null);
+        }
+    }
+
+    /**
+     * A card with a handshake started and the host's Y sent before each
+     * FINAL.
+     */
+    @State(Scope.Thread)
+    public static class Ready extends Card {
+
+        @Setup(Level.Invocation)
+        public void ready() {
+            send(INS_INIT, 0x00, 0x00, null);
+            set(hostY);
+        }
+    }
+
+    @Benchmark
+    public byte[] initFresh(Card card) {
+        return card.send(INS_INIT, 0x00, 0x00, null);
+    }
+
+    @Benchmark
+    public byte[] initPooled(Refilled card) {
+        return card.send(INS_INIT, 0x00, 0x00, null);
+    }
+
+    @Benchmark
+    public byte[] initWithKey(Card card) {
+        return card.send(INS_INIT, P1_INIT_WITH_PRIVKEY, 0x00, card.privateKey);
+    }
+
+    @Benchmark
+    public byte[] getY(Card card) {
+        return card.get(P1_Y);
+    }
+
+    @Benchmark
+    public byte[] setY(Card card) {
+        return card.set(card.hostY);
+    }
+
+    @Benchmark
+    public byte[] doFinal(Ready card) {
+        return card.send(INS_FINAL, 0x00, 0x00, null);
+    }
+
+    @Benchmark
+    public byte[] test(Card card) {
+        return card.send(INS_TEST, 0x00, 0x00, null, TAG_LENGTH);
+    }
+
+    private static int groupOf(int bits) {
+        switch (bits) {
+            case 2048:
+                return 0x0E;
+            case 3072:
+                return 0x0F;
+            case 4096:
+                return 0x10;
+            default:
+                throw new IllegalArgumentException(bits + " bits");
+        }
+    }
+
+    private static byte[] fixed(BigInteger value, int length) {
+        byte[] raw = value.toByteArray();
+        byte[] out = new byte[length];
+        int copy = Math.min(raw.length, length);
+        System.arraycopy(raw, raw.length - copy, out, length - copy, copy);
+        return out;
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times the host side modexps of a handshake with tools/ModExp.java and
+ * with BigInteger.modPow, as DHClient does them, for 2048, 3072 and 4096 bit
+ * moduli and 320 bit exponents: G^x with G=2 generating the host key, Y^x
+ * agreeing on S with the card's Y, and both together.
+ *
+ * ModExp is a single file tool in the default package, which a named
+ * package cannot import, so the engine is bound through method handles.
+ * Their calls cost nanoseconds against the modexps' hundreds of
+ * microseconds.
+ *
+ * @author Thotheolh
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class ModExpBenchmark {
+
+    static final int EXP_LENGTH = 40;
+    static final int KEYS = 64;
+
+    @Param({"2048", "3072", "4096"})
+    int bits;
+
+    private BigInteger p;
+    private final BigInteger g = BigInteger.valueOf(2);
+    private BigInteger[] exps;
+    private BigInteger[] peers;
+    private byte[][] expBytes;
+    private byte[][] peerBytes;
+    private byte[] out;
+    private int next;
+
+    private MethodHandle init;
+    private MethodHandle setY;
+    private MethodHandle doFinal;
+
+    @Setup
+    public void setup() throws Throwable {
+        int length = bits / 8;
+        Random random = new Random(bits);
+        p = new BigInteger(bits, random).setBit(bits - 1).setBit(0);
+        exps = new BigInteger[KEYS];
+        peers = new BigInteger[KEYS];
+        expBytes = new byte[KEYS][];
+        peerBytes = new byte[KEYS][];
+        for (int i = 0; i < KEYS; i++) {
+            exps[i] = new BigInteger(EXP_LENGTH * 8, random).setBit(EXP_LENGTH * 8 - 1);
+            peers[i] = new BigInteger(bits, random).mod(p);
+            expBytes[i] = fixed(exps[i], length);
+            peerBytes[i] = fixed(peers[i], length);
+        }
+        out = new byte[length];
+
+        Class<?> type = Class.forName("ModExp");
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        Object engine = type.getConstructor(int.class).newInstance(length);
+        MethodType part = MethodType.methodType(void.class, byte[].class, int.class, int.class, int.class);
+        MethodType value = MethodType.methodType(void.class, byte[].class, int.class);
+        lookup.findVirtual(type, "setExpLength", MethodType.methodType(void.class, int.class))
+                .invoke(engine, EXP_LENGTH);
+        lookup.findVirtual(type, "setP", part).invoke(engine, fixed(p, length), 0, length, 0);
+        init = lookup.findVirtual(type, "init", value).bindTo(engine);
+        setY = lookup.findVirtual(type, "setY", part).bindTo(engine);
+        doFinal = lookup.findVirtual(type, "doFinal", value).bindTo(engine);
+
+        // Check the engine once against modPow
+        init.invokeExact(expBytes[0], 0);
+        lookup.findVirtual(type, "getY", value).invoke(engine, out, 0);
+        check(g.modPow(exps[0], p), "G^x");
+        setY.invokeExact(peerBytes[0], 0, length, 0);
+        doFinal.invokeExact(out, 0);
+        check(peers[0].modPow(exps[0], p), "Y^x");
+    }
+
+    @Benchmark
+    public byte[] generatorModExp() throws Throwable {
+        int i = next;
+        next = (i + 1) & (KEYS - 1);
+        init.invokeExact(expBytes[i], 0);
+        return out;
+    }
+
+    @Benchmark
+    public BigInteger generatorModPow() {
+        int i = next;
+        next = (i + 1) & (KEYS - 1);
+        return g.modPow(exps[i], p);
+    }
+
+    @Benchmark
+    public byte[] peerModExp() throws Throwable {
+        int i = next;
+        next = (i + 1) & (KEYS - 1);
+        setY.invokeExact(peerBytes[i], 0, out.length, 0);
+        doFinal.invokeExact(out, 0);
+        return out;
+    }
+
+    @Benchmark
+    public BigInteger peerModPow() {
+        int i = next;
+        next = (i + 1) & (KEYS - 1);
+        return peers[i].modPow(exps[i], p);
+    }
+
+    @Benchmark
+    public byte[] handshakeModExp() throws Throwable {
+        generatorModExp();
+        return peerModExp();
+    }
+
+    @Benchmark
+    public BigInteger handshakeModPow() {
+        generatorModPow();
+        return peerModPow();
+    }
+
+    private void check(BigInteger expected, String what) {
+        if (!new BigInteger(1, out).equals(expected)) {
+            throw new IllegalStateException(what + " differs from BigInteger.modPow at " + bits + " bits");
+        }
+    }
+
+    private static byte[] fixed(BigInteger value, int length) {
+        byte[] bytes = value.toByteArray();
+        byte[] out = new byte[length];
+        int copy = Math.min(bytes.length, length);
+        System.arraycopy(bytes, bytes.length - copy, out, length - copy, copy);
+        return out;
+    }
+}
@@ -0,0 +1,260 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet.sim;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import javacard.framework.APDU;
+import javacard.framework.APDUException;
+import javacard.framework.ISO7816;
+
+/**
+ * The APDU buffer of a simulated card and the state of the command being
+ * processed in it, as the javacard.framework.APDU methods see it.
+ *
+ * The card speaks T=1. A command is parsed as a short or an extended length
+ * APDU of ISO 7816-4 case 1 to 4. The buffer initially holds the header with
+ * Lc, or Le for case 2, and the command data is received into it in as
+ * large blocks as fit. The rest of the buffer keeps whatever the previous
+ * command left there, as on a card. setOutgoing() returns Le, where an
+ * absent Le counts as the largest the APDU form allows, and any outgoing
+ * length up to 256 bytes, or 32767 for an extended command, may be sent.
+ *
+ * @author Thotheolh
+ */
+public final class CardApdu {
+
+    public static final short BLOCK_SIZE = 254;
+    static final int MIN_BUFFER = 133;
+
+    private final byte[] buffer;
+    private final APDU apdu;
+    private final ByteArrayOutputStream response = new ByteArrayOutputStream();
+    private byte[] command;
+    private boolean extended;
+    private int nc;
+    private int ne;
+    private short cdataOffset;
+    private int dataStart;
+    private int received;
+    private byte state;
+    private int outgoingLength;
+    private int sent;
+
+    CardApdu(int bufferSize) {
+        if (bufferSize < MIN_BUFFER || bufferSize > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("APDU buffer of " + bufferSize + " bytes");
+        }
+        buffer = new byte[bufferSize];
+        apdu = new APDU(this);
+    }
+
+    /**
+     * Parses a command into the buffer.
+     *
+     * @param command
+     * @param extendedAllowed whether the applet implements ExtendedLength
+     * @return 0 or the status word the runtime rejects the command with
+     */
+    short load(byte[] command, boolean extendedAllowed) {
+        int length = command.length;
+        if (length < 4) {
+            return ISO7816.SW_WRONG_LENGTH;
+        }
+        extended = false;
+        nc = 0;
+        ne = 0;
+        if (length == 5) {
+            ne = command[4] == 0 ? 256 : command[4] & 0xFF;
+        } else if (length > 5 && command[4] != 0) {
+            nc = command[4] & 0xFF;
+            if (length == 6 + nc) {
+                ne = command[length - 1] == 0 ? 256 : command[length - 1] & 0xFF;
+            } else if (length != 5 + nc) {
+                return ISO7816.SW_WRONG_LENGTH;
+            }
+        } else if (length > 5) {
+            if (length < 7) {
+                return ISO7816.SW_WRONG_LENGTH;
+            }
+            extended = true;
+            int value = ((command[5] & 0xFF) << 8) | (command[6] & 0xFF);
+            if (length == 7) {
+                ne = value == 0 ? 65536 : value;
+            } else {
+                nc = value;
+                if (nc == 0) {
+                    return ISO7816.SW_WRONG_LENGTH;
+                }
+                if (length == 9 + nc) {
+                    int le = ((command[length - 2] & 0xFF) << 8) | (command[length - 1] & 0xFF);
+                    ne = le == 0 ? 65536 : le;
+                } else if (length != 7 + nc) {
+                    return ISO7816.SW_WRONG_LENGTH;
+                }
+            }
+            if (!extendedAllowed) {
+                return ISO7816.SW_WRONG_LENGTH;
+            }
+        }
+        this.command = command;
+        cdataOffset = extended ? ISO7816.OFFSET_EXT_CDATA : ISO7816.OFFSET_CDATA;
+        dataStart = cdataOffset;
+        System.arraycopy(command, 0, buffer, 0, Math.min(length, cdataOffset));
+        if (length == 4) {
+            buffer[ISO7816.OFFSET_LC] = 0;
+        }
+        received = 0;
+        state = APDU.STATE_INITIAL;
+        outgoingLength = 0;
+        sent = 0;
+        response.reset();
+        return 0;
+    }
+
+    /**
+     * @param sw status word the command ended with
+     * @return the response data followed by the status word, where only
+     * success and warnings keep the data
+     */
+    byte[] response(short sw) {
+        int high = (sw >> 8) & 0xFF;
+        byte[] data = high == 0x90 || high == 0x61 || high == 0x62 || high == 0x63
+                ? response.toByteArray() : new byte[0];
+        byte[] out = Arrays.copyOf(data, data.length + 2);
+        out[data.length] = (byte) (sw >> 8);
+        out[data.length + 1] = (byte) sw;
+        command = null;
+        return out;
+    }
+
+    APDU getApdu() {
+        return apdu;
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public byte getCurrentState() {
+        return state;
+    }
+
+    public short getIncomingLength() {
+        checkReceiving();
+        return (short) nc;
+    }
+
+    public short getOffsetCdata() {
+        checkReceiving();
+        return cdataOffset;
+    }
+
+    public short setIncomingAndReceive() {
+        if (state != APDU.STATE_INITIAL) {
+            APDUException.throwIt(APDUException.ILLEGAL_USE);
+        }
+        state = APDU.STATE_PARTIAL_INCOMING;
+        return receive(cdataOffset);
+    }
+
+    public short receiveBytes(short bOff) {
+        if (state != APDU.STATE_PARTIAL_INCOMING && state != APDU.STATE_FULL_INCOMING) {
+            APDUException.throwIt(APDUException.ILLEGAL_USE);
+        }
+        return receive(bOff);
+    }
+
+    private short receive(short bOff) {
+        if (bOff < 0 || bOff > buffer.length) {
+            APDUException.throwIt(APDUException.BUFFER_BOUNDS);
+        }
+        int count = Math.min(nc - received, buffer.length - bOff);
+        if (count == 0 && received < nc) {
+            APDUException.throwIt(APDUException.BUFFER_BOUNDS);
+        }
+        if (count > 0) {
+            System.arraycopy(command, dataStart + received, buffer, bOff, count);
+            received += count;
+        }
+        if (received == nc) {
+            state = APDU.STATE_FULL_INCOMING;
+        }
+        return (short) count;
+    }
+
+    public short setOutgoing() {
+        if (state >= APDU.STATE_OUTGOING || state < 0) {
+            APDUException.throwIt(APDUException.ILLEGAL_USE);
+        }
+        state = APDU.STATE_OUTGOING;
+        int le = ne != 0 ? ne : extended ? 65536 : 256;
+        return (short) Math.min(le, Short.MAX_VALUE);
+    }
+
+    public void setOutgoingLength(short len) {
+        if (state != APDU.STATE_OUTGOING) {
+            APDUException.throwIt(APDUException.ILLEGAL_USE);
+        }
+        if (len < 0 || (!extended && len > 256)) {
+            APDUException.throwIt(APDUException.BAD_LENGTH);
+        }
+        outgoingLength = len;
+        state = len == 0 ? APDU.STATE_FULL_OUTGOING : APDU.STATE_OUTGOING_LENGTH_KNOWN;
+    }
+
+    public void sendBytes(short bOff, short len) {
+        sendBytesLong(buffer, bOff, len);
+    }
+
+    public void sendBytesLong(byte[] outData, short bOff, short len) {
+        if (state != APDU.STATE_OUTGOING_LENGTH_KNOWN && state != APDU.STATE_PARTIAL_OUTGOING
+                && !(state == APDU.STATE_FULL_OUTGOING && len == 0)) {
+            APDUException.throwIt(APDUException.ILLEGAL_USE);
+        }
+        if (len < 0 || bOff < 0 || bOff + len > outData.length) {
+            APDUException.throwIt(APDUException.BUFFER_BOUNDS);
+        }
+        if (sent + len > outgoingLength) {
+            APDUException.throwIt(APDUException.ILLEGAL_USE);
+        }
+        response.write(outData, bOff, len);
+        sent += len;
+        state = sent == outgoingLength ? APDU.STATE_FULL_OUTGOING : APDU.STATE_PARTIAL_OUTGOING;
+    }
+
+    private void checkReceiving() {
+        if (state == APDU.STATE_INITIAL) {
+            APDUException.throwIt(APDUException.ILLEGAL_USE);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet.sim;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Loads the classes of the dhapplet package anew for each simulated card so
+ * that their static fields, which live in the card's persistent memory, are
+ * not shared between cards. Everything else, the Java Card API included,
+ * comes from the parent loader.
+ *
+ * The classes are rewritten to report each object and array they create to
+ * the card, which charges it to the persistent memory as a card's new does.
+ * Static initializers are left alone, as their arrays are part of the
+ * package's static image that is stored when the package is loaded.
+ *
+ * @author Thotheolh
+ */
+final class CardClassLoader extends ClassLoader {
+
+    private static final String PACKAGE = "dhapplet.";
+    private static final String HOOKS = Type.getInternalName(Simulator.class);
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    CardClassLoader(ClassLoader parent) {
+        super(parent);
+    }
+
+    /**
+     * @param name binary class name
+     * @return whether the class belongs to the applet's package, not to one
+     * of its subpackages
+     */
+    static boolean isCardClass(String name) {
+        return name.startsWith(PACKAGE) && name.indexOf('.', PACKAGE.length()) < 0;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (!isCardClass(name)) {
+            return super.loadClass(name, resolve);
+        }
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> loaded = findLoadedClass(name);
+            if (loaded == null) {
+                byte[] code = instrument(read(name));
+                loaded = defineClass(name, code, 0, code.length);
+            }
+            if (resolve) {
+                resolveClass(loaded);
+            }
+            return loaded;
+        }
+    }
+
+    /**
+     * @param code class file of a card class
+     * @return the class file with Simulator.newObject() called before each
+     * NEW and Simulator.newArray() after each array creation
+     */
+    static byte[] instrument(byte[] code) {
+        ClassReader reader = new ClassReader(code);
+        ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+        reader.accept(new ClassVisitor(Opcodes.ASM9, writer) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature,
+                    String[] exceptions) {
+                MethodVisitor method = super.visitMethod(access, name, descriptor, signature, exceptions);
+                return name.equals("<clinit>") ? method : new AllocationVisitor(method);
+            }
+        }, 0);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Adds the allocation hooks to one method. The hooks leave the operand
+     * stack as it was, so the method's stack map frames still hold.
+     */
+    private static final class AllocationVisitor extends MethodVisitor {
+
+        AllocationVisitor(MethodVisitor method) {
+            super(Opcodes.ASM9, method);
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type) {
+            if (opcode == Opcodes.NEW) {
+                super.visitLdcInsn(Type.getObjectType(type));
+                super.visitMethodInsn(Opcodes.INVOKESTATIC, HOOKS, "newObject", "(Ljava/lang/Class;)V", false);
+            }
+            super.visitTypeInsn(opcode, type);
+            if (opcode == Opcodes.ANEWARRAY) {
+                newArray();
+            }
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand) {
+            super.visitIntInsn(opcode, operand);
+            if (opcode == Opcodes.NEWARRAY) {
+                newArray();
+            }
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String descriptor, int numDimensions) {
+            super.visitMultiANewArrayInsn(descriptor, numDimensions);
+            newArray();
+        }
+
+        private void newArray() {
+            super.visitInsn(Opcodes.DUP);
+            super.visitMethodInsn(Opcodes.INVOKESTATIC, HOOKS, "newArray", "(Ljava/lang/Object;)V", false);
+        }
+    }
+
+    private byte[] read(String name) throws ClassNotFoundException {
+        try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+            if (in == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+    }
+}
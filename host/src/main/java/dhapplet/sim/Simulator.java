@@ -0,0 +1,837 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet.sim;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javacard.framework.AID;
+import javacard.framework.APDU;
+import javacard.framework.Applet;
+import javacard.framework.CardRuntimeException;
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import javacard.framework.MultiSelectable;
+import javacard.framework.Shareable;
+import javacard.framework.SystemException;
+import javacard.framework.TransactionException;
+import javacard.security.Key;
+import javacardx.apdu.ExtendedLength;
+
+/**
+ * A Java Card 3.0.5 runtime on the JVM, enough of it to install DHApplet
+ * from its sources and send it APDUs as a reader would.
+ *
+ * Each Simulator is one card. It loads the classes of the dhapplet package
+ * with its own class loader, so cards do not share the applet's static
+ * fields, and runs the applet's code with itself as the current card of the
+ * thread, which the javacard.* classes of this module answer to. The card
+ * has four logical channels opened and closed with MANAGE CHANNEL, selects
+ * applets by their full AID and keeps one APDU buffer. The crypto classes
+ * run on the JDK's providers and BigInteger.
+ *
+ * Persistent and transient memory are capacities that the runtime's own
+ * objects, the transient arrays, the keys and the objects and arrays the
+ * applet creates with new draw from, which is what
+ * JCSystem.getAvailableMemory() reports. A reset clears the transient
+ * memory and selects nothing, CLEAR_ON_DESELECT memory is also cleared when
+ * its applet is no longer selected on any channel.
+ *
+ * What the simulator leaves out: transactions have a depth but no journal,
+ * so an abort or a reset in a transaction does not roll back; a new logical
+ * channel starts without a selected applet; and there is no firewall beyond
+ * the context switch of shareable interface calls.
+ *
+ * The public methods from install() to getLastException() are for the host.
+ * The others are the runtime services behind the javacard.* classes and
+ * only work while the card runs an applet.
+ *
+ * @author Thotheolh
+ */
+public class Simulator {
+
+    public static final int DEFAULT_BUFFER = 261;
+    public static final int DEFAULT_PERSISTENT = 128 * 1024;
+    public static final int DEFAULT_TRANSIENT = 8 * 1024;
+    public static final short COMMIT_CAPACITY = 512;
+
+    /**
+     * Persistent bytes taken by the header of each object on the card.
+     */
+    public static final int OBJECT_HEADER = 8;
+
+    static final byte CHANNELS = 4;
+    private static final byte INS_MANAGE_CHANNEL = 0x70;
+    private static final byte P1_SELECT_BY_NAME = 0x04;
+    private static final byte P1_CLOSE = (byte) 0x80;
+    private static final ThreadLocal<Simulator> CURRENT = new ThreadLocal<>();
+
+    // Bytes taken by the instance fields of a class and its superclasses
+    private static final ClassValue<Integer> FIELD_BYTES = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            int bytes = 0;
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers())) {
+                        bytes += size(field.getType());
+                    }
+                }
+            }
+            return bytes;
+        }
+    };
+
+    private final CardClassLoader loader;
+    private final CardApdu apdu;
+    private final int persistentCapacity;
+    private final int transientCapacity;
+    private final List<Instance> instances = new ArrayList<>();
+    private final Instance[] selected = new Instance[CHANNELS];
+    private final boolean[] open = new boolean[CHANNELS];
+    private final Map<Object, Byte> transients = new IdentityHashMap<>();
+    private final List<Object> resetObjects = new ArrayList<>();
+    private SecureRandom random = new SecureRandom();
+    private boolean nativeDh;
+    private int persistentUsed;
+    private int transientUsed;
+    private long allocations;
+    private RuntimeException lastException;
+
+    // The applet context the card runs in and the one that called into it
+    private Instance context;
+    private Instance previous;
+    private byte channel;
+    private Instance installing;
+    private boolean selecting;
+    private boolean reselecting;
+    private byte transactionDepth;
+
+    /**
+     * Creates a card with a 261 byte APDU buffer, 128K of persistent and 8K of
+     * transient memory.
+     */
+    public Simulator() {
+        this(DEFAULT_BUFFER, DEFAULT_PERSISTENT, DEFAULT_TRANSIENT);
+    }
+
+    /**
+     * @param bufferSize of the APDU buffer, at least 133
+     * @param persistentMemory in bytes
+     * @param transientMemory in bytes, shared by CLEAR_ON_RESET and
+     * CLEAR_ON_DESELECT
+     */
+    public Simulator(int bufferSize, int persistentMemory, int transientMemory) {
+        loader = new CardClassLoader(Simulator.class.getClassLoader());
+        apdu = new CardApdu(bufferSize);
+        persistentCapacity = persistentMemory;
+        transientCapacity = transientMemory;
+        open[0] = true;
+    }
+
+    /**
+     * Makes the card's random numbers repeat for the seed.
+     *
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        try {
+            random = SecureRandom.getInstance("SHA1PRNG");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        random.setSeed(seed);
+    }
+
+    /**
+     * Sets whether the card offers KeyAgreement.ALG_DH_PLAIN and DH private
+     * keys, which most cards do not. Without them DHApplet does its modexps
+     * with RSA. Affects applets installed afterwards.
+     *
+     * @param supported
+     */
+    public void setNativeDh(boolean supported) {
+        nativeDh = supported;
+    }
+
+    /**
+     * Installs an applet the way the card manager does, with install
+     * parameters laid out as [Li AID Lc control La parameters] where the
+     * control information is empty.
+     *
+     * @param className of the applet, from the dhapplet package
+     * @param aid instance AID
+     * @param parameters applet install parameters
+     * @return AID the applet registered with
+     * @throws CardRuntimeException thrown by the applet's install method
+     */
+    public synchronized AID install(String className, byte[] aid, byte[] parameters) {
+        byte[] bArray = new byte[aid.length + parameters.length + 3];
+        bArray[0] = (byte) aid.length;
+        System.arraycopy(aid, 0, bArray, 1, aid.length);
+        bArray[aid.length + 2] = (byte) parameters.length;
+        System.arraycopy(parameters, 0, bArray, aid.length + 3, parameters.length);
+        Method install;
+        try {
+            install = loader.loadClass(className).getMethod("install", byte[].class, short.class, byte.class);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("no applet " + className, e);
+        }
+
+        Instance instance = new Instance(new AID(aid, (short) 0, (byte) aid.length));
+        Simulator outer = enter();
+        Instance caller = context;
+        installing = instance;
+        context = instance;
+        channel = 0;
+        try {
+            install.invoke(null, bArray, (short) 0, (byte) bArray.length);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException(className, e);
+        } finally {
+            installing = null;
+            context = caller;
+            transactionDepth = 0;
+            leave(outer);
+        }
+        if (instance.applet == null) {
+            throw new IllegalStateException(className + " did not register");
+        }
+        instances.add(instance);
+        return instance.aid;
+    }
+
+    /**
+     * Sends a command APDU to the card.
+     *
+     * @param command
+     * @return response data followed by the status word
+     */
+    public synchronized byte[] transmit(byte[] command) {
+        Simulator outer = enter();
+        try {
+            return dispatch(command);
+        } finally {
+            leave(outer);
+        }
+    }
+
+    /**
+     * Selects an applet on the basic channel.
+     *
+     * @param aid
+     * @return the SELECT response
+     */
+    public byte[] select(byte[] aid) {
+        byte[] command = new byte[aid.length + 5];
+        command[ISO7816.OFFSET_INS] = ISO7816.INS_SELECT;
+        command[ISO7816.OFFSET_P1] = P1_SELECT_BY_NAME;
+        command[ISO7816.OFFSET_LC] = (byte) aid.length;
+        System.arraycopy(aid, 0, command, 5, aid.length);
+        return transmit(command);
+    }
+
+    /**
+     * Resets the card: transient memory is cleared, no applet is selected and
+     * only the basic channel is open. The applets are not told.
+     */
+    public synchronized void reset() {
+        for (Object object : resetObjects) {
+            clear(object);
+        }
+        for (Instance instance : instances) {
+            for (Object object : instance.deselectObjects) {
+                clear(object);
+            }
+        }
+        Arrays.fill(selected, null);
+        Arrays.fill(open, false);
+        open[0] = true;
+        transactionDepth = 0;
+    }
+
+    /**
+     * @return persistent bytes not allocated yet
+     */
+    public synchronized int getAvailablePersistent() {
+        return persistentCapacity - persistentUsed;
+    }
+
+    /**
+     * @return transient bytes not allocated yet
+     */
+    public synchronized int getAvailableTransient() {
+        return transientCapacity - transientUsed;
+    }
+
+    /**
+     * @return number of objects allocated on the card since it was created:
+     * the runtime's objects, transient arrays, keys and what the applets
+     * created with new
+     */
+    public synchronized long getAllocations() {
+        return allocations;
+    }
+
+    /**
+     * @return the exception other than ISOException that ended the last
+     * command with 6F00, or null
+     */
+    public synchronized RuntimeException getLastException() {
+        return lastException;
+    }
+
+    /**
+     * @return the card whose applet the calling thread runs
+     * @throws IllegalStateException outside of the simulator
+     */
+    public static Simulator current() {
+        Simulator card = CURRENT.get();
+        if (card == null) {
+            throw new IllegalStateException("Java Card API used outside of a simulated card");
+        }
+        return card;
+    }
+
+    public void register(Applet applet, AID aid) {
+        if (installing == null || installing.applet != null) {
+            SystemException.throwIt(SystemException.ILLEGAL_AID);
+        }
+        AID registered = aid != null ? aid : installing.aid;
+        for (Instance instance : instances) {
+            if (instance.aid.equals(registered)) {
+                SystemException.throwIt(SystemException.ILLEGAL_AID);
+            }
+        }
+        installing.aid = registered;
+        installing.applet = applet;
+    }
+
+    public boolean isSelecting(Applet applet) {
+        return selecting && context != null && context.applet == applet;
+    }
+
+    public boolean isReselecting(Applet applet) {
+        return reselecting && isSelecting(applet);
+    }
+
+    public APDU getCurrentAPDU() {
+        if (context == null || context.applet == null) {
+            throw new SecurityException();
+        }
+        return apdu.getApdu();
+    }
+
+    /**
+     * Charges a transient object to the transient memory, with its header in
+     * persistent memory, and registers it to be cleared on the event.
+     *
+     * @param object array or key
+     * @param bytes it takes
+     * @param event CLEAR_ON_RESET or CLEAR_ON_DESELECT
+     * @return the object
+     * @throws SystemException ILLEGAL_VALUE for any other event,
+     * NO_TRANSIENT_SPACE if the memory is used up
+     */
+    public <T> T makeTransient(T object, int bytes, byte event) {
+        if (event != JCSystem.CLEAR_ON_RESET && event != JCSystem.CLEAR_ON_DESELECT) {
+            SystemException.throwIt(SystemException.ILLEGAL_VALUE);
+        }
+        if (event == JCSystem.CLEAR_ON_DESELECT && context == null) {
+            SystemException.throwIt(SystemException.ILLEGAL_TRANSIENT);
+        }
+        if (bytes > transientCapacity - transientUsed) {
+            SystemException.throwIt(SystemException.NO_TRANSIENT_SPACE);
+        }
+        allocate(0);
+        transientUsed += bytes;
+        transients.put(object, event);
+        if (event == JCSystem.CLEAR_ON_RESET) {
+            resetObjects.add(object);
+        } else {
+            context.deselectObjects.add(object);
+        }
+        return object;
+    }
+
+    /**
+     * Charges an object of the runtime to the persistent memory.
+     *
+     * @param bytes besides the object header
+     * @throws SystemException NO_RESOURCE if the memory is used up
+     */
+    public void allocate(int bytes) {
+        if (OBJECT_HEADER + bytes > persistentCapacity - persistentUsed) {
+            SystemException.throwIt(SystemException.NO_RESOURCE);
+        }
+        persistentUsed += OBJECT_HEADER + bytes;
+        allocations++;
+    }
+
+    /**
+     * Charges an object the applet creates with new to the persistent
+     * memory: its header and its fields, with a reference taking two bytes.
+     * The applet's classes call this before each new.
+     *
+     * @param type
+     * @throws SystemException NO_RESOURCE if the memory is used up
+     */
+    public static void newObject(Class<?> type) {
+        current().allocate(FIELD_BYTES.get(type));
+    }
+
+    /**
+     * Charges an array the applet creates to the persistent memory, an array
+     * of arrays together with the arrays it holds. The applet's classes call
+     * this after each array creation.
+     *
+     * @param array
+     * @throws SystemException NO_RESOURCE if the memory is used up
+     */
+    public static void newArray(Object array) {
+        current().allocate(arrayBytes(array) - OBJECT_HEADER);
+    }
+
+    private static int arrayBytes(Object array) {
+        int length = Array.getLength(array);
+        Class<?> component = array.getClass().getComponentType();
+        int bytes = OBJECT_HEADER + length * size(component);
+        if (component.isArray()) {
+            for (int i = 0; i < length; i++) {
+                Object element = Array.get(array, i);
+                if (element != null) {
+                    bytes += arrayBytes(element);
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @param type of a field or array element
+     * @return bytes it takes on the card
+     */
+    private static int size(Class<?> type) {
+        if (type == boolean.class || type == byte.class) {
+            return 1;
+        }
+        if (type == short.class || type == char.class) {
+            return 2;
+        }
+        if (type == int.class || type == float.class) {
+            return 4;
+        }
+        if (type == long.class || type == double.class) {
+            return 8;
+        }
+        return 2;
+    }
+
+    public byte isTransient(Object object) {
+        return transients.getOrDefault(object, JCSystem.NOT_A_TRANSIENT_OBJECT);
+    }
+
+    public int getAvailableMemory(byte memoryType) {
+        switch (memoryType) {
+            case JCSystem.MEMORY_TYPE_PERSISTENT:
+                return persistentCapacity - persistentUsed;
+            case JCSystem.MEMORY_TYPE_TRANSIENT_RESET:
+            case JCSystem.MEMORY_TYPE_TRANSIENT_DESELECT:
+                return transientCapacity - transientUsed;
+            default:
+                SystemException.throwIt(SystemException.ILLEGAL_VALUE);
+                return 0;
+        }
+    }
+
+    public AID getAID() {
+        return context != null ? context.aid : null;
+    }
+
+    public AID lookupAID(byte[] buffer, short offset, byte length) {
+        for (Instance instance : instances) {
+            if (instance.aid.equals(buffer, offset, length)) {
+                return instance.aid;
+            }
+        }
+        return null;
+    }
+
+    public AID getPreviousContextAID() {
+        return previous != null ? previous.aid : null;
+    }
+
+    public byte getAssignedChannel() {
+        return channel;
+    }
+
+    public boolean isAppletActive(AID aid) {
+        for (Instance instance : selected) {
+            if (instance != null && instance.aid.equals(aid)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void beginTransaction() {
+        if (transactionDepth != 0) {
+            TransactionException.throwIt(TransactionException.IN_PROGRESS);
+        }
+        transactionDepth = 1;
+    }
+
+    public void commitTransaction() {
+        if (transactionDepth == 0) {
+            TransactionException.throwIt(TransactionException.NOT_IN_PROGRESS);
+        }
+        transactionDepth = 0;
+    }
+
+    public void abortTransaction() {
+        commitTransaction();
+    }
+
+    public byte getTransactionDepth() {
+        return transactionDepth;
+    }
+
+    /**
+     * @return the random source of the card's crypto
+     */
+    public SecureRandom getRandom() {
+        return random;
+    }
+
+    public boolean isNativeDh() {
+        return nativeDh;
+    }
+
+    /**
+     * Asks the server applet for its shareable interface object on behalf
+     * of the current applet. The object is handed out behind a proxy that
+     * runs each call in the server's context, so the server sees the caller
+     * as the previous context.
+     *
+     * @param serverAID
+     * @param parameter
+     * @return the proxy or null
+     */
+    public Shareable getAppletShareableInterfaceObject(AID serverAID, byte parameter) {
+        Instance server = find(serverAID);
+        if (server == null) {
+            return null;
+        }
+        Instance client = context;
+        Shareable object = (Shareable) call(server, client, () ->
+                server.applet.getShareableInterfaceObject(client != null ? client.aid : null, parameter));
+        if (object == null) {
+            return null;
+        }
+        Set<Class<?>> shared = new LinkedHashSet<>();
+        for (Class<?> type = object.getClass(); type != null; type = type.getSuperclass()) {
+            for (Class<?> face : type.getInterfaces()) {
+                if (Shareable.class.isAssignableFrom(face)) {
+                    shared.add(face);
+                }
+            }
+        }
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(object, args);
+            }
+            Instance caller = context;
+            return call(server, caller, () -> {
+                try {
+                    return method.invoke(object, args);
+                } catch (InvocationTargetException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IllegalStateException(e.getCause());
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        };
+        return (Shareable) Proxy.newProxyInstance(object.getClass().getClassLoader(),
+                shared.toArray(new Class<?>[0]), handler);
+    }
+
+    private Instance find(AID aid) {
+        for (Instance instance : instances) {
+            if (instance.aid.equals(aid)) {
+                return instance;
+            }
+        }
+        return null;
+    }
+
+    private Object call(Instance callee, Instance caller, java.util.function.Supplier<Object> body) {
+        Instance savedContext = context;
+        Instance savedPrevious = previous;
+        context = callee;
+        previous = caller;
+        try {
+            return body.get();
+        } finally {
+            context = savedContext;
+            previous = savedPrevious;
+        }
+    }
+
+    private byte[] dispatch(byte[] command) {
+        if (command.length < 4) {
+            return status(ISO7816.SW_WRONG_LENGTH);
+        }
+        byte cla = command[ISO7816.OFFSET_CLA];
+        byte ins = command[ISO7816.OFFSET_INS];
+        int number = (cla & 0x40) == 0 ? cla & 0x03 : (cla & 0x0F) + 4;
+        if (number >= CHANNELS || !open[number]) {
+            return status(ISO7816.SW_LOGICAL_CHANNEL_NOT_SUPPORTED);
+        }
+        byte target = (byte) number;
+        boolean interindustry = (cla & 0x80) == 0;
+        if (interindustry && ins == INS_MANAGE_CHANNEL) {
+            return manageChannel(target, command);
+        }
+        if (interindustry && ins == ISO7816.INS_SELECT && command[ISO7816.OFFSET_P1] == P1_SELECT_BY_NAME
+                && command.length > 5 && command[ISO7816.OFFSET_LC] != 0
+                && command.length >= 5 + (command[ISO7816.OFFSET_LC] & 0xFF)) {
+            for (Instance instance : instances) {
+                if (instance.aid.equals(command, ISO7816.OFFSET_CDATA, command[ISO7816.OFFSET_LC])) {
+                    return select(target, instance, command);
+                }
+            }
+            if (selected[target] == null) {
+                return status(ISO7816.SW_FILE_NOT_FOUND);
+            }
+        }
+        if (selected[target] == null) {
+            return status(ISO7816.SW_COMMAND_NOT_ALLOWED);
+        }
+        return process(target, selected[target], command, false, false);
+    }
+
+    private byte[] select(byte target, Instance instance, byte[] command) {
+        boolean again = selected[target] == instance;
+        if (selected[target] != null && !again) {
+            deselect(target);
+        }
+        boolean active = again || isAppletActive(instance.aid);
+        boolean multi = instance.applet instanceof MultiSelectable;
+        if (active && !again && !multi) {
+            return status(ISO7816.SW_CONDITIONS_NOT_SATISFIED);
+        }
+        selected[target] = null;
+        boolean accepted;
+        Instance savedContext = context;
+        context = instance;
+        channel = target;
+        try {
+            accepted = multi ? ((MultiSelectable) instance.applet).select(active) : instance.applet.select();
+        } catch (RuntimeException e) {
+            accepted = false;
+        } finally {
+            context = savedContext;
+        }
+        if (!accepted) {
+            if (!isAppletActive(instance.aid)) {
+                clearDeselect(instance);
+            }
+            return status(ISO7816.SW_APPLET_SELECT_FAILED);
+        }
+        selected[target] = instance;
+        return process(target, instance, command, true, again);
+    }
+
+    private void deselect(byte target) {
+        Instance instance = selected[target];
+        selected[target] = null;
+        boolean stillActive = isAppletActive(instance.aid);
+        Instance savedContext = context;
+        context = instance;
+        channel = target;
+        try {
+            if (instance.applet instanceof MultiSelectable) {
+                ((MultiSelectable) instance.applet).deselect(stillActive);
+            } else {
+                instance.applet.deselect();
+            }
+        } catch (RuntimeException e) {
+            // The card ignores exceptions of deselect
+        } finally {
+            context = savedContext;
+            transactionDepth = 0;
+        }
+        if (!stillActive) {
+            clearDeselect(instance);
+        }
+    }
+
+    private byte[] manageChannel(byte origin, byte[] command) {
+        byte p1 = command[ISO7816.OFFSET_P1];
+        byte p2 = command[ISO7816.OFFSET_P2];
+        if (p1 == P1_CLOSE) {
+            byte target = p2 != 0 ? p2 : origin;
+            if (target == 0 || target >= CHANNELS || !open[target]) {
+                return status(ISO7816.SW_INCORRECT_P1P2);
+            }
+            if (selected[target] != null) {
+                deselect(target);
+            }
+            open[target] = false;
+            return status(ISO7816.SW_NO_ERROR);
+        }
+        if (p1 != 0) {
+            return status(ISO7816.SW_INCORRECT_P1P2);
+        }
+        byte target = p2;
+        if (target == 0) {
+            for (byte i = 1; i < CHANNELS && target == 0; i++) {
+                if (!open[i]) {
+                    target = i;
+                }
+            }
+            if (target == 0) {
+                return status(ISO7816.SW_FUNC_NOT_SUPPORTED);
+            }
+        } else if (target >= CHANNELS || open[target]) {
+            return status(ISO7816.SW_INCORRECT_P1P2);
+        }
+        open[target] = true;
+        return p2 == 0 ? new byte[] {target, (byte) 0x90, 0x00} : status(ISO7816.SW_NO_ERROR);
+    }
+
+    private byte[] process(byte target, Instance instance, byte[] command, boolean selection, boolean again) {
+        short sw = apdu.load(command, instance.applet instanceof ExtendedLength);
+        if (sw != 0) {
+            return status(sw);
+        }
+        context = instance;
+        previous = null;
+        channel = target;
+        selecting = selection;
+        reselecting = again;
+        lastException = null;
+        try {
+            instance.applet.process(apdu.getApdu());
+            sw = ISO7816.SW_NO_ERROR;
+        } catch (ISOException e) {
+            sw = e.getReason();
+        } catch (RuntimeException e) {
+            lastException = e;
+            sw = ISO7816.SW_UNKNOWN;
+        } finally {
+            context = null;
+            selecting = false;
+            reselecting = false;
+            transactionDepth = 0;
+        }
+        return apdu.response(sw);
+    }
+
+    private void clearDeselect(Instance instance) {
+        for (Object object : instance.deselectObjects) {
+            clear(object);
+        }
+    }
+
+    private static void clear(Object object) {
+        if (object instanceof byte[]) {
+            Arrays.fill((byte[]) object, (byte) 0);
+        } else if (object instanceof short[]) {
+            Arrays.fill((short[]) object, (short) 0);
+        } else if (object instanceof boolean[]) {
+            Arrays.fill((boolean[]) object, false);
+        } else if (object instanceof Object[]) {
+            Arrays.fill((Object[]) object, null);
+        } else if (object instanceof Key) {
+            ((Key) object).clearKey();
+        }
+    }
+
+    private static byte[] status(short sw) {
+        return new byte[] {(byte) (sw >> 8), (byte) sw};
+    }
+
+    private Simulator enter() {
+        Simulator outer = CURRENT.get();
+        CURRENT.set(this);
+        return outer;
+    }
+
+    private static void leave(Simulator outer) {
+        if (outer == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(outer);
+        }
+    }
+
+    /**
+     * An installed applet with the CLEAR_ON_DESELECT objects of its
+     * context.
+     */
+    private static final class Instance {
+
+        private AID aid;
+        private Applet applet;
+        private final List<Object> deselectObjects = new ArrayList<>();
+
+        private Instance(AID aid) {
+            this.aid = aid;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package javacard.framework;
+
+import java.util.Arrays;
+
+/**
+ * Application identifier of an applet instance.
+ *
+ * @author Thotheolh
+ */
+public final class AID {
+
+    private final byte[] aid;
+
+    /**
+     * @param bArray
+     * @param offset
+     * @param length between 5 and 16
+     * @throws SystemException ILLEGAL_VALUE if the length is out of range
+     */
+    public AID(byte[] bArray, short offset, byte length) throws SystemException {
+        if (length < 5 || length > 16) {
+            SystemException.throwIt(SystemException.ILLEGAL_VALUE);
+        }
+        aid = new byte[length];
+        System.arraycopy(bArray, offset, aid, 0, length);
+    }
+
+    public byte getBytes(byte[] dest, short offset) {
+        System.arraycopy(aid, 0, dest, offset, aid.length);
+        return (byte) aid.length;
+    }
+
+    public byte getPartialBytes(short aidOffset, byte[] dest, short oOffset, byte oLength) {
+        int length = oLength == 0 ? aid.length - aidOffset : Math.min(oLength, aid.length - aidOffset);
+        System.arraycopy(aid, aidOffset, dest, oOffset, length);
+        return (byte) length;
+    }
+
+    public boolean equals(byte[] bArray, short offset, byte length) {
+        return length == aid.length && partialEquals(bArray, offset, length);
+    }
+
+    public boolean partialEquals(byte[] bArray, short offset, byte length) {
+        if (bArray == null || length > aid.length) {
+            return false;
+        }
+        return Arrays.equals(aid, 0, length, bArray, offset, offset + length);
+    }
+
+    public boolean RIDEquals(AID otherAID) {
+        return otherAID != null && Arrays.equals(aid, 0, 5, otherAID.aid, 0, 5);
+    }
+
+    @Override
+    public boolean equals(Object anObject) {
+        return anObject instanceof AID && Arrays.equals(aid, ((AID) anObject).aid);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(aid);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : aid) {
+            hex.append(String.format("%02X", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package javacard.framework;
+
+import dhapplet.sim.CardApdu;
+import dhapplet.sim.Simulator;
+
+/**
+ * The command being processed and its response, backed by the simulator's
+ * CardApdu of the card.
+ *
+ * @author Thotheolh
+ */
+public final class APDU {
+
+    public static final byte PROTOCOL_T0 = 0;
+    public static final byte PROTOCOL_T1 = 1;
+    public static final byte PROTOCOL_MEDIA_DEFAULT = 0;
+    public static final byte PROTOCOL_MEDIA_CONTACTLESS_TYPE_A = (byte) 0x80;
+    public static final byte PROTOCOL_MEDIA_CONTACTLESS_TYPE_B = (byte) 0x90;
+    public static final byte PROTOCOL_MEDIA_USB = (byte) 0xA0;
+    public static final byte PROTOCOL_MEDIA_MASK = (byte) 0xF0;
+    public static final byte PROTOCOL_TYPE_MASK = 0x0F;
+
+    public static final byte STATE_INITIAL = 0;
+    public static final byte STATE_PARTIAL_INCOMING = 1;
+    public static final byte STATE_FULL_INCOMING = 2;
+    public static final byte STATE_OUTGOING = 3;
+    public static final byte STATE_OUTGOING_LENGTH_KNOWN = 4;
+    public static final byte STATE_PARTIAL_OUTGOING = 5;
+    public static final byte STATE_FULL_OUTGOING = 6;
+    public static final byte STATE_ERROR_NO_T0_GETRESPONSE = -1;
+    public static final byte STATE_ERROR_T1_IFD_ABORT = -2;
+    public static final byte STATE_ERROR_IO = -3;
+    public static final byte STATE_ERROR_NO_T0_REISSUE = -4;
+
+    private final CardApdu apdu;
+
+    /**
+     * Only the simulator creates the APDU object of a card.
+     *
+     * @param apdu
+     */
+    public APDU(CardApdu apdu) {
+        this.apdu = apdu;
+    }
+
+    public byte[] getBuffer() {
+        return apdu.getBuffer();
+    }
+
+    public static short getInBlockSize() {
+        return CardApdu.BLOCK_SIZE;
+    }
+
+    public static short getOutBlockSize() {
+        return CardApdu.BLOCK_SIZE;
+    }
+
+    public static byte getProtocol() {
+        return PROTOCOL_T1;
+    }
+
+    public byte getNAD() {
+        return 0;
+    }
+
+    public short setOutgoing() throws APDUException {
+        return apdu.setOutgoing();
+    }
+
+    public short setOutgoingNoChaining() throws APDUException {
+        return apdu.setOutgoing();
+    }
+
+    public void setOutgoingLength(short len) throws APDUException {
+        apdu.setOutgoingLength(len);
+    }
+
+    public short receiveBytes(short bOff) throws APDUException {
+        return apdu.receiveBytes(bOff);
+    }
+
+    public short setIncomingAndReceive() throws APDUException {
+        return apdu.setIncomingAndReceive();
+    }
+
+    public void sendBytes(short bOff, short len) throws APDUException {
+        apdu.sendBytes(bOff, len);
+    }
+
+    public void sendBytesLong(byte[] outData, short bOff, short len) throws APDUException, SecurityException {
+        apdu.sendBytesLong(outData, bOff, len);
+    }
+
+    public void setOutgoingAndSend(short bOff, short len) throws APDUException {
+        apdu.setOutgoing();
+        apdu.setOutgoingLength(len);
+        apdu.sendBytes(bOff, len);
+    }
+
+    public byte getCurrentState() {
+        return apdu.getCurrentState();
+    }
+
+    public static APDU getCurrentAPDU() throws SecurityException {
+        return Simulator.current().getCurrentAPDU();
+    }
+
+    public static byte[] getCurrentAPDUBuffer() throws SecurityException {
+        return getCurrentAPDU().getBuffer();
+    }
+
+    public static byte getCLAChannel() {
+        return Simulator.current().getAssignedChannel();
+    }
+
+    public static void waitExtension() throws APDUException {
+    }
+
+    public boolean isCommandChainingCLA() {
+        return (apdu.getBuffer()[ISO7816.OFFSET_CLA] & 0x10) != 0;
+    }
+
+    public boolean isSecureMessagingCLA() {
+        byte cla = apdu.getBuffer()[ISO7816.OFFSET_CLA];
+        return (cla & 0x40) == 0 ? (cla & 0x0C) != 0 : (cla & 0x20) != 0;
+    }
+
+    public boolean isISOInterindustryCLA() {
+        return (apdu.getBuffer()[ISO7816.OFFSET_CLA] & 0x80) == 0;
+    }
+
+    public boolean isValidCLA() {
+        return apdu.getBuffer()[ISO7816.OFFSET_CLA] != (byte) 0xFF;
+    }
+
+    public short getIncomingLength() {
+        return apdu.getIncomingLength();
+    }
+
+    public short getOffsetCdata() {
+        return apdu.getOffsetCdata();
+    }
+}
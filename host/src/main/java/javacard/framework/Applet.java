@@ -0,0 +1,81 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package javacard.framework;
+
+import dhapplet.sim.Simulator;
+
+/**
+ * Base class of the applets the simulator installs.
+ *
+ * @author Thotheolh
+ */
+public abstract class Applet {
+
+    protected Applet() {
+    }
+
+    public static void install(byte[] bArray, short bOffset, byte bLength) throws ISOException {
+        ISOException.throwIt(ISO7816.SW_FUNC_NOT_SUPPORTED);
+    }
+
+    public abstract void process(APDU apdu) throws ISOException;
+
+    public boolean select() {
+        return true;
+    }
+
+    public void deselect() {
+    }
+
+    public Shareable getShareableInterfaceObject(AID clientAID, byte parameter) {
+        return null;
+    }
+
+    /**
+     * Registers the applet under the AID it is being installed with.
+     */
+    protected final void register() throws SystemException {
+        Simulator.current().register(this, null);
+    }
+
+    protected final void register(byte[] bArray, short bOffset, byte bLength) throws SystemException {
+        Simulator.current().register(this, new AID(bArray, bOffset, bLength));
+    }
+
+    protected final boolean selectingApplet() {
+        return Simulator.current().isSelecting(this);
+    }
+
+    protected final boolean reSelectingApplet() {
+        return Simulator.current().isReselecting(this);
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package javacard.framework;
+
+/**
+ * ISO 7816 constants of the Java Card 3.0.5 API.
+ *
+ * @author Thotheolh
+ */
+public interface ISO7816 {
+
+    byte OFFSET_CLA = 0;
+    byte OFFSET_INS = 1;
+    byte OFFSET_P1 = 2;
+    byte OFFSET_P2 = 3;
+    byte OFFSET_LC = 4;
+    byte OFFSET_CDATA = 5;
+    byte OFFSET_EXT_CDATA = 7;
+
+    byte CLA_ISO7816 = 0;
+    byte INS_SELECT = (byte) 0xA4;
+    byte INS_EXTERNAL_AUTHENTICATE = (byte) 0x82;
+
+    short SW_NO_ERROR = (short) 0x9000;
+    short SW_BYTES_REMAINING_00 = 0x6100;
+    short SW_WARNING_STATE_UNCHANGED = 0x6200;
+    short SW_WRONG_LENGTH = 0x6700;
+    short SW_LOGICAL_CHANNEL_NOT_SUPPORTED = 0x6881;
+    short SW_SECURE_MESSAGING_NOT_SUPPORTED = 0x6882;
+    short SW_LAST_COMMAND_EXPECTED = 0x6883;
+    short SW_COMMAND_CHAINING_NOT_SUPPORTED = 0x6884;
+    short SW_SECURITY_STATUS_NOT_SATISFIED = 0x6982;
+    short SW_FILE_INVALID = 0x6983;
+    short SW_DATA_INVALID = 0x6984;
+    short SW_CONDITIONS_NOT_SATISFIED = 0x6985;
+    short SW_COMMAND_NOT_ALLOWED = 0x6986;
+    short SW_APPLET_SELECT_FAILED = 0x6999;
+    short SW_WRONG_DATA = 0x6A80;
+    short SW_FUNC_NOT_SUPPORTED = 0x6A81;
+    short SW_FILE_NOT_FOUND = 0x6A82;
+    short SW_RECORD_NOT_FOUND = 0x6A83;
+    short SW_FILE_FULL = 0x6A84;
+    short SW_INCORRECT_P1P2 = 0x6A86;
+    short SW_WRONG_P1P2 = 0x6B00;
+    short SW_CORRECT_LENGTH_00 = 0x6C00;
+    short SW_INS_NOT_SUPPORTED = 0x6D00;
+    short SW_CLA_NOT_SUPPORTED = 0x6E00;
+    short SW_UNKNOWN = 0x6F00;
+}
@@ -0,0 +1,155 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package javacard.framework;
+
+import dhapplet.sim.Simulator;
+
+/**
+ * System services of the Java Card API, answered by the simulator running
+ * the calling applet.
+ *
+ * @author Thotheolh
+ */
+public final class JCSystem {
+
+    public static final byte NOT_A_TRANSIENT_OBJECT = 0;
+    public static final byte CLEAR_ON_RESET = 1;
+    public static final byte CLEAR_ON_DESELECT = 2;
+    public static final byte MEMORY_TYPE_PERSISTENT = 0;
+    public static final byte MEMORY_TYPE_TRANSIENT_RESET = 1;
+    public static final byte MEMORY_TYPE_TRANSIENT_DESELECT = 2;
+
+    private JCSystem() {
+    }
+
+    public static byte isTransient(Object theObj) {
+        return Simulator.current().isTransient(theObj);
+    }
+
+    public static boolean[] makeTransientBooleanArray(short length, byte event)
+            throws NegativeArraySizeException, SystemException {
+        return Simulator.current().makeTransient(new boolean[length], length, event);
+    }
+
+    public static byte[] makeTransientByteArray(short length, byte event)
+            throws NegativeArraySizeException, SystemException {
+        return Simulator.current().makeTransient(new byte[length], length, event);
+    }
+
+    public static short[] makeTransientShortArray(short length, byte event)
+            throws NegativeArraySizeException, SystemException {
+        return Simulator.current().makeTransient(new short[length], length * 2, event);
+    }
+
+    public static Object[] makeTransientObjectArray(short length, byte event)
+            throws NegativeArraySizeException, SystemException {
+        return Simulator.current().makeTransient(new Object[length], length * 2, event);
+    }
+
+    public static AID getAID() {
+        return Simulator.current().getAID();
+    }
+
+    public static AID lookupAID(byte[] buffer, short offset, byte length) {
+        return Simulator.current().lookupAID(buffer, offset, length);
+    }
+
+    public static AID getPreviousContextAID() {
+        return Simulator.current().getPreviousContextAID();
+    }
+
+    public static byte getAssignedChannel() {
+        return Simulator.current().getAssignedChannel();
+    }
+
+    public static boolean isAppletActive(AID theApplet) {
+        return Simulator.current().isAppletActive(theApplet);
+    }
+
+    public static short getVersion() {
+        return 0x0305;
+    }
+
+    public static void beginTransaction() throws TransactionException {
+        Simulator.current().beginTransaction();
+    }
+
+    public static void abortTransaction() throws TransactionException {
+        Simulator.current().abortTransaction();
+    }
+
+    public static void commitTransaction() throws TransactionException {
+        Simulator.current().commitTransaction();
+    }
+
+    public static byte getTransactionDepth() {
+        return Simulator.current().getTransactionDepth();
+    }
+
+    public static short getUnusedCommitCapacity() {
+        return Simulator.COMMIT_CAPACITY;
+    }
+
+    public static short getMaxCommitCapacity() {
+        return Simulator.COMMIT_CAPACITY;
+    }
+
+    /**
+     * @param memoryType MEMORY_TYPE_PERSISTENT, MEMORY_TYPE_TRANSIENT_RESET or
+     * MEMORY_TYPE_TRANSIENT_DESELECT
+     * @return available bytes, at most Short.MAX_VALUE
+     */
+    public static short getAvailableMemory(byte memoryType) throws SystemException {
+        return (short) Math.min(Simulator.current().getAvailableMemory(memoryType), Short.MAX_VALUE);
+    }
+
+    /**
+     * Writes the available bytes as an int in two shorts, high first.
+     */
+    public static void getAvailableMemory(short[] buffer, short offset, byte memoryType) throws SystemException {
+        int available = Simulator.current().getAvailableMemory(memoryType);
+        buffer[offset] = (short) (available >>> 16);
+        buffer[offset + 1] = (short) available;
+    }
+
+    public static Shareable getAppletShareableInterfaceObject(AID serverAID, byte parameter) {
+        return Simulator.current().getAppletShareableInterfaceObject(serverAID, parameter);
+    }
+
+    public static boolean isObjectDeletionSupported() {
+        return false;
+    }
+
+    public static void requestObjectDeletion() throws SystemException {
+        SystemException.throwIt(SystemException.ILLEGAL_USE);
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package javacard.framework;
+
+/**
+ * Array and short helpers of the Java Card API.
+ *
+ * The simulator keeps no transaction journal, so the atomic and non-atomic
+ * variants behave alike.
+ *
+ * @author Thotheolh
+ */
+public final class Util {
+
+    private Util() {
+    }
+
+    public static short arrayCopy(byte[] src, short srcOff, byte[] dest, short destOff, short length)
+            throws ArrayIndexOutOfBoundsException, NullPointerException, TransactionException {
+        return arrayCopyNonAtomic(src, srcOff, dest, destOff, length);
+    }
+
+    public static short arrayCopyNonAtomic(byte[] src, short srcOff, byte[] dest, short destOff, short length)
+            throws ArrayIndexOutOfBoundsException, NullPointerException {
+        System.arraycopy(src, srcOff, dest, destOff, length);
+        return (short) (destOff + length);
+    }
+
+    public static short arrayFillNonAtomic(byte[] bArray, short bOff, short bLen, byte bValue)
+            throws ArrayIndexOutOfBoundsException, NullPointerException {
+        if (bLen < 0 || bOff < 0 || bOff + bLen > bArray.length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        java.util.Arrays.fill(bArray, bOff, bOff + bLen, bValue);
+        return (short) (bOff + bLen);
+    }
+
+    /**
+     * Compares the bytes as the signed values the card sees.
+     *
+     * @return 0 if equal, -1 if the source is smaller and 1 if it is greater
+     */
+    public static byte arrayCompare(byte[] src, short srcOff, byte[] dest, short destOff, short length)
+            throws ArrayIndexOutOfBoundsException, NullPointerException {
+        if (length < 0 || srcOff < 0 || destOff < 0 || srcOff + length > src.length || destOff + length > dest.length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+        for (int i = 0; i < length; i++) {
+            if (src[srcOff + i] != dest[destOff + i]) {
+                return src[srcOff + i] < dest[destOff + i] ? (byte) -1 : (byte) 1;
+            }
+        }
+        return 0;
+    }
+
+    public static short makeShort(byte b1, byte b2) {
+        return (short) (((b1 & 0xFF) << 8) | (b2 & 0xFF));
+    }
+
+    public static short getShort(byte[] bArray, short bOff) throws NullPointerException, ArrayIndexOutOfBoundsException {
+        return makeShort(bArray[bOff], bArray[bOff + 1]);
+    }
+
+    public static short setShort(byte[] bArray, short bOff, short sValue)
+            throws TransactionException, NullPointerException, ArrayIndexOutOfBoundsException {
+        if (bOff < 0 || bOff + 2 > bArray.length) {
+            throw new ArrayIndexOutOfBoundsException(bOff);
+        }
+        bArray[bOff] = (byte) (sValue >> 8);
+        bArray[bOff + 1] = (byte) sValue;
+        return (short) (bOff + 2);
+    }
+}
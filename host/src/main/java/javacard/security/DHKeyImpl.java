@@ -0,0 +1,105 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package javacard.security;
+
+/**
+ * DH public or private key with its domain parameters.
+ *
+ * @author Thotheolh
+ */
+final class DHKeyImpl extends KeyImpl implements DHPrivateKey, DHPublicKey {
+
+    private static final int P = 0;
+    private static final int Q = 1;
+    private static final int G = 2;
+    private static final int VALUE = 3;
+
+    DHKeyImpl(byte type, short size, byte memoryType) {
+        super(type, size, memoryType, size / 8, size / 8, size / 8, size / 8);
+    }
+
+    public boolean isInitialized() {
+        return has(P) && has(G) && has(VALUE);
+    }
+
+    public void setP(byte[] buffer, short offset, short length) {
+        set(P, buffer, offset, length);
+    }
+
+    public void setQ(byte[] buffer, short offset, short length) {
+        set(Q, buffer, offset, length);
+    }
+
+    public void setG(byte[] buffer, short offset, short length) {
+        set(G, buffer, offset, length);
+    }
+
+    public short getP(byte[] buffer, short offset) {
+        return get(P, buffer, offset);
+    }
+
+    public short getQ(byte[] buffer, short offset) {
+        return get(Q, buffer, offset);
+    }
+
+    public short getG(byte[] buffer, short offset) {
+        return get(G, buffer, offset);
+    }
+
+    public void setX(byte[] buffer, short offset, short length) {
+        set(VALUE, buffer, offset, length);
+    }
+
+    public short getX(byte[] buffer, short offset) {
+        return get(VALUE, buffer, offset);
+    }
+
+    public void setY(byte[] buffer, short offset, short length) {
+        set(VALUE, buffer, offset, length);
+    }
+
+    public short getY(byte[] buffer, short offset) {
+        return get(VALUE, buffer, offset);
+    }
+
+    boolean hasDomain() {
+        return has(P) && has(G);
+    }
+
+    java.math.BigInteger p() {
+        return number(P);
+    }
+
+    java.math.BigInteger value() {
+        return number(VALUE);
+    }
+}
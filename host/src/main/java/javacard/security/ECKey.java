@@ -0,0 +1,68 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package javacard.security;
+
+/**
+ * Domain parameters of an EC key over a prime field.
+ *
+ * @author Thotheolh
+ */
+public interface ECKey {
+
+    void setFieldFP(byte[] buffer, short offset, short length) throws CryptoException;
+
+    void setFieldF2M(short e) throws CryptoException;
+
+    void setFieldF2M(short e1, short e2, short e3) throws CryptoException;
+
+    void setA(byte[] buffer, short offset, short length) throws CryptoException;
+
+    void setB(byte[] buffer, short offset, short length) throws CryptoException;
+
+    void setG(byte[] buffer, short offset, short length) throws CryptoException;
+
+    void setR(byte[] buffer, short offset, short length) throws CryptoException;
+
+    void setK(short K);
+
+    short getField(byte[] buffer, short offset) throws CryptoException;
+
+    short getA(byte[] buffer, short offset) throws CryptoException;
+
+    short getB(byte[] buffer, short offset) throws CryptoException;
+
+    short getG(byte[] buffer, short offset) throws CryptoException;
+
+    short getR(byte[] buffer, short offset) throws CryptoException;
+
+    short getK() throws CryptoException;
+}
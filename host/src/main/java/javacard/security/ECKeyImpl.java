@@ -0,0 +1,210 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package javacard.security;
+
+import java.math.BigInteger;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.EllipticCurve;
+
+/**
+ * EC public or private key over a prime field with its domain parameters.
+ * Points are uncompressed, 04 X Y.
+ *
+ * @author Thotheolh
+ */
+final class ECKeyImpl extends KeyImpl implements ECPrivateKey, ECPublicKey {
+
+    private static final int FIELD = 0;
+    private static final int A = 1;
+    private static final int B = 2;
+    private static final int G = 3;
+    private static final int R = 4;
+    private static final int VALUE = 5;
+
+    private final int length;
+    private short k = -1;
+
+    ECKeyImpl(byte type, short size, byte memoryType, boolean isPublic) {
+        super(type, size, memoryType, (size + 7) / 8, (size + 7) / 8, (size + 7) / 8,
+                (size + 7) / 8 * 2 + 1, (size + 7) / 8 + 1, isPublic ? (size + 7) / 8 * 2 + 1 : (size + 7) / 8);
+        length = (size + 7) / 8;
+    }
+
+    public boolean isInitialized() {
+        return has(FIELD) && has(A) && has(B) && has(G) && has(R) && has(VALUE);
+    }
+
+    @Override
+    public void clearKey() {
+        super.clearKey();
+        k = -1;
+    }
+
+    public void setFieldFP(byte[] buffer, short offset, short length) {
+        set(FIELD, buffer, offset, length);
+    }
+
+    public void setFieldF2M(short e) {
+        CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+    }
+
+    public void setFieldF2M(short e1, short e2, short e3) {
+        CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+    }
+
+    public void setA(byte[] buffer, short offset, short length) {
+        set(A, buffer, offset, length);
+    }
+
+    public void setB(byte[] buffer, short offset, short length) {
+        set(B, buffer, offset, length);
+    }
+
+    public void setG(byte[] buffer, short offset, short length) {
+        set(G, buffer, offset, length);
+    }
+
+    public void setR(byte[] buffer, short offset, short length) {
+        set(R, buffer, offset, length);
+    }
+
+    public void setK(short K) {
+        k = K;
+    }
+
+    public short getField(byte[] buffer, short offset) {
+        return get(FIELD, buffer, offset);
+    }
+
+    public short getA(byte[] buffer, short offset) {
+        return get(A, buffer, offset);
+    }
+
+    public short getB(byte[] buffer, short offset) {
+        return get(B, buffer, offset);
+    }
+
+    public short getG(byte[] buffer, short offset) {
+        return get(G, buffer, offset);
+    }
+
+    public short getR(byte[] buffer, short offset) {
+        return get(R, buffer, offset);
+    }
+
+    public short getK() {
+        if (k < 0) {
+            CryptoException.throwIt(CryptoException.UNINITIALIZED_KEY);
+        }
+        return k;
+    }
+
+    public void setS(byte[] buffer, short offset, short length) {
+        set(VALUE, buffer, offset, length);
+    }
+
+    public short getS(byte[] buffer, short offset) {
+        return get(VALUE, buffer, offset);
+    }
+
+    public void setW(byte[] buffer, short offset, short length) {
+        set(VALUE, buffer, offset, length);
+    }
+
+    public short getW(byte[] buffer, short offset) {
+        return get(VALUE, buffer, offset);
+    }
+
+    boolean hasDomain() {
+        return has(FIELD) && has(A) && has(B) && has(G) && has(R);
+    }
+
+    /**
+     * Copies the domain parameters to another key of the same size.
+     */
+    void copyDomain(ECKeyImpl to) {
+        to.set(FIELD, value(FIELD), (short) 0, (short) value(FIELD).length);
+        to.set(A, value(A), (short) 0, (short) value(A).length);
+        to.set(B, value(B), (short) 0, (short) value(B).length);
+        to.set(G, value(G), (short) 0, (short) value(G).length);
+        to.set(R, value(R), (short) 0, (short) value(R).length);
+        to.k = k;
+    }
+
+    ECParameterSpec spec() {
+        EllipticCurve curve = new EllipticCurve(new ECFieldFp(number(FIELD)), number(A), number(B));
+        return new ECParameterSpec(curve, point(value(G), 0, value(G).length), number(R), k > 0 ? k : 1);
+    }
+
+    BigInteger secret() {
+        return number(VALUE);
+    }
+
+    ECPoint point() {
+        return point(value(VALUE), 0, value(VALUE).length);
+    }
+
+    int fieldLength() {
+        return length;
+    }
+
+    /**
+     * Decodes an uncompressed point and checks that it lies on the curve.
+     *
+     * @return the point
+     * @throws CryptoException ILLEGAL_VALUE for anything else
+     */
+    ECPoint point(byte[] data, int offset, int length) {
+        if (length != this.length * 2 + 1 || data[offset] != 0x04) {
+            CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+        }
+        BigInteger x = new BigInteger(1, java.util.Arrays.copyOfRange(data, offset + 1, offset + 1 + this.length));
+        BigInteger y = new BigInteger(1, java.util.Arrays.copyOfRange(data, offset + 1 + this.length, offset + length));
+        BigInteger p = number(FIELD);
+        BigInteger left = y.multiply(y).mod(p);
+        BigInteger right = x.pow(3).add(number(A).multiply(x)).add(number(B)).mod(p);
+        if (x.compareTo(p) >= 0 || y.compareTo(p) >= 0 || !left.equals(right)) {
+            CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+        }
+        return new ECPoint(x, y);
+    }
+
+    byte[] encode(ECPoint point) {
+        byte[] out = new byte[length * 2 + 1];
+        out[0] = 0x04;
+        System.arraycopy(toBytes(point.getAffineX(), length), 0, out, 1, length);
+        System.arraycopy(toBytes(point.getAffineY(), length), 0, out, 1 + length, length);
+        return out;
+    }
+}
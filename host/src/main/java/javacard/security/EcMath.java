@@ -0,0 +1,118 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package javacard.security;
+
+import java.math.BigInteger;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+
+/**
+ * Scalar multiplication on a short Weierstrass curve over a prime field in
+ * Jacobian coordinates.
+ *
+ * @author Thotheolh
+ */
+final class EcMath {
+
+    private EcMath() {
+    }
+
+    /**
+     * @param spec domain parameters
+     * @param point affine point on the curve
+     * @param k scalar
+     * @return k * point, ECPoint.POINT_INFINITY if it is the neutral element
+     */
+    static ECPoint multiply(ECParameterSpec spec, ECPoint point, BigInteger k) {
+        BigInteger p = ((ECFieldFp) spec.getCurve().getField()).getP();
+        BigInteger a = spec.getCurve().getA().mod(p);
+        BigInteger[] result = null;
+        BigInteger[] base = {point.getAffineX(), point.getAffineY(), BigInteger.ONE};
+        for (int i = k.bitLength() - 1; i >= 0; i--) {
+            if (result != null) {
+                result = twice(result, a, p);
+            }
+            if (k.testBit(i)) {
+                result = result == null ? base : add(result, base, a, p);
+            }
+        }
+        if (result == null || result[2].signum() == 0) {
+            return ECPoint.POINT_INFINITY;
+        }
+        BigInteger zInverse = result[2].modInverse(p);
+        BigInteger zInverse2 = zInverse.multiply(zInverse).mod(p);
+        return new ECPoint(result[0].multiply(zInverse2).mod(p),
+                result[1].multiply(zInverse2).multiply(zInverse).mod(p));
+    }
+
+    private static BigInteger[] twice(BigInteger[] q, BigInteger a, BigInteger p) {
+        if (q[2].signum() == 0 || q[1].signum() == 0) {
+            return new BigInteger[] {BigInteger.ONE, BigInteger.ONE, BigInteger.ZERO};
+        }
+        BigInteger y2 = q[1].multiply(q[1]).mod(p);
+        BigInteger s = q[0].multiply(y2).shiftLeft(2).mod(p);
+        BigInteger z2 = q[2].multiply(q[2]).mod(p);
+        BigInteger m = q[0].multiply(q[0]).multiply(BigInteger.valueOf(3)).add(a.multiply(z2.multiply(z2))).mod(p);
+        BigInteger x = m.multiply(m).subtract(s.shiftLeft(1)).mod(p);
+        BigInteger y = m.multiply(s.subtract(x)).subtract(y2.multiply(y2).shiftLeft(3)).mod(p);
+        BigInteger z = q[1].multiply(q[2]).shiftLeft(1).mod(p);
+        return new BigInteger[] {x, y, z};
+    }
+
+    private static BigInteger[] add(BigInteger[] q, BigInteger[] r, BigInteger a, BigInteger p) {
+        if (q[2].signum() == 0) {
+            return r;
+        }
+        if (r[2].signum() == 0) {
+            return q;
+        }
+        BigInteger qz2 = q[2].multiply(q[2]).mod(p);
+        BigInteger rz2 = r[2].multiply(r[2]).mod(p);
+        BigInteger u1 = q[0].multiply(rz2).mod(p);
+        BigInteger u2 = r[0].multiply(qz2).mod(p);
+        BigInteger s1 = q[1].multiply(rz2).multiply(r[2]).mod(p);
+        BigInteger s2 = r[1].multiply(qz2).multiply(q[2]).mod(p);
+        if (u1.equals(u2)) {
+            return s1.equals(s2) ? twice(q, a, p) : new BigInteger[] {BigInteger.ONE, BigInteger.ONE, BigInteger.ZERO};
+        }
+        BigInteger h = u2.subtract(u1).mod(p);
+        BigInteger rr = s2.subtract(s1).mod(p);
+        BigInteger h2 = h.multiply(h).mod(p);
+        BigInteger h3 = h2.multiply(h).mod(p);
+        BigInteger v = u1.multiply(h2).mod(p);
+        BigInteger x = rr.multiply(rr).subtract(h3).subtract(v.shiftLeft(1)).mod(p);
+        BigInteger y = rr.multiply(v.subtract(x)).subtract(s1.multiply(h3)).mod(p);
+        BigInteger z = h.multiply(q[2]).multiply(r[2]).mod(p);
+        return new BigInteger[] {x, y, z};
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package javacard.security;
+
+import dhapplet.sim.Simulator;
+import java.math.BigInteger;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+
+/**
+ * Plain EC and DH key agreement: the secret is the X coordinate of the
+ * shared point, or Y^X mod P, with the length of the field or of P.
+ *
+ * @author Thotheolh
+ */
+public abstract class KeyAgreement {
+
+    public static final byte ALG_EC_SVDP_DH = 1;
+    public static final byte ALG_EC_SVDP_DH_KDF = 1;
+    public static final byte ALG_EC_SVDP_DHC = 2;
+    public static final byte ALG_EC_SVDP_DHC_KDF = 2;
+    public static final byte ALG_EC_SVDP_DH_PLAIN = 3;
+    public static final byte ALG_EC_SVDP_DHC_PLAIN = 4;
+    public static final byte ALG_EC_PACE_GM = 5;
+    public static final byte ALG_EC_SVDP_DH_PLAIN_XY = 6;
+    public static final byte ALG_DH_PLAIN = 7;
+
+    protected KeyAgreement() {
+    }
+
+    /**
+     * @param algorithm ALG_EC_SVDP_DH_PLAIN, or ALG_DH_PLAIN on a card with
+     * native DH
+     * @param externalAccess
+     * @return the key agreement
+     */
+    public static KeyAgreement getInstance(byte algorithm, boolean externalAccess) throws CryptoException {
+        if (algorithm != ALG_EC_SVDP_DH_PLAIN && (algorithm != ALG_DH_PLAIN || !Simulator.current().isNativeDh())) {
+            CryptoException.throwIt(CryptoException.NO_SUCH_ALGORITHM);
+        }
+        Simulator.current().allocate(16);
+        return new Agreement(algorithm);
+    }
+
+    public abstract void init(PrivateKey privKey) throws CryptoException;
+
+    public abstract byte getAlgorithm();
+
+    public abstract short generateSecret(byte[] publicData, short publicOffset, short publicLength,
+            byte[] secret, short secretOffset) throws CryptoException;
+
+    private static final class Agreement extends KeyAgreement {
+
+        private final byte algorithm;
+        private KeyImpl key;
+
+        private Agreement(byte algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        public void init(PrivateKey privKey) {
+            boolean dh = algorithm == ALG_DH_PLAIN;
+            if (dh ? !(privKey instanceof DHKeyImpl) : !(privKey instanceof ECKeyImpl)) {
+                CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+            }
+            if (!privKey.isInitialized()) {
+                CryptoException.throwIt(CryptoException.UNINITIALIZED_KEY);
+            }
+            key = (KeyImpl) privKey;
+        }
+
+        public byte getAlgorithm() {
+            return algorithm;
+        }
+
+        public short generateSecret(byte[] publicData, short publicOffset, short publicLength,
+                byte[] secret, short secretOffset) {
+            if (key == null) {
+                CryptoException.throwIt(CryptoException.INVALID_INIT);
+            }
+            if (!key.isInitialized()) {
+                CryptoException.throwIt(CryptoException.UNINITIALIZED_KEY);
+            }
+            if (publicOffset < 0 || publicLength < 0 || publicOffset + publicLength > publicData.length) {
+                throw new ArrayIndexOutOfBoundsException();
+            }
+            byte[] out;
+            if (algorithm == ALG_DH_PLAIN) {
+                DHKeyImpl dh = (DHKeyImpl) key;
+                BigInteger p = dh.p();
+                int length = (p.bitLength() + 7) / 8;
+                BigInteger y = new BigInteger(1, java.util.Arrays.copyOfRange(publicData, publicOffset,
+                        publicOffset + publicLength));
+                if (publicLength != length || y.compareTo(p) >= 0) {
+                    CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+                }
+                out = KeyImpl.toBytes(y.modPow(dh.value(), p), length);
+            } else {
+                ECKeyImpl ec = (ECKeyImpl) key;
+                ECParameterSpec spec = ec.spec();
+                ECPoint peer = ec.point(publicData, publicOffset, publicLength);
+                ECPoint shared = EcMath.multiply(spec, peer, ec.secret());
+                if (shared.equals(ECPoint.POINT_INFINITY)) {
+                    CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+                }
+                out = KeyImpl.toBytes(shared.getAffineX(), ec.fieldLength());
+            }
+            System.arraycopy(out, 0, secret, secretOffset, out.length);
+            return (short) out.length;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package javacard.security;
+
+import dhapplet.sim.Simulator;
+import javacard.framework.JCSystem;
+
+/**
+ * Creates keys. The simulator offers AES, RSA and EC keys over prime fields
+ * of the sizes cards commonly have, and DH keys when the card is set to
+ * support native DH.
+ *
+ * @author Thotheolh
+ */
+public class KeyBuilder {
+
+    public static final byte TYPE_DES_TRANSIENT_RESET = 1;
+    public static final byte TYPE_DES_TRANSIENT_DESELECT = 2;
+    public static final byte TYPE_DES = 3;
+    public static final byte TYPE_RSA_PUBLIC = 4;
+    public static final byte TYPE_RSA_PRIVATE = 5;
+    public static final byte TYPE_RSA_CRT_PRIVATE = 6;
+    public static final byte TYPE_DSA_PUBLIC = 7;
+    public static final byte TYPE_DSA_PRIVATE = 8;
+    public static final byte TYPE_EC_F2M_PUBLIC = 9;
+    public static final byte TYPE_EC_F2M_PRIVATE = 10;
+    public static final byte TYPE_EC_FP_PUBLIC = 11;
+    public static final byte TYPE_EC_FP_PRIVATE = 12;
+    public static final byte TYPE_AES_TRANSIENT_RESET = 13;
+    public static final byte TYPE_AES_TRANSIENT_DESELECT = 14;
+    public static final byte TYPE_AES = 15;
+    public static final byte TYPE_RSA_PRIVATE_TRANSIENT_RESET = 22;
+    public static final byte TYPE_RSA_PRIVATE_TRANSIENT_DESELECT = 23;
+    public static final byte TYPE_EC_FP_PRIVATE_TRANSIENT_RESET = 30;
+    public static final byte TYPE_EC_FP_PRIVATE_TRANSIENT_DESELECT = 31;
+    public static final byte TYPE_DH_PUBLIC = 32;
+    public static final byte TYPE_DH_PUBLIC_TRANSIENT_RESET = 33;
+    public static final byte TYPE_DH_PUBLIC_TRANSIENT_DESELECT = 34;
+    public static final byte TYPE_DH_PRIVATE = 35;
+    public static final byte TYPE_DH_PRIVATE_TRANSIENT_RESET = 36;
+    public static final byte TYPE_DH_PRIVATE_TRANSIENT_DESELECT = 37;
+
+    public static final byte ALG_TYPE_AES = 11;
+    public static final byte ALG_TYPE_RSA_PUBLIC = 2;
+    public static final byte ALG_TYPE_RSA_PRIVATE = 3;
+    public static final byte ALG_TYPE_EC_FP_PUBLIC = 9;
+    public static final byte ALG_TYPE_EC_FP_PRIVATE = 10;
+    public static final byte ALG_TYPE_DH_PUBLIC = 14;
+    public static final byte ALG_TYPE_DH_PRIVATE = 15;
+
+    public static final short LENGTH_AES_128 = 128;
+    public static final short LENGTH_AES_192 = 192;
+    public static final short LENGTH_AES_256 = 256;
+    public static final short LENGTH_RSA_512 = 512;
+    public static final short LENGTH_RSA_1024 = 1024;
+    public static final short LENGTH_RSA_1536 = 1536;
+    public static final short LENGTH_RSA_2048 = 2048;
+    public static final short LENGTH_RSA_3072 = 3072;
+    public static final short LENGTH_RSA_4096 = 4096;
+    public static final short LENGTH_DH_1024 = 1024;
+    public static final short LENGTH_DH_2048 = 2048;
+    public static final short LENGTH_EC_FP_160 = 160;
+    public static final short LENGTH_EC_FP_192 = 192;
+    public static final short LENGTH_EC_FP_224 = 224;
+    public static final short LENGTH_EC_FP_256 = 256;
+    public static final short LENGTH_EC_FP_384 = 384;
+    public static final short LENGTH_EC_FP_521 = 521;
+
+    private static final short[] RSA_LENGTHS = {512, 736, 768, 896, 1024, 1280, 1536, 1984, 2048, 3072, 4096};
+    private static final short[] EC_LENGTHS = {160, 192, 224, 256, 384, 521};
+
+    private KeyBuilder() {
+    }
+
+    public static Key buildKey(byte keyType, short keyLength, boolean keyEncryption) throws CryptoException {
+        switch (keyType) {
+            case TYPE_AES:
+                return build(ALG_TYPE_AES, JCSystem.MEMORY_TYPE_PERSISTENT, keyType, keyLength);
+            case TYPE_AES_TRANSIENT_RESET:
+                return build(ALG_TYPE_AES, JCSystem.MEMORY_TYPE_TRANSIENT_RESET, keyType, keyLength);
+            case TYPE_AES_TRANSIENT_DESELECT:
+                return build(ALG_TYPE_AES, JCSystem.MEMORY_TYPE_TRANSIENT_DESELECT, keyType, keyLength);
+            case TYPE_RSA_PUBLIC:
+                return build(ALG_TYPE_RSA_PUBLIC, JCSystem.MEMORY_TYPE_PERSISTENT, keyType, keyLength);
+            case TYPE_RSA_PRIVATE:
+                return build(ALG_TYPE_RSA_PRIVATE, JCSystem.MEMORY_TYPE_PERSISTENT, keyType, keyLength);
+            case TYPE_RSA_PRIVATE_TRANSIENT_RESET:
+                return build(ALG_TYPE_RSA_PRIVATE, JCSystem.MEMORY_TYPE_TRANSIENT_RESET, keyType, keyLength);
+            case TYPE_RSA_PRIVATE_TRANSIENT_DESELECT:
+                return build(ALG_TYPE_RSA_PRIVATE, JCSystem.MEMORY_TYPE_TRANSIENT_DESELECT, keyType, keyLength);
+            case TYPE_EC_FP_PUBLIC:
+                return build(ALG_TYPE_EC_FP_PUBLIC, JCSystem.MEMORY_TYPE_PERSISTENT, keyType, keyLength);
+            case TYPE_EC_FP_PRIVATE:
+                return build(ALG_TYPE_EC_FP_PRIVATE, JCSystem.MEMORY_TYPE_PERSISTENT, keyType, keyLength);
+            case TYPE_EC_FP_PRIVATE_TRANSIENT_RESET:
+                return build(ALG_TYPE_EC_FP_PRIVATE, JCSystem.MEMORY_TYPE_TRANSIENT_RESET, keyType, keyLength);
+            case TYPE_EC_FP_PRIVATE_TRANSIENT_DESELECT:
+                return build(ALG_TYPE_EC_FP_PRIVATE, JCSystem.MEMORY_TYPE_TRANSIENT_DESELECT, keyType, keyLength);
+            case TYPE_DH_PUBLIC:
+                return build(ALG_TYPE_DH_PUBLIC, JCSystem.MEMORY_TYPE_PERSISTENT, keyType, keyLength);
+            case TYPE_DH_PUBLIC_TRANSIENT_RESET:
+                return build(ALG_TYPE_DH_PUBLIC, JCSystem.MEMORY_TYPE_TRANSIENT_RESET, keyType, keyLength);
+            case TYPE_DH_PUBLIC_TRANSIENT_DESELECT:
+                return build(ALG_TYPE_DH_PUBLIC, JCSystem.MEMORY_TYPE_TRANSIENT_DESELECT, keyType, keyLength);
+            case TYPE_DH_PRIVATE:
+                return build(ALG_TYPE_DH_PRIVATE, JCSystem.MEMORY_TYPE_PERSISTENT, keyType, keyLength);
+            case TYPE_DH_PRIVATE_TRANSIENT_RESET:
+                return build(ALG_TYPE_DH_PRIVATE, JCSystem.MEMORY_TYPE_TRANSIENT_RESET, keyType, keyLength);
+            case TYPE_DH_PRIVATE_TRANSIENT_DESELECT:
+                return build(ALG_TYPE_DH_PRIVATE, JCSystem.MEMORY_TYPE_TRANSIENT_DESELECT, keyType, keyLength);
+            default:
+                CryptoException.throwIt(CryptoException.NO_SUCH_ALGORITHM);
+                return null;
+        }
+    }
+
+    public static Key buildKey(byte algorithmicKeyType, byte keyMemoryType, short keyLength, boolean keyEncryption)
+            throws CryptoException {
+        if (keyMemoryType != JCSystem.MEMORY_TYPE_PERSISTENT && keyMemoryType != JCSystem.MEMORY_TYPE_TRANSIENT_RESET
+                && keyMemoryType != JCSystem.MEMORY_TYPE_TRANSIENT_DESELECT) {
+            CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+        }
+        return build(algorithmicKeyType, keyMemoryType, typeOf(algorithmicKeyType, keyMemoryType), keyLength);
+    }
+
+    private static byte typeOf(byte algorithmicKeyType, byte memoryType) {
+        boolean persistent = memoryType == JCSystem.MEMORY_TYPE_PERSISTENT;
+        boolean reset = memoryType == JCSystem.MEMORY_TYPE_TRANSIENT_RESET;
+        switch (algorithmicKeyType) {
+            case ALG_TYPE_AES:
+                return persistent ? TYPE_AES : reset ? TYPE_AES_TRANSIENT_RESET : TYPE_AES_TRANSIENT_DESELECT;
+            case ALG_TYPE_RSA_PRIVATE:
+                return persistent ? TYPE_RSA_PRIVATE : reset ? TYPE_RSA_PRIVATE_TRANSIENT_RESET
+                        : TYPE_RSA_PRIVATE_TRANSIENT_DESELECT;
+            case ALG_TYPE_EC_FP_PRIVATE:
+                return persistent ? TYPE_EC_FP_PRIVATE : reset ? TYPE_EC_FP_PRIVATE_TRANSIENT_RESET
+                        : TYPE_EC_FP_PRIVATE_TRANSIENT_DESELECT;
+            case ALG_TYPE_DH_PUBLIC:
+                return persistent ? TYPE_DH_PUBLIC : reset ? TYPE_DH_PUBLIC_TRANSIENT_RESET
+                        : TYPE_DH_PUBLIC_TRANSIENT_DESELECT;
+            case ALG_TYPE_DH_PRIVATE:
+                return persistent ? TYPE_DH_PRIVATE : reset ? TYPE_DH_PRIVATE_TRANSIENT_RESET
+                        : TYPE_DH_PRIVATE_TRANSIENT_DESELECT;
+            case ALG_TYPE_RSA_PUBLIC:
+                return TYPE_RSA_PUBLIC;
+            case ALG_TYPE_EC_FP_PUBLIC:
+                return TYPE_EC_FP_PUBLIC;
+            default:
+                CryptoException.throwIt(CryptoException.NO_SUCH_ALGORITHM);
+                return 0;
+        }
+    }
+
+    private static Key build(byte algorithmicKeyType, byte memoryType, byte type, short length) {
+        switch (algorithmicKeyType) {
+            case ALG_TYPE_AES:
+                check(length == 128 || length == 192 || length == 256);
+                return new AESKeyImpl(type, length, memoryType);
+            case ALG_TYPE_RSA_PUBLIC:
+            case ALG_TYPE_RSA_PRIVATE:
+                check(contains(RSA_LENGTHS, length));
+                return new RSAKeyImpl(type, length, memoryType);
+            case ALG_TYPE_EC_FP_PUBLIC:
+            case ALG_TYPE_EC_FP_PRIVATE:
+                check(contains(EC_LENGTHS, length));
+                return new ECKeyImpl(type, length, memoryType, algorithmicKeyType == ALG_TYPE_EC_FP_PUBLIC);
+            case ALG_TYPE_DH_PUBLIC:
+            case ALG_TYPE_DH_PRIVATE:
+                check(Simulator.current().isNativeDh() && contains(RSA_LENGTHS, length));
+                return new DHKeyImpl(type, length, memoryType);
+            default:
+                CryptoException.throwIt(CryptoException.NO_SUCH_ALGORITHM);
+                return null;
+        }
+    }
+
+    private static boolean contains(short[] lengths, short length) {
+        for (short supported : lengths) {
+            if (supported == length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void check(boolean supported) {
+        if (!supported) {
+            CryptoException.throwIt(CryptoException.NO_SUCH_ALGORITHM);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package javacard.security;
+
+import dhapplet.sim.Simulator;
+import java.math.BigInteger;
+import javacard.framework.JCSystem;
+
+/**
+ * Common part of the simulator's keys: the type, the size and the key
+ * components, each kept in a slot of fixed capacity.
+ *
+ * @author Thotheolh
+ */
+abstract class KeyImpl implements Key {
+
+    private final byte type;
+    private final short size;
+    private final byte[][] components;
+    private final short[] lengths;
+
+    /**
+     * Creates the key and charges it to the card's memory.
+     *
+     * @param type KeyBuilder type
+     * @param size in bits
+     * @param memoryType JCSystem.MEMORY_TYPE_*
+     * @param capacities of the components in bytes
+     */
+    KeyImpl(byte type, short size, byte memoryType, int... capacities) {
+        this.type = type;
+        this.size = size;
+        components = new byte[capacities.length][];
+        lengths = new short[capacities.length];
+        int bytes = 0;
+        for (int i = 0; i < capacities.length; i++) {
+            components[i] = new byte[capacities[i]];
+            lengths[i] = -1;
+            bytes += capacities[i];
+        }
+        if (memoryType == JCSystem.MEMORY_TYPE_PERSISTENT) {
+            Simulator.current().allocate(bytes);
+        } else {
+            Simulator.current().makeTransient(this, bytes, memoryType);
+        }
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public short getSize() {
+        return size;
+    }
+
+    public void clearKey() {
+        for (int i = 0; i < components.length; i++) {
+            java.util.Arrays.fill(components[i], (byte) 0);
+            lengths[i] = -1;
+        }
+    }
+
+    void set(int component, byte[] buffer, short offset, short length) {
+        if (length < 0 || length > components[component].length) {
+            CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+        }
+        System.arraycopy(buffer, offset, components[component], 0, length);
+        lengths[component] = length;
+    }
+
+    short get(int component, byte[] buffer, short offset) {
+        if (lengths[component] < 0) {
+            CryptoException.throwIt(CryptoException.UNINITIALIZED_KEY);
+        }
+        System.arraycopy(components[component], 0, buffer, offset, lengths[component]);
+        return lengths[component];
+    }
+
+    boolean has(int component) {
+        return lengths[component] >= 0;
+    }
+
+    byte[] value(int component) {
+        if (lengths[component] < 0) {
+            CryptoException.throwIt(CryptoException.UNINITIALIZED_KEY);
+        }
+        return java.util.Arrays.copyOf(components[component], lengths[component]);
+    }
+
+    BigInteger number(int component) {
+        return new BigInteger(1, value(component));
+    }
+
+    /**
+     * @param value non negative
+     * @param length in bytes
+     * @return value big endian in exactly length bytes
+     */
+    static byte[] toBytes(BigInteger value, int length) {
+        byte[] raw = value.toByteArray();
+        byte[] out = new byte[length];
+        int copy = Math.min(raw.length, length);
+        System.arraycopy(raw, raw.length - copy, out, length - copy, copy);
+        return out;
+    }
+}
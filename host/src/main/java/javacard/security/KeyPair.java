@@ -0,0 +1,185 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package javacard.security;
+
+import dhapplet.sim.Simulator;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.spec.ECPoint;
+
+/**
+ * A public and private key generated together. RSA keys come from the
+ * JDK's generator, EC keys from a random scalar in the curve's order, DH
+ * keys from a random exponent below P.
+ *
+ * @author Thotheolh
+ */
+public final class KeyPair {
+
+    public static final byte ALG_RSA = 1;
+    public static final byte ALG_RSA_CRT = 2;
+    public static final byte ALG_DSA = 3;
+    public static final byte ALG_EC_F2M = 4;
+    public static final byte ALG_EC_FP = 5;
+    public static final byte ALG_DH = 6;
+
+    private final KeyImpl publicKey;
+    private final KeyImpl privateKey;
+
+    /**
+     * Creates the keys of the pair, which stay empty until genKeyPair().
+     *
+     * @param algorithm ALG_RSA, ALG_EC_FP or ALG_DH
+     * @param keyLength in bits
+     */
+    public KeyPair(byte algorithm, short keyLength) throws CryptoException {
+        switch (algorithm) {
+            case ALG_RSA:
+                publicKey = (KeyImpl) KeyBuilder.buildKey(KeyBuilder.TYPE_RSA_PUBLIC, keyLength, false);
+                privateKey = (KeyImpl) KeyBuilder.buildKey(KeyBuilder.TYPE_RSA_PRIVATE, keyLength, false);
+                break;
+            case ALG_EC_FP:
+                publicKey = (KeyImpl) KeyBuilder.buildKey(KeyBuilder.TYPE_EC_FP_PUBLIC, keyLength, false);
+                privateKey = (KeyImpl) KeyBuilder.buildKey(KeyBuilder.TYPE_EC_FP_PRIVATE, keyLength, false);
+                break;
+            case ALG_DH:
+                publicKey = (KeyImpl) KeyBuilder.buildKey(KeyBuilder.TYPE_DH_PUBLIC, keyLength, false);
+                privateKey = (KeyImpl) KeyBuilder.buildKey(KeyBuilder.TYPE_DH_PRIVATE, keyLength, false);
+                break;
+            default:
+                throw new CryptoException(CryptoException.NO_SUCH_ALGORITHM);
+        }
+        Simulator.current().allocate(4);
+    }
+
+    /**
+     * Pairs existing keys of matching kind and size.
+     *
+     * @param publicKey
+     * @param privateKey
+     */
+    public KeyPair(PublicKey publicKey, PrivateKey privateKey) throws CryptoException {
+        if (!(publicKey instanceof KeyImpl) || !(privateKey instanceof KeyImpl)
+                || publicKey.getClass() != privateKey.getClass() || publicKey.getSize() != privateKey.getSize()) {
+            CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+        }
+        this.publicKey = (KeyImpl) publicKey;
+        this.privateKey = (KeyImpl) privateKey;
+        Simulator.current().allocate(4);
+    }
+
+    public PublicKey getPublic() {
+        return (PublicKey) publicKey;
+    }
+
+    public PrivateKey getPrivate() {
+        return (PrivateKey) privateKey;
+    }
+
+    /**
+     * Generates a new key pair. EC and DH keys take the domain parameters of
+     * the public key, or of the private key if the public key has none.
+     */
+    public void genKeyPair() throws CryptoException {
+        if (publicKey instanceof RSAKeyImpl) {
+            genRsa((RSAKeyImpl) publicKey, (RSAKeyImpl) privateKey);
+        } else if (publicKey instanceof ECKeyImpl) {
+            genEc((ECKeyImpl) publicKey, (ECKeyImpl) privateKey);
+        } else {
+            genDh((DHKeyImpl) publicKey, (DHKeyImpl) privateKey);
+        }
+    }
+
+    private static void genRsa(RSAKeyImpl pub, RSAKeyImpl priv) {
+        int bytes = pub.getSize() / 8;
+        java.security.KeyPair pair;
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(pub.getSize(), Simulator.current().getRandom());
+            pair = generator.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new CryptoException(CryptoException.NO_SUCH_ALGORITHM);
+        }
+        byte[] modulus = KeyImpl.toBytes(((RSAPrivateKey) pair.getPrivate()).getModulus(), bytes);
+        byte[] exponent = KeyImpl.toBytes(((RSAPrivateKey) pair.getPrivate()).getPrivateExponent(), bytes);
+        byte[] e = {0x01, 0x00, 0x01};
+        pub.setModulus(modulus, (short) 0, (short) bytes);
+        pub.setExponent(e, (short) 0, (short) e.length);
+        priv.setModulus(modulus, (short) 0, (short) bytes);
+        priv.setExponent(exponent, (short) 0, (short) bytes);
+    }
+
+    private static void genEc(ECKeyImpl pub, ECKeyImpl priv) {
+        if (pub.hasDomain()) {
+            pub.copyDomain(priv);
+        } else if (priv.hasDomain()) {
+            priv.copyDomain(pub);
+        } else {
+            CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+        }
+        java.security.spec.ECParameterSpec spec = pub.spec();
+        BigInteger order = spec.getOrder();
+        BigInteger s;
+        do {
+            s = new BigInteger(order.bitLength(), Simulator.current().getRandom());
+        } while (s.signum() == 0 || s.compareTo(order) >= 0);
+        ECPoint w = EcMath.multiply(spec, spec.getGenerator(), s);
+        byte[] secret = KeyImpl.toBytes(s, pub.fieldLength());
+        byte[] point = pub.encode(w);
+        priv.setS(secret, (short) 0, (short) secret.length);
+        pub.setW(point, (short) 0, (short) point.length);
+    }
+
+    private static void genDh(DHKeyImpl pub, DHKeyImpl priv) {
+        byte[] p = new byte[pub.getSize() / 8];
+        byte[] g = new byte[p.length];
+        DHKeyImpl from = pub.hasDomain() ? pub : priv;
+        short pLength = from.getP(p, (short) 0);
+        short gLength = from.getG(g, (short) 0);
+        BigInteger modulus = new BigInteger(1, java.util.Arrays.copyOf(p, pLength));
+        BigInteger x;
+        do {
+            x = new BigInteger(modulus.bitLength() - 1, Simulator.current().getRandom());
+        } while (x.signum() == 0);
+        BigInteger y = new BigInteger(1, java.util.Arrays.copyOf(g, gLength)).modPow(x, modulus);
+        for (DHKeyImpl key : new DHKeyImpl[] {pub, priv}) {
+            key.setP(p, (short) 0, pLength);
+            key.setG(g, (short) 0, gLength);
+        }
+        byte[] xBytes = KeyImpl.toBytes(x, pLength);
+        byte[] yBytes = KeyImpl.toBytes(y, pLength);
+        priv.setX(xBytes, (short) 0, pLength);
+        pub.setY(yBytes, (short) 0, pLength);
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package javacard.security;
+
+import dhapplet.sim.Simulator;
+import java.security.GeneralSecurityException;
+
+/**
+ * Message digests of the SHA family on the JDK's providers.
+ *
+ * @author Thotheolh
+ */
+public abstract class MessageDigest {
+
+    public static final byte ALG_SHA = 1;
+    public static final byte ALG_MD5 = 2;
+    public static final byte ALG_RIPEMD160 = 3;
+    public static final byte ALG_SHA_256 = 4;
+    public static final byte ALG_SHA_384 = 5;
+    public static final byte ALG_SHA_512 = 6;
+    public static final byte ALG_SHA_224 = 7;
+    public static final byte LENGTH_SHA = 20;
+    public static final byte LENGTH_SHA_224 = 28;
+    public static final byte LENGTH_SHA_256 = 32;
+    public static final byte LENGTH_SHA_384 = 48;
+    public static final byte LENGTH_SHA_512 = 64;
+
+    protected MessageDigest() {
+    }
+
+    public static MessageDigest getInstance(byte algorithm, boolean externalAccess) throws CryptoException {
+        String name = null;
+        switch (algorithm) {
+            case ALG_SHA:
+                name = "SHA-1";
+                break;
+            case ALG_SHA_224:
+                name = "SHA-224";
+                break;
+            case ALG_SHA_256:
+                name = "SHA-256";
+                break;
+            case ALG_SHA_384:
+                name = "SHA-384";
+                break;
+            case ALG_SHA_512:
+                name = "SHA-512";
+                break;
+            default:
+                CryptoException.throwIt(CryptoException.NO_SUCH_ALGORITHM);
+        }
+        try {
+            java.security.MessageDigest digest = java.security.MessageDigest.getInstance(name);
+            Simulator.current().allocate(digest.getDigestLength() * 2 + 64);
+            return new Digest(algorithm, digest);
+        } catch (GeneralSecurityException e) {
+            throw new CryptoException(CryptoException.NO_SUCH_ALGORITHM);
+        }
+    }
+
+    public abstract byte getAlgorithm();
+
+    public abstract byte getLength();
+
+    public abstract short doFinal(byte[] inBuff, short inOffset, short inLength, byte[] outBuff, short outOffset)
+            throws CryptoException;
+
+    public abstract void update(byte[] inBuff, short inOffset, short inLength) throws CryptoException;
+
+    public abstract void reset();
+
+    private static final class Digest extends MessageDigest {
+
+        private final byte algorithm;
+        private final java.security.MessageDigest digest;
+
+        private Digest(byte algorithm, java.security.MessageDigest digest) {
+            this.algorithm = algorithm;
+            this.digest = digest;
+        }
+
+        public byte getAlgorithm() {
+            return algorithm;
+        }
+
+        public byte getLength() {
+            return (byte) digest.getDigestLength();
+        }
+
+        public short doFinal(byte[] inBuff, short inOffset, short inLength, byte[] outBuff, short outOffset) {
+            update(inBuff, inOffset, inLength);
+            byte[] hash = digest.digest();
+            System.arraycopy(hash, 0, outBuff, outOffset, hash.length);
+            return (short) hash.length;
+        }
+
+        public void update(byte[] inBuff, short inOffset, short inLength) {
+            if (inLength < 0 || inOffset < 0 || inOffset + inLength > inBuff.length) {
+                throw new ArrayIndexOutOfBoundsException();
+            }
+            digest.update(inBuff, inOffset, inLength);
+        }
+
+        public void reset() {
+            digest.reset();
+        }
+    }
+}
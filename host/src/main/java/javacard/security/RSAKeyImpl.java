@@ -0,0 +1,75 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package javacard.security;
+
+/**
+ * RSA public or private key.
+ *
+ * @author Thotheolh
+ */
+final class RSAKeyImpl extends KeyImpl implements RSAPrivateKey, RSAPublicKey {
+
+    private static final int MODULUS = 0;
+    private static final int EXPONENT = 1;
+
+    RSAKeyImpl(byte type, short size, byte memoryType) {
+        super(type, size, memoryType, size / 8, size / 8);
+    }
+
+    public boolean isInitialized() {
+        return has(MODULUS) && has(EXPONENT);
+    }
+
+    public void setModulus(byte[] buffer, short offset, short length) {
+        set(MODULUS, buffer, offset, length);
+    }
+
+    public void setExponent(byte[] buffer, short offset, short length) {
+        set(EXPONENT, buffer, offset, length);
+    }
+
+    public short getModulus(byte[] buffer, short offset) {
+        return get(MODULUS, buffer, offset);
+    }
+
+    public short getExponent(byte[] buffer, short offset) {
+        return get(EXPONENT, buffer, offset);
+    }
+
+    java.math.BigInteger modulus() {
+        return number(MODULUS);
+    }
+
+    java.math.BigInteger exponent() {
+        return number(EXPONENT);
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package javacard.security;
+
+import dhapplet.sim.Simulator;
+
+/**
+ * Random numbers from the card's random source, see Simulator.setSeed().
+ *
+ * @author Thotheolh
+ */
+public abstract class RandomData {
+
+    public static final byte ALG_PSEUDO_RANDOM = 1;
+    public static final byte ALG_SECURE_RANDOM = 2;
+    public static final byte ALG_TRNG = 3;
+    public static final byte ALG_KEYGENERATION = 4;
+    public static final byte ALG_FAST = 5;
+
+    protected RandomData() {
+    }
+
+    public static RandomData getInstance(byte algorithm) throws CryptoException {
+        if (algorithm < ALG_PSEUDO_RANDOM || algorithm > ALG_FAST) {
+            CryptoException.throwIt(CryptoException.NO_SUCH_ALGORITHM);
+        }
+        Simulator.current().allocate(8);
+        return new Random(algorithm);
+    }
+
+    public abstract void generateData(byte[] buffer, short offset, short length) throws CryptoException;
+
+    public abstract short nextBytes(byte[] buffer, short offset, short length) throws CryptoException;
+
+    public abstract void setSeed(byte[] buffer, short offset, short length);
+
+    public abstract byte getAlgorithm();
+
+    private static final class Random extends RandomData {
+
+        private final byte algorithm;
+
+        private Random(byte algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        public void generateData(byte[] buffer, short offset, short length) {
+            nextBytes(buffer, offset, length);
+        }
+
+        public short nextBytes(byte[] buffer, short offset, short length) {
+            if (length < 0 || offset < 0 || offset + length > buffer.length) {
+                throw new ArrayIndexOutOfBoundsException();
+            }
+            byte[] bytes = new byte[length];
+            Simulator.current().getRandom().nextBytes(bytes);
+            System.arraycopy(bytes, 0, buffer, offset, length);
+            return (short) (offset + length);
+        }
+
+        public void setSeed(byte[] buffer, short offset, short length) {
+            // Seeding would make the card's random source repeat, which only
+            // the host may ask for
+        }
+
+        public byte getAlgorithm() {
+            return algorithm;
+        }
+    }
+}
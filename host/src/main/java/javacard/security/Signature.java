@@ -0,0 +1,181 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package javacard.security;
+
+import dhapplet.sim.Simulator;
+import java.security.GeneralSecurityException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AES CBC-MAC signatures. After sign() or verify() the MAC starts over with
+ * the key and IV of its last init().
+ *
+ * @author Thotheolh
+ */
+public abstract class Signature {
+
+    public static final byte ALG_AES_MAC_128_NOPAD = 18;
+    public static final byte MODE_SIGN = 1;
+    public static final byte MODE_VERIFY = 2;
+
+    protected Signature() {
+    }
+
+    public static Signature getInstance(byte algorithm, boolean externalAccess) throws CryptoException {
+        if (algorithm != ALG_AES_MAC_128_NOPAD) {
+            CryptoException.throwIt(CryptoException.NO_SUCH_ALGORITHM);
+        }
+        Simulator.current().allocate(48);
+        return new CbcMac();
+    }
+
+    public abstract void init(Key theKey, byte theMode) throws CryptoException;
+
+    public abstract void init(Key theKey, byte theMode, byte[] bArray, short bOff, short bLen) throws CryptoException;
+
+    public abstract byte getAlgorithm();
+
+    public abstract short getLength() throws CryptoException;
+
+    public abstract void update(byte[] inBuff, short inOffset, short inLength) throws CryptoException;
+
+    public abstract short sign(byte[] inBuff, short inOffset, short inLength, byte[] sigBuff, short sigOffset)
+            throws CryptoException;
+
+    public abstract boolean verify(byte[] inBuff, short inOffset, short inLength, byte[] sigBuff, short sigOffset,
+            short sigLength) throws CryptoException;
+
+    private static final class CbcMac extends Signature {
+
+        private static final int BLOCK = 16;
+
+        private final byte[] iv = new byte[BLOCK];
+        private final byte[] chain = new byte[BLOCK];
+        private final byte[] block = new byte[BLOCK];
+        private Cipher aes;
+        private byte mode;
+        private int filled;
+
+        public void init(Key theKey, byte theMode) {
+            init(theKey, theMode, iv, (short) 0, (short) 0);
+        }
+
+        public void init(Key theKey, byte theMode, byte[] bArray, short bOff, short bLen) {
+            if (!(theKey instanceof AESKeyImpl) || (theMode != MODE_SIGN && theMode != MODE_VERIFY)
+                    || (bLen != 0 && bLen != BLOCK)) {
+                CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+            }
+            if (!theKey.isInitialized()) {
+                CryptoException.throwIt(CryptoException.UNINITIALIZED_KEY);
+            }
+            byte[] start = new byte[BLOCK];
+            if (bLen != 0) {
+                System.arraycopy(bArray, bOff, start, 0, BLOCK);
+            }
+            try {
+                aes = Cipher.getInstance("AES/ECB/NoPadding");
+                aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(((AESKeyImpl) theKey).getKey(), "AES"));
+            } catch (GeneralSecurityException e) {
+                throw new CryptoException(CryptoException.NO_SUCH_ALGORITHM);
+            }
+            System.arraycopy(start, 0, iv, 0, BLOCK);
+            mode = theMode;
+            restart();
+        }
+
+        public byte getAlgorithm() {
+            return ALG_AES_MAC_128_NOPAD;
+        }
+
+        public short getLength() {
+            return BLOCK;
+        }
+
+        public void update(byte[] inBuff, short inOffset, short inLength) {
+            if (aes == null) {
+                CryptoException.throwIt(CryptoException.INVALID_INIT);
+            }
+            if (inLength < 0 || inOffset < 0 || inOffset + inLength > inBuff.length) {
+                throw new ArrayIndexOutOfBoundsException();
+            }
+            for (int i = 0; i < inLength; i++) {
+                block[filled++] = inBuff[inOffset + i];
+                if (filled == BLOCK) {
+                    for (int j = 0; j < BLOCK; j++) {
+                        chain[j] ^= block[j];
+                    }
+                    try {
+                        aes.doFinal(chain, 0, BLOCK, chain, 0);
+                    } catch (GeneralSecurityException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    filled = 0;
+                }
+            }
+        }
+
+        public short sign(byte[] inBuff, short inOffset, short inLength, byte[] sigBuff, short sigOffset) {
+            if (mode != MODE_SIGN) {
+                CryptoException.throwIt(CryptoException.INVALID_INIT);
+            }
+            byte[] mac = finish(inBuff, inOffset, inLength);
+            System.arraycopy(mac, 0, sigBuff, sigOffset, BLOCK);
+            return BLOCK;
+        }
+
+        public boolean verify(byte[] inBuff, short inOffset, short inLength, byte[] sigBuff, short sigOffset,
+                short sigLength) {
+            if (mode != MODE_VERIFY) {
+                CryptoException.throwIt(CryptoException.INVALID_INIT);
+            }
+            byte[] mac = finish(inBuff, inOffset, inLength);
+            return sigLength == BLOCK && java.util.Arrays.equals(mac, 0, BLOCK, sigBuff, sigOffset, sigOffset + BLOCK);
+        }
+
+        private byte[] finish(byte[] inBuff, short inOffset, short inLength) {
+            update(inBuff, inOffset, inLength);
+            if (filled != 0) {
+                restart();
+                CryptoException.throwIt(CryptoException.ILLEGAL_USE);
+            }
+            byte[] mac = chain.clone();
+            restart();
+            return mac;
+        }
+
+        private void restart() {
+            System.arraycopy(iv, 0, chain, 0, BLOCK);
+            filled = 0;
+        }
+    }
+}
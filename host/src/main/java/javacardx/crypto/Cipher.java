@@ -0,0 +1,236 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package javacardx.crypto;
+
+import dhapplet.sim.Simulator;
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import javacard.security.AESKey;
+import javacard.security.CryptoException;
+import javacard.security.Key;
+import javacard.security.RSAPrivateKey;
+import javacard.security.RSAPublicKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * AES in CBC and ECB mode without padding on the JDK's provider and raw RSA
+ * on BigInteger. After doFinal() a cipher starts over with the key and IV
+ * of its last init().
+ *
+ * @author Thotheolh
+ */
+public abstract class Cipher {
+
+    public static final byte ALG_RSA_PKCS1 = 10;
+    public static final byte ALG_RSA_NOPAD = 12;
+    public static final byte ALG_AES_BLOCK_128_CBC_NOPAD = 13;
+    public static final byte ALG_AES_BLOCK_128_ECB_NOPAD = 14;
+    public static final byte MODE_DECRYPT = 1;
+    public static final byte MODE_ENCRYPT = 2;
+
+    protected Cipher() {
+    }
+
+    public static Cipher getInstance(byte algorithm, boolean externalAccess) throws CryptoException {
+        switch (algorithm) {
+            case ALG_AES_BLOCK_128_CBC_NOPAD:
+            case ALG_AES_BLOCK_128_ECB_NOPAD:
+                Simulator.current().allocate(32);
+                return new Aes(algorithm);
+            case ALG_RSA_NOPAD:
+                Simulator.current().allocate(16);
+                return new Rsa();
+            default:
+                CryptoException.throwIt(CryptoException.NO_SUCH_ALGORITHM);
+                return null;
+        }
+    }
+
+    public abstract void init(Key theKey, byte theMode) throws CryptoException;
+
+    public abstract void init(Key theKey, byte theMode, byte[] bArray, short bOff, short bLen) throws CryptoException;
+
+    public abstract byte getAlgorithm();
+
+    public abstract short doFinal(byte[] inBuff, short inOffset, short inLength, byte[] outBuff, short outOffset)
+            throws CryptoException;
+
+    public abstract short update(byte[] inBuff, short inOffset, short inLength, byte[] outBuff, short outOffset)
+            throws CryptoException;
+
+    private static void check(byte mode, Key theKey) {
+        if (mode != MODE_ENCRYPT && mode != MODE_DECRYPT) {
+            CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+        }
+        if (!theKey.isInitialized()) {
+            CryptoException.throwIt(CryptoException.UNINITIALIZED_KEY);
+        }
+    }
+
+    private static void check(byte[] buffer, short offset, short length) {
+        if (length < 0 || offset < 0 || offset + length > buffer.length) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+    }
+
+    private static final class Aes extends Cipher {
+
+        private final byte algorithm;
+        private javax.crypto.Cipher aes;
+
+        private Aes(byte algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        public void init(Key theKey, byte theMode) {
+            init(theKey, theMode, new byte[16], (short) 0, (short) 16);
+        }
+
+        public void init(Key theKey, byte theMode, byte[] bArray, short bOff, short bLen) {
+            if (!(theKey instanceof AESKey)) {
+                CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+            }
+            check(theMode, theKey);
+            boolean cbc = algorithm == ALG_AES_BLOCK_128_CBC_NOPAD;
+            if (cbc && bLen != 16) {
+                CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+            }
+            AESKey key = (AESKey) theKey;
+            byte[] keyData = new byte[key.getSize() / 8];
+            key.getKey(keyData, (short) 0);
+            int mode = theMode == MODE_ENCRYPT ? javax.crypto.Cipher.ENCRYPT_MODE : javax.crypto.Cipher.DECRYPT_MODE;
+            try {
+                aes = javax.crypto.Cipher.getInstance(cbc ? "AES/CBC/NoPadding" : "AES/ECB/NoPadding");
+                if (cbc) {
+                    aes.init(mode, new SecretKeySpec(keyData, "AES"), new IvParameterSpec(bArray, bOff, bLen));
+                } else {
+                    aes.init(mode, new SecretKeySpec(keyData, "AES"));
+                }
+            } catch (GeneralSecurityException e) {
+                throw new CryptoException(CryptoException.NO_SUCH_ALGORITHM);
+            }
+        }
+
+        public byte getAlgorithm() {
+            return algorithm;
+        }
+
+        public short doFinal(byte[] inBuff, short inOffset, short inLength, byte[] outBuff, short outOffset) {
+            ready(inBuff, inOffset, inLength);
+            try {
+                return (short) aes.doFinal(inBuff, inOffset, inLength, outBuff, outOffset);
+            } catch (ShortBufferException e) {
+                throw new ArrayIndexOutOfBoundsException();
+            } catch (GeneralSecurityException e) {
+                throw new CryptoException(CryptoException.ILLEGAL_USE);
+            }
+        }
+
+        public short update(byte[] inBuff, short inOffset, short inLength, byte[] outBuff, short outOffset) {
+            ready(inBuff, inOffset, inLength);
+            try {
+                return (short) aes.update(inBuff, inOffset, inLength, outBuff, outOffset);
+            } catch (ShortBufferException e) {
+                throw new ArrayIndexOutOfBoundsException();
+            }
+        }
+
+        private void ready(byte[] inBuff, short inOffset, short inLength) {
+            if (aes == null) {
+                CryptoException.throwIt(CryptoException.INVALID_INIT);
+            }
+            check(inBuff, inOffset, inLength);
+        }
+    }
+
+    private static final class Rsa extends Cipher {
+
+        private BigInteger modulus;
+        private BigInteger exponent;
+
+        public void init(Key theKey, byte theMode) {
+            if (!(theKey instanceof RSAPrivateKey) && !(theKey instanceof RSAPublicKey)) {
+                CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+            }
+            check(theMode, theKey);
+            byte[] buffer = new byte[theKey.getSize() / 8];
+            if (theKey instanceof RSAPrivateKey) {
+                RSAPrivateKey key = (RSAPrivateKey) theKey;
+                modulus = new BigInteger(1, buffer, 0, key.getModulus(buffer, (short) 0));
+                exponent = new BigInteger(1, buffer, 0, key.getExponent(buffer, (short) 0));
+            } else {
+                RSAPublicKey key = (RSAPublicKey) theKey;
+                modulus = new BigInteger(1, buffer, 0, key.getModulus(buffer, (short) 0));
+                exponent = new BigInteger(1, buffer, 0, key.getExponent(buffer, (short) 0));
+            }
+        }
+
+        public void init(Key theKey, byte theMode, byte[] bArray, short bOff, short bLen) {
+            CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+        }
+
+        public byte getAlgorithm() {
+            return ALG_RSA_NOPAD;
+        }
+
+        /**
+         * Raises the input, as long as the modulus, to the exponent.
+         */
+        public short doFinal(byte[] inBuff, short inOffset, short inLength, byte[] outBuff, short outOffset) {
+            if (modulus == null) {
+                CryptoException.throwIt(CryptoException.INVALID_INIT);
+            }
+            check(inBuff, inOffset, inLength);
+            int length = (modulus.bitLength() + 7) / 8;
+            if (inLength != length) {
+                CryptoException.throwIt(CryptoException.ILLEGAL_USE);
+            }
+            BigInteger value = new BigInteger(1, inBuff, inOffset, inLength);
+            if (value.compareTo(modulus) >= 0) {
+                CryptoException.throwIt(CryptoException.ILLEGAL_VALUE);
+            }
+            byte[] raw = value.modPow(exponent, modulus).toByteArray();
+            int copy = Math.min(raw.length, length);
+            check(outBuff, outOffset, (short) length);
+            java.util.Arrays.fill(outBuff, outOffset, outOffset + length - copy, (byte) 0);
+            System.arraycopy(raw, raw.length - copy, outBuff, outOffset + length - copy, copy);
+            return (short) length;
+        }
+
+        public short update(byte[] inBuff, short inOffset, short inLength, byte[] outBuff, short outOffset) {
+            CryptoException.throwIt(CryptoException.ILLEGAL_USE);
+            return 0;
+        }
+    }
+}
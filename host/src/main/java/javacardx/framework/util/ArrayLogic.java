@@ -0,0 +1,186 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package javacardx.framework.util;
+
+import java.lang.reflect.Array;
+
+/**
+ * Copy, fill and compare for arrays of any primitive component type, with
+ * big endian repacking between byte, short and int arrays.
+ *
+ * @author Thotheolh
+ */
+public final class ArrayLogic {
+
+    private ArrayLogic() {
+    }
+
+    public static short arrayCopyRepack(Object src, short srcOff, short srcLen, Object dest, short destOff)
+            throws ArrayIndexOutOfBoundsException, NullPointerException, UtilException {
+        return arrayCopyRepackNonAtomic(src, srcOff, srcLen, dest, destOff);
+    }
+
+    /**
+     * Copies srcLen elements of src into dest as one big endian byte string.
+     *
+     * @return destOff plus the number of dest elements written
+     */
+    public static short arrayCopyRepackNonAtomic(Object src, short srcOff, short srcLen, Object dest, short destOff)
+            throws ArrayIndexOutOfBoundsException, NullPointerException, UtilException {
+        int srcSize = size(src);
+        int destSize = size(dest);
+        bounds(src, srcOff, srcLen);
+        if (srcSize == destSize) {
+            System.arraycopy(src, srcOff, dest, destOff, srcLen);
+            return (short) (destOff + srcLen);
+        }
+        int bytes = srcLen * srcSize;
+        if (bytes % destSize != 0) {
+            UtilException.throwIt(UtilException.ILLEGAL_VALUE);
+        }
+        int count = bytes / destSize;
+        bounds(dest, destOff, (short) count);
+        for (int i = 0; i < count; i++) {
+            long value = 0;
+            for (int b = 0; b < destSize; b++) {
+                int index = i * destSize + b;
+                long element = ((Number) Array.get(src, srcOff + index / srcSize)).longValue();
+                int shift = (srcSize - 1 - index % srcSize) * 8;
+                value = (value << 8) | ((element >> shift) & 0xFF);
+            }
+            set(dest, destOff + i, value);
+        }
+        return (short) (destOff + count);
+    }
+
+    public static short arrayFillGeneric(Object theArray, short off, short len, Object valArray, short valOff)
+            throws ArrayIndexOutOfBoundsException, NullPointerException, UtilException {
+        return arrayFillGenericNonAtomic(theArray, off, len, valArray, valOff);
+    }
+
+    /**
+     * Fills len elements of theArray with valArray[valOff].
+     *
+     * @return off + len
+     */
+    public static short arrayFillGenericNonAtomic(Object theArray, short off, short len, Object valArray,
+            short valOff) throws ArrayIndexOutOfBoundsException, NullPointerException, UtilException {
+        if (theArray.getClass() != valArray.getClass()) {
+            UtilException.throwIt(UtilException.TYPE_MISMATCHED);
+        }
+        size(theArray);
+        bounds(theArray, off, len);
+        Object value = Array.get(valArray, valOff);
+        for (int i = 0; i < len; i++) {
+            Array.set(theArray, off + i, value);
+        }
+        return (short) (off + len);
+    }
+
+    /**
+     * Compares length elements as signed values.
+     *
+     * @return 0 if equal, -1 if src is smaller and 1 if it is greater
+     */
+    public static byte arrayCompareGeneric(Object src, short srcOff, Object dest, short destOff, short length)
+            throws ArrayIndexOutOfBoundsException, NullPointerException, UtilException {
+        if (src.getClass() != dest.getClass()) {
+            UtilException.throwIt(UtilException.TYPE_MISMATCHED);
+        }
+        size(src);
+        bounds(src, srcOff, length);
+        bounds(dest, destOff, length);
+        for (int i = 0; i < length; i++) {
+            long a = ((Number) Array.get(src, srcOff + i)).longValue();
+            long b = ((Number) Array.get(dest, destOff + i)).longValue();
+            if (a != b) {
+                return a < b ? (byte) -1 : (byte) 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the index of the first element equal to valArray[valOff], or
+     * -1
+     */
+    public static short arrayFindGeneric(Object theArray, short off, byte[] valArray, short valOff)
+            throws ArrayIndexOutOfBoundsException, NullPointerException, UtilException {
+        int size = size(theArray);
+        long value = 0;
+        for (int b = 0; b < size; b++) {
+            value = (value << 8) | (valArray[valOff + b] & 0xFF);
+        }
+        int length = Array.getLength(theArray);
+        for (int i = off; i < length; i++) {
+            long element = ((Number) Array.get(theArray, i)).longValue();
+            if ((element & mask(size)) == value) {
+                return (short) i;
+            }
+        }
+        return -1;
+    }
+
+    private static long mask(int size) {
+        return size == 8 ? -1L : (1L << (size * 8)) - 1;
+    }
+
+    private static int size(Object array) {
+        if (array instanceof byte[]) {
+            return 1;
+        } else if (array instanceof short[]) {
+            return 2;
+        } else if (array instanceof int[]) {
+            return 4;
+        } else if (array == null) {
+            throw new NullPointerException();
+        }
+        UtilException.throwIt(UtilException.ILLEGAL_VALUE);
+        return 0;
+    }
+
+    private static void bounds(Object array, short offset, short length) {
+        if (offset < 0 || length < 0 || offset + length > Array.getLength(array)) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+    }
+
+    private static void set(Object array, int index, long value) {
+        if (array instanceof byte[]) {
+            ((byte[]) array)[index] = (byte) value;
+        } else if (array instanceof short[]) {
+            ((short[]) array)[index] = (short) value;
+        } else {
+            ((int[]) array)[index] = (int) value;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import javax.smartcardio.CommandAPDU;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Records DHClient's handshakes with its RecordingTransport and the soak
+ * script with ApduTrace on a simulated card, and replays the traces on
+ * another one.
+ *
+ * @author Thotheolh
+ */
+class ApduTraceTest {
+
+    static final int HANDSHAKES = 2;
+
+    @Test
+    void recordsClientHandshakes() throws IOException {
+        StringWriter trace = new StringWriter();
+        int entries;
+        try (DHClient.RecordingTransport transport = new DHClient.RecordingTransport(
+                SimulatorTransport.install(SimulatorTransport.ALL_SIZES, false, 1), new PrintWriter(trace))) {
+            DHClient.trace(transport, HANDSHAKES);
+            // With Le 256 the card's Y and the tag take two responses, the second fetched with GET RESPONSE
+            DHClient.Group group = new DHClient.Client(transport).getGroup();
+            byte[] response = transport.transmit(new CommandAPDU(DHClient.CLA, DHClient.INS_EXCHANGE, 0x00, 0x00,
+                    DHClient.HostKey.generate(group, new Random(1)).y, 256).getBytes());
+            assertEquals(0x61, response[response.length - 2]);
+            response = transport.transmit(new CommandAPDU(0x00, DHClient.INS_GET_RESPONSE, 0x00, 0x00,
+                    response[response.length - 1] & 0xFF).getBytes());
+            assertEquals(DHClient.TAG_LENGTH + 2, response.length);
+            entries = transport.getEntries();
+        }
+
+        List<ApduTrace.Entry> recorded = ApduTrace.readTrace(trace.toString().lines().toList());
+        assertEquals(entries, recorded.size());
+        int follows = 0;
+        for (int i = 0; i < recorded.size(); i++) {
+            ApduTrace.Entry entry = recorded.get(i);
+            if (entry.follow) {
+                follows++;
+                assertEquals(DHClient.INS_GET_RESPONSE, entry.command[1] & 0xFF);
+                assertEquals(0x61, recorded.get(i - 1).sw >> 8);
+            }
+            assertTrue(entry.sw == DHClient.SW_OK || entry.sw >> 8 == 0x61, ApduTrace.hex(entry.command));
+            assertEquals(trace.toString().lines().toList().get(i), entry.toJson());
+        }
+        assertTrue(follows > 0);
+
+        try (SimulatorTransport card = SimulatorTransport.install(SimulatorTransport.ALL_SIZES, false, 2)) {
+            ApduTrace.Report report = replay(recorded, card, 2);
+            assertEquals(0, report.mismatches);
+            assertEquals(0, report.followUpChanges);
+            // ApduTrace sends GET RESPONSE with the command's class byte, so only the totals match
+            long recordedCount = 0;
+            long replayedCount = 0;
+            for (long[] row : report.stats.values()) {
+                recordedCount += row[0];
+                replayedCount += row[2];
+            }
+            assertEquals(recordedCount, replayedCount);
+            assertEquals(HANDSHAKES * 2, report.stats.get("B0 1F")[2]);
+        }
+    }
+
+    @Test
+    void replayReportsChangedStatusWords() throws IOException {
+        StringWriter trace = new StringWriter();
+        try (DHClient.RecordingTransport transport = new DHClient.RecordingTransport(
+                SimulatorTransport.install(SimulatorTransport.ALL_SIZES, false, 3), new PrintWriter(trace))) {
+            DHClient.Client client = new DHClient.Client(transport);
+            client.select();
+            assertArrayEquals(new byte[]{(byte) 0x90, 0x00}, transport.transmit(new byte[]{(byte) DHClient.CLA,
+                DHClient.INS_SET, DHClient.P1_GROUP, 15}));
+            DHClient.trace(transport, 1);
+        }
+
+        // A card with only the 2048 bit group refuses the 3072 bit one
+        List<ApduTrace.Entry> recorded = ApduTrace.readTrace(trace.toString().lines().toList());
+        try (SimulatorTransport card = SimulatorTransport.install(new byte[]{0x01, 0x01, 0x01}, false, 3)) {
+            ApduTrace.Report report = replay(recorded, card, 1);
+            assertTrue(report.mismatches > 0);
+            assertTrue(report.stats.containsKey("B0 12"));
+        }
+    }
+
+    @Test
+    void recordsTheSoakScript() throws IOException {
+        StringWriter trace = new StringWriter();
+        try (SimulatorTransport card = SimulatorTransport.install(SimulatorTransport.ALL_SIZES, false, 4);
+                PrintWriter out = new PrintWriter(trace)) {
+            int lines = ApduTrace.record(ApduTrace.parseScript("../scripts/soak.scr"), card, out);
+            out.flush();
+            assertEquals(lines, trace.toString().lines().count());
+        }
+
+        List<ApduTrace.Entry> recorded = ApduTrace.readTrace(trace.toString().lines().toList());
+        for (ApduTrace.Entry entry : recorded) {
+            assertTrue(entry.isReset() || entry.sw == DHClient.SW_OK || entry.sw >> 8 == 0x61,
+                    ApduTrace.hex(entry.command));
+        }
+        try (SimulatorTransport card = SimulatorTransport.install(SimulatorTransport.ALL_SIZES, false, 5)) {
+            ApduTrace.Report report = replay(recorded, card, 1);
+            assertEquals(0, report.mismatches);
+            assertEquals(0, report.followUpChanges);
+        }
+    }
+
+    /**
+     * Replays a trace and checks that every difference was logged.
+     */
+    static ApduTrace.Report replay(List<ApduTrace.Entry> recorded, ApduTrace.Transport card, int runs)
+            throws IOException {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        ApduTrace.Report report = ApduTrace.replay(recorded, card, runs,
+                new PrintStream(log, true, StandardCharsets.US_ASCII));
+        assertEquals(report.mismatches + report.followUpChanges,
+                log.toString(StandardCharsets.US_ASCII).lines().count());
+        return report;
+    }
+}
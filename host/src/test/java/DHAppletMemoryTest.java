@@ -0,0 +1,75 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import dhapplet.sim.Simulator;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Checks that DHApplet allocates nothing after installation: a long run of
+ * handshakes leaves the card's persistent and transient memory as the
+ * install left them.
+ *
+ * @author Thotheolh
+ */
+class DHAppletMemoryTest {
+
+    static final int CYCLES = 1000;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void handshakesAllocateNothing(boolean nativeDh) throws IOException {
+        try (SimulatorTransport transport = SimulatorTransport.install(SimulatorTransport.ALL_SIZES, nativeDh, CYCLES)) {
+            Simulator card = transport.getCard();
+            int persistent = card.getAvailablePersistent();
+            int transientMemory = card.getAvailableTransient();
+
+            DHClient.Client client = new DHClient.Client(transport);
+            client.select();
+            DHClient.Group group = client.getGroup();
+            DHClient.HostKey key = DHClient.HostKey.generate(group, new Random(CYCLES));
+            for (int i = 0; i < CYCLES; i++) {
+                client.init();
+                client.getY(group.length);
+                client.setY(key.y);
+                client.doFinal();
+            }
+
+            assertEquals(persistent, card.getAvailablePersistent(), "persistent memory");
+            assertEquals(transientMemory, card.getAvailableTransient(), "transient memory");
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+/**
+ * Runs DHClient's handshakes against DHApplet on a simulated card.
+ *
+ * @author Thotheolh
+ */
+class DHClientTest {
+
+    static final int HANDSHAKES = 3;
+
+    @ParameterizedTest
+    @CsvSource({"14, false", "15, false", "16, false", "14, true", "15, true", "16, true"})
+    void handshake(int groupId, boolean nativeDh) throws IOException {
+        try (SimulatorTransport transport = SimulatorTransport.install(SimulatorTransport.ALL_SIZES, nativeDh, groupId)) {
+            DHClient.Client client = new DHClient.Client(transport);
+            client.select();
+            DHClient.Group group = selectGroup(transport, client, groupId);
+            Random random = new Random(groupId);
+            for (int i = 0; i < HANDSHAKES; i++) {
+                byte[] material = client.handshake(DHClient.HostKey.generate(group, random));
+                assertEquals(DHClient.kdf(new byte[group.length]).length, material.length);
+            }
+            assertCompleted(client, HANDSHAKES);
+        }
+    }
+
+    @ParameterizedTest
+    @CsvSource({"14, false", "16, true"})
+    void handshakeAsync(int groupId, boolean nativeDh) throws IOException {
+        try (SimulatorTransport transport = SimulatorTransport.install(SimulatorTransport.ALL_SIZES, nativeDh, groupId);
+                ExecutorService io = Executors.newVirtualThreadPerTaskExecutor()) {
+            DHClient.Client client = new DHClient.Client(transport);
+            client.select();
+            DHClient.Group group = selectGroup(transport, client, groupId);
+            DHClient.KeyPool pool = new DHClient.KeyPool(group, 2, ForkJoinPool.commonPool());
+            byte[] previous = null;
+            for (int i = 0; i < HANDSHAKES; i++) {
+                byte[] material = client.handshakeAsync(group, pool.take(), io, ForkJoinPool.commonPool()).join();
+                if (previous != null) {
+                    assertFalse(Arrays.equals(previous, material));
+                }
+                previous = material;
+            }
+            assertCompleted(client, HANDSHAKES);
+        }
+    }
+
+    @Test
+    void reusedHostKeyGivesFreshMaterial() throws IOException {
+        try (SimulatorTransport transport = SimulatorTransport.install(SimulatorTransport.ALL_SIZES, false, 1);
+                ExecutorService io = Executors.newVirtualThreadPerTaskExecutor()) {
+            DHClient.Client client = new DHClient.Client(transport);
+            client.select();
+            DHClient.Group group = client.getGroup();
+            DHClient.HostKey key = DHClient.HostKey.generate(group, new Random(1));
+
+            // The card's key is fresh each time, so only the sides of one handshake agree
+            byte[] step = client.handshake(key);
+            byte[] async = client.handshakeAsync(group, CompletableFuture.completedFuture(key), io,
+                    ForkJoinPool.commonPool()).join();
+            assertEquals(step.length, async.length);
+            assertFalse(Arrays.equals(step, async));
+        }
+    }
+
+    @Test
+    void wrongTagFailsTheHandshake() throws IOException {
+        try (SimulatorTransport card = SimulatorTransport.install(SimulatorTransport.ALL_SIZES, false, 2);
+                ExecutorService io = Executors.newVirtualThreadPerTaskExecutor()) {
+            // Flips a bit of every TEST tag on its way to the host
+            DHClient.Transport transport = new DHClient.Transport() {
+                @Override
+                public byte[] transmit(byte[] command) throws IOException {
+                    byte[] response = card.transmit(command);
+                    if (command[1] == DHClient.INS_TEST && response.length > 2) {
+                        response[0] ^= 0x01;
+                    }
+                    return response;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            DHClient.Client client = new DHClient.Client(transport);
+            client.select();
+            DHClient.Group group = client.getGroup();
+            DHClient.HostKey key = DHClient.HostKey.generate(group, new Random(2));
+
+            IOException step = assertThrows(IOException.class, () -> client.handshake(key));
+            assertEquals("key confirmation failed", step.getMessage());
+            CompletionException async = assertThrows(CompletionException.class, () -> client.handshakeAsync(group,
+                    CompletableFuture.completedFuture(key), io, ForkJoinPool.commonPool()).join());
+            assertInstanceOf(IOException.class, async.getCause());
+        }
+    }
+
+    @Test
+    void closedTransportRefusesCommands() throws IOException {
+        SimulatorTransport transport = SimulatorTransport.install(SimulatorTransport.ALL_SIZES, false, 3);
+        DHClient.Client client = new DHClient.Client(transport);
+        client.select();
+        transport.close();
+        assertThrows(IOException.class, client::init);
+        assertArrayEquals(new byte[]{0x69, (byte) 0x86},
+                transport.getCard().transmit(new byte[]{(byte) DHClient.CLA, DHClient.INS_INIT, 0x00, 0x00}));
+    }
+
+    /**
+     * Selects a group with INS_SET P1_GROUP and reads it back.
+     */
+    static DHClient.Group selectGroup(SimulatorTransport transport, DHClient.Client client, int groupId)
+            throws IOException {
+        byte[] response = transport.transmit(new byte[]{(byte) DHClient.CLA, DHClient.INS_SET, DHClient.P1_GROUP,
+            (byte) groupId});
+        assertArrayEquals(new byte[]{(byte) 0x90, 0x00}, response);
+        DHClient.Group group = client.getGroup();
+        assertEquals(groupId, group.id);
+        return group;
+    }
+
+    static void assertCompleted(DHClient.Client client, int handshakes) throws IOException {
+        ByteBuffer stats = ByteBuffer.wrap(client.stats(false));
+        assertEquals(handshakes, stats.getInt(DHClient.STATS_STARTED));
+        assertEquals(handshakes, stats.getInt(DHClient.STATS_COMPLETED));
+        assertEquals(handshakes, stats.getInt(DHClient.STATS_TESTS));
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Runs DHClient's handshakes against a ModExp card on the groups of
+ * DHApplet, read from a simulated card, and checks ModExp against
+ * BigInteger.modPow.
+ *
+ * @author Thotheolh
+ */
+class ModExpTest {
+
+    @ParameterizedTest
+    @ValueSource(ints = {14, 15, 16})
+    void handshake(int groupId) throws IOException {
+        DHClient.Group group = appletGroup(groupId);
+        try (ModExpTransport transport = new ModExpTransport(group);
+                ExecutorService io = Executors.newVirtualThreadPerTaskExecutor()) {
+            DHClient.Client client = new DHClient.Client(transport);
+            client.select();
+            assertEquals(groupId, client.getGroup().id);
+            Random random = new Random(groupId);
+            byte[] previous = null;
+            for (int i = 0; i < DHClientTest.HANDSHAKES; i++) {
+                byte[] material = client.handshake(DHClient.HostKey.generate(group, random));
+                if (previous != null) {
+                    assertFalse(Arrays.equals(previous, material));
+                }
+                previous = material;
+            }
+            DHClient.KeyPool pool = new DHClient.KeyPool(group, 2, ForkJoinPool.commonPool());
+            for (int i = 0; i < DHClientTest.HANDSHAKES; i++) {
+                client.handshakeAsync(group, pool.take(), io, ForkJoinPool.commonPool()).join();
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {14, 15, 16})
+    void agreesWithModPow(int groupId) {
+        DHClient.Group group = appletGroup(groupId);
+        ModExp engine = new ModExpTransport(group).getEngine();
+        Random random = new Random(groupId);
+        byte[] out = new byte[group.length];
+        for (int i = 0; i < 8; i++) {
+            BigInteger x = new BigInteger(DHClient.EXP_LENGTH * 8, random).setBit(DHClient.EXP_LENGTH * 8 - 1);
+            engine.init(DHClient.fixed(x, group.length), 0);
+            engine.getY(out, 0);
+            assertArrayEquals(DHClient.fixed(group.g.modPow(x, group.p), group.length), out);
+
+            BigInteger y = new BigInteger(group.length * 8, random).mod(group.p);
+            engine.setY(DHClient.fixed(y, group.length), 0, group.length, 0);
+            engine.doFinal(out, 0);
+            assertArrayEquals(DHClient.fixed(y.modPow(x, group.p), group.length), out);
+        }
+
+        // 0, 1 and P - 1 are the edges of the final reduction
+        BigInteger x = BigInteger.valueOf(3);
+        engine.init(DHClient.fixed(x, group.length), 0);
+        for (BigInteger y : new BigInteger[]{BigInteger.ZERO, BigInteger.ONE, group.p.subtract(BigInteger.ONE)}) {
+            engine.setY(DHClient.fixed(y, group.length), 0, group.length, 0);
+            engine.doFinal(out, 0);
+            assertArrayEquals(DHClient.fixed(y.modPow(x, group.p), group.length), out);
+        }
+    }
+
+    @Test
+    void finalNeedsInit() throws IOException {
+        try (ModExpTransport transport = new ModExpTransport(DHClient.defaultGroup())) {
+            DHClient.Client client = new DHClient.Client(transport);
+            client.select();
+            DHClient.StatusException e = assertThrows(DHClient.StatusException.class, client::doFinal);
+            assertEquals(0x6985, e.sw);
+            e = assertThrows(DHClient.StatusException.class, client::test);
+            assertEquals(0x6985, e.sw);
+        }
+    }
+
+    /**
+     * Reads a group from DHApplet on a simulated card.
+     */
+    static DHClient.Group appletGroup(int groupId) {
+        try (SimulatorTransport card = SimulatorTransport.install(SimulatorTransport.ALL_SIZES, false, groupId)) {
+            DHClient.Client client = new DHClient.Client(card);
+            client.select();
+            return DHClientTest.selectGroup(card, client, groupId);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A DHClient transport to a software card that answers the step by step
+ * handshake commands of DHApplet with a ModExp engine, for checking ModExp
+ * against the host's BigInteger handshakes and running the host tools at
+ * host speed.
+ *
+ * The card knows one group, which GET P1_GROUP reports without the applet's
+ * sizes byte, and keeps the last S it computed for INS_TEST like the applet.
+ * Other commands answer 6D00 or 6A86.
+ *
+ * @author Thotheolh
+ */
+class ModExpTransport implements DHClient.Transport {
+
+    private final DHClient.Group group;
+    private final ModExp engine;
+    private final byte[] secret;
+    private byte[] material;
+    private boolean initialized;
+    private boolean closed;
+
+    /**
+     * @param group the card's group, from a card or from DHClient
+     */
+    ModExpTransport(DHClient.Group group) {
+        this.group = group;
+        engine = new ModExp(group.length);
+        engine.setExpLength(DHClient.EXP_LENGTH);
+        engine.setP(DHClient.fixed(group.p, group.length), 0, group.length, 0);
+        engine.setG(DHClient.fixed(group.g, group.length), 0, group.length, 0);
+        secret = new byte[group.length];
+    }
+
+    ModExp getEngine() {
+        return engine;
+    }
+
+    @Override
+    public byte[] transmit(byte[] command) throws IOException {
+        if (closed) {
+            throw new IOException("transport closed");
+        }
+        int ins = command[1] & 0xFF;
+        int p1 = command[2] & 0xFF;
+        int offset = (command[3] & 0xFF) * DHClient.OFFSET_UNIT;
+        if ((command[0] & 0xFF) == 0x00 && ins == 0xA4) {
+            return status(DHClient.SW_OK);
+        }
+        if ((command[0] & 0xFC) != DHClient.CLA) {
+            return status(0x6E00);
+        }
+        switch (ins) {
+            case DHClient.INS_INIT:
+                engine.init();
+                initialized = true;
+                material = null;
+                return status(DHClient.SW_OK);
+            case DHClient.INS_GET:
+                if (p1 == DHClient.P1_GROUP) {
+                    return response(new byte[]{(byte) group.id, (byte) (group.length >> 8), (byte) group.length, 0});
+                }
+                byte[] value;
+                if (p1 == DHClient.P1_Y) {
+                    value = new byte[group.length];
+                    engine.getY(value, 0);
+                } else if (p1 == DHClient.P1_P) {
+                    value = DHClient.fixed(group.p, group.length);
+                } else if (p1 == DHClient.P1_G) {
+                    value = DHClient.fixed(group.g, group.length);
+                } else {
+                    return status(0x6A86);
+                }
+                int le = command.length > 4 ? (command[4] == 0 ? 256 : command[4] & 0xFF) : 256;
+                if (offset >= group.length) {
+                    return status(0x6A86);
+                }
+                return response(Arrays.copyOfRange(value, offset, Math.min(group.length, offset + le)));
+            case DHClient.INS_SET:
+                if (p1 != DHClient.P1_Y) {
+                    return status(0x6A86);
+                }
+                int lc = command.length > 4 ? command[4] & 0xFF : 0;
+                if (lc == 0 || command.length < 5 + lc || offset + lc > group.length) {
+                    return status(0x6700);
+                }
+                engine.setY(command, 5, lc, offset);
+                return status(DHClient.SW_OK);
+            case DHClient.INS_FINAL:
+                if (!initialized) {
+                    return status(0x6985);
+                }
+                engine.doFinal(secret, 0);
+                material = DHClient.kdf(secret);
+                initialized = false;
+                return status(DHClient.SW_OK);
+            case DHClient.INS_TEST:
+                if (material == null) {
+                    return status(0x6985);
+                }
+                return response(DHClient.confirmTag(material));
+            default:
+                return status(0x6D00);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    private static byte[] response(byte[] data) {
+        byte[] out = Arrays.copyOf(data, data.length + 2);
+        out[data.length] = (byte) 0x90;
+        return out;
+    }
+
+    private static byte[] status(int sw) {
+        return new byte[]{(byte) (sw >> 8), (byte) sw};
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import dhapplet.sim.Simulator;
+import java.io.IOException;
+
+/**
+ * A DHClient and ApduTrace transport to a simulated card with DHApplet
+ * installed, for running the host tools against the applet sources without a
+ * reader.
+ *
+ * Closing the transport resets the card, as PcscTransport resets the card it
+ * disconnects from.
+ *
+ * @author Thotheolh
+ */
+class SimulatorTransport implements DHClient.Transport, ApduTrace.Transport {
+
+    // Install parameters enabling the 2048, 3072 and 4096 bit groups
+    static final byte[] ALL_SIZES = {0x01, 0x01, 0x07};
+
+    private final Simulator card;
+    private boolean closed;
+
+    /**
+     * @param card a simulator with DHApplet installed under DHClient.AID
+     */
+    SimulatorTransport(Simulator card) {
+        this.card = card;
+    }
+
+    /**
+     * Installs DHApplet on a new simulated card.
+     *
+     * @param parameters the applet's install parameters
+     * @param nativeDh whether the card supports KeyAgreement.ALG_DH_PLAIN
+     * @param seed seeds the card's random numbers
+     * @return a transport to the card
+     */
+    static SimulatorTransport install(byte[] parameters, boolean nativeDh, long seed) {
+        Simulator card = new Simulator();
+        card.setNativeDh(nativeDh);
+        card.setSeed(seed);
+        card.install("dhapplet.DHApplet", DHClient.AID, parameters);
+        return new SimulatorTransport(card);
+    }
+
+    Simulator getCard() {
+        return card;
+    }
+
+    @Override
+    public byte[] transmit(byte[] command) throws IOException {
+        if (closed) {
+            throw new IOException("transport closed");
+        }
+        return card.transmit(command);
+    }
+
+    @Override
+    public void reset() throws IOException {
+        if (closed) {
+            throw new IOException("transport closed");
+        }
+        card.reset();
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            card.reset();
+        }
+    }
+}
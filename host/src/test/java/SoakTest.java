@@ -0,0 +1,166 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dhapplet.sim.Simulator;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Runs DHClient's soak run and the soak script on a simulated card, and
+ * checks that both fail on the faults they look for.
+ *
+ * @author Thotheolh
+ */
+class SoakTest {
+
+    static final Path SCRIPT = Path.of("..", "scripts", "soak.scr");
+    static final int HANDSHAKES = 64;
+    static final int SAMPLE = 16;
+
+    // The simulator's times swing with the host's JIT and GC, so the drift
+    // check is left to runs on cards
+    static final int DRIFT = 10000;
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void soakPasses(boolean nativeDh) throws IOException {
+        try (SimulatorTransport transport = SimulatorTransport.install(new byte[0], nativeDh, DHClient.SOAK_SEED)) {
+            DHClient.Client client = new DHClient.Client(transport);
+            client.select();
+
+            // The first handshake may still initialize classes of the host
+            client.handshake(DHClient.HostKey.generate(client.getGroup(), new Random(1)));
+            Simulator card = transport.getCard();
+            long allocations = card.getAllocations();
+            DHClient.soak(client, HANDSHAKES, SAMPLE, DRIFT);
+            assertEquals(allocations, card.getAllocations(), "objects allocated during the soak run");
+        }
+    }
+
+    @Test
+    void soakFailsOnChangedMemory() throws IOException {
+        try (SimulatorTransport card = SimulatorTransport.install(new byte[0], false, DHClient.SOAK_SEED)) {
+            // Reports a byte less of available persistent memory from the second sample on
+            DHClient.Transport transport = new DHClient.Transport() {
+                private int samples;
+
+                @Override
+                public byte[] transmit(byte[] command) throws IOException {
+                    byte[] response = card.transmit(command);
+                    if (command[1] == DHClient.INS_STATS && command[2] == 0x00 && ++samples > 1) {
+                        response[DHClient.STATS_MEMORY + 3]--;
+                    }
+                    return response;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            DHClient.Client client = new DHClient.Client(transport);
+            client.select();
+            IOException e = assertThrows(IOException.class,
+                    () -> DHClient.soak(client, HANDSHAKES, SAMPLE, DRIFT));
+            assertEquals("available memory changed after " + 2 * SAMPLE + " handshakes", e.getMessage());
+        }
+    }
+
+    @Test
+    void soakFailsOnFailedCommands() throws IOException {
+        try (SimulatorTransport transport = SimulatorTransport.install(new byte[0], false, DHClient.SOAK_SEED)) {
+            DHClient.Client client = new DHClient.Client(transport);
+            client.select();
+
+            // A FINAL with a one byte Y fails on the card, in the middle of the first window
+            DHClient.Transport faulty = new DHClient.Transport() {
+                private int inits;
+
+                @Override
+                public byte[] transmit(byte[] command) throws IOException {
+                    if (command[1] == DHClient.INS_INIT && ++inits == SAMPLE / 2) {
+                        transport.transmit(new byte[]{(byte) DHClient.CLA, DHClient.INS_FINAL, 0x00, 0x00, 0x01, 0x00});
+                    }
+                    return transport.transmit(command);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            IOException e = assertThrows(IOException.class,
+                    () -> DHClient.soak(new DHClient.Client(faulty), HANDSHAKES, SAMPLE, DRIFT));
+            assertEquals("the card counted failed commands after " + SAMPLE + " handshakes", e.getMessage());
+        }
+    }
+
+    @Test
+    void scriptIsTheSoakRuns() throws IOException {
+        assertEquals(DHClient.script(32), Files.readString(SCRIPT));
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void scriptPasses(boolean nativeDh) throws IOException {
+        try (SimulatorTransport transport = SimulatorTransport.install(new byte[0], nativeDh, DHClient.SOAK_SEED)) {
+            assertEquals(32, DHClient.checkScript(transport, Files.readString(SCRIPT)));
+        }
+    }
+
+    @Test
+    void scriptFailsOnAnotherHostKey() throws IOException {
+        // The first SET of the first handshake sends other bytes of the host's Y
+        String script = Files.readString(SCRIPT);
+        int set = script.indexOf("0xB0 0x12 0x01 0x00 0x80 ") + "0xB0 0x12 0x01 0x00 0x80 ".length();
+        String changed = script.substring(0, set) + "0x00" + script.substring(set + 4);
+        try (SimulatorTransport transport = SimulatorTransport.install(new byte[0], false, DHClient.SOAK_SEED)) {
+            IOException e = assertThrows(IOException.class, () -> DHClient.checkScript(transport, changed));
+            assertEquals("handshake 1: key confirmation failed", e.getMessage());
+        }
+    }
+
+    @Test
+    void scriptWithoutSamplesFails() throws IOException {
+        try (SimulatorTransport transport = SimulatorTransport.install(new byte[0], false, DHClient.SOAK_SEED)) {
+            IOException e = assertThrows(IOException.class, () -> DHClient.checkScript(transport, DHClient.script(4)));
+            assertTrue(e.getMessage().contains("no INS_STATS samples"));
+        }
+    }
+}
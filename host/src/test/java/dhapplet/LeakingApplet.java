@@ -0,0 +1,91 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet;
+
+import javacard.framework.APDU;
+import javacard.framework.Applet;
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+
+/**
+ * An applet that allocates on every command, for checking that the
+ * simulator charges the objects an applet creates.
+ *
+ * @author Thotheolh
+ */
+public class LeakingApplet extends Applet {
+
+    public static final byte INS_BYTES = 0x01;
+    public static final byte INS_MATRIX = 0x02;
+    public static final byte INS_NODE = 0x03;
+
+    // Part of the static image, not charged when the class is initialized
+    static final byte[] TABLE = {0x01, 0x02, 0x03, 0x04};
+
+    private Object last;
+
+    /**
+     * An object with one field of each size.
+     */
+    static class Node {
+
+        byte tag;
+        short length;
+        Object next;
+    }
+
+    public static void install(byte[] bArray, short bOffset, byte bLength) {
+        new LeakingApplet().register();
+    }
+
+    public void process(APDU apdu) {
+        if (selectingApplet()) {
+            return;
+        }
+        byte[] buffer = apdu.getBuffer();
+        switch (buffer[ISO7816.OFFSET_INS]) {
+            case INS_BYTES:
+                last = new byte[buffer[ISO7816.OFFSET_P1] & 0xFF];
+                return;
+            case INS_MATRIX:
+                last = new short[3][2];
+                return;
+            case INS_NODE:
+                Node node = new Node();
+                node.next = last;
+                last = node;
+                return;
+            default:
+                ISOException.throwIt(ISO7816.SW_INS_NOT_SUPPORTED);
+        }
+    }
+}
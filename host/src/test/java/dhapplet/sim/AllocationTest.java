@@ -0,0 +1,96 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet.sim;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+
+import dhapplet.LeakingApplet;
+import javacard.framework.SystemException;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the simulator charges what an applet creates with new.
+ *
+ * @author Thotheolh
+ */
+class AllocationTest {
+
+    static final byte[] AID = {(byte) 0xED, (byte) 0xE4, (byte) 0xFB, (byte) 0xEB, (byte) 0x9E, (byte) 0x01};
+    static final byte[] OK = {(byte) 0x90, 0x00};
+
+    private static Simulator install(int persistentMemory) {
+        Simulator card = new Simulator(Simulator.DEFAULT_BUFFER, persistentMemory, Simulator.DEFAULT_TRANSIENT);
+        card.install(LeakingApplet.class.getName(), AID, new byte[0]);
+        assertArrayEquals(OK, card.select(AID));
+        return card;
+    }
+
+    private static byte[] send(Simulator card, byte ins, int p1) {
+        return card.transmit(new byte[]{0x00, ins, (byte) p1, 0x00});
+    }
+
+    @Test
+    void arraysAreCharged() {
+        Simulator card = install(Simulator.DEFAULT_PERSISTENT);
+        int available = card.getAvailablePersistent();
+        assertArrayEquals(OK, send(card, LeakingApplet.INS_BYTES, 100));
+        assertEquals(available - Simulator.OBJECT_HEADER - 100, card.getAvailablePersistent());
+
+        // The outer array of references and the three inner arrays
+        available = card.getAvailablePersistent();
+        assertArrayEquals(OK, send(card, LeakingApplet.INS_MATRIX, 0));
+        assertEquals(available - Simulator.OBJECT_HEADER - 3 * 2 - 3 * (Simulator.OBJECT_HEADER + 2 * 2),
+                card.getAvailablePersistent());
+    }
+
+    @Test
+    void objectsAreChargedWithTheirFields() {
+        Simulator card = install(Simulator.DEFAULT_PERSISTENT);
+        int available = card.getAvailablePersistent();
+        assertArrayEquals(OK, send(card, LeakingApplet.INS_NODE, 0));
+        assertEquals(available - Simulator.OBJECT_HEADER - 1 - 2 - 2, card.getAvailablePersistent());
+    }
+
+    @Test
+    void usedUpMemoryFailsTheNew() {
+        Simulator card = install(1024);
+        byte[] response;
+        do {
+            response = send(card, LeakingApplet.INS_BYTES, 200);
+        } while (response[0] == (byte) 0x90);
+        assertArrayEquals(new byte[]{0x6F, 0x00}, response);
+        SystemException e = assertInstanceOf(SystemException.class, card.getLastException());
+        assertEquals(SystemException.NO_RESOURCE, e.getReason());
+    }
+}
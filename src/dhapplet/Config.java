@@ -0,0 +1,354 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet;
+
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import javacard.framework.Util;
+
+/**
+ * The install time configuration of DHApplet, read from the TLVs of the
+ * applet specific install parameters and fitted to the card's memory.
+ *
+ * Tags:
+ *
+ * TAG_SIZES (1): mask of DH.SIZE_2048, DH.SIZE_3072 and DH.SIZE_4096
+ * TAG_SESSIONS (1): number of logical channel sessions, 1 to MAX_SESSIONS
+ * TAG_CLIENTS (n): AIDs of the KeyAgreementService clients, each of 5 to 16
+ * bytes and preceded by its length
+ * TAG_BACKEND (1): mask of BACKEND_NO_NATIVE_DH and BACKEND_NO_EC
+ * TAG_POOL (1): capacity of the KeyPool
+ * TAG_TICKETS (1): capacity of the TicketCache, at least 1
+ * TAG_KEYS (1): capacity of the KeyTable, at least 1
+ * TAG_PLACEMENT (1): mask of PLACE_Y, PLACE_SESSIONS and PLACE_KEYS for the
+ * buffers to keep in persistent instead of transient memory
+ *
+ * Any other length, a TLV running past the parameters, a mask with unknown
+ * bits or a value out of range fails the install with SW_WRONG_DATA.
+ *
+ * The buffers are allocated one after the other and place() moves a buffer to
+ * persistent memory if it does not fit the transient memory left, while fit()
+ * shrinks the pool, the ticket cache and the key table to the memory left.
+ * A card with plenty of RAM keeps everything transient and at the configured
+ * capacities, a small card trades speed for footprint. The effective
+ * configuration is reported by write().
+ *
+ * @author Thotheolh
+ */
+public class Config {
+
+    public static final byte TAG_SIZES = (byte) 0x01;
+    public static final byte TAG_SESSIONS = (byte) 0x02;
+    public static final byte TAG_CLIENTS = (byte) 0x03;
+    public static final byte TAG_BACKEND = (byte) 0x04;
+    public static final byte TAG_POOL = (byte) 0x05;
+    public static final byte TAG_TICKETS = (byte) 0x06;
+    public static final byte TAG_KEYS = (byte) 0x07;
+    public static final byte TAG_PLACEMENT = (byte) 0x08;
+
+    public static final byte BACKEND_NO_NATIVE_DH = (byte) 0x01;
+    public static final byte BACKEND_NO_EC = (byte) 0x02;
+
+    public static final byte PLACE_Y = (byte) 0x01;
+    public static final byte PLACE_SESSIONS = (byte) 0x02;
+    public static final byte PLACE_KEYS = (byte) 0x04;
+
+    public static final byte MAX_SESSIONS = 4;
+    public static final short MAX_CAPACITY = 32;
+    public static final short LENGTH = 10;
+
+    // Memory kept free of each type for the smaller allocations
+    private static final short RESERVE = 256;
+
+    private byte sizes = DH.SIZE_2048;
+    private byte sessions = 1;
+    private byte backend;
+    private byte placement;
+    private short poolCapacity = KeyPool.DEFAULT_CAPACITY;
+    private short ticketCapacity = TicketCache.DEFAULT_CAPACITY;
+    private short keyCapacity = KeyTable.DEFAULT_CAPACITY;
+    private byte[] clients;
+
+    /**
+     * Reads the configuration from the install parameters.
+     *
+     * @param bArray
+     * @param bOffset
+     * @param bLength
+     * @throws ISOException if a value is out of range
+     */
+    public Config(byte[] bArray, short bOffset, byte bLength) throws ISOException {
+        short param = find(bArray, bOffset, bLength, TAG_SIZES);
+        if (param >= 0) {
+            sizes = bArray[param];
+        }
+        param = find(bArray, bOffset, bLength, TAG_SESSIONS);
+        if (param >= 0) {
+            sessions = bArray[param];
+        }
+        param = find(bArray, bOffset, bLength, TAG_CLIENTS);
+        if (param >= 0) {
+            clients = new byte[bArray[(short) (param - 1)] & 0xFF];
+            Util.arrayCopy(bArray, param, clients, (short) 0, (short) clients.length);
+        }
+        param = find(bArray, bOffset, bLength, TAG_BACKEND);
+        if (param >= 0) {
+            backend = bArray[param];
+        }
+        param = find(bArray, bOffset, bLength, TAG_POOL);
+        if (param >= 0) {
+            poolCapacity = (short) (bArray[param] & 0xFF);
+        }
+        param = find(bArray, bOffset, bLength, TAG_TICKETS);
+        if (param >= 0) {
+            ticketCapacity = (short) (bArray[param] & 0xFF);
+        }
+        param = find(bArray, bOffset, bLength, TAG_KEYS);
+        if (param >= 0) {
+            keyCapacity = (short) (bArray[param] & 0xFF);
+        }
+        param = find(bArray, bOffset, bLength, TAG_PLACEMENT);
+        if (param >= 0) {
+            placement = bArray[param];
+        }
+
+        if (sizes == 0 || (sizes & ~(DH.SIZE_2048 | DH.SIZE_3072 | DH.SIZE_4096)) != 0
+                || sessions < 1 || sessions > MAX_SESSIONS
+                || (backend & ~(BACKEND_NO_NATIVE_DH | BACKEND_NO_EC)) != 0
+                || (placement & ~(PLACE_Y | PLACE_SESSIONS | PLACE_KEYS)) != 0
+                || poolCapacity > MAX_CAPACITY
+                || ticketCapacity < 1 || ticketCapacity > MAX_CAPACITY
+                || keyCapacity < 1 || keyCapacity > MAX_CAPACITY
+                || (clients != null && !isAidList(clients))) {
+            ISOException.throwIt(ISO7816.SW_WRONG_DATA);
+        }
+    }
+
+    /**
+     * Chooses the memory of a buffer. It stays in the transient memory of the
+     * given event unless configured persistent or unless it does not fit.
+     *
+     * @param buffer PLACE_Y, PLACE_SESSIONS or PLACE_KEYS
+     * @param length of the buffer
+     * @param event JCSystem.CLEAR_ON_RESET or JCSystem.CLEAR_ON_DESELECT
+     * @return the event or JCSystem.NOT_A_TRANSIENT_OBJECT
+     */
+    public byte place(byte buffer, short length, byte event) {
+        if ((placement & buffer) == 0 && length <= available(event)) {
+            return event;
+        }
+        placement |= buffer;
+        return JCSystem.NOT_A_TRANSIENT_OBJECT;
+    }
+
+    /**
+     * Fits a number of entries into the memory left.
+     *
+     * @param capacity wanted number of entries
+     * @param entryLength bytes per entry
+     * @param event JCSystem.NOT_A_TRANSIENT_OBJECT, JCSystem.CLEAR_ON_RESET or
+     * JCSystem.CLEAR_ON_DESELECT
+     * @return number of entries that fit, at most capacity
+     */
+    public static short fit(short capacity, short entryLength, byte event) {
+        short fits = (short) (available(event) / entryLength);
+        return fits < capacity ? fits : capacity;
+    }
+
+    /**
+     * @param event
+     * @return bytes of the memory of the event left after the reserve
+     */
+    private static short available(byte event) {
+        byte type = JCSystem.MEMORY_TYPE_PERSISTENT;
+        if (event == JCSystem.CLEAR_ON_RESET) {
+            type = JCSystem.MEMORY_TYPE_TRANSIENT_RESET;
+        } else if (event == JCSystem.CLEAR_ON_DESELECT) {
+            type = JCSystem.MEMORY_TYPE_TRANSIENT_DESELECT;
+        }
+        short available = (short) (JCSystem.getAvailableMemory(type) - RESERVE);
+        return available < 0 ? 0 : available;
+    }
+
+    /**
+     * Shrinks the pool to fit the persistent memory left.
+     *
+     * @param slotLength length of the exponent and of Y of one key
+     * @return capacity of the pool
+     */
+    public short fitPool(short slotLength) {
+        poolCapacity = fit(poolCapacity, (short) (slotLength * 2 + 2), JCSystem.NOT_A_TRANSIENT_OBJECT);
+        return poolCapacity;
+    }
+
+    /**
+     * Shrinks the ticket cache to fit the persistent memory left, keeping at
+     * least one ticket.
+     *
+     * @return capacity of the ticket cache
+     */
+    public short fitTickets() {
+        ticketCapacity = fit(ticketCapacity, TicketCache.SLOT_LENGTH, JCSystem.NOT_A_TRANSIENT_OBJECT);
+        if (ticketCapacity < 1) {
+            ticketCapacity = 1;
+        }
+        return ticketCapacity;
+    }
+
+    /**
+     * Shrinks the key table to fit the memory left, keeping at least one
+     * entry, and places it in persistent memory if it does not fit the
+     * transient memory.
+     *
+     * @return the event of the key table
+     */
+    public byte placeKeys() {
+        byte event = place(PLACE_KEYS, (short) (keyCapacity * KeyTable.SLOT_LENGTH), JCSystem.CLEAR_ON_RESET);
+        keyCapacity = fit(keyCapacity, KeyTable.SLOT_LENGTH, event);
+        if (keyCapacity < 1) {
+            keyCapacity = 1;
+        }
+        return event;
+    }
+
+    /**
+     * Writes the effective configuration: sizes, sessions, backend,
+     * placement (1 each), pool, ticket and key table capacities (2 each).
+     *
+     * @param output
+     * @param offset
+     */
+    public void write(byte[] output, short offset) {
+        output[offset] = sizes;
+        output[(short) (offset + 1)] = sessions;
+        output[(short) (offset + 2)] = backend;
+        output[(short) (offset + 3)] = placement;
+        Util.setShort(output, (short) (offset + 4), poolCapacity);
+        Util.setShort(output, (short) (offset + 6), ticketCapacity);
+        Util.setShort(output, (short) (offset + 8), keyCapacity);
+    }
+
+    public byte getSizes() {
+        return sizes;
+    }
+
+    public byte getSessions() {
+        return sessions;
+    }
+
+    public byte[] getClients() {
+        return clients;
+    }
+
+    public boolean useNativeDh() {
+        return (backend & BACKEND_NO_NATIVE_DH) == 0;
+    }
+
+    public boolean useEc() {
+        return (backend & BACKEND_NO_EC) == 0;
+    }
+
+    public short getKeyCapacity() {
+        return keyCapacity;
+    }
+
+    /**
+     * Checks a list of AIDs, each preceded by its length, that fills the
+     * whole array.
+     *
+     * @param list
+     * @return true if every AID is 5 to 16 bytes long
+     */
+    private static boolean isAidList(byte[] list) {
+        short offset = 0;
+        while (offset < (short) list.length) {
+            short length = (short) (list[offset] & 0xFF);
+            if (length < 5 || length > 16) {
+                return false;
+            }
+            offset += (short) (length + 1);
+        }
+        return offset == (short) list.length;
+    }
+
+    /**
+     * Finds a tag in the TLV encoded applet specific install parameters. All
+     * the TLVs up to the tag have to lie within the parameters and, but for
+     * TAG_CLIENTS, have a value of one byte.
+     *
+     * @param bArray
+     * @param bOffset
+     * @param bLength
+     * @param tag
+     * @return offset of the tag's value or -1 if absent
+     * @throws ISOException if the parameters are malformed
+     */
+    private static short find(byte[] bArray, short bOffset, byte bLength, byte tag) throws ISOException {
+        if (bLength == 0) {
+            return -1;
+        }
+
+        // Skip the instance AID and the control info
+        short limit = (short) (bOffset + (bLength & 0xFF));
+        short offset = bOffset;
+        offset += (short) ((bArray[offset] & 0xFF) + 1);
+        if (offset >= limit) {
+            ISOException.throwIt(ISO7816.SW_WRONG_DATA);
+        }
+        offset += (short) ((bArray[offset] & 0xFF) + 1);
+        if (offset >= limit) {
+            ISOException.throwIt(ISO7816.SW_WRONG_DATA);
+        }
+
+        short end = (short) (offset + 1 + (bArray[offset] & 0xFF));
+        if (end > limit) {
+            ISOException.throwIt(ISO7816.SW_WRONG_DATA);
+        }
+        offset++;
+        while (offset < end) {
+            if ((short) (offset + 2) > end) {
+                ISOException.throwIt(ISO7816.SW_WRONG_DATA);
+            }
+            short length = (short) (bArray[(short) (offset + 1)] & 0xFF);
+            if ((short) (offset + 2 + length) > end
+                    || (bArray[offset] == TAG_CLIENTS ? length == 0 : length != 1)) {
+                ISOException.throwIt(ISO7816.SW_WRONG_DATA);
+            }
+            if (bArray[offset] == tag) {
+                return (short) (offset + 2);
+            }
+            offset += (short) (length + 2);
+        }
+        return -1;
+    }
+}
@@ -35,6 +35,7 @@ import java.io.IOException;
 import javacard.framework.APDUException;
 import javacard.framework.CardException;
 import javacard.framework.CardRuntimeException;
+import javacard.framework.ISO7816;
 import javacard.framework.ISOException;
 import javacard.framework.JCSystem;
 import javacard.framework.SystemException;
@@ -45,6 +46,7 @@ import javacard.security.CryptoException;
 import javacard.security.KeyBuilder;
 import javacard.security.KeyPair;
 import javacard.security.RSAPrivateKey;
+import javacard.security.RandomData;
 import javacardx.crypto.Cipher;
 import javacardx.external.ExternalException;
 import javacardx.framework.util.ArrayLogic;
@@ -54,23 +56,31 @@ import javacardx.framework.util.UtilException;
  * Diffie-Hellman 2048 Group 14 specs from RFC-3526 as default.
  *
  * We assign the value P as the Prime and G as Generator. We use the RFC-3526
- * specific P and G as hard coded below but you may adjust the P and G carefully
- * according to your preference.
+ * group 14 P and G from DHGroups by default. You may select another built-in
+ * group by its ID or adjust the P and G carefully according to your preference.
+ * Uploaded P and G values are only written to persistent memory when they
+ * differ from the values already held.
  *
  * The variable Y is assigned as the "public value" that both parties calculate
  * their modexp function and publicly exchange with each other. The S value is
- * the 2048 bit shared secret result.
+ * the shared secret result of the same length as P. S is computed in place
+ * over the peer's Y, either in Y or in the APDU buffer the peer's Y arrived
+ * in, and consumed there so no separate buffer is needed for it.
  *
- * The maxLength should reflect the size of your DH key in terms of BYTES
- * instead of BITS as JavaCard only accept bytes. For a 2048 bit DH key, the
- * bytes are 256 of length.
+ * The length reflects the size of the selected group's DH key in terms of
+ * BYTES instead of BITS as JavaCard only accept bytes. For a 2048 bit DH key,
+ * the bytes are 256 of length. The key sizes to support are chosen when
+ * constructing DH and one engine is created per size so the group, and
+ * with it the key size, can be switched at runtime. The capacity is the length
+ * of the largest supported size and sets the size of the P, G and Y
+ * buffers.
  *
  * We assume that the card is Bob (Server) where Alice (Host) would initiate and
  * Bob would respond to Alice's initiation.
  *
- * For those seeking to adjust the DH key size o another key length, do kindly
- * adjust the P,G and maxLength accordingly. Due to reliance on JavaCard's RSA
- * engine for the DH crypto, the allowed key size is as follows below.
+ * Due to reliance on JavaCard's RSA engine for the DH crypto, the allowed key
+ * size is as follows below. Sizes the card does not support are skipped when
+ * constructing DH.
  *
  * JavaCard version 2.2.2 supported MODERN key size: 1024, 1280, 1536, 1984,
  * 2048.
@@ -81,11 +91,49 @@ import javacardx.framework.util.UtilException;
  * You may need to query your card supplier on the JavaCard version and card's
  * native supported key sizes before using them.
  *
+ * The private exponent is drawn directly from the card's RNG with a length of
+ * expLength bytes (320 bits by default) instead of running a full RSA key
+ * pair generation. RFC-3526 estimates the strength of the 2048 bit group at
+ * 110 to 160 bits, so an exponent of 220 to 320 bits is sufficient and both
+ * modexps get considerably faster as their cost scales with the exponent
+ * length. Setting expLength to the key length or more falls back to taking the
+ * full length private exponent of a freshly generated RSA key pair.
+ *
+ * On Java Card 3.1 platforms that provide DH keys and KeyAgreement.ALG_DH_PLAIN
+ * the modexps run through plain DH key agreement instead, which spares the
+ * RSA modulus workaround. DH checks for them when it is constructed and
+ * creates exactly one engine per key size: NativeDH where the card supports
+ * it and the RSA engine otherwise. Either engine is initialized once per
+ * private key for both Y and S. Only NativeDH references the 3.1 API, and
+ * the jc304 build profile swaps it for a version without native DH so the
+ * applet converts against the 3.0.4 export files for older cards.
+ *
  * To know the key sizes in bytes, you divide the bit length by 8 to get the
  * byte length of each key type.
  *
+ * Transient RAM budget in bytes with the RSA engine, each enabled size adds
+ * its transient RSA private key (modulus and exponent) and Y is sized for
+ * the largest size:
+ *
+ * 2048: 512 key + 256 Y = 768.
+ *
+ * 3072: 768 key + 384 Y = 1152.
+ *
+ * 4096: 1024 key + 512 Y = 1536.
+ *
+ * 2048 and 4096: 512 + 1024 keys + 512 Y = 2048.
+ *
+ * All three sizes: 512 + 768 + 1024 keys + 512 Y = 2816.
+ *
+ * A size running on NativeDH has its transient DH private key (P, G and X)
+ * in place of the RSA key, never both. How much RAM that key takes is up to
+ * the platform, INS_STATS reports the memory left after installation. The
+ * persistent RSA keypair for full length exponents is only created for the
+ * sizes on the RSA engine.
+ *
  * To use the DH class, you need to do in the following steps:
- * 0.) Optional. Set the P and G to whatever values you like or use the default.
+ * 0.) Optional. Select a built-in group with setGroup() or set the P and G to
+ * whatever values you like or use the default.
  *
  * 1.) Alice calls init() to derive Bob's "public key" parameter.
  *
@@ -99,121 +147,423 @@ import javacardx.framework.util.UtilException;
  *
  * @author Thotheolh
  */
-public class DH {
+public class DH implements KeyAgreementEngine {
 
+    public static final byte SIZE_2048 = (byte) 0x01;
+    public static final byte SIZE_3072 = (byte) 0x02;
+    public static final byte SIZE_4096 = (byte) 0x04;
+    private static final byte SIZES = 3;
+
+    private RSAPrivateKey[] dhPrivs = new RSAPrivateKey[SIZES];
+    private KeyPair[] dhKeyPairs = new KeyPair[SIZES];
     private RSAPrivateKey dhPriv;
+    private KeyPair dhKeyPair;
     private Cipher dhCipher;
+    private NativeDH nativeDh;
+    private boolean isNative;
+    private RandomData rng;
+
+    public static final short MIN_EXP_LENGTH = 28;
+    public static final short DEFAULT_EXP_LENGTH = 40;
+    private short expLength = DEFAULT_EXP_LENGTH;
+    private byte sizes;
+    private short capacity;
+    private short length;
+    private byte group;
+    private byte[] P;
+    private byte[] customP;
+    private boolean customG;
+    private byte[] G;
+    private byte[] Y;
 
-    private byte[] P = {
-        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
-        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xC9, (byte) 0x0F,
-        (byte) 0xDA, (byte) 0xA2, (byte) 0x21, (byte) 0x68, (byte) 0xC2,
-        (byte) 0x34, (byte) 0xC4, (byte) 0xC6, (byte) 0x62, (byte) 0x8B,
-        (byte) 0x80, (byte) 0xDC, (byte) 0x1C, (byte) 0xD1, (byte) 0x29,
-        (byte) 0x02, (byte) 0x4E, (byte) 0x08, (byte) 0x8A, (byte) 0x67,
-        (byte) 0xCC, (byte) 0x74, (byte) 0x02, (byte) 0x0B, (byte) 0xBE,
-        (byte) 0xA6, (byte) 0x3B, (byte) 0x13, (byte) 0x9B, (byte) 0x22,
-        (byte) 0x51, (byte) 0x4A, (byte) 0x08, (byte) 0x79, (byte) 0x8E,
-        (byte) 0x34, (byte) 0x04, (byte) 0xDD, (byte) 0xEF, (byte) 0x95,
-        (byte) 0x19, (byte) 0xB3, (byte) 0xCD, (byte) 0x3A, (byte) 0x43,
-        (byte) 0x1B, (byte) 0x30, (byte) 0x2B, (byte) 0x0A, (byte) 0x6D,
-        (byte) 0xF2, (byte) 0x5F, (byte) 0x14, (byte) 0x37, (byte) 0x4F,
-        (byte) 0xE1, (byte) 0x35, (byte) 0x6D, (byte) 0x6D, (byte) 0x51,
-        (byte) 0xC2, (byte) 0x45, (byte) 0xE4, (byte) 0x85, (byte) 0xB5,
-        (byte) 0x76, (byte) 0x62, (byte) 0x5E, (byte) 0x7E, (byte) 0xC6,
-        (byte) 0xF4, (byte) 0x4C, (byte) 0x42, (byte) 0xE9, (byte) 0xA6,
-        (byte) 0x37, (byte) 0xED, (byte) 0x6B, (byte) 0x0B, (byte) 0xFF,
-        (byte) 0x5C, (byte) 0xB6, (byte) 0xF4, (byte) 0x06, (byte) 0xB7,
-        (byte) 0xED, (byte) 0xEE, (byte) 0x38, (byte) 0x6B, (byte) 0xFB,
-        (byte) 0x5A, (byte) 0x89, (byte) 0x9F, (byte) 0xA5, (byte) 0xAE,
-        (byte) 0x9F, (byte) 0x24, (byte) 0x11, (byte) 0x7C, (byte) 0x4B,
-        (byte) 0x1F, (byte) 0xE6, (byte) 0x49, (byte) 0x28, (byte) 0x66,
-        (byte) 0x51, (byte) 0xEC, (byte) 0xE4, (byte) 0x5B, (byte) 0x3D,
-        (byte) 0xC2, (byte) 0x00, (byte) 0x7C, (byte) 0xB8, (byte) 0xA1,
-        (byte) 0x63, (byte) 0xBF, (byte) 0x05, (byte) 0x98, (byte) 0xDA,
-        (byte) 0x48, (byte) 0x36, (byte) 0x1C, (byte) 0x55, (byte) 0xD3,
-        (byte) 0x9A, (byte) 0x69, (byte) 0x16, (byte) 0x3F, (byte) 0xA8,
-        (byte) 0xFD, (byte) 0x24, (byte) 0xCF, (byte) 0x5F, (byte) 0x83,
-        (byte) 0x65, (byte) 0x5D, (byte) 0x23, (byte) 0xDC, (byte) 0xA3,
-        (byte) 0xAD, (byte) 0x96, (byte) 0x1C, (byte) 0x62, (byte) 0xF3,
-        (byte) 0x56, (byte) 0x20, (byte) 0x85, (byte) 0x52, (byte) 0xBB,
-        (byte) 0x9E, (byte) 0xD5, (byte) 0x29, (byte) 0x07, (byte) 0x70,
-        (byte) 0x96, (byte) 0x96, (byte) 0x6D, (byte) 0x67, (byte) 0x0C,
-        (byte) 0x35, (byte) 0x4E, (byte) 0x4A, (byte) 0xBC, (byte) 0x98,
-        (byte) 0x04, (byte) 0xF1, (byte) 0x74, (byte) 0x6C, (byte) 0x08,
-        (byte) 0xCA, (byte) 0x18, (byte) 0x21, (byte) 0x7C, (byte) 0x32,
-        (byte) 0x90, (byte) 0x5E, (byte) 0x46, (byte) 0x2E, (byte) 0x36,
-        (byte) 0xCE, (byte) 0x3B, (byte) 0xE3, (byte) 0x9E, (byte) 0x77,
-        (byte) 0x2C, (byte) 0x18, (byte) 0x0E, (byte) 0x86, (byte) 0x03,
-        (byte) 0x9B, (byte) 0x27, (byte) 0x83, (byte) 0xA2, (byte) 0xEC,
-        (byte) 0x07, (byte) 0xA2, (byte) 0x8F, (byte) 0xB5, (byte) 0xC5,
-        (byte) 0x5D, (byte) 0xF0, (byte) 0x6F, (byte) 0x4C, (byte) 0x52,
-        (byte) 0xC9, (byte) 0xDE, (byte) 0x2B, (byte) 0xCB, (byte) 0xF6,
-        (byte) 0x95, (byte) 0x58, (byte) 0x17, (byte) 0x18, (byte) 0x39,
-        (byte) 0x95, (byte) 0x49, (byte) 0x7C, (byte) 0xEA, (byte) 0x95,
-        (byte) 0x6A, (byte) 0xE5, (byte) 0x15, (byte) 0xD2, (byte) 0x26,
-        (byte) 0x18, (byte) 0x98, (byte) 0xFA, (byte) 0x05, (byte) 0x10,
-        (byte) 0x15, (byte) 0x72, (byte) 0x8E, (byte) 0x5A, (byte) 0x8A,
-        (byte) 0xAC, (byte) 0xAA, (byte) 0x68, (byte) 0xFF, (byte) 0xFF,
-        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
-        (byte) 0xFF
-    };
-
-    public static final short maxLength = 256;
-    private byte[] G = new byte[maxLength];
-    private byte[] Y = JCSystem.makeTransientByteArray(maxLength, JCSystem.CLEAR_ON_RESET);
-    private byte[] S = JCSystem.makeTransientByteArray(maxLength, JCSystem.CLEAR_ON_RESET);
-
-    public DH() {
-        // Creates a RSA private key instance as template for the DH private key
-        dhPriv = (RSAPrivateKey) KeyBuilder.buildKey(KeyBuilder.TYPE_RSA_PRIVATE_TRANSIENT_RESET, KeyBuilder.LENGTH_RSA_2048, false);
-
-        // Creates an RSA cipher instance
-        dhCipher = Cipher.getInstance(Cipher.ALG_RSA_NOPAD, false);
-
-        // Set default G to 2
-        G[(short) (maxLength - 1)] = (byte) 0x02;
+    /**
+     * Creates DH with one engine for each key size in the configured mask of
+     * SIZE_2048, SIZE_3072 and SIZE_4096 that the card supports, NativeDH if
+     * the card has it for the size and the configuration allows it, the RSA
+     * engine otherwise. The smallest of them is selected with its MODP group.
+     *
+     * @param config
+     * @throws ISOException if none of the sizes are supported
+     */
+    public DH(Config config) throws ISOException {
+        byte sizes = config.getSizes();
+        byte defaultSize = -1;
+        nativeDh = config.useNativeDh() ? NativeDH.getInstance(SIZES) : null;
+        for (byte i = 0; i < SIZES; i++) {
+            if ((sizes & (byte) (1 << i)) == 0) {
+                continue;
+            }
+            short bits = (short) (lengthOf(i) * 8);
+            if (nativeDh == null || !nativeDh.build(i, bits)) {
+                try {
+                    // Creates a RSA private key instance as template for the DH
+                    // private key
+                    dhPrivs[i] = (RSAPrivateKey) KeyBuilder.buildKey(KeyBuilder.TYPE_RSA_PRIVATE_TRANSIENT_RESET, bits, false);
+
+                    // Creates the RSA keypair used for full length private
+                    // exponents once as there is no garbage collection to reclaim
+                    // a keypair per init()
+                    dhKeyPairs[i] = new KeyPair(KeyPair.ALG_RSA, bits);
+                } catch (CryptoException e) {
+                    // Key size not supported by this card
+                    dhPrivs[i] = null;
+                    dhKeyPairs[i] = null;
+                    continue;
+                }
+
+                // Creates an RSA cipher instance
+                if (dhCipher == null) {
+                    dhCipher = Cipher.getInstance(Cipher.ALG_RSA_NOPAD, false);
+                }
+            }
+            this.sizes |= (byte) (1 << i);
+            capacity = lengthOf(i);
+            if (defaultSize < 0) {
+                defaultSize = i;
+            }
+        }
+        if (defaultSize < 0) {
+            ISOException.throwIt(ISO7816.SW_FUNC_NOT_SUPPORTED);
+        }
+
+        // Creates the RNG used for the DH private exponent
+        rng = RandomData.getInstance(RandomData.ALG_SECURE_RANDOM);
+
+        customP = new byte[capacity];
+        G = new byte[capacity];
+        Y = Utils.makeByteArray(capacity, config.place(Config.PLACE_Y, capacity, JCSystem.CLEAR_ON_RESET));
+
+        // Set default P and G to the MODP group of the smallest size
+        setGroup((byte) (DHGroups.GROUP_MODP_2048 + defaultSize));
+        G[(short) (capacity - 1)] = (byte) 0x02;
     }
 
     /**
      * Initializes the DH "public key" value of Y.
      */
     public void init() {
-        // Create a keypair instance using an RSA keypair as template
+        genKey();
+        computeY();
+    }
+
+    /**
+     * Generates the DH private key without computing Y. Y is used as scratch
+     * space and holds no value afterwards.
+     */
+    public void genKey() {
+        // Gen DH private key into Y as Y is overwritten anyway
+        short expLen = genExponent(Y, (short) 0);
 
-        KeyPair dhKeyPair = new KeyPair(KeyPair.ALG_RSA, (short) dhPriv.getSize());
+        // Load DH private key value
+        setKey(Y, (short) 0, expLen);
+        Utils.zeroize(Y);
+    }
 
+    /**
+     * Computes Y from the private key loaded by genKey().
+     */
+    private void computeY() {
+        // Execute Y = G^bobPrivKey mod P
+        modexp(G, (short) (capacity - length), Y, (short) 0);
+    }
+
+    /**
+     * Generates a DH private key and its "public key" value directly into the
+     * given arrays without touching Y. Used to precompute keys ahead of a
+     * handshake. Any private key loaded by init() is destroyed.
+     *
+     * @param exp
+     * @param expOffset
+     * @param y
+     * @param yOffset
+     * @return length of the private key written to exp
+     */
+    public short generate(byte[] exp, short expOffset, byte[] y, short yOffset) {
         // Gen DH private key
-        dhKeyPair.genKeyPair();
-        dhPriv = (RSAPrivateKey) dhKeyPair.getPrivate();
+        short expLen = genExponent(exp, expOffset);
+
+        // Execute y = G^privKey mod P
+        setKey(exp, expOffset, expLen);
+        modexp(G, (short) (capacity - length), y, yOffset);
+        clearKey();
+        return expLen;
+    }
 
-        // Load DH's P as RSA's M
-        dhPriv.setModulus(P, (short) 0, maxLength);
+    /**
+     * Initializes DH with a private key and its "public key" value Y that were
+     * precomputed by generate() so no modexp is needed.
+     *
+     * @param exp
+     * @param expOffset
+     * @param expLength
+     * @param y
+     * @param yOffset
+     */
+    public void load(byte[] exp, short expOffset, short expLength, byte[] y, short yOffset) {
+        // Load DH private key value
+        setKey(exp, expOffset, expLength);
 
-        // Set private key into cipher
-        dhCipher.init(dhPriv, Cipher.MODE_DECRYPT);
+        ArrayLogic.arrayCopyRepackNonAtomic(y, yOffset, length, Y, (short) 0);
+    }
 
-        // Execute Y = G^bobPrivKey mod P via RSA's decrypt
-        dhCipher.doFinal(G, (short) 0, maxLength, Y, (short) 0);
+    /**
+     * Saves the loaded private exponent, if any, and Y into the given arrays
+     * for a later load().
+     *
+     * @param exp
+     * @param expOffset
+     * @param y
+     * @param yOffset
+     * @return length of the exponent written to exp or 0 if none is loaded
+     */
+    public short save(byte[] exp, short expOffset, byte[] y, short yOffset) {
+        ArrayLogic.arrayCopyRepackNonAtomic(Y, (short) 0, length, y, yOffset);
+        if (isNative) {
+            return nativeDh.getX(exp, expOffset);
+        }
+        return dhPriv.isInitialized() ? dhPriv.getExponent(exp, expOffset) : 0;
+    }
+
+    /**
+     * Writes a fresh private exponent of expLength bytes into output.
+     *
+     * @param output
+     * @param offset
+     * @return length of the private exponent
+     */
+    private short genExponent(byte[] output, short offset) {
+        if (expLength >= length && isNative) {
+            // Without an RSA keypair draw a full length exponent whose top
+            // byte is clear so it stays below P
+            rng.generateData(output, offset, length);
+            output[offset] = 0;
+            return length;
+        }
+        if (expLength >= length) {
+            // Take the exponent of a fresh RSA keypair
+            dhKeyPair.genKeyPair();
+            RSAPrivateKey genPriv = (RSAPrivateKey) dhKeyPair.getPrivate();
+            short expLen = genPriv.getExponent(output, offset);
+            genPriv.clearKey();
+            return expLen;
+        }
+
+        // Draw a short exponent straight from the RNG with its top bit set so
+        // the exponent has exactly expLength * 8 bits
+        rng.generateData(output, offset, expLength);
+        output[offset] |= (byte) 0x80;
+        return expLength;
     }
 
     /**
      * Initializes the DH "public key" value of Y while also specifying one's
      * choice of private key value. Useful for scenarios where manually loading
-     * the DH private key is needed instead of on-board key generation.
+     * the DH private key is needed instead of on-board key generation. The
+     * private key is as long as the selected group's P.
      */
     public void init(byte[] privateKey, short offset) {
-        // Load DH's P as RSA's M
-        dhPriv.setModulus(P, (short) 0, maxLength);
+        // Load DH private key value
+        setKey(privateKey, offset, length);
+
+        // Execute Y = G^bobPrivKey mod P
+        computeY();
+    }
+
+    /**
+     * Initializes the DH "public key" value of Y from the private key that
+     * was set with setY() in its place. The private key is as long as the
+     * selected group's P.
+     */
+    public void initFromY() {
+        init(Y, (short) 0);
+    }
+
+    /**
+     * Loads a private exponent with the selected group into NativeDH or,
+     * without native DH, as RSA's E with P as RSA's M and initializes the
+     * engine once for all modexps with this key.
+     *
+     * @param exp
+     * @param offset
+     * @param expLength
+     */
+    private void setKey(byte[] exp, short offset, short expLength) {
+        if (isNative) {
+            nativeDh.setKey(P, (short) 0, G, (short) (capacity - length), length, exp, offset, expLength);
+        } else {
+            dhPriv.setModulus(P, (short) 0, length);
+            dhPriv.setExponent(exp, offset, expLength);
+            dhCipher.init(dhPriv, Cipher.MODE_DECRYPT);
+        }
+    }
+
+    /**
+     * Computes base^x mod P with the loaded private key, through plain DH key
+     * agreement or RSA's decrypt.
+     *
+     * @param base
+     * @param offset
+     * @param output
+     * @param outOffset
+     */
+    private void modexp(byte[] base, short offset, byte[] output, short outOffset) {
+        if (isNative) {
+            nativeDh.modexp(base, offset, length, output, outOffset);
+        } else {
+            dhCipher.doFinal(base, offset, length, output, outOffset);
+        }
+    }
+
+    /**
+     * Get the engine doing the modexps for the selected key size.
+     *
+     * @return ENGINE_NATIVE_DH or ENGINE_RSA
+     */
+    public byte getEngine() {
+        return isNative ? ENGINE_NATIVE_DH : ENGINE_RSA;
+    }
+
+    /**
+     * Get the length in bytes of the private exponent used by init().
+     *
+     * @return
+     */
+    public short getExpLength() {
+        return expLength;
+    }
+
+    /**
+     * Set the length in bytes of the private exponent used by init(). A
+     * length of the key length or more selects a full length exponent from
+     * RSA key pair generation.
+     *
+     * @param length
+     * @return true if the length changed
+     * @throws ISOException
+     */
+    public boolean setExpLength(short length) throws ISOException {
+        if (length < MIN_EXP_LENGTH || length > capacity) {
+            ISOException.throwIt(ISO7816.SW_WRONG_DATA);
+        }
+        if (length == expLength) {
+            return false;
+        }
+        expLength = length;
+        return true;
+    }
+
+    /**
+     * Get the mask of supported key sizes.
+     *
+     * @return
+     */
+    public byte getSizes() {
+        return sizes;
+    }
+
+    /**
+     * Get the length in bytes of the largest supported key size.
+     *
+     * @return
+     */
+    public short getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the length in bytes of the selected group's P, G, Y and S.
+     *
+     * @return
+     */
+    public short getLength() {
+        return length;
+    }
+
+    /**
+     * Get the ID of the selected built-in group or GROUP_CUSTOM if P or G were
+     * uploaded.
+     *
+     * @return
+     */
+    public byte getGroup() {
+        return group;
+    }
+
+    /**
+     * Select a built-in group. G is only rewritten if a custom G was
+     * uploaded before.
+     *
+     * @param id
+     * @return true if P or G changed
+     * @throws ISOException
+     */
+    public boolean setGroup(byte id) throws ISOException {
+        byte[] groupP = DHGroups.getP(id);
+        if (groupP == null) {
+            ISOException.throwIt(ISO7816.SW_INCORRECT_P1P2);
+        }
+        if (id == group) {
+            return false;
+        }
 
-        // Load DH private key value as RSA's E
-        dhPriv.setExponent(privateKey, offset, maxLength);
+        selectLength((short) groupP.length);
+        P = groupP;
+        if (customG) {
+            Utils.zeroize(G);
+            G[(short) (capacity - 1)] = (byte) 0x02;
+            customG = false;
+        }
+        group = id;
+        return true;
+    }
 
-        // Set private key into cipher
-        dhCipher.init(dhPriv, Cipher.MODE_DECRYPT);
+    /**
+     * Select the uploaded P and G as a custom group of the given length. P and
+     * G should be uploaded again after changing the length.
+     *
+     * @param length
+     * @return true if P changed
+     * @throws ISOException
+     */
+    public boolean setCustomGroup(short length) throws ISOException {
+        if (P == customP && length == this.length) {
+            return false;
+        }
+        selectLength(length);
+        P = customP;
+        group = DHGroups.GROUP_CUSTOM;
+        return true;
+    }
+
+    /**
+     * Switches to the engine of the given key length.
+     *
+     * @param length
+     * @throws ISOException if the length is not supported
+     */
+    private void selectLength(short length) throws ISOException {
+        short index = (short) ((short) (length - lengthOf((byte) 0)) >> 7);
+        if (index < 0 || index >= SIZES || lengthOf((byte) index) != length
+                || (sizes & (byte) (1 << index)) == 0) {
+            ISOException.throwIt(ISO7816.SW_FUNC_NOT_SUPPORTED);
+        }
+        if (this.length != 0) {
+            clearKey();
+        }
+        dhPriv = dhPrivs[index];
+        isNative = nativeDh != null && nativeDh.select((byte) index);
+        dhKeyPair = dhKeyPairs[index];
+        this.length = length;
+    }
 
-        // Execute Y = G^bobPrivKey mod P via RSA's decrypt
-        dhCipher.doFinal(G, (short) 0, maxLength, Y, (short) 0);
+    /**
+     * Get the length in bytes of a key size index.
+     *
+     * @param index
+     * @return
+     */
+    private static short lengthOf(byte index) {
+        return (short) (256 + (short) (index << 7));
     }
 
     /**
@@ -222,7 +572,19 @@ public class DH {
      * @return
      */
     public void getG(byte[] output, short offset) {
-        ArrayLogic.arrayCopyRepackNonAtomic(G, (short) 0, maxLength, output, offset);
+        getG(output, offset, (short) 0, length);
+    }
+
+    /**
+     * Get part of the G value.
+     *
+     * @param output
+     * @param offset
+     * @param gOffset
+     * @param length
+     */
+    public void getG(byte[] output, short offset, short gOffset, short length) {
+        ArrayLogic.arrayCopyRepackNonAtomic(G, (short) (capacity - this.length + gOffset), length, output, offset);
     }
 
     /**
@@ -231,7 +593,19 @@ public class DH {
      * @return
      */
     public void getP(byte[] output, short offset) {
-        ArrayLogic.arrayCopyRepackNonAtomic(P, (short) 0, maxLength, output, offset);
+        getP(output, offset, (short) 0, length);
+    }
+
+    /**
+     * Get part of the P value.
+     *
+     * @param output
+     * @param offset
+     * @param pOffset
+     * @param length
+     */
+    public void getP(byte[] output, short offset, short pOffset, short length) {
+        ArrayLogic.arrayCopyRepackNonAtomic(P, pOffset, length, output, offset);
     }
 
     /**
@@ -240,7 +614,19 @@ public class DH {
      * @return
      */
     public void getY(byte[] output, short offset) {
-        ArrayLogic.arrayCopyRepackNonAtomic(Y, (short) 0, maxLength, output, offset);
+        getY(output, offset, (short) 0, length);
+    }
+
+    /**
+     * Get part of the Y value.
+     *
+     * @param output
+     * @param offset
+     * @param yOffset
+     * @param length
+     */
+    public void getY(byte[] output, short offset, short yOffset, short length) {
+        ArrayLogic.arrayCopyRepackNonAtomic(Y, yOffset, length, output, offset);
     }
 
     /**
@@ -256,7 +642,8 @@ public class DH {
      * @throws UtilException
      */
     public void setY(byte[] data, short offset, short length, short yOffset) throws ArrayIndexOutOfBoundsException, NullPointerException, TransactionException, UtilException {
-        ArrayLogic.arrayCopyRepack(data, offset, length, Y, yOffset);
+        // Y is transient so there is nothing to gain from an atomic copy
+        ArrayLogic.arrayCopyRepackNonAtomic(data, offset, length, Y, yOffset);
     }
 
     /**
@@ -266,13 +653,21 @@ public class DH {
      * @param offset
      * @param length
      * @param targetOffset
+     * @return true if P changed
      * @throws ArrayIndexOutOfBoundsException
      * @throws NullPointerException
      * @throws TransactionException
      * @throws UtilException
      */
-    public void setP(byte[] data, short offset, short length, short pOffset) throws ArrayIndexOutOfBoundsException, NullPointerException, TransactionException, UtilException {
-        ArrayLogic.arrayCopyRepack(data, offset, length, P, pOffset);
+    public boolean setP(byte[] data, short offset, short length, short pOffset) throws ArrayIndexOutOfBoundsException, NullPointerException, TransactionException, UtilException {
+        boolean changed = P != customP;
+        if (ArrayLogic.arrayCompareGeneric(data, offset, customP, pOffset, length) != 0) {
+            ArrayLogic.arrayCopyRepack(data, offset, length, customP, pOffset);
+            changed = true;
+        }
+        P = customP;
+        group = DHGroups.GROUP_CUSTOM;
+        return changed;
     }
 
     /**
@@ -282,20 +677,33 @@ public class DH {
      * @param offset
      * @param length
      * @param targetOffset
+     * @return true if G changed
      * @throws ArrayIndexOutOfBoundsException
      * @throws NullPointerException
      * @throws TransactionException
      * @throws UtilException
      */
-    public void setG(byte[] data, short offset, short length, short gOffset) throws ArrayIndexOutOfBoundsException, NullPointerException, TransactionException, UtilException {
+    public boolean setG(byte[] data, short offset, short length, short gOffset) throws ArrayIndexOutOfBoundsException, NullPointerException, TransactionException, UtilException {
+        // G is kept right aligned so G = 2 holds for every key length
+        gOffset += (short) (capacity - this.length);
+        if (ArrayLogic.arrayCompareGeneric(data, offset, G, gOffset, length) == 0) {
+            return false;
+        }
         ArrayLogic.arrayCopyRepack(data, offset, length, G, gOffset);
+        customG = true;
+        group = DHGroups.GROUP_CUSTOM;
+        return true;
     }
 
     /**
      * Destroys DH private key.
      */
     public void clearKey() {
-        dhPriv.clearKey();
+        if (isNative) {
+            nativeDh.clearKey();
+        } else {
+            dhPriv.clearKey();
+        }
     }
 
     /**
@@ -303,33 +711,83 @@ public class DH {
      * that is reusable from the modexp (encrypt/decrypt) of RSA. Y is thus
      * taken as a message in terms of RSA.
      *
-     * Both Y and S are zeroized after this operation to prevent leaking of
-     * security parameters but you might choose to retain the parameters by
-     * removing the zeroize function at your own risk.
+     * S is computed in place over Y. Both the private key and Y are zeroized
+     * after this operation to prevent leaking of security parameters but you
+     * might choose to retain the parameters by removing the zeroize function
+     * at your own risk.
      *
-     * The first 16 bytes (128 bits) of the shared secret is used for a 128 bits
-     * AES encryption key. You may derive your HMAC key from S but for
-     * simplicity of the demo, we will only encrypt.
+     * The encryption and MAC keys of the channel are derived from S by
+     * SecureChannel.open().
      *
-     * @param Y
+     * @param channel
      */
-    public void doFinal(AESKey encKey) {
-        // Set private key into cipher
-        dhCipher.init(dhPriv, Cipher.MODE_DECRYPT);
+    public void doFinal(SecureChannel channel) {
+        doFinal(channel, Y, (short) 0);
+    }
 
-        // Execute S = Y^a mod p via RSA's decrypt
-        dhCipher.doFinal(Y, (short) 0, maxLength, S, (short) 0);
+    /**
+     * Executes the DH function of S = Y^a mod p with the peer's Y taken from
+     * the given array, typically the APDU buffer it arrived in. S is computed
+     * in place over the peer's Y and zeroized afterwards together with the
+     * private key. The card's own Y is left as it is.
+     *
+     * @param channel
+     * @param peerY
+     * @param offset
+     */
+    public void doFinal(SecureChannel channel, byte[] peerY, short offset) {
+        open(channel, peerY, offset);
 
-        // Set session Encryption key
-        encKey.setKey(S, (short) 0);
+        // Clear DH Private Key
+        clearKey();
+    }
+
+    /**
+     * Runs the card's side of a whole handshake against the peer's Y already
+     * set with setY() and a private key from genKey(). The channel is opened from
+     * S and Y is replaced by the card's Y for the peer.
+     *
+     * @param channel
+     */
+    public void exchange(SecureChannel channel, boolean fresh) {
+        open(channel, Y, (short) 0);
+        if (fresh) {
+            computeY();
+        }
 
         // Clear DH Private Key
-        dhPriv.clearKey();
+        clearKey();
+    }
 
-        // Zeroize temporary S bytes.
-        Utils.zeroize(S);
+    /**
+     * Executes S = Y^a mod p in place over the peer's Y and keeps the private
+     * key, so the cipher initialized by init() serves any number of peers.
+     *
+     * @param peerY
+     * @param offset
+     * @return length of S
+     */
+    public short agree(byte[] peerY, short offset) {
+        modexp(peerY, offset, peerY, offset);
+        return length;
+    }
 
-        // Zeroize temporary Y bytes.
-        Utils.zeroize(Y);
+    /**
+     * Computes S in place over the peer's Y, opens the channel from it and
+     * zeroizes it.
+     *
+     * @param channel
+     * @param peerY
+     * @param offset
+     */
+    private void open(SecureChannel channel, byte[] peerY, short offset) {
+        // Execute S = Y^a mod p
+        agree(peerY, offset);
+
+        // Derive the session keys
+        channel.open(peerY, offset, length);
+
+        // Zeroize temporary S bytes.
+        Utils.zeroize(peerY, offset, length);
     }
 }
@@ -36,6 +36,7 @@ import javacard.framework.*;
 import javacard.security.AESKey;
 import javacard.security.CryptoException;
 import javacard.security.KeyBuilder;
+import javacardx.apdu.ExtendedLength;
 import javacardx.crypto.Cipher;
 import javacardx.external.ExternalException;
 import javacardx.framework.util.ArrayLogic;
@@ -60,28 +61,133 @@ import javacardx.framework.util.UtilException;
  * 3.0.4 of JavaCard and your card supplier indicates that the card has a
  * 4096 bit RSA support.
  *
+ * The key sizes to provision, the number of sessions, the backends, the
+ * capacities of the pool, the ticket cache and the key table and the memory
+ * of the buffers are passed in the applet specific install parameters as
+ * TLVs, see Config. The key sizes default to 2048 bits only and the size used
+ * follows the selected group. INS_GET P1_CONFIG returns the configuration as
+ * fitted to the card's memory.
+ *
+ * Each logical channel the applet is selected on has its own Session with
+ * its handshake, secure channel and pending response, so several hosts can
+ * run handshakes side by side. Sessions are taken from a free list on select
+ * and returned on deselect, so any of the four logical channels can be used
+ * as long as no more than the configured number are open at once. The
+ * engines, the pool, the static key, the key table and the ticket cache are
+ * shared.
+ *
+ * Applets whose AIDs are listed in Config.TAG_CLIENTS can run handshakes through
+ * KeyAgreementService and get the derived session keys, sharing this applet's
+ * engines instead of allocating their own.
+ *
+ * Y, P and G are read and written with INS_GET and INS_SET at the offset given
+ * by P2 in units of OFFSET_UNIT bytes, so values larger than one short APDU
+ * can be moved in parts or in one extended length APDU. INS_GET returns as
+ * much of the value from the offset on as Le asks for.
+ *
+ * Besides the step by step INS_INIT, INS_GET, INS_SET, INS_FINAL and INS_TEST
+ * flow, INS_EXCHANGE runs a whole handshake in one command. It takes the
+ * host's Y in an extended length command and returns the card's Y followed by
+ * the INS_TEST key confirmation tag. If the reader cannot receive the whole
+ * response at once, the remainder is announced with 61xx and fetched with GET
+ * RESPONSE. INS_FINAL likewise accepts the host's Y as data in place of a
+ * preceding INS_SET. Whenever the host's Y fits the APDU buffer the modexp
+ * runs on it right there.
+ *
+ * After INS_FINAL or INS_EXCHANGE the host may fetch a resumption ticket with
+ * INS_GET P1_TICKET. A later INS_RESUME with the ticket and a host nonce
+ * restores a session key without a modexp and returns the card nonce and the
+ * key confirmation tag. See TicketCache for the derivation.
+ *
+ * The session keys are derived from S with a KDF and INS_WRAP and INS_UNWRAP
+ * protect payloads of any length with them, split over as many commands as
+ * needed. See SecureChannel for the message format.
+ *
+ * The handshake runs on the engine of the selected group, DH for the finite
+ * field groups or ECDH for the curves of ECGroups when the card supports
+ * them. Both share the same commands, with Y being the uncompressed point
+ * for ECDH, and the same derivation of the session keys. P, G and the
+ * exponent length only apply to DH.
+ * INS_GET P1_ENGINE tells which engine runs the handshake, see
+ * KeyAgreementEngine.
+ *
+ * In the ephemeral-static mode set with INS_SET P1_STATIC the card reuses
+ * one key for a number of handshakes, which turns INS_INIT into a load of the
+ * cached key and leaves the modexp with the host's Y as the only one per
+ * handshake. INS_SET P1_STATIC with P2_STATIC_ROTATE rotates the key at once
+ * and INS_GET P1_STATIC reports the policy and the counters. See StaticKey.
+ *
+ * INS_BATCH runs the key loaded by INS_INIT against several peers at once. It
+ * takes whole peer Ys and derives one key per peer into a KeyTable, returning
+ * the handle and the key confirmation tag of each. With P1_BATCH_MORE the key
+ * is kept for the next INS_BATCH, otherwise it is cleared. INS_SET P1_KEY
+ * with the handle in P2 then opens the channel with a peer's key. A batch
+ * that does not fit the free slots of the table is refused and a batch that
+ * fails on a peer stores no key. Both clear the key of INS_INIT.
+ *
+ * INS_STATS returns the operation counters and memory metrics laid out as
+ * described in Stats, and resets the counters afterwards if P1 is
+ * P1_STATS_RESET.
+ *
  * @author Thotheolh
  */
-public class DHApplet extends Applet {
+public class DHApplet extends Applet implements ExtendedLength, MultiSelectable, KeyAgreementService {
 
     // Flags
     public final static byte CLA = (byte) 0xB0;
     public final static byte INS_INIT = (byte) 0x10;
     public final static byte INS_GET = (byte) 0x11;
     public final static byte INS_SET = (byte) 0x12;
+    public final static byte INS_REFILL = (byte) 0x13;
+    public final static byte INS_EXCHANGE = (byte) 0x14;
+    public final static byte INS_RESUME = (byte) 0x15;
+    public final static byte INS_WRAP = (byte) 0x16;
+    public final static byte INS_UNWRAP = (byte) 0x17;
+    public final static byte INS_BATCH = (byte) 0x18;
     public final static byte INS_FINAL = (byte) 0x1F;
     public final static byte INS_TEST = (byte) 0x20;
+    public final static byte INS_STATS = (byte) 0x30;
+    public final static byte INS_GET_RESPONSE = (byte) 0xC0;
     public final static byte P1_Y = (byte) 0x01;
     public final static byte P1_P = (byte) 0x02;
     public final static byte P1_G = (byte) 0x03;
+    public final static byte P1_EXP_LEN = (byte) 0x04;
+    public final static byte P1_POOL = (byte) 0x05;
+    public final static byte P1_GROUP = (byte) 0x06;
+    public final static byte P1_TICKET = (byte) 0x07;
+    public final static byte P1_TICKET_CACHE = (byte) 0x08;
+    public final static byte P1_ENGINE = (byte) 0x09;
+    public final static byte P1_STATIC = (byte) 0x0A;
+    public final static byte P1_KEY_TABLE = (byte) 0x0B;
+    public final static byte P1_KEY = (byte) 0x0C;
+    public final static byte P1_CONFIG = (byte) 0x0D;
+    public final static byte P1_BATCH_MORE = (byte) 0x01;
     public final static byte P1_INIT_WITH_PRIVKEY = (byte) 0x1F;
+    public final static byte P1_STATS_RESET = (byte) 0x01;
+    public final static byte P2_STATIC_ROTATE = (byte) 0x01;
     public final static byte BLANK = (byte) 0x00;
+    public final static short TAG_LENGTH = 16;
+    public final static short OFFSET_UNIT = 4;
+    // Logical channels that fit the low bits of the class byte
+    private final static short MAX_CHANNELS = 4;
 
     //Variables
+    public Config config;
     public DH dh;
-    private final AESKey encKey = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES_TRANSIENT_RESET, KeyBuilder.LENGTH_AES_128, false);
-    public final byte[] buffer = JCSystem.makeTransientByteArray(DH.maxLength, JCSystem.CLEAR_ON_RESET);
-    private final Cipher aesCipher = Cipher.getInstance(Cipher.ALG_AES_BLOCK_128_ECB_NOPAD, false);
+    public ECDH ecdh;
+    private KeyAgreementEngine engine;
+    public KeyPool pool;
+    public StaticKey staticKey;
+    public KeyTable keys;
+    public TicketCache tickets;
+    public Stats stats;
+    private Session[] sessions;
+    private byte channels;
+    private byte[] clients;
+    private byte[] bindings;
+    private byte[] free;
+    private final short[] owner = JCSystem.makeTransientShortArray((short) 1, JCSystem.CLEAR_ON_RESET);
+    private final short[] allocated = JCSystem.makeTransientShortArray((short) 1, JCSystem.CLEAR_ON_RESET);
     public final byte[] reply = {(byte) 0x48, (byte) 0x65, (byte) 0x6c, (byte) 0x6c,
         (byte) 0x6f, (byte) 0x20, (byte) 0x4a, (byte) 0x61, (byte) 0x76, (byte) 0x61,
         (byte) 0x20, (byte) 0x43, (byte) 0x61, (byte) 0x72, (byte) 0x64, (byte) 0x2e};
@@ -97,17 +203,73 @@ public class DHApplet extends Applet {
      * the length in bytes of the parameter data in bArray
      */
     public static void install(byte[] bArray, short bOffset, byte bLength) {
-        new DHApplet();
+        new DHApplet(bArray, bOffset, bLength);
     }
 
     /**
      * Only this class's install method should create the applet object.
      */
-    protected DHApplet() {
+    protected DHApplet(byte[] bArray, short bOffset, byte bLength) {
         register();
 
+        // Reads the install parameters. The structures below are allocated
+        // from the fixed to the variable sized ones, which shrink or move to
+        // persistent memory to fit what is left.
+        config = new Config(bArray, bOffset, bLength);
+
         // Creates an instance of the DH class and it's variables.
-        dh = new DH();
+        dh = new DH(config);
+        engine = dh;
+
+        // Creates the ECDH engine if the card supports it.
+        try {
+            ecdh = config.useEc() ? new ECDH(config) : null;
+        } catch (CryptoException e) {
+            ecdh = null;
+        }
+
+        // Creates the configured number of sessions. Only several of them need
+        // room to park a handshake, sized for DH as ECDH's is smaller. The
+        // key agreement service gets the last session. All of them share the
+        // ciphers of the first one's channel and the logical channels take
+        // them from a free list as they are selected.
+        channels = config.getSessions();
+        clients = config.getClients();
+        byte count = clients != null ? (byte) (channels + 1) : channels;
+        short parking = (short) (dh.getCapacity() * 2);
+        sessions = new Session[count];
+        SecureChannel shared = null;
+        for (byte i = 0; i < channels; i++) {
+            if (channels > 1) {
+                sessions[i] = new Session(dh.getCapacity(), JCSystem.CLEAR_ON_DESELECT,
+                        config.place(Config.PLACE_SESSIONS, parking, JCSystem.CLEAR_ON_DESELECT), shared);
+            } else {
+                sessions[i] = new Session((short) 0, JCSystem.CLEAR_ON_DESELECT, JCSystem.CLEAR_ON_DESELECT, shared);
+            }
+            shared = sessions[0].getChannel();
+        }
+        if (clients != null) {
+            sessions[channels] = new Session(dh.getCapacity(), JCSystem.CLEAR_ON_RESET,
+                    config.place(Config.PLACE_SESSIONS, parking, JCSystem.CLEAR_ON_RESET), shared);
+        }
+        bindings = JCSystem.makeTransientByteArray(MAX_CHANNELS, JCSystem.CLEAR_ON_RESET);
+        free = JCSystem.makeTransientByteArray((short) channels, JCSystem.CLEAR_ON_RESET);
+
+        // Creates the disabled static key of the ephemeral-static mode.
+        staticKey = new StaticKey(dh);
+
+        // Creates the operation counters.
+        stats = new Stats();
+
+        // Creates the table of keys derived by INS_BATCH.
+        byte event = config.placeKeys();
+        keys = new KeyTable(config.getKeyCapacity(), event);
+
+        // Creates the pool of precomputed DH keys.
+        pool = new KeyPool(dh, config.fitPool(dh.getCapacity()));
+
+        // Creates the cache of session resumption tickets.
+        tickets = new TicketCache(config.fitTickets());
     }
 
     /**
@@ -118,64 +280,366 @@ public class DHApplet extends Applet {
      * the incoming APDU
      */
     public void process(APDU apdu) {
+        try {
+            handle(apdu);
+        } catch (ISOException e) {
+            // A chained response is not a failure
+            if ((short) (e.getReason() & 0xFF00) != ISO7816.SW_BYTES_REMAINING_00) {
+                stats.fail(e.getReason());
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            stats.fail(ISO7816.SW_UNKNOWN);
+            throw e;
+        }
+    }
+
+    /**
+     * Handles an incoming APDU.
+     *
+     * @param apdu
+     */
+    private void handle(APDU apdu) {
         //Insert your code here        
         if (selectingApplet()) {
             return;
         }
 
         byte[] apduBuffer = apdu.getBuffer();
-        if (apduBuffer[ISO7816.OFFSET_CLA] == CLA) {
+        short read;
+        Session session = bind((short) (bindings[JCSystem.getAssignedChannel()] - 1));
+        SecureChannel channel = session.getChannel();
+        if (apduBuffer[ISO7816.OFFSET_INS] == INS_GET_RESPONSE) {
+            if (session.getPendingRemaining() == 0) {
+                ISOException.throwIt(ISO7816.SW_CONDITIONS_NOT_SATISFIED);
+            }
+            sendPending(apdu, session);
+            return;
+        }
+
+        // Any other command discards an unfinished chained response
+        session.setPending((short) 0, (short) 0);
+
+        // The low bits of the class byte carry the logical channel
+        if ((byte) (apduBuffer[ISO7816.OFFSET_CLA] & (byte) 0xFC) == CLA) {
             switch (apduBuffer[ISO7816.OFFSET_INS]) {
                 case INS_INIT:
+                    stats.count(Stats.HANDSHAKES_STARTED);
                     if (apduBuffer[ISO7816.OFFSET_P1] == P1_INIT_WITH_PRIVKEY) {
-                        dh.init(apduBuffer, ISO7816.OFFSET_CDATA);
+                        // The private key is received like the host's Y
+                        read = apdu.setIncomingAndReceive();
+                        receiveValue(apdu, read, P1_Y, (short) 0, true);
+                        engine.initFromY();
                     } else {
-                        dh.init();
+                        takeKey();
                     }
                     return;
                 case INS_GET:
-                    if (apduBuffer[ISO7816.OFFSET_P1] == P1_Y) {
+                    if (apduBuffer[ISO7816.OFFSET_P1] == P1_Y || apduBuffer[ISO7816.OFFSET_P1] == P1_P
+                            || apduBuffer[ISO7816.OFFSET_P1] == P1_G) {
+                        sendValue(apdu);
+                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_EXP_LEN) {
+                        apdu.setOutgoing();
+                        apdu.setOutgoingLength((short) 2);
+                        Util.setShort(apduBuffer, (short) 0, dh.getExpLength());
+                        apdu.sendBytesLong(apduBuffer, (short) 0, (short) 2);
+                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_POOL) {
                         apdu.setOutgoing();
-                        apdu.setOutgoingLength(DH.maxLength);
-                        dh.getY(apduBuffer, (short) 0);
-                        apdu.sendBytesLong(apduBuffer, (short) 0, DH.maxLength);
-                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_P) {
+                        apdu.setOutgoingLength((short) 8);
+                        Util.setShort(apduBuffer, (short) 0, pool.getCapacity());
+                        Util.setShort(apduBuffer, (short) 2, pool.getDepth());
+                        Util.setShort(apduBuffer, (short) 4, pool.getRefillCount());
+                        Util.setShort(apduBuffer, (short) 6, pool.getCount());
+                        apdu.sendBytesLong(apduBuffer, (short) 0, (short) 8);
+                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_GROUP) {
                         apdu.setOutgoing();
-                        apdu.setOutgoingLength(DH.maxLength);
-                        dh.getP(apduBuffer, (short) 0);
-                        apdu.sendBytesLong(apduBuffer, (short) 0, DH.maxLength);
-                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_G) {
+                        apdu.setOutgoingLength((short) 4);
+                        apduBuffer[0] = engine.getGroup();
+                        Util.setShort(apduBuffer, (short) 1, engine.getLength());
+                        apduBuffer[3] = dh.getSizes();
+                        apdu.sendBytesLong(apduBuffer, (short) 0, (short) 4);
+                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_ENGINE) {
                         apdu.setOutgoing();
-                        apdu.setOutgoingLength(DH.maxLength);
-                        dh.getG(apduBuffer, (short) 0);
-                        apdu.sendBytesLong(apduBuffer, (short) 0, DH.maxLength);
+                        apdu.setOutgoingLength((short) 1);
+                        apduBuffer[0] = engine.getEngine();
+                        apdu.sendBytesLong(apduBuffer, (short) 0, (short) 1);
+                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_TICKET) {
+                        if (!session.isIssuable()) {
+                            ISOException.throwIt(ISO7816.SW_CONDITIONS_NOT_SATISFIED);
+                        }
+                        tickets.issue(channel, apduBuffer, (short) 0);
+                        session.setIssuable(false);
+                        apdu.setOutgoing();
+                        apdu.setOutgoingLength(TicketCache.TICKET_LENGTH);
+                        apdu.sendBytesLong(apduBuffer, (short) 0, TicketCache.TICKET_LENGTH);
+                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_STATIC) {
+                        apdu.setOutgoing();
+                        apdu.setOutgoingLength((short) 7);
+                        apduBuffer[0] = staticKey.isEnabled() ? (byte) 0x01 : BLANK;
+                        Util.setShort(apduBuffer, (short) 1, staticKey.getLifetime());
+                        Util.setShort(apduBuffer, (short) 3, staticKey.getUses());
+                        Util.setShort(apduBuffer, (short) 5, staticKey.getRotations());
+                        apdu.sendBytesLong(apduBuffer, (short) 0, (short) 7);
+                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_KEY_TABLE) {
+                        apdu.setOutgoing();
+                        apdu.setOutgoingLength((short) 4);
+                        Util.setShort(apduBuffer, (short) 0, keys.getCapacity());
+                        Util.setShort(apduBuffer, (short) 2, keys.getCount());
+                        apdu.sendBytesLong(apduBuffer, (short) 0, (short) 4);
+                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_CONFIG) {
+                        apdu.setOutgoing();
+                        apdu.setOutgoingLength(Config.LENGTH);
+                        config.write(apduBuffer, (short) 0);
+                        apdu.sendBytesLong(apduBuffer, (short) 0, Config.LENGTH);
+                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_TICKET_CACHE) {
+                        apdu.setOutgoing();
+                        apdu.setOutgoingLength((short) 8);
+                        Util.setShort(apduBuffer, (short) 0, tickets.getCapacity());
+                        Util.setShort(apduBuffer, (short) 2, tickets.getLifetime());
+                        Util.setShort(apduBuffer, (short) 4, tickets.getMaxUses());
+                        Util.setShort(apduBuffer, (short) 6, tickets.getCount());
+                        apdu.sendBytesLong(apduBuffer, (short) 0, (short) 8);
                     } else {
                         ISOException.throwIt(ISO7816.SW_INCORRECT_P1P2);
                     }
                     return;
 
                 case INS_SET:
-                    if (apduBuffer[ISO7816.OFFSET_P1] == P1_Y) {
-                        dh.setY(apduBuffer, ISO7816.OFFSET_CDATA, DH.maxLength, (short) 0);
-                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_P) {
-                        dh.setP(apduBuffer, ISO7816.OFFSET_CDATA, DH.maxLength, (short) 0);
-                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_G) {
-                        dh.setG(apduBuffer, ISO7816.OFFSET_CDATA, DH.maxLength, (short) 0);
+                    if (apduBuffer[ISO7816.OFFSET_P1] == P1_Y || apduBuffer[ISO7816.OFFSET_P1] == P1_P
+                            || apduBuffer[ISO7816.OFFSET_P1] == P1_G) {
+                        read = apdu.setIncomingAndReceive();
+                        if (receiveValue(apdu, read, apduBuffer[ISO7816.OFFSET_P1],
+                                (short) ((apduBuffer[ISO7816.OFFSET_P2] & 0xFF) * OFFSET_UNIT), false)) {
+                            clearKeys();
+                        }
+                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_GROUP
+                            && apduBuffer[ISO7816.OFFSET_P2] == DHGroups.GROUP_CUSTOM) {
+                        // A custom group takes its key length as data
+                        if (apdu.setIncomingAndReceive() != (short) 2) {
+                            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+                        }
+                        if (dh.setCustomGroup(Util.getShort(apduBuffer, ISO7816.OFFSET_CDATA)) || engine != dh) {
+                            select(dh);
+                        }
+                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_GROUP
+                            && ECGroups.getKeyLength(apduBuffer[ISO7816.OFFSET_P2]) != 0) {
+                        if (ecdh == null) {
+                            ISOException.throwIt(ISO7816.SW_FUNC_NOT_SUPPORTED);
+                        }
+                        if (ecdh.setGroup(apduBuffer[ISO7816.OFFSET_P2]) || engine != ecdh) {
+                            select(ecdh);
+                        }
+                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_GROUP) {
+                        if (dh.setGroup(apduBuffer[ISO7816.OFFSET_P2]) || engine != dh) {
+                            select(dh);
+                        }
+                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_EXP_LEN) {
+                        if (apdu.setIncomingAndReceive() != (short) 2) {
+                            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+                        }
+                        if (dh.setExpLength(Util.getShort(apduBuffer, ISO7816.OFFSET_CDATA))) {
+                            clearKeys();
+                        }
+                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_POOL) {
+                        if (apdu.setIncomingAndReceive() != (short) 4) {
+                            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+                        }
+                        pool.configure(Util.getShort(apduBuffer, ISO7816.OFFSET_CDATA),
+                                Util.getShort(apduBuffer, (short) (ISO7816.OFFSET_CDATA + 2)));
+                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_TICKET_CACHE) {
+                        if (apdu.setIncomingAndReceive() != (short) 4) {
+                            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+                        }
+                        tickets.configure(Util.getShort(apduBuffer, ISO7816.OFFSET_CDATA),
+                                Util.getShort(apduBuffer, (short) (ISO7816.OFFSET_CDATA + 2)));
+                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_STATIC
+                            && apduBuffer[ISO7816.OFFSET_P2] == P2_STATIC_ROTATE) {
+                        if (!staticKey.isEnabled()) {
+                            ISOException.throwIt(ISO7816.SW_CONDITIONS_NOT_SATISFIED);
+                        }
+                        staticKey.rotate();
+                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_STATIC) {
+                        if (apdu.setIncomingAndReceive() != (short) 2) {
+                            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+                        }
+                        staticKey.configure(Util.getShort(apduBuffer, ISO7816.OFFSET_CDATA));
+                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_KEY_TABLE) {
+                        keys.clear();
+                    } else if (apduBuffer[ISO7816.OFFSET_P1] == P1_KEY) {
+                        if (!keys.take(channel, (short) (apduBuffer[ISO7816.OFFSET_P2] & 0xFF))) {
+                            ISOException.throwIt(ISO7816.SW_RECORD_NOT_FOUND);
+                        }
+                        session.setIssuable(false);
                     } else {
                         ISOException.throwIt(ISO7816.SW_INCORRECT_P1P2);
                     }
                     return;
 
+                case INS_REFILL:
+                    // P2 overrides the configured number of keys per refill
+                    short remaining = pool.refill(apduBuffer[ISO7816.OFFSET_P2] != BLANK
+                            ? (short) (apduBuffer[ISO7816.OFFSET_P2] & 0xFF) : pool.getRefillCount());
+                    apdu.setOutgoing();
+                    apdu.setOutgoingLength((short) 2);
+                    Util.setShort(apduBuffer, (short) 0, remaining);
+                    apdu.sendBytesLong(apduBuffer, (short) 0, (short) 2);
+                    return;
+
                 case INS_FINAL:
-                    dh.doFinal(encKey);
+                    // The host's Y may come along instead of with INS_SET
+                    read = apdu.setIncomingAndReceive();
+                    if (apdu.getIncomingLength() != 0 && apdu.getIncomingLength() != engine.getLength()) {
+                        ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+                    }
+                    if (apdu.getIncomingLength() == 0) {
+                        engine.doFinal(channel);
+                    } else if (read == engine.getLength()) {
+                        engine.doFinal(channel, apduBuffer, apdu.getOffsetCdata());
+                    } else {
+                        receiveValue(apdu, read, P1_Y, (short) 0, true);
+                        engine.doFinal(channel);
+                    }
+                    tickets.handshake();
+                    session.setIssuable(true);
+                    stats.count(Stats.HANDSHAKES_COMPLETED);
+                    return;
+
+                case INS_EXCHANGE:
+                    stats.count(Stats.HANDSHAKES_STARTED);
+                    read = apdu.setIncomingAndReceive();
+                    if (apdu.getIncomingLength() != engine.getLength()) {
+                        ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+                    }
+                    if (read == engine.getLength()) {
+                        // The host's Y is used straight from the APDU buffer
+                        // and the card's Y stays in DH for the response
+                        takeKey();
+                        engine.doFinal(channel, apduBuffer, apdu.getOffsetCdata());
+                    } else {
+                        // The host's Y does not fit the APDU buffer so it goes
+                        // into DH which computes the card's Y afterwards, unless
+                        // the static key already holds it
+                        boolean fresh = !staticKey.take();
+                        if (fresh) {
+                            engine.genKey();
+                        }
+                        receiveValue(apdu, read, P1_Y, (short) 0, true);
+                        engine.exchange(channel, fresh);
+                        if (!fresh) {
+                            staticKey.restoreY();
+                        }
+                    }
+                    tickets.handshake();
+                    session.setIssuable(true);
+                    stats.count(Stats.HANDSHAKES_COMPLETED);
+
+                    // The response is the card's Y followed by the tag
+                    session.setPending((short) 0, (short) (engine.getLength() + TAG_LENGTH));
+                    sendPending(apdu, session);
+                    return;
+
+                case INS_BATCH:
+                    // As many whole peer Ys as the APDU buffer holds run
+                    // against the key loaded by INS_INIT, which is kept while
+                    // P1 announces more peers
+                    read = apdu.setIncomingAndReceive();
+                    short length = engine.getLength();
+                    if (read == 0 || read != apdu.getIncomingLength() || read % length != 0) {
+                        ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+                    }
+                    boolean more = apduBuffer[ISO7816.OFFSET_P1] == P1_BATCH_MORE;
+                    if ((short) (read / length) > (short) (keys.getCapacity() - keys.getCount())) {
+                        engine.clearKey();
+                        ISOException.throwIt(ISO7816.SW_FILE_FULL);
+                    }
+                    short offset = apdu.getOffsetCdata();
+                    short out = 0;
+                    try {
+                        while (read > 0) {
+                            channel.derive(apduBuffer, offset, engine.agree(apduBuffer, offset));
+                            Utils.zeroize(apduBuffer, (short) (offset + SecureChannel.KEY_MATERIAL_LENGTH),
+                                    (short) (length - SecureChannel.KEY_MATERIAL_LENGTH));
+
+                            // The entries go to the start of the buffer, which
+                            // they fill slower than the peer Ys are consumed
+                            keys.put(channel, apduBuffer, offset, reply, apduBuffer, out);
+                            out += KeyTable.ENTRY_LENGTH;
+                            offset += length;
+                            read -= length;
+                        }
+                    } catch (CardRuntimeException e) {
+                        // The handles of the peers done so far never reach
+                        // the host, so their slots are freed with the key
+                        for (short entry = 0; entry < out; entry += KeyTable.ENTRY_LENGTH) {
+                            keys.free((short) (apduBuffer[entry] & 0xFF));
+                        }
+                        engine.clearKey();
+                        throw e;
+                    }
+                    if (!more) {
+                        engine.clearKey();
+                        stats.count(Stats.HANDSHAKES_COMPLETED);
+                    }
+                    apdu.setOutgoing();
+                    apdu.setOutgoingLength(out);
+                    apdu.sendBytes((short) 0, out);
+                    return;
+
+                case INS_RESUME:
+                    // The ticket and the host nonce come in and the card
+                    // nonce and the tag of the restored key go out
+                    read = apdu.setIncomingAndReceive();
+                    if (read != (short) (TicketCache.TICKET_LENGTH + TicketCache.NONCE_LENGTH)) {
+                        ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+                    }
+                    if (!tickets.resume(channel, apduBuffer, apdu.getOffsetCdata())) {
+                        stats.count(Stats.RESUME_MISSES);
+                        ISOException.throwIt(ISO7816.SW_DATA_INVALID);
+                    }
+                    stats.count(Stats.RESUMES);
+                    session.setIssuable(false);
+                    Util.arrayCopyNonAtomic(apduBuffer, (short) (apdu.getOffsetCdata() + read),
+                            apduBuffer, (short) 0, TicketCache.NONCE_LENGTH);
+                    confirm(channel, apduBuffer, TicketCache.NONCE_LENGTH);
+                    apdu.setOutgoing();
+                    apdu.setOutgoingLength((short) (TicketCache.NONCE_LENGTH + TAG_LENGTH));
+                    apdu.sendBytes((short) 0, (short) (TicketCache.NONCE_LENGTH + TAG_LENGTH));
+                    return;
+
+                case INS_WRAP:
+                case INS_UNWRAP:
+                    // Each chunk has to fit the APDU buffer
+                    read = apdu.setIncomingAndReceive();
+                    if (read != apdu.getIncomingLength()) {
+                        ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+                    }
+                    if (apduBuffer[ISO7816.OFFSET_INS] == INS_WRAP) {
+                        read = channel.wrap(apduBuffer, apdu.getOffsetCdata(), read);
+                    } else {
+                        read = channel.unwrap(apduBuffer, apdu.getOffsetCdata(), read);
+                    }
+                    apdu.setOutgoing();
+                    apdu.setOutgoingLength(read);
+                    apdu.sendBytes((short) 0, read);
                     return;
 
                 case INS_TEST:
-                    aesCipher.init(encKey, Cipher.MODE_ENCRYPT);
-                    aesCipher.doFinal(reply, (short) 0, (short) reply.length, buffer, (short) 0);
+                    stats.count(Stats.TESTS);
+                    confirm(channel, apduBuffer, (short) 0);
                     apdu.setOutgoing();
-                    apdu.setOutgoingLength((short) reply.length);
-                    apdu.sendBytesLong(buffer, (short) 0, (short) reply.length);
+                    apdu.setOutgoingLength(TAG_LENGTH);
+                    apdu.sendBytes((short) 0, TAG_LENGTH);
+                    return;
+
+                case INS_STATS:
+                    boolean reset = apduBuffer[ISO7816.OFFSET_P1] == P1_STATS_RESET;
+                    stats.write(apduBuffer, (short) 0);
+                    apdu.setOutgoing();
+                    apdu.setOutgoingLength(Stats.LENGTH);
+                    apdu.sendBytes((short) 0, Stats.LENGTH);
+                    if (reset) {
+                        stats.reset();
+                    }
                     return;
 
                 default:
@@ -185,4 +649,337 @@ public class DHApplet extends Applet {
             ISOException.throwIt(ISO7816.SW_CLA_NOT_SUPPORTED);
         }
     }
+
+    /**
+     * Switches the handshake to the given engine and clears the pool and the
+     * static key.
+     *
+     * @param engine
+     */
+    private void select(KeyAgreementEngine engine) {
+        this.engine.clearKey();
+        this.engine = engine;
+        pool.setEngine(engine);
+        staticKey.setEngine(engine);
+        dropSessions();
+    }
+
+    /**
+     * Clears the pool and the static key after a change of the DH parameters.
+     */
+    private void clearKeys() {
+        pool.clear();
+        staticKey.clear();
+        dropSessions();
+    }
+
+    /**
+     * Drops the handshakes parked by the other sessions, which no longer fit
+     * the engine.
+     */
+    private void dropSessions() {
+        for (short i = 0; i < (short) sessions.length; i++) {
+            if ((short) (i + 1) != owner[0]) {
+                sessions[i].drop();
+            }
+        }
+    }
+
+    /**
+     * Makes the given session the one whose handshake is in the engine,
+     * parking the handshake of the previous one.
+     *
+     * A service call cannot park the handshake of a logical channel as its
+     * memory is only accessible while the applet is selected, so that
+     * handshake is lost and has to start over.
+     *
+     * @param index of the session
+     * @return the session
+     */
+    private Session bind(short index) {
+        if (owner[0] != (short) (index + 1)) {
+            if (owner[0] != 0 && index < channels) {
+                sessions[(short) (owner[0] - 1)].save(engine);
+            }
+            sessions[index].restore(engine);
+            owner[0] = (short) (index + 1);
+        }
+        return sessions[index];
+    }
+
+    /**
+     * Opens a fresh session on the logical channel the applet is selected on,
+     * taking it from the free list unless the channel already has one.
+     *
+     * The free list holds the free sessions from allocated[0] on, each as its
+     * index + 1. An entry of 0 stands for the session of its own index so the
+     * list cleared by a reset holds every session again.
+     *
+     * @return false if all sessions are in use
+     */
+    public boolean select() {
+        short channel = JCSystem.getAssignedChannel();
+        if (channel >= MAX_CHANNELS) {
+            return false;
+        }
+        if (bindings[channel] == 0) {
+            short top = allocated[0];
+            if (top == channels) {
+                return false;
+            }
+            bindings[channel] = free[top] != 0 ? free[top] : (byte) (top + 1);
+            allocated[0]++;
+        }
+        sessions[(short) (bindings[channel] - 1)].close();
+        return true;
+    }
+
+    public boolean select(boolean appInstAlreadyActive) {
+        return select();
+    }
+
+    /**
+     * Closes the session of the logical channel the applet is deselected on
+     * and returns it to the free list.
+     */
+    public void deselect() {
+        // The end of a session is the last safe point to save the counters
+        stats.flush();
+        short channel = JCSystem.getAssignedChannel();
+        if (channel >= MAX_CHANNELS || bindings[channel] == 0) {
+            return;
+        }
+        short index = (short) (bindings[channel] - 1);
+        if (owner[0] == (short) (index + 1)) {
+            engine.clearKey();
+            owner[0] = 0;
+        }
+        sessions[index].close();
+        allocated[0]--;
+        free[allocated[0]] = bindings[channel];
+        bindings[channel] = 0;
+    }
+
+    public void deselect(boolean appInstStillActive) {
+        deselect();
+    }
+
+    /**
+     * Offers KeyAgreementService to the applets on the allowlist.
+     *
+     * @param clientAID
+     * @param parameter
+     * @return the service or null if the client is not allowed
+     */
+    public Shareable getShareableInterfaceObject(AID clientAID, byte parameter) {
+        return isClient(clientAID) ? this : null;
+    }
+
+    public short init(byte[] buffer, short offset) {
+        bindService();
+        stats.count(Stats.HANDSHAKES_STARTED);
+        takeKey();
+        engine.getY(buffer, offset, (short) 0, engine.getLength());
+        return engine.getLength();
+    }
+
+    public void doFinal(byte[] peerY, short offset) {
+        bindService();
+        short length = engine.getLength();
+        sessions[channels].getChannel().derive(peerY, offset, engine.agree(peerY, offset));
+        Utils.zeroize(peerY, (short) (offset + SecureChannel.KEY_MATERIAL_LENGTH),
+                (short) (length - SecureChannel.KEY_MATERIAL_LENGTH));
+        engine.clearKey();
+        stats.count(Stats.HANDSHAKES_COMPLETED);
+    }
+
+    public byte getGroup() {
+        return engine.getGroup();
+    }
+
+    public short getLength() {
+        return engine.getLength();
+    }
+
+    /**
+     * Checks that the caller of a service method is on the allowlist, as
+     * an allowed client may pass the service on, and binds the service's
+     * session.
+     */
+    private void bindService() {
+        if (!isClient(JCSystem.getPreviousContextAID())) {
+            ISOException.throwIt(ISO7816.SW_SECURITY_STATUS_NOT_SATISFIED);
+        }
+        bind(channels);
+    }
+
+    /**
+     * @param aid
+     * @return true if the AID is on the allowlist of service clients
+     */
+    private boolean isClient(AID aid) {
+        if (clients == null || aid == null) {
+            return false;
+        }
+        short offset = 0;
+        while (offset < (short) clients.length) {
+            byte length = clients[offset];
+            if (aid.equals(clients, (short) (offset + 1), length)) {
+                return true;
+            }
+            offset += (short) (length + 1);
+        }
+        return false;
+    }
+
+    /**
+     * Loads the static key into the engine in the ephemeral-static mode.
+     * Otherwise loads the next key from the pool or generates a new one if the
+     * pool is empty.
+     */
+    private void takeKey() {
+        if (staticKey.take()) {
+            return;
+        }
+        if (pool.take()) {
+            stats.count(Stats.POOL_HITS);
+        } else {
+            stats.count(Stats.POOL_MISSES);
+            engine.init();
+        }
+    }
+
+    /**
+     * Sends the part of Y, P or G selected by P1 from the offset given by P2
+     * on, in as many blocks as the APDU buffer requires.
+     *
+     * @param apdu
+     */
+    private void sendValue(APDU apdu) {
+        byte[] apduBuffer = apdu.getBuffer();
+        byte target = apduBuffer[ISO7816.OFFSET_P1];
+        short offset = (short) ((apduBuffer[ISO7816.OFFSET_P2] & 0xFF) * OFFSET_UNIT);
+        short remaining = (short) ((target == P1_Y ? engine.getLength() : dh.getLength()) - offset);
+        if (remaining < 0) {
+            ISOException.throwIt(ISO7816.SW_WRONG_P1P2);
+        }
+
+        short length = apdu.setOutgoing();
+        if (length > remaining) {
+            length = remaining;
+        }
+        apdu.setOutgoingLength(length);
+        while (length > 0) {
+            short block = length > (short) apduBuffer.length ? (short) apduBuffer.length : length;
+            if (target == P1_Y) {
+                engine.getY(apduBuffer, (short) 0, offset, block);
+            } else if (target == P1_P) {
+                dh.getP(apduBuffer, (short) 0, offset, block);
+            } else {
+                dh.getG(apduBuffer, (short) 0, offset, block);
+            }
+            apdu.sendBytes((short) 0, block);
+            offset += block;
+            length -= block;
+        }
+    }
+
+    /**
+     * Receives the incoming data into Y, P or G of DH at the given offset,
+     * reading it in as many blocks as the APDU buffer requires.
+     *
+     * @param apdu
+     * @param read bytes already received by setIncomingAndReceive()
+     * @param target P1_Y, P1_P or P1_G
+     * @param offset
+     * @param whole true if the data must fill the value from offset to its end
+     * @return true if P or G changed
+     */
+    private boolean receiveValue(APDU apdu, short read, byte target, short offset, boolean whole) {
+        short remaining = (short) ((target == P1_Y ? engine.getLength() : dh.getLength()) - offset);
+        if (remaining < 0) {
+            ISOException.throwIt(ISO7816.SW_WRONG_P1P2);
+        }
+        if (apdu.getIncomingLength() > remaining || (whole && apdu.getIncomingLength() != remaining)) {
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+        }
+
+        byte[] apduBuffer = apdu.getBuffer();
+        short dataOffset = apdu.getOffsetCdata();
+        boolean changed = false;
+        while (read > 0) {
+            if (target == P1_Y) {
+                engine.setY(apduBuffer, dataOffset, read, offset);
+            } else if (target == P1_P) {
+                changed |= dh.setP(apduBuffer, dataOffset, read, offset);
+            } else {
+                changed |= dh.setG(apduBuffer, dataOffset, read, offset);
+            }
+            offset += read;
+            read = apdu.receiveBytes(dataOffset);
+        }
+        return changed;
+    }
+
+    /**
+     * Writes the key confirmation tag, the reply encrypted with the session
+     * key, into output.
+     *
+     * @param channel
+     * @param output
+     * @param offset
+     */
+    private void confirm(SecureChannel channel, byte[] output, short offset) {
+        channel.encryptBlock(reply, (short) 0, output, offset);
+    }
+
+    /**
+     * Sends as much of the pending response as the host expects and announces
+     * the remainder with 61xx for GET RESPONSE. The response is the card's Y
+     * followed by the key confirmation tag, both read from where they are
+     * kept so no response buffer is needed.
+     *
+     * @param apdu
+     * @param session
+     */
+    private void sendPending(APDU apdu, Session session) {
+        byte[] apduBuffer = apdu.getBuffer();
+        short length = apdu.setOutgoing();
+        if (length > session.getPendingRemaining()) {
+            length = session.getPendingRemaining();
+        }
+        apdu.setOutgoingLength(length);
+        while (length > 0) {
+            short offset = session.getPendingOffset();
+            short block;
+            if (offset < engine.getLength()) {
+                block = (short) (engine.getLength() - offset);
+                if (block > (short) apduBuffer.length) {
+                    block = (short) apduBuffer.length;
+                }
+                if (block > length) {
+                    block = length;
+                }
+                engine.getY(apduBuffer, (short) 0, offset, block);
+                offset = 0;
+            } else {
+                offset -= engine.getLength();
+                block = (short) (TAG_LENGTH - offset);
+                if (block > length) {
+                    block = length;
+                }
+                confirm(session.getChannel(), apduBuffer, (short) 0);
+            }
+            apdu.sendBytes(offset, block);
+            session.setPending((short) (session.getPendingOffset() + block),
+                    (short) (session.getPendingRemaining() - block));
+            length -= block;
+        }
+
+        short remaining = session.getPendingRemaining();
+        if (remaining > 0) {
+            ISOException.throwIt((short) (ISO7816.SW_BYTES_REMAINING_00
+                    | (remaining > 0xFF ? 0x00 : remaining)));
+        }
+    }
 }
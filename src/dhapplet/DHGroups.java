@@ -0,0 +1,566 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet;
+
+/**
+ * Registry of the standard Diffie-Hellman groups built into the applet.
+ *
+ * The primes are the MODP groups 14, 15 and 16 from RFC-3526 and the ffdhe
+ * groups from RFC-7919. All of them use 2 as the generator G. A group is
+ * selected by its one byte ID so the host does not need to upload P and G and
+ * the card does not need to write them into persistent memory.
+ *
+ * The MODP IDs are the RFC-3526 group numbers. The ffdhe IDs carry the low
+ * byte of their TLS NamedGroup code point (0x0100 to 0x0102) with the top bit
+ * set.
+ *
+ * Only groups of a key size supported by DH can be selected.
+ *
+ * @author Thotheolh
+ */
+public class DHGroups {
+
+    public static final byte GROUP_CUSTOM = (byte) 0x00;
+    public static final byte GROUP_MODP_2048 = (byte) 0x0E;
+    public static final byte GROUP_MODP_3072 = (byte) 0x0F;
+    public static final byte GROUP_MODP_4096 = (byte) 0x10;
+    public static final byte GROUP_FFDHE_2048 = (byte) 0x80;
+    public static final byte GROUP_FFDHE_3072 = (byte) 0x81;
+    public static final byte GROUP_FFDHE_4096 = (byte) 0x82;
+
+    private static final byte[] MODP_2048 = {
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xC9, (byte) 0x0F,
+        (byte) 0xDA, (byte) 0xA2, (byte) 0x21, (byte) 0x68, (byte) 0xC2,
+        (byte) 0x34, (byte) 0xC4, (byte) 0xC6, (byte) 0x62, (byte) 0x8B,
+        (byte) 0x80, (byte) 0xDC, (byte) 0x1C, (byte) 0xD1, (byte) 0x29,
+        (byte) 0x02, (byte) 0x4E, (byte) 0x08, (byte) 0x8A, (byte) 0x67,
+        (byte) 0xCC, (byte) 0x74, (byte) 0x02, (byte) 0x0B, (byte) 0xBE,
+        (byte) 0xA6, (byte) 0x3B, (byte) 0x13, (byte) 0x9B, (byte) 0x22,
+        (byte) 0x51, (byte) 0x4A, (byte) 0x08, (byte) 0x79, (byte) 0x8E,
+        (byte) 0x34, (byte) 0x04, (byte) 0xDD, (byte) 0xEF, (byte) 0x95,
+        (byte) 0x19, (byte) 0xB3, (byte) 0xCD, (byte) 0x3A, (byte) 0x43,
+        (byte) 0x1B, (byte) 0x30, (byte) 0x2B, (byte) 0x0A, (byte) 0x6D,
+        (byte) 0xF2, (byte) 0x5F, (byte) 0x14, (byte) 0x37, (byte) 0x4F,
+        (byte) 0xE1, (byte) 0x35, (byte) 0x6D, (byte) 0x6D, (byte) 0x51,
+        (byte) 0xC2, (byte) 0x45, (byte) 0xE4, (byte) 0x85, (byte) 0xB5,
+        (byte) 0x76, (byte) 0x62, (byte) 0x5E, (byte) 0x7E, (byte) 0xC6,
+        (byte) 0xF4, (byte) 0x4C, (byte) 0x42, (byte) 0xE9, (byte) 0xA6,
+        (byte) 0x37, (byte) 0xED, (byte) 0x6B, (byte) 0x0B, (byte) 0xFF,
+        (byte) 0x5C, (byte) 0xB6, (byte) 0xF4, (byte) 0x06, (byte) 0xB7,
+        (byte) 0xED, (byte) 0xEE, (byte) 0x38, (byte) 0x6B, (byte) 0xFB,
+        (byte) 0x5A, (byte) 0x89, (byte) 0x9F, (byte) 0xA5, (byte) 0xAE,
+        (byte) 0x9F, (byte) 0x24, (byte) 0x11, (byte) 0x7C, (byte) 0x4B,
+        (byte) 0x1F, (byte) 0xE6, (byte) 0x49, (byte) 0x28, (byte) 0x66,
+        (byte) 0x51, (byte) 0xEC, (byte) 0xE4, (byte) 0x5B, (byte) 0x3D,
+        (byte) 0xC2, (byte) 0x00, (byte) 0x7C, (byte) 0xB8, (byte) 0xA1,
+        (byte) 0x63, (byte) 0xBF, (byte) 0x05, (byte) 0x98, (byte) 0xDA,
+        (byte) 0x48, (byte) 0x36, (byte) 0x1C, (byte) 0x55, (byte) 0xD3,
+        (byte) 0x9A, (byte) 0x69, (byte) 0x16, (byte) 0x3F, (byte) 0xA8,
+        (byte) 0xFD, (byte) 0x24, (byte) 0xCF, (byte) 0x5F, (byte) 0x83,
+        (byte) 0x65, (byte) 0x5D, (byte) 0x23, (byte) 0xDC, (byte) 0xA3,
+        (byte) 0xAD, (byte) 0x96, (byte) 0x1C, (byte) 0x62, (byte) 0xF3,
+        (byte) 0x56, (byte) 0x20, (byte) 0x85, (byte) 0x52, (byte) 0xBB,
+        (byte) 0x9E, (byte) 0xD5, (byte) 0x29, (byte) 0x07, (byte) 0x70,
+        (byte) 0x96, (byte) 0x96, (byte) 0x6D, (byte) 0x67, (byte) 0x0C,
+        (byte) 0x35, (byte) 0x4E, (byte) 0x4A, (byte) 0xBC, (byte) 0x98,
+        (byte) 0x04, (byte) 0xF1, (byte) 0x74, (byte) 0x6C, (byte) 0x08,
+        (byte) 0xCA, (byte) 0x18, (byte) 0x21, (byte) 0x7C, (byte) 0x32,
+        (byte) 0x90, (byte) 0x5E, (byte) 0x46, (byte) 0x2E, (byte) 0x36,
+        (byte) 0xCE, (byte) 0x3B, (byte) 0xE3, (byte) 0x9E, (byte) 0x77,
+        (byte) 0x2C, (byte) 0x18, (byte) 0x0E, (byte) 0x86, (byte) 0x03,
+        (byte) 0x9B, (byte) 0x27, (byte) 0x83, (byte) 0xA2, (byte) 0xEC,
+        (byte) 0x07, (byte) 0xA2, (byte) 0x8F, (byte) 0xB5, (byte) 0xC5,
+        (byte) 0x5D, (byte) 0xF0, (byte) 0x6F, (byte) 0x4C, (byte) 0x52,
+        (byte) 0xC9, (byte) 0xDE, (byte) 0x2B, (byte) 0xCB, (byte) 0xF6,
+        (byte) 0x95, (byte) 0x58, (byte) 0x17, (byte) 0x18, (byte) 0x39,
+        (byte) 0x95, (byte) 0x49, (byte) 0x7C, (byte) 0xEA, (byte) 0x95,
+        (byte) 0x6A, (byte) 0xE5, (byte) 0x15, (byte) 0xD2, (byte) 0x26,
+        (byte) 0x18, (byte) 0x98, (byte) 0xFA, (byte) 0x05, (byte) 0x10,
+        (byte) 0x15, (byte) 0x72, (byte) 0x8E, (byte) 0x5A, (byte) 0x8A,
+        (byte) 0xAC, (byte) 0xAA, (byte) 0x68, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF
+    };
+
+    private static final byte[] FFDHE_2048 = {
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xAD, (byte) 0xF8,
+        (byte) 0x54, (byte) 0x58, (byte) 0xA2, (byte) 0xBB, (byte) 0x4A,
+        (byte) 0x9A, (byte) 0xAF, (byte) 0xDC, (byte) 0x56, (byte) 0x20,
+        (byte) 0x27, (byte) 0x3D, (byte) 0x3C, (byte) 0xF1, (byte) 0xD8,
+        (byte) 0xB9, (byte) 0xC5, (byte) 0x83, (byte) 0xCE, (byte) 0x2D,
+        (byte) 0x36, (byte) 0x95, (byte) 0xA9, (byte) 0xE1, (byte) 0x36,
+        (byte) 0x41, (byte) 0x14, (byte) 0x64, (byte) 0x33, (byte) 0xFB,
+        (byte) 0xCC, (byte) 0x93, (byte) 0x9D, (byte) 0xCE, (byte) 0x24,
+        (byte) 0x9B, (byte) 0x3E, (byte) 0xF9, (byte) 0x7D, (byte) 0x2F,
+        (byte) 0xE3, (byte) 0x63, (byte) 0x63, (byte) 0x0C, (byte) 0x75,
+        (byte) 0xD8, (byte) 0xF6, (byte) 0x81, (byte) 0xB2, (byte) 0x02,
+        (byte) 0xAE, (byte) 0xC4, (byte) 0x61, (byte) 0x7A, (byte) 0xD3,
+        (byte) 0xDF, (byte) 0x1E, (byte) 0xD5, (byte) 0xD5, (byte) 0xFD,
+        (byte) 0x65, (byte) 0x61, (byte) 0x24, (byte) 0x33, (byte) 0xF5,
+        (byte) 0x1F, (byte) 0x5F, (byte) 0x06, (byte) 0x6E, (byte) 0xD0,
+        (byte) 0x85, (byte) 0x63, (byte) 0x65, (byte) 0x55, (byte) 0x3D,
+        (byte) 0xED, (byte) 0x1A, (byte) 0xF3, (byte) 0xB5, (byte) 0x57,
+        (byte) 0x13, (byte) 0x5E, (byte) 0x7F, (byte) 0x57, (byte) 0xC9,
+        (byte) 0x35, (byte) 0x98, (byte) 0x4F, (byte) 0x0C, (byte) 0x70,
+        (byte) 0xE0, (byte) 0xE6, (byte) 0x8B, (byte) 0x77, (byte) 0xE2,
+        (byte) 0xA6, (byte) 0x89, (byte) 0xDA, (byte) 0xF3, (byte) 0xEF,
+        (byte) 0xE8, (byte) 0x72, (byte) 0x1D, (byte) 0xF1, (byte) 0x58,
+        (byte) 0xA1, (byte) 0x36, (byte) 0xAD, (byte) 0xE7, (byte) 0x35,
+        (byte) 0x30, (byte) 0xAC, (byte) 0xCA, (byte) 0x4F, (byte) 0x48,
+        (byte) 0x3A, (byte) 0x79, (byte) 0x7A, (byte) 0xBC, (byte) 0x0A,
+        (byte) 0xB1, (byte) 0x82, (byte) 0xB3, (byte) 0x24, (byte) 0xFB,
+        (byte) 0x61, (byte) 0xD1, (byte) 0x08, (byte) 0xA9, (byte) 0x4B,
+        (byte) 0xB2, (byte) 0xC8, (byte) 0xE3, (byte) 0xFB, (byte) 0xB9,
+        (byte) 0x6A, (byte) 0xDA, (byte) 0xB7, (byte) 0x60, (byte) 0xD7,
+        (byte) 0xF4, (byte) 0x68, (byte) 0x1D, (byte) 0x4F, (byte) 0x42,
+        (byte) 0xA3, (byte) 0xDE, (byte) 0x39, (byte) 0x4D, (byte) 0xF4,
+        (byte) 0xAE, (byte) 0x56, (byte) 0xED, (byte) 0xE7, (byte) 0x63,
+        (byte) 0x72, (byte) 0xBB, (byte) 0x19, (byte) 0x0B, (byte) 0x07,
+        (byte) 0xA7, (byte) 0xC8, (byte) 0xEE, (byte) 0x0A, (byte) 0x6D,
+        (byte) 0x70, (byte) 0x9E, (byte) 0x02, (byte) 0xFC, (byte) 0xE1,
+        (byte) 0xCD, (byte) 0xF7, (byte) 0xE2, (byte) 0xEC, (byte) 0xC0,
+        (byte) 0x34, (byte) 0x04, (byte) 0xCD, (byte) 0x28, (byte) 0x34,
+        (byte) 0x2F, (byte) 0x61, (byte) 0x91, (byte) 0x72, (byte) 0xFE,
+        (byte) 0x9C, (byte) 0xE9, (byte) 0x85, (byte) 0x83, (byte) 0xFF,
+        (byte) 0x8E, (byte) 0x4F, (byte) 0x12, (byte) 0x32, (byte) 0xEE,
+        (byte) 0xF2, (byte) 0x81, (byte) 0x83, (byte) 0xC3, (byte) 0xFE,
+        (byte) 0x3B, (byte) 0x1B, (byte) 0x4C, (byte) 0x6F, (byte) 0xAD,
+        (byte) 0x73, (byte) 0x3B, (byte) 0xB5, (byte) 0xFC, (byte) 0xBC,
+        (byte) 0x2E, (byte) 0xC2, (byte) 0x20, (byte) 0x05, (byte) 0xC5,
+        (byte) 0x8E, (byte) 0xF1, (byte) 0x83, (byte) 0x7D, (byte) 0x16,
+        (byte) 0x83, (byte) 0xB2, (byte) 0xC6, (byte) 0xF3, (byte) 0x4A,
+        (byte) 0x26, (byte) 0xC1, (byte) 0xB2, (byte) 0xEF, (byte) 0xFA,
+        (byte) 0x88, (byte) 0x6B, (byte) 0x42, (byte) 0x38, (byte) 0x61,
+        (byte) 0x28, (byte) 0x5C, (byte) 0x97, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF
+    };
+
+    private static final byte[] MODP_3072 = {
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xC9, (byte) 0x0F,
+        (byte) 0xDA, (byte) 0xA2, (byte) 0x21, (byte) 0x68, (byte) 0xC2,
+        (byte) 0x34, (byte) 0xC4, (byte) 0xC6, (byte) 0x62, (byte) 0x8B,
+        (byte) 0x80, (byte) 0xDC, (byte) 0x1C, (byte) 0xD1, (byte) 0x29,
+        (byte) 0x02, (byte) 0x4E, (byte) 0x08, (byte) 0x8A, (byte) 0x67,
+        (byte) 0xCC, (byte) 0x74, (byte) 0x02, (byte) 0x0B, (byte) 0xBE,
+        (byte) 0xA6, (byte) 0x3B, (byte) 0x13, (byte) 0x9B, (byte) 0x22,
+        (byte) 0x51, (byte) 0x4A, (byte) 0x08, (byte) 0x79, (byte) 0x8E,
+        (byte) 0x34, (byte) 0x04, (byte) 0xDD, (byte) 0xEF, (byte) 0x95,
+        (byte) 0x19, (byte) 0xB3, (byte) 0xCD, (byte) 0x3A, (byte) 0x43,
+        (byte) 0x1B, (byte) 0x30, (byte) 0x2B, (byte) 0x0A, (byte) 0x6D,
+        (byte) 0xF2, (byte) 0x5F, (byte) 0x14, (byte) 0x37, (byte) 0x4F,
+        (byte) 0xE1, (byte) 0x35, (byte) 0x6D, (byte) 0x6D, (byte) 0x51,
+        (byte) 0xC2, (byte) 0x45, (byte) 0xE4, (byte) 0x85, (byte) 0xB5,
+        (byte) 0x76, (byte) 0x62, (byte) 0x5E, (byte) 0x7E, (byte) 0xC6,
+        (byte) 0xF4, (byte) 0x4C, (byte) 0x42, (byte) 0xE9, (byte) 0xA6,
+        (byte) 0x37, (byte) 0xED, (byte) 0x6B, (byte) 0x0B, (byte) 0xFF,
+        (byte) 0x5C, (byte) 0xB6, (byte) 0xF4, (byte) 0x06, (byte) 0xB7,
+        (byte) 0xED, (byte) 0xEE, (byte) 0x38, (byte) 0x6B, (byte) 0xFB,
+        (byte) 0x5A, (byte) 0x89, (byte) 0x9F, (byte) 0xA5, (byte) 0xAE,
+        (byte) 0x9F, (byte) 0x24, (byte) 0x11, (byte) 0x7C, (byte) 0x4B,
+        (byte) 0x1F, (byte) 0xE6, (byte) 0x49, (byte) 0x28, (byte) 0x66,
+        (byte) 0x51, (byte) 0xEC, (byte) 0xE4, (byte) 0x5B, (byte) 0x3D,
+        (byte) 0xC2, (byte) 0x00, (byte) 0x7C, (byte) 0xB8, (byte) 0xA1,
+        (byte) 0x63, (byte) 0xBF, (byte) 0x05, (byte) 0x98, (byte) 0xDA,
+        (byte) 0x48, (byte) 0x36, (byte) 0x1C, (byte) 0x55, (byte) 0xD3,
+        (byte) 0x9A, (byte) 0x69, (byte) 0x16, (byte) 0x3F, (byte) 0xA8,
+        (byte) 0xFD, (byte) 0x24, (byte) 0xCF, (byte) 0x5F, (byte) 0x83,
+        (byte) 0x65, (byte) 0x5D, (byte) 0x23, (byte) 0xDC, (byte) 0xA3,
+        (byte) 0xAD, (byte) 0x96, (byte) 0x1C, (byte) 0x62, (byte) 0xF3,
+        (byte) 0x56, (byte) 0x20, (byte) 0x85, (byte) 0x52, (byte) 0xBB,
+        (byte) 0x9E, (byte) 0xD5, (byte) 0x29, (byte) 0x07, (byte) 0x70,
+        (byte) 0x96, (byte) 0x96, (byte) 0x6D, (byte) 0x67, (byte) 0x0C,
+        (byte) 0x35, (byte) 0x4E, (byte) 0x4A, (byte) 0xBC, (byte) 0x98,
+        (byte) 0x04, (byte) 0xF1, (byte) 0x74, (byte) 0x6C, (byte) 0x08,
+        (byte) 0xCA, (byte) 0x18, (byte) 0x21, (byte) 0x7C, (byte) 0x32,
+        (byte) 0x90, (byte) 0x5E, (byte) 0x46, (byte) 0x2E, (byte) 0x36,
+        (byte) 0xCE, (byte) 0x3B, (byte) 0xE3, (byte) 0x9E, (byte) 0x77,
+        (byte) 0x2C, (byte) 0x18, (byte) 0x0E, (byte) 0x86, (byte) 0x03,
+        (byte) 0x9B, (byte) 0x27, (byte) 0x83, (byte) 0xA2, (byte) 0xEC,
+        (byte) 0x07, (byte) 0xA2, (byte) 0x8F, (byte) 0xB5, (byte) 0xC5,
+        (byte) 0x5D, (byte) 0xF0, (byte) 0x6F, (byte) 0x4C, (byte) 0x52,
+        (byte) 0xC9, (byte) 0xDE, (byte) 0x2B, (byte) 0xCB, (byte) 0xF6,
+        (byte) 0x95, (byte) 0x58, (byte) 0x17, (byte) 0x18, (byte) 0x39,
+        (byte) 0x95, (byte) 0x49, (byte) 0x7C, (byte) 0xEA, (byte) 0x95,
+        (byte) 0x6A, (byte) 0xE5, (byte) 0x15, (byte) 0xD2, (byte) 0x26,
+        (byte) 0x18, (byte) 0x98, (byte) 0xFA, (byte) 0x05, (byte) 0x10,
+        (byte) 0x15, (byte) 0x72, (byte) 0x8E, (byte) 0x5A, (byte) 0x8A,
+        (byte) 0xAA, (byte) 0xC4, (byte) 0x2D, (byte) 0xAD, (byte) 0x33,
+        (byte) 0x17, (byte) 0x0D, (byte) 0x04, (byte) 0x50, (byte) 0x7A,
+        (byte) 0x33, (byte) 0xA8, (byte) 0x55, (byte) 0x21, (byte) 0xAB,
+        (byte) 0xDF, (byte) 0x1C, (byte) 0xBA, (byte) 0x64, (byte) 0xEC,
+        (byte) 0xFB, (byte) 0x85, (byte) 0x04, (byte) 0x58, (byte) 0xDB,
+        (byte) 0xEF, (byte) 0x0A, (byte) 0x8A, (byte) 0xEA, (byte) 0x71,
+        (byte) 0x57, (byte) 0x5D, (byte) 0x06, (byte) 0x0C, (byte) 0x7D,
+        (byte) 0xB3, (byte) 0x97, (byte) 0x0F, (byte) 0x85, (byte) 0xA6,
+        (byte) 0xE1, (byte) 0xE4, (byte) 0xC7, (byte) 0xAB, (byte) 0xF5,
+        (byte) 0xAE, (byte) 0x8C, (byte) 0xDB, (byte) 0x09, (byte) 0x33,
+        (byte) 0xD7, (byte) 0x1E, (byte) 0x8C, (byte) 0x94, (byte) 0xE0,
+        (byte) 0x4A, (byte) 0x25, (byte) 0x61, (byte) 0x9D, (byte) 0xCE,
+        (byte) 0xE3, (byte) 0xD2, (byte) 0x26, (byte) 0x1A, (byte) 0xD2,
+        (byte) 0xEE, (byte) 0x6B, (byte) 0xF1, (byte) 0x2F, (byte) 0xFA,
+        (byte) 0x06, (byte) 0xD9, (byte) 0x8A, (byte) 0x08, (byte) 0x64,
+        (byte) 0xD8, (byte) 0x76, (byte) 0x02, (byte) 0x73, (byte) 0x3E,
+        (byte) 0xC8, (byte) 0x6A, (byte) 0x64, (byte) 0x52, (byte) 0x1F,
+        (byte) 0x2B, (byte) 0x18, (byte) 0x17, (byte) 0x7B, (byte) 0x20,
+        (byte) 0x0C, (byte) 0xBB, (byte) 0xE1, (byte) 0x17, (byte) 0x57,
+        (byte) 0x7A, (byte) 0x61, (byte) 0x5D, (byte) 0x6C, (byte) 0x77,
+        (byte) 0x09, (byte) 0x88, (byte) 0xC0, (byte) 0xBA, (byte) 0xD9,
+        (byte) 0x46, (byte) 0xE2, (byte) 0x08, (byte) 0xE2, (byte) 0x4F,
+        (byte) 0xA0, (byte) 0x74, (byte) 0xE5, (byte) 0xAB, (byte) 0x31,
+        (byte) 0x43, (byte) 0xDB, (byte) 0x5B, (byte) 0xFC, (byte) 0xE0,
+        (byte) 0xFD, (byte) 0x10, (byte) 0x8E, (byte) 0x4B, (byte) 0x82,
+        (byte) 0xD1, (byte) 0x20, (byte) 0xA9, (byte) 0x3A, (byte) 0xD2,
+        (byte) 0xCA, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF
+    };
+
+    private static final byte[] FFDHE_3072 = {
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xAD, (byte) 0xF8,
+        (byte) 0x54, (byte) 0x58, (byte) 0xA2, (byte) 0xBB, (byte) 0x4A,
+        (byte) 0x9A, (byte) 0xAF, (byte) 0xDC, (byte) 0x56, (byte) 0x20,
+        (byte) 0x27, (byte) 0x3D, (byte) 0x3C, (byte) 0xF1, (byte) 0xD8,
+        (byte) 0xB9, (byte) 0xC5, (byte) 0x83, (byte) 0xCE, (byte) 0x2D,
+        (byte) 0x36, (byte) 0x95, (byte) 0xA9, (byte) 0xE1, (byte) 0x36,
+        (byte) 0x41, (byte) 0x14, (byte) 0x64, (byte) 0x33, (byte) 0xFB,
+        (byte) 0xCC, (byte) 0x93, (byte) 0x9D, (byte) 0xCE, (byte) 0x24,
+        (byte) 0x9B, (byte) 0x3E, (byte) 0xF9, (byte) 0x7D, (byte) 0x2F,
+        (byte) 0xE3, (byte) 0x63, (byte) 0x63, (byte) 0x0C, (byte) 0x75,
+        (byte) 0xD8, (byte) 0xF6, (byte) 0x81, (byte) 0xB2, (byte) 0x02,
+        (byte) 0xAE, (byte) 0xC4, (byte) 0x61, (byte) 0x7A, (byte) 0xD3,
+        (byte) 0xDF, (byte) 0x1E, (byte) 0xD5, (byte) 0xD5, (byte) 0xFD,
+        (byte) 0x65, (byte) 0x61, (byte) 0x24, (byte) 0x33, (byte) 0xF5,
+        (byte) 0x1F, (byte) 0x5F, (byte) 0x06, (byte) 0x6E, (byte) 0xD0,
+        (byte) 0x85, (byte) 0x63, (byte) 0x65, (byte) 0x55, (byte) 0x3D,
+        (byte) 0xED, (byte) 0x1A, (byte) 0xF3, (byte) 0xB5, (byte) 0x57,
+        (byte) 0x13, (byte) 0x5E, (byte) 0x7F, (byte) 0x57, (byte) 0xC9,
+        (byte) 0x35, (byte) 0x98, (byte) 0x4F, (byte) 0x0C, (byte) 0x70,
+        (byte) 0xE0, (byte) 0xE6, (byte) 0x8B, (byte) 0x77, (byte) 0xE2,
+        (byte) 0xA6, (byte) 0x89, (byte) 0xDA, (byte) 0xF3, (byte) 0xEF,
+        (byte) 0xE8, (byte) 0x72, (byte) 0x1D, (byte) 0xF1, (byte) 0x58,
+        (byte) 0xA1, (byte) 0x36, (byte) 0xAD, (byte) 0xE7, (byte) 0x35,
+        (byte) 0x30, (byte) 0xAC, (byte) 0xCA, (byte) 0x4F, (byte) 0x48,
+        (byte) 0x3A, (byte) 0x79, (byte) 0x7A, (byte) 0xBC, (byte) 0x0A,
+        (byte) 0xB1, (byte) 0x82, (byte) 0xB3, (byte) 0x24, (byte) 0xFB,
+        (byte) 0x61, (byte) 0xD1, (byte) 0x08, (byte) 0xA9, (byte) 0x4B,
+        (byte) 0xB2, (byte) 0xC8, (byte) 0xE3, (byte) 0xFB, (byte) 0xB9,
+        (byte) 0x6A, (byte) 0xDA, (byte) 0xB7, (byte) 0x60, (byte) 0xD7,
+        (byte) 0xF4, (byte) 0x68, (byte) 0x1D, (byte) 0x4F, (byte) 0x42,
+        (byte) 0xA3, (byte) 0xDE, (byte) 0x39, (byte) 0x4D, (byte) 0xF4,
+        (byte) 0xAE, (byte) 0x56, (byte) 0xED, (byte) 0xE7, (byte) 0x63,
+        (byte) 0x72, (byte) 0xBB, (byte) 0x19, (byte) 0x0B, (byte) 0x07,
+        (byte) 0xA7, (byte) 0xC8, (byte) 0xEE, (byte) 0x0A, (byte) 0x6D,
+        (byte) 0x70, (byte) 0x9E, (byte) 0x02, (byte) 0xFC, (byte) 0xE1,
+        (byte) 0xCD, (byte) 0xF7, (byte) 0xE2, (byte) 0xEC, (byte) 0xC0,
+        (byte) 0x34, (byte) 0x04, (byte) 0xCD, (byte) 0x28, (byte) 0x34,
+        (byte) 0x2F, (byte) 0x61, (byte) 0x91, (byte) 0x72, (byte) 0xFE,
+        (byte) 0x9C, (byte) 0xE9, (byte) 0x85, (byte) 0x83, (byte) 0xFF,
+        (byte) 0x8E, (byte) 0x4F, (byte) 0x12, (byte) 0x32, (byte) 0xEE,
+        (byte) 0xF2, (byte) 0x81, (byte) 0x83, (byte) 0xC3, (byte) 0xFE,
+        (byte) 0x3B, (byte) 0x1B, (byte) 0x4C, (byte) 0x6F, (byte) 0xAD,
+        (byte) 0x73, (byte) 0x3B, (byte) 0xB5, (byte) 0xFC, (byte) 0xBC,
+        (byte) 0x2E, (byte) 0xC2, (byte) 0x20, (byte) 0x05, (byte) 0xC5,
+        (byte) 0x8E, (byte) 0xF1, (byte) 0x83, (byte) 0x7D, (byte) 0x16,
+        (byte) 0x83, (byte) 0xB2, (byte) 0xC6, (byte) 0xF3, (byte) 0x4A,
+        (byte) 0x26, (byte) 0xC1, (byte) 0xB2, (byte) 0xEF, (byte) 0xFA,
+        (byte) 0x88, (byte) 0x6B, (byte) 0x42, (byte) 0x38, (byte) 0x61,
+        (byte) 0x1F, (byte) 0xCF, (byte) 0xDC, (byte) 0xDE, (byte) 0x35,
+        (byte) 0x5B, (byte) 0x3B, (byte) 0x65, (byte) 0x19, (byte) 0x03,
+        (byte) 0x5B, (byte) 0xBC, (byte) 0x34, (byte) 0xF4, (byte) 0xDE,
+        (byte) 0xF9, (byte) 0x9C, (byte) 0x02, (byte) 0x38, (byte) 0x61,
+        (byte) 0xB4, (byte) 0x6F, (byte) 0xC9, (byte) 0xD6, (byte) 0xE6,
+        (byte) 0xC9, (byte) 0x07, (byte) 0x7A, (byte) 0xD9, (byte) 0x1D,
+        (byte) 0x26, (byte) 0x91, (byte) 0xF7, (byte) 0xF7, (byte) 0xEE,
+        (byte) 0x59, (byte) 0x8C, (byte) 0xB0, (byte) 0xFA, (byte) 0xC1,
+        (byte) 0x86, (byte) 0xD9, (byte) 0x1C, (byte) 0xAE, (byte) 0xFE,
+        (byte) 0x13, (byte) 0x09, (byte) 0x85, (byte) 0x13, (byte) 0x92,
+        (byte) 0x70, (byte) 0xB4, (byte) 0x13, (byte) 0x0C, (byte) 0x93,
+        (byte) 0xBC, (byte) 0x43, (byte) 0x79, (byte) 0x44, (byte) 0xF4,
+        (byte) 0xFD, (byte) 0x44, (byte) 0x52, (byte) 0xE2, (byte) 0xD7,
+        (byte) 0x4D, (byte) 0xD3, (byte) 0x64, (byte) 0xF2, (byte) 0xE2,
+        (byte) 0x1E, (byte) 0x71, (byte) 0xF5, (byte) 0x4B, (byte) 0xFF,
+        (byte) 0x5C, (byte) 0xAE, (byte) 0x82, (byte) 0xAB, (byte) 0x9C,
+        (byte) 0x9D, (byte) 0xF6, (byte) 0x9E, (byte) 0xE8, (byte) 0x6D,
+        (byte) 0x2B, (byte) 0xC5, (byte) 0x22, (byte) 0x36, (byte) 0x3A,
+        (byte) 0x0D, (byte) 0xAB, (byte) 0xC5, (byte) 0x21, (byte) 0x97,
+        (byte) 0x9B, (byte) 0x0D, (byte) 0xEA, (byte) 0xDA, (byte) 0x1D,
+        (byte) 0xBF, (byte) 0x9A, (byte) 0x42, (byte) 0xD5, (byte) 0xC4,
+        (byte) 0x48, (byte) 0x4E, (byte) 0x0A, (byte) 0xBC, (byte) 0xD0,
+        (byte) 0x6B, (byte) 0xFA, (byte) 0x53, (byte) 0xDD, (byte) 0xEF,
+        (byte) 0x3C, (byte) 0x1B, (byte) 0x20, (byte) 0xEE, (byte) 0x3F,
+        (byte) 0xD5, (byte) 0x9D, (byte) 0x7C, (byte) 0x25, (byte) 0xE4,
+        (byte) 0x1D, (byte) 0x2B, (byte) 0x66, (byte) 0xC6, (byte) 0x2E,
+        (byte) 0x37, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF
+    };
+
+    private static final byte[] MODP_4096 = {
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xC9, (byte) 0x0F,
+        (byte) 0xDA, (byte) 0xA2, (byte) 0x21, (byte) 0x68, (byte) 0xC2,
+        (byte) 0x34, (byte) 0xC4, (byte) 0xC6, (byte) 0x62, (byte) 0x8B,
+        (byte) 0x80, (byte) 0xDC, (byte) 0x1C, (byte) 0xD1, (byte) 0x29,
+        (byte) 0x02, (byte) 0x4E, (byte) 0x08, (byte) 0x8A, (byte) 0x67,
+        (byte) 0xCC, (byte) 0x74, (byte) 0x02, (byte) 0x0B, (byte) 0xBE,
+        (byte) 0xA6, (byte) 0x3B, (byte) 0x13, (byte) 0x9B, (byte) 0x22,
+        (byte) 0x51, (byte) 0x4A, (byte) 0x08, (byte) 0x79, (byte) 0x8E,
+        (byte) 0x34, (byte) 0x04, (byte) 0xDD, (byte) 0xEF, (byte) 0x95,
+        (byte) 0x19, (byte) 0xB3, (byte) 0xCD, (byte) 0x3A, (byte) 0x43,
+        (byte) 0x1B, (byte) 0x30, (byte) 0x2B, (byte) 0x0A, (byte) 0x6D,
+        (byte) 0xF2, (byte) 0x5F, (byte) 0x14, (byte) 0x37, (byte) 0x4F,
+        (byte) 0xE1, (byte) 0x35, (byte) 0x6D, (byte) 0x6D, (byte) 0x51,
+        (byte) 0xC2, (byte) 0x45, (byte) 0xE4, (byte) 0x85, (byte) 0xB5,
+        (byte) 0x76, (byte) 0x62, (byte) 0x5E, (byte) 0x7E, (byte) 0xC6,
+        (byte) 0xF4, (byte) 0x4C, (byte) 0x42, (byte) 0xE9, (byte) 0xA6,
+        (byte) 0x37, (byte) 0xED, (byte) 0x6B, (byte) 0x0B, (byte) 0xFF,
+        (byte) 0x5C, (byte) 0xB6, (byte) 0xF4, (byte) 0x06, (byte) 0xB7,
+        (byte) 0xED, (byte) 0xEE, (byte) 0x38, (byte) 0x6B, (byte) 0xFB,
+        (byte) 0x5A, (byte) 0x89, (byte) 0x9F, (byte) 0xA5, (byte) 0xAE,
+        (byte) 0x9F, (byte) 0x24, (byte) 0x11, (byte) 0x7C, (byte) 0x4B,
+        (byte) 0x1F, (byte) 0xE6, (byte) 0x49, (byte) 0x28, (byte) 0x66,
+        (byte) 0x51, (byte) 0xEC, (byte) 0xE4, (byte) 0x5B, (byte) 0x3D,
+        (byte) 0xC2, (byte) 0x00, (byte) 0x7C, (byte) 0xB8, (byte) 0xA1,
+        (byte) 0x63, (byte) 0xBF, (byte) 0x05, (byte) 0x98, (byte) 0xDA,
+        (byte) 0x48, (byte) 0x36, (byte) 0x1C, (byte) 0x55, (byte) 0xD3,
+        (byte) 0x9A, (byte) 0x69, (byte) 0x16, (byte) 0x3F, (byte) 0xA8,
+        (byte) 0xFD, (byte) 0x24, (byte) 0xCF, (byte) 0x5F, (byte) 0x83,
+        (byte) 0x65, (byte) 0x5D, (byte) 0x23, (byte) 0xDC, (byte) 0xA3,
+        (byte) 0xAD, (byte) 0x96, (byte) 0x1C, (byte) 0x62, (byte) 0xF3,
+        (byte) 0x56, (byte) 0x20, (byte) 0x85, (byte) 0x52, (byte) 0xBB,
+        (byte) 0x9E, (byte) 0xD5, (byte) 0x29, (byte) 0x07, (byte) 0x70,
+        (byte) 0x96, (byte) 0x96, (byte) 0x6D, (byte) 0x67, (byte) 0x0C,
+        (byte) 0x35, (byte) 0x4E, (byte) 0x4A, (byte) 0xBC, (byte) 0x98,
+        (byte) 0x04, (byte) 0xF1, (byte) 0x74, (byte) 0x6C, (byte) 0x08,
+        (byte) 0xCA, (byte) 0x18, (byte) 0x21, (byte) 0x7C, (byte) 0x32,
+        (byte) 0x90, (byte) 0x5E, (byte) 0x46, (byte) 0x2E, (byte) 0x36,
+        (byte) 0xCE, (byte) 0x3B, (byte) 0xE3, (byte) 0x9E, (byte) 0x77,
+        (byte) 0x2C, (byte) 0x18, (byte) 0x0E, (byte) 0x86, (byte) 0x03,
+        (byte) 0x9B, (byte) 0x27, (byte) 0x83, (byte) 0xA2, (byte) 0xEC,
+        (byte) 0x07, (byte) 0xA2, (byte) 0x8F, (byte) 0xB5, (byte) 0xC5,
+        (byte) 0x5D, (byte) 0xF0, (byte) 0x6F, (byte) 0x4C, (byte) 0x52,
+        (byte) 0xC9, (byte) 0xDE, (byte) 0x2B, (byte) 0xCB, (byte) 0xF6,
+        (byte) 0x95, (byte) 0x58, (byte) 0x17, (byte) 0x18, (byte) 0x39,
+        (byte) 0x95, (byte) 0x49, (byte) 0x7C, (byte) 0xEA, (byte) 0x95,
+        (byte) 0x6A, (byte) 0xE5, (byte) 0x15, (byte) 0xD2, (byte) 0x26,
+        (byte) 0x18, (byte) 0x98, (byte) 0xFA, (byte) 0x05, (byte) 0x10,
+        (byte) 0x15, (byte) 0x72, (byte) 0x8E, (byte) 0x5A, (byte) 0x8A,
+        (byte) 0xAA, (byte) 0xC4, (byte) 0x2D, (byte) 0xAD, (byte) 0x33,
+        (byte) 0x17, (byte) 0x0D, (byte) 0x04, (byte) 0x50, (byte) 0x7A,
+        (byte) 0x33, (byte) 0xA8, (byte) 0x55, (byte) 0x21, (byte) 0xAB,
+        (byte) 0xDF, (byte) 0x1C, (byte) 0xBA, (byte) 0x64, (byte) 0xEC,
+        (byte) 0xFB, (byte) 0x85, (byte) 0x04, (byte) 0x58, (byte) 0xDB,
+        (byte) 0xEF, (byte) 0x0A, (byte) 0x8A, (byte) 0xEA, (byte) 0x71,
+        (byte) 0x57, (byte) 0x5D, (byte) 0x06, (byte) 0x0C, (byte) 0x7D,
+        (byte) 0xB3, (byte) 0x97, (byte) 0x0F, (byte) 0x85, (byte) 0xA6,
+        (byte) 0xE1, (byte) 0xE4, (byte) 0xC7, (byte) 0xAB, (byte) 0xF5,
+        (byte) 0xAE, (byte) 0x8C, (byte) 0xDB, (byte) 0x09, (byte) 0x33,
+        (byte) 0xD7, (byte) 0x1E, (byte) 0x8C, (byte) 0x94, (byte) 0xE0,
+        (byte) 0x4A, (byte) 0x25, (byte) 0x61, (byte) 0x9D, (byte) 0xCE,
+        (byte) 0xE3, (byte) 0xD2, (byte) 0x26, (byte) 0x1A, (byte) 0xD2,
+        (byte) 0xEE, (byte) 0x6B, (byte) 0xF1, (byte) 0x2F, (byte) 0xFA,
+        (byte) 0x06, (byte) 0xD9, (byte) 0x8A, (byte) 0x08, (byte) 0x64,
+        (byte) 0xD8, (byte) 0x76, (byte) 0x02, (byte) 0x73, (byte) 0x3E,
+        (byte) 0xC8, (byte) 0x6A, (byte) 0x64, (byte) 0x52, (byte) 0x1F,
+        (byte) 0x2B, (byte) 0x18, (byte) 0x17, (byte) 0x7B, (byte) 0x20,
+        (byte) 0x0C, (byte) 0xBB, (byte) 0xE1, (byte) 0x17, (byte) 0x57,
+        (byte) 0x7A, (byte) 0x61, (byte) 0x5D, (byte) 0x6C, (byte) 0x77,
+        (byte) 0x09, (byte) 0x88, (byte) 0xC0, (byte) 0xBA, (byte) 0xD9,
+        (byte) 0x46, (byte) 0xE2, (byte) 0x08, (byte) 0xE2, (byte) 0x4F,
+        (byte) 0xA0, (byte) 0x74, (byte) 0xE5, (byte) 0xAB, (byte) 0x31,
+        (byte) 0x43, (byte) 0xDB, (byte) 0x5B, (byte) 0xFC, (byte) 0xE0,
+        (byte) 0xFD, (byte) 0x10, (byte) 0x8E, (byte) 0x4B, (byte) 0x82,
+        (byte) 0xD1, (byte) 0x20, (byte) 0xA9, (byte) 0x21, (byte) 0x08,
+        (byte) 0x01, (byte) 0x1A, (byte) 0x72, (byte) 0x3C, (byte) 0x12,
+        (byte) 0xA7, (byte) 0x87, (byte) 0xE6, (byte) 0xD7, (byte) 0x88,
+        (byte) 0x71, (byte) 0x9A, (byte) 0x10, (byte) 0xBD, (byte) 0xBA,
+        (byte) 0x5B, (byte) 0x26, (byte) 0x99, (byte) 0xC3, (byte) 0x27,
+        (byte) 0x18, (byte) 0x6A, (byte) 0xF4, (byte) 0xE2, (byte) 0x3C,
+        (byte) 0x1A, (byte) 0x94, (byte) 0x68, (byte) 0x34, (byte) 0xB6,
+        (byte) 0x15, (byte) 0x0B, (byte) 0xDA, (byte) 0x25, (byte) 0x83,
+        (byte) 0xE9, (byte) 0xCA, (byte) 0x2A, (byte) 0xD4, (byte) 0x4C,
+        (byte) 0xE8, (byte) 0xDB, (byte) 0xBB, (byte) 0xC2, (byte) 0xDB,
+        (byte) 0x04, (byte) 0xDE, (byte) 0x8E, (byte) 0xF9, (byte) 0x2E,
+        (byte) 0x8E, (byte) 0xFC, (byte) 0x14, (byte) 0x1F, (byte) 0xBE,
+        (byte) 0xCA, (byte) 0xA6, (byte) 0x28, (byte) 0x7C, (byte) 0x59,
+        (byte) 0x47, (byte) 0x4E, (byte) 0x6B, (byte) 0xC0, (byte) 0x5D,
+        (byte) 0x99, (byte) 0xB2, (byte) 0x96, (byte) 0x4F, (byte) 0xA0,
+        (byte) 0x90, (byte) 0xC3, (byte) 0xA2, (byte) 0x23, (byte) 0x3B,
+        (byte) 0xA1, (byte) 0x86, (byte) 0x51, (byte) 0x5B, (byte) 0xE7,
+        (byte) 0xED, (byte) 0x1F, (byte) 0x61, (byte) 0x29, (byte) 0x70,
+        (byte) 0xCE, (byte) 0xE2, (byte) 0xD7, (byte) 0xAF, (byte) 0xB8,
+        (byte) 0x1B, (byte) 0xDD, (byte) 0x76, (byte) 0x21, (byte) 0x70,
+        (byte) 0x48, (byte) 0x1C, (byte) 0xD0, (byte) 0x06, (byte) 0x91,
+        (byte) 0x27, (byte) 0xD5, (byte) 0xB0, (byte) 0x5A, (byte) 0xA9,
+        (byte) 0x93, (byte) 0xB4, (byte) 0xEA, (byte) 0x98, (byte) 0x8D,
+        (byte) 0x8F, (byte) 0xDD, (byte) 0xC1, (byte) 0x86, (byte) 0xFF,
+        (byte) 0xB7, (byte) 0xDC, (byte) 0x90, (byte) 0xA6, (byte) 0xC0,
+        (byte) 0x8F, (byte) 0x4D, (byte) 0xF4, (byte) 0x35, (byte) 0xC9,
+        (byte) 0x34, (byte) 0x06, (byte) 0x31, (byte) 0x99, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF
+    };
+
+    private static final byte[] FFDHE_4096 = {
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xAD, (byte) 0xF8,
+        (byte) 0x54, (byte) 0x58, (byte) 0xA2, (byte) 0xBB, (byte) 0x4A,
+        (byte) 0x9A, (byte) 0xAF, (byte) 0xDC, (byte) 0x56, (byte) 0x20,
+        (byte) 0x27, (byte) 0x3D, (byte) 0x3C, (byte) 0xF1, (byte) 0xD8,
+        (byte) 0xB9, (byte) 0xC5, (byte) 0x83, (byte) 0xCE, (byte) 0x2D,
+        (byte) 0x36, (byte) 0x95, (byte) 0xA9, (byte) 0xE1, (byte) 0x36,
+        (byte) 0x41, (byte) 0x14, (byte) 0x64, (byte) 0x33, (byte) 0xFB,
+        (byte) 0xCC, (byte) 0x93, (byte) 0x9D, (byte) 0xCE, (byte) 0x24,
+        (byte) 0x9B, (byte) 0x3E, (byte) 0xF9, (byte) 0x7D, (byte) 0x2F,
+        (byte) 0xE3, (byte) 0x63, (byte) 0x63, (byte) 0x0C, (byte) 0x75,
+        (byte) 0xD8, (byte) 0xF6, (byte) 0x81, (byte) 0xB2, (byte) 0x02,
+        (byte) 0xAE, (byte) 0xC4, (byte) 0x61, (byte) 0x7A, (byte) 0xD3,
+        (byte) 0xDF, (byte) 0x1E, (byte) 0xD5, (byte) 0xD5, (byte) 0xFD,
+        (byte) 0x65, (byte) 0x61, (byte) 0x24, (byte) 0x33, (byte) 0xF5,
+        (byte) 0x1F, (byte) 0x5F, (byte) 0x06, (byte) 0x6E, (byte) 0xD0,
+        (byte) 0x85, (byte) 0x63, (byte) 0x65, (byte) 0x55, (byte) 0x3D,
+        (byte) 0xED, (byte) 0x1A, (byte) 0xF3, (byte) 0xB5, (byte) 0x57,
+        (byte) 0x13, (byte) 0x5E, (byte) 0x7F, (byte) 0x57, (byte) 0xC9,
+        (byte) 0x35, (byte) 0x98, (byte) 0x4F, (byte) 0x0C, (byte) 0x70,
+        (byte) 0xE0, (byte) 0xE6, (byte) 0x8B, (byte) 0x77, (byte) 0xE2,
+        (byte) 0xA6, (byte) 0x89, (byte) 0xDA, (byte) 0xF3, (byte) 0xEF,
+        (byte) 0xE8, (byte) 0x72, (byte) 0x1D, (byte) 0xF1, (byte) 0x58,
+        (byte) 0xA1, (byte) 0x36, (byte) 0xAD, (byte) 0xE7, (byte) 0x35,
+        (byte) 0x30, (byte) 0xAC, (byte) 0xCA, (byte) 0x4F, (byte) 0x48,
+        (byte) 0x3A, (byte) 0x79, (byte) 0x7A, (byte) 0xBC, (byte) 0x0A,
+        (byte) 0xB1, (byte) 0x82, (byte) 0xB3, (byte) 0x24, (byte) 0xFB,
+        (byte) 0x61, (byte) 0xD1, (byte) 0x08, (byte) 0xA9, (byte) 0x4B,
+        (byte) 0xB2, (byte) 0xC8, (byte) 0xE3, (byte) 0xFB, (byte) 0xB9,
+        (byte) 0x6A, (byte) 0xDA, (byte) 0xB7, (byte) 0x60, (byte) 0xD7,
+        (byte) 0xF4, (byte) 0x68, (byte) 0x1D, (byte) 0x4F, (byte) 0x42,
+        (byte) 0xA3, (byte) 0xDE, (byte) 0x39, (byte) 0x4D, (byte) 0xF4,
+        (byte) 0xAE, (byte) 0x56, (byte) 0xED, (byte) 0xE7, (byte) 0x63,
+        (byte) 0x72, (byte) 0xBB, (byte) 0x19, (byte) 0x0B, (byte) 0x07,
+        (byte) 0xA7, (byte) 0xC8, (byte) 0xEE, (byte) 0x0A, (byte) 0x6D,
+        (byte) 0x70, (byte) 0x9E, (byte) 0x02, (byte) 0xFC, (byte) 0xE1,
+        (byte) 0xCD, (byte) 0xF7, (byte) 0xE2, (byte) 0xEC, (byte) 0xC0,
+        (byte) 0x34, (byte) 0x04, (byte) 0xCD, (byte) 0x28, (byte) 0x34,
+        (byte) 0x2F, (byte) 0x61, (byte) 0x91, (byte) 0x72, (byte) 0xFE,
+        (byte) 0x9C, (byte) 0xE9, (byte) 0x85, (byte) 0x83, (byte) 0xFF,
+        (byte) 0x8E, (byte) 0x4F, (byte) 0x12, (byte) 0x32, (byte) 0xEE,
+        (byte) 0xF2, (byte) 0x81, (byte) 0x83, (byte) 0xC3, (byte) 0xFE,
+        (byte) 0x3B, (byte) 0x1B, (byte) 0x4C, (byte) 0x6F, (byte) 0xAD,
+        (byte) 0x73, (byte) 0x3B, (byte) 0xB5, (byte) 0xFC, (byte) 0xBC,
+        (byte) 0x2E, (byte) 0xC2, (byte) 0x20, (byte) 0x05, (byte) 0xC5,
+        (byte) 0x8E, (byte) 0xF1, (byte) 0x83, (byte) 0x7D, (byte) 0x16,
+        (byte) 0x83, (byte) 0xB2, (byte) 0xC6, (byte) 0xF3, (byte) 0x4A,
+        (byte) 0x26, (byte) 0xC1, (byte) 0xB2, (byte) 0xEF, (byte) 0xFA,
+        (byte) 0x88, (byte) 0x6B, (byte) 0x42, (byte) 0x38, (byte) 0x61,
+        (byte) 0x1F, (byte) 0xCF, (byte) 0xDC, (byte) 0xDE, (byte) 0x35,
+        (byte) 0x5B, (byte) 0x3B, (byte) 0x65, (byte) 0x19, (byte) 0x03,
+        (byte) 0x5B, (byte) 0xBC, (byte) 0x34, (byte) 0xF4, (byte) 0xDE,
+        (byte) 0xF9, (byte) 0x9C, (byte) 0x02, (byte) 0x38, (byte) 0x61,
+        (byte) 0xB4, (byte) 0x6F, (byte) 0xC9, (byte) 0xD6, (byte) 0xE6,
+        (byte) 0xC9, (byte) 0x07, (byte) 0x7A, (byte) 0xD9, (byte) 0x1D,
+        (byte) 0x26, (byte) 0x91, (byte) 0xF7, (byte) 0xF7, (byte) 0xEE,
+        (byte) 0x59, (byte) 0x8C, (byte) 0xB0, (byte) 0xFA, (byte) 0xC1,
+        (byte) 0x86, (byte) 0xD9, (byte) 0x1C, (byte) 0xAE, (byte) 0xFE,
+        (byte) 0x13, (byte) 0x09, (byte) 0x85, (byte) 0x13, (byte) 0x92,
+        (byte) 0x70, (byte) 0xB4, (byte) 0x13, (byte) 0x0C, (byte) 0x93,
+        (byte) 0xBC, (byte) 0x43, (byte) 0x79, (byte) 0x44, (byte) 0xF4,
+        (byte) 0xFD, (byte) 0x44, (byte) 0x52, (byte) 0xE2, (byte) 0xD7,
+        (byte) 0x4D, (byte) 0xD3, (byte) 0x64, (byte) 0xF2, (byte) 0xE2,
+        (byte) 0x1E, (byte) 0x71, (byte) 0xF5, (byte) 0x4B, (byte) 0xFF,
+        (byte) 0x5C, (byte) 0xAE, (byte) 0x82, (byte) 0xAB, (byte) 0x9C,
+        (byte) 0x9D, (byte) 0xF6, (byte) 0x9E, (byte) 0xE8, (byte) 0x6D,
+        (byte) 0x2B, (byte) 0xC5, (byte) 0x22, (byte) 0x36, (byte) 0x3A,
+        (byte) 0x0D, (byte) 0xAB, (byte) 0xC5, (byte) 0x21, (byte) 0x97,
+        (byte) 0x9B, (byte) 0x0D, (byte) 0xEA, (byte) 0xDA, (byte) 0x1D,
+        (byte) 0xBF, (byte) 0x9A, (byte) 0x42, (byte) 0xD5, (byte) 0xC4,
+        (byte) 0x48, (byte) 0x4E, (byte) 0x0A, (byte) 0xBC, (byte) 0xD0,
+        (byte) 0x6B, (byte) 0xFA, (byte) 0x53, (byte) 0xDD, (byte) 0xEF,
+        (byte) 0x3C, (byte) 0x1B, (byte) 0x20, (byte) 0xEE, (byte) 0x3F,
+        (byte) 0xD5, (byte) 0x9D, (byte) 0x7C, (byte) 0x25, (byte) 0xE4,
+        (byte) 0x1D, (byte) 0x2B, (byte) 0x66, (byte) 0x9E, (byte) 0x1E,
+        (byte) 0xF1, (byte) 0x6E, (byte) 0x6F, (byte) 0x52, (byte) 0xC3,
+        (byte) 0x16, (byte) 0x4D, (byte) 0xF4, (byte) 0xFB, (byte) 0x79,
+        (byte) 0x30, (byte) 0xE9, (byte) 0xE4, (byte) 0xE5, (byte) 0x88,
+        (byte) 0x57, (byte) 0xB6, (byte) 0xAC, (byte) 0x7D, (byte) 0x5F,
+        (byte) 0x42, (byte) 0xD6, (byte) 0x9F, (byte) 0x6D, (byte) 0x18,
+        (byte) 0x77, (byte) 0x63, (byte) 0xCF, (byte) 0x1D, (byte) 0x55,
+        (byte) 0x03, (byte) 0x40, (byte) 0x04, (byte) 0x87, (byte) 0xF5,
+        (byte) 0x5B, (byte) 0xA5, (byte) 0x7E, (byte) 0x31, (byte) 0xCC,
+        (byte) 0x7A, (byte) 0x71, (byte) 0x35, (byte) 0xC8, (byte) 0x86,
+        (byte) 0xEF, (byte) 0xB4, (byte) 0x31, (byte) 0x8A, (byte) 0xED,
+        (byte) 0x6A, (byte) 0x1E, (byte) 0x01, (byte) 0x2D, (byte) 0x9E,
+        (byte) 0x68, (byte) 0x32, (byte) 0xA9, (byte) 0x07, (byte) 0x60,
+        (byte) 0x0A, (byte) 0x91, (byte) 0x81, (byte) 0x30, (byte) 0xC4,
+        (byte) 0x6D, (byte) 0xC7, (byte) 0x78, (byte) 0xF9, (byte) 0x71,
+        (byte) 0xAD, (byte) 0x00, (byte) 0x38, (byte) 0x09, (byte) 0x29,
+        (byte) 0x99, (byte) 0xA3, (byte) 0x33, (byte) 0xCB, (byte) 0x8B,
+        (byte) 0x7A, (byte) 0x1A, (byte) 0x1D, (byte) 0xB9, (byte) 0x3D,
+        (byte) 0x71, (byte) 0x40, (byte) 0x00, (byte) 0x3C, (byte) 0x2A,
+        (byte) 0x4E, (byte) 0xCE, (byte) 0xA9, (byte) 0xF9, (byte) 0x8D,
+        (byte) 0x0A, (byte) 0xCC, (byte) 0x0A, (byte) 0x82, (byte) 0x91,
+        (byte) 0xCD, (byte) 0xCE, (byte) 0xC9, (byte) 0x7D, (byte) 0xCF,
+        (byte) 0x8E, (byte) 0xC9, (byte) 0xB5, (byte) 0x5A, (byte) 0x7F,
+        (byte) 0x88, (byte) 0xA4, (byte) 0x6B, (byte) 0x4D, (byte) 0xB5,
+        (byte) 0xA8, (byte) 0x51, (byte) 0xF4, (byte) 0x41, (byte) 0x82,
+        (byte) 0xE1, (byte) 0xC6, (byte) 0x8A, (byte) 0x00, (byte) 0x7E,
+        (byte) 0x5E, (byte) 0x65, (byte) 0x5F, (byte) 0x6A, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF
+    };
+
+    /**
+     * Get the prime P of a built-in group.
+     *
+     * @param group
+     * @return P or null if the group is not built in
+     */
+    public static byte[] getP(byte group) {
+        switch (group) {
+            case GROUP_MODP_2048:
+                return MODP_2048;
+            case GROUP_FFDHE_2048:
+                return FFDHE_2048;
+            case GROUP_MODP_3072:
+                return MODP_3072;
+            case GROUP_FFDHE_3072:
+                return FFDHE_3072;
+            case GROUP_MODP_4096:
+                return MODP_4096;
+            case GROUP_FFDHE_4096:
+                return FFDHE_4096;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet;
+
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import javacard.framework.Util;
+import javacard.security.CryptoException;
+import javacard.security.ECKey;
+import javacard.security.ECPrivateKey;
+import javacard.security.ECPublicKey;
+import javacard.security.KeyAgreement;
+import javacard.security.KeyBuilder;
+import javacard.security.KeyPair;
+
+/**
+ * Elliptic curve Diffie-Hellman over the curves of ECGroups using the card's
+ * EC hardware through KeyAgreement.ALG_EC_SVDP_DH_PLAIN.
+ *
+ * Y is the uncompressed point (04 || X || Y) of 65 bytes for P-256 and 97
+ * bytes for P-384 and the shared secret is the X coordinate of the shared
+ * point, from which the channel keys are derived just like from the DH
+ * shared secret.
+ *
+ * One key pair is created per curve the card supports. The private keys are
+ * transient and so are the public keys where ECKeys can build them so. As
+ * clearKey() wipes the domain parameters along with the key on most cards,
+ * and a transient key loses them on reset, the curve is set again on every
+ * key that is not initialized before it is generated or loaded.
+ *
+ * The key agreement is initialized once per private key, on the first
+ * agree() after the key is generated or loaded, so a batch of peers runs
+ * against it without initializing it again.
+ *
+ * Loading a private key with initFromY() is not supported as the Java
+ * Card API offers no way to compute the public point from it.
+ *
+ * @author Thotheolh
+ */
+public class ECDH implements KeyAgreementEngine {
+
+    private static final byte[] CURVES = {ECGroups.GROUP_P256, ECGroups.GROUP_P384};
+
+    private KeyPair[] keyPairs = new KeyPair[(short) CURVES.length];
+    private KeyPair keyPair;
+    private ECPrivateKey priv;
+    private ECPublicKey pub;
+    private KeyAgreement agreement;
+    private boolean[] agreeing;
+    private byte group;
+    private short length;
+    private short capacity;
+    private byte[] Y;
+
+    /**
+     * Creates ECDH with a key pair for each built-in curve the card supports.
+     * The first of them is selected.
+     *
+     * @param config
+     * @throws CryptoException if the card supports no curve or no plain ECDH
+     */
+    public ECDH(Config config) throws CryptoException {
+        agreement = KeyAgreement.getInstance(KeyAgreement.ALG_EC_SVDP_DH_PLAIN, false);
+        agreeing = JCSystem.makeTransientBooleanArray((short) 1, JCSystem.CLEAR_ON_RESET);
+        for (short i = 0; i < (short) CURVES.length; i++) {
+            short bits = ECGroups.getKeyLength(CURVES[i]);
+            try {
+                ECPrivateKey curvePriv = (ECPrivateKey) KeyBuilder.buildKey(KeyBuilder.TYPE_EC_FP_PRIVATE_TRANSIENT_RESET, bits, false);
+                ECPublicKey curvePub = ECKeys.buildPublic(bits);
+                setCurve(curvePriv, CURVES[i]);
+                setCurve(curvePub, CURVES[i]);
+                keyPairs[i] = new KeyPair(curvePub, curvePriv);
+            } catch (CryptoException e) {
+                // Curve not supported by this card
+                keyPairs[i] = null;
+                continue;
+            }
+            capacity = pointLength(bits);
+            if (keyPair == null) {
+                select(i);
+            }
+        }
+        if (keyPair == null) {
+            CryptoException.throwIt(CryptoException.NO_SUCH_ALGORITHM);
+        }
+        Y = Utils.makeByteArray(capacity, config.place(Config.PLACE_Y, capacity, JCSystem.CLEAR_ON_RESET));
+    }
+
+    public void init() {
+        genKey();
+        pub.getW(Y, (short) 0);
+    }
+
+    public void initFromY() {
+        ISOException.throwIt(ISO7816.SW_FUNC_NOT_SUPPORTED);
+    }
+
+    public void genKey() {
+        prepare();
+        keyPair.genKeyPair();
+        agreeing[0] = false;
+    }
+
+    public short generate(byte[] exp, short expOffset, byte[] y, short yOffset) {
+        prepare();
+        keyPair.genKeyPair();
+        short expLength = priv.getS(exp, expOffset);
+        pub.getW(y, yOffset);
+        clearKey();
+        return expLength;
+    }
+
+    public void load(byte[] exp, short expOffset, short expLength, byte[] y, short yOffset) {
+        prepare();
+        priv.setS(exp, expOffset, expLength);
+        agreeing[0] = false;
+        Util.arrayCopyNonAtomic(y, yOffset, Y, (short) 0, length);
+    }
+
+    public short save(byte[] exp, short expOffset, byte[] y, short yOffset) {
+        Util.arrayCopyNonAtomic(Y, (short) 0, y, yOffset, length);
+        return priv.isInitialized() ? priv.getS(exp, expOffset) : 0;
+    }
+
+    public void doFinal(SecureChannel channel) {
+        doFinal(channel, Y, (short) 0);
+    }
+
+    public void doFinal(SecureChannel channel, byte[] peerY, short offset) {
+        open(channel, peerY, offset);
+        clearKey();
+    }
+
+    public void exchange(SecureChannel channel, boolean fresh) {
+        open(channel, Y, (short) 0);
+        if (fresh) {
+            pub.getW(Y, (short) 0);
+        }
+        clearKey();
+    }
+
+    public short agree(byte[] peerY, short offset) {
+        if (!agreeing[0]) {
+            agreement.init(priv);
+            agreeing[0] = true;
+        }
+        short secretLength = 0;
+        try {
+            secretLength = agreement.generateSecret(peerY, offset, length, peerY, offset);
+        } catch (CryptoException e) {
+            // The peer's point is not on the curve
+            Utils.zeroize(peerY, offset, length);
+            ISOException.throwIt(ISO7816.SW_WRONG_DATA);
+        }
+        return secretLength;
+    }
+
+    public void clearKey() {
+        priv.clearKey();
+        agreeing[0] = false;
+    }
+
+    public byte getEngine() {
+        return ENGINE_EC;
+    }
+
+    public byte getGroup() {
+        return group;
+    }
+
+    public short getLength() {
+        return length;
+    }
+
+    public short getCapacity() {
+        return capacity;
+    }
+
+    public void getY(byte[] output, short offset, short yOffset, short length) {
+        Util.arrayCopyNonAtomic(Y, yOffset, output, offset, length);
+    }
+
+    public void setY(byte[] data, short offset, short length, short yOffset) {
+        Util.arrayCopyNonAtomic(data, offset, Y, yOffset, length);
+    }
+
+    /**
+     * Select a built-in curve by its ID.
+     *
+     * @param id
+     * @return true if the curve changed
+     * @throws ISOException if the curve is unknown or not supported
+     */
+    public boolean setGroup(byte id) throws ISOException {
+        for (short i = 0; i < (short) CURVES.length; i++) {
+            if (CURVES[i] != id) {
+                continue;
+            }
+            if (keyPairs[i] == null) {
+                ISOException.throwIt(ISO7816.SW_FUNC_NOT_SUPPORTED);
+            }
+            if (group == id) {
+                return false;
+            }
+            clearKey();
+            select(i);
+            return true;
+        }
+        ISOException.throwIt(ISO7816.SW_INCORRECT_P1P2);
+        return false;
+    }
+
+    /**
+     * Computes the shared X coordinate over the peer's point, opens the
+     * channel from it and zeroizes it.
+     *
+     * @param channel
+     * @param peerY
+     * @param offset
+     */
+    private void open(SecureChannel channel, byte[] peerY, short offset) {
+        channel.open(peerY, offset, agree(peerY, offset));
+        Utils.zeroize(peerY, offset, length);
+    }
+
+    /**
+     * Sets the curve again on the keys of the selected curve that have lost
+     * it.
+     */
+    private void prepare() {
+        if (!priv.isInitialized()) {
+            setCurve(priv, group);
+        }
+        if (!pub.isInitialized()) {
+            setCurve(pub, group);
+        }
+    }
+
+    private void select(short index) {
+        keyPair = keyPairs[index];
+        priv = (ECPrivateKey) keyPair.getPrivate();
+        pub = (ECPublicKey) keyPair.getPublic();
+        group = CURVES[index];
+        length = pointLength(ECGroups.getKeyLength(group));
+    }
+
+    private static void setCurve(ECKey key, byte id) {
+        byte[] field = ECGroups.getField(id);
+        key.setFieldFP(field, (short) 0, (short) field.length);
+        key.setA(ECGroups.getA(id), (short) 0, (short) field.length);
+        key.setB(ECGroups.getB(id), (short) 0, (short) field.length);
+        key.setG(ECGroups.getG(id), (short) 0, (short) (2 * field.length + 1));
+        key.setR(ECGroups.getN(id), (short) 0, (short) field.length);
+        key.setK((short) 1);
+    }
+
+    /**
+     * @param bits
+     * @return length of an uncompressed point on a curve of the given size
+     */
+    private static short pointLength(short bits) {
+        return (short) (2 * (bits / 8) + 1);
+    }
+}
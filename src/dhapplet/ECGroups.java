@@ -0,0 +1,283 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet;
+
+import javacard.security.KeyBuilder;
+
+/**
+ * Registry of the elliptic curves built into the applet for ECDH.
+ *
+ * The curves are P-256 and P-384 from FIPS 186-4 (secp256r1 and secp384r1).
+ * Their IDs are their TLS NamedGroup code points and share the one byte ID
+ * space of DHGroups. The parameters are set on the keys once at
+ * construction, so selecting a curve costs no persistent writes.
+ *
+ * @author Thotheolh
+ */
+public class ECGroups {
+
+    public static final byte GROUP_P256 = (byte) 0x17;
+    public static final byte GROUP_P384 = (byte) 0x18;
+
+    private static final byte[] P256_P = {
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x00,
+        (byte) 0x00, (byte) 0x00, (byte) 0x01, (byte) 0x00, (byte) 0x00,
+        (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+        (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF
+    };
+
+    private static final byte[] P256_A = {
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x00,
+        (byte) 0x00, (byte) 0x00, (byte) 0x01, (byte) 0x00, (byte) 0x00,
+        (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+        (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFC
+    };
+
+    private static final byte[] P256_B = {
+        (byte) 0x5A, (byte) 0xC6, (byte) 0x35, (byte) 0xD8, (byte) 0xAA,
+        (byte) 0x3A, (byte) 0x93, (byte) 0xE7, (byte) 0xB3, (byte) 0xEB,
+        (byte) 0xBD, (byte) 0x55, (byte) 0x76, (byte) 0x98, (byte) 0x86,
+        (byte) 0xBC, (byte) 0x65, (byte) 0x1D, (byte) 0x06, (byte) 0xB0,
+        (byte) 0xCC, (byte) 0x53, (byte) 0xB0, (byte) 0xF6, (byte) 0x3B,
+        (byte) 0xCE, (byte) 0x3C, (byte) 0x3E, (byte) 0x27, (byte) 0xD2,
+        (byte) 0x60, (byte) 0x4B
+    };
+
+    private static final byte[] P256_N = {
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x00,
+        (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xBC, (byte) 0xE6, (byte) 0xFA, (byte) 0xAD,
+        (byte) 0xA7, (byte) 0x17, (byte) 0x9E, (byte) 0x84, (byte) 0xF3,
+        (byte) 0xB9, (byte) 0xCA, (byte) 0xC2, (byte) 0xFC, (byte) 0x63,
+        (byte) 0x25, (byte) 0x51
+    };
+
+    private static final byte[] P256_G = {
+        (byte) 0x04, (byte) 0x6B, (byte) 0x17, (byte) 0xD1, (byte) 0xF2,
+        (byte) 0xE1, (byte) 0x2C, (byte) 0x42, (byte) 0x47, (byte) 0xF8,
+        (byte) 0xBC, (byte) 0xE6, (byte) 0xE5, (byte) 0x63, (byte) 0xA4,
+        (byte) 0x40, (byte) 0xF2, (byte) 0x77, (byte) 0x03, (byte) 0x7D,
+        (byte) 0x81, (byte) 0x2D, (byte) 0xEB, (byte) 0x33, (byte) 0xA0,
+        (byte) 0xF4, (byte) 0xA1, (byte) 0x39, (byte) 0x45, (byte) 0xD8,
+        (byte) 0x98, (byte) 0xC2, (byte) 0x96, (byte) 0x4F, (byte) 0xE3,
+        (byte) 0x42, (byte) 0xE2, (byte) 0xFE, (byte) 0x1A, (byte) 0x7F,
+        (byte) 0x9B, (byte) 0x8E, (byte) 0xE7, (byte) 0xEB, (byte) 0x4A,
+        (byte) 0x7C, (byte) 0x0F, (byte) 0x9E, (byte) 0x16, (byte) 0x2B,
+        (byte) 0xCE, (byte) 0x33, (byte) 0x57, (byte) 0x6B, (byte) 0x31,
+        (byte) 0x5E, (byte) 0xCE, (byte) 0xCB, (byte) 0xB6, (byte) 0x40,
+        (byte) 0x68, (byte) 0x37, (byte) 0xBF, (byte) 0x51, (byte) 0xF5
+    };
+
+    private static final byte[] P384_P = {
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFE, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+        (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF
+    };
+
+    private static final byte[] P384_A = {
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFE, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+        (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFC
+    };
+
+    private static final byte[] P384_B = {
+        (byte) 0xB3, (byte) 0x31, (byte) 0x2F, (byte) 0xA7, (byte) 0xE2,
+        (byte) 0x3E, (byte) 0xE7, (byte) 0xE4, (byte) 0x98, (byte) 0x8E,
+        (byte) 0x05, (byte) 0x6B, (byte) 0xE3, (byte) 0xF8, (byte) 0x2D,
+        (byte) 0x19, (byte) 0x18, (byte) 0x1D, (byte) 0x9C, (byte) 0x6E,
+        (byte) 0xFE, (byte) 0x81, (byte) 0x41, (byte) 0x12, (byte) 0x03,
+        (byte) 0x14, (byte) 0x08, (byte) 0x8F, (byte) 0x50, (byte) 0x13,
+        (byte) 0x87, (byte) 0x5A, (byte) 0xC6, (byte) 0x56, (byte) 0x39,
+        (byte) 0x8D, (byte) 0x8A, (byte) 0x2E, (byte) 0xD1, (byte) 0x9D,
+        (byte) 0x2A, (byte) 0x85, (byte) 0xC8, (byte) 0xED, (byte) 0xD3,
+        (byte) 0xEC, (byte) 0x2A, (byte) 0xEF
+    };
+
+    private static final byte[] P384_N = {
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xC7,
+        (byte) 0x63, (byte) 0x4D, (byte) 0x81, (byte) 0xF4, (byte) 0x37,
+        (byte) 0x2D, (byte) 0xDF, (byte) 0x58, (byte) 0x1A, (byte) 0x0D,
+        (byte) 0xB2, (byte) 0x48, (byte) 0xB0, (byte) 0xA7, (byte) 0x7A,
+        (byte) 0xEC, (byte) 0xEC, (byte) 0x19, (byte) 0x6A, (byte) 0xCC,
+        (byte) 0xC5, (byte) 0x29, (byte) 0x73
+    };
+
+    private static final byte[] P384_G = {
+        (byte) 0x04, (byte) 0xAA, (byte) 0x87, (byte) 0xCA, (byte) 0x22,
+        (byte) 0xBE, (byte) 0x8B, (byte) 0x05, (byte) 0x37, (byte) 0x8E,
+        (byte) 0xB1, (byte) 0xC7, (byte) 0x1E, (byte) 0xF3, (byte) 0x20,
+        (byte) 0xAD, (byte) 0x74, (byte) 0x6E, (byte) 0x1D, (byte) 0x3B,
+        (byte) 0x62, (byte) 0x8B, (byte) 0xA7, (byte) 0x9B, (byte) 0x98,
+        (byte) 0x59, (byte) 0xF7, (byte) 0x41, (byte) 0xE0, (byte) 0x82,
+        (byte) 0x54, (byte) 0x2A, (byte) 0x38, (byte) 0x55, (byte) 0x02,
+        (byte) 0xF2, (byte) 0x5D, (byte) 0xBF, (byte) 0x55, (byte) 0x29,
+        (byte) 0x6C, (byte) 0x3A, (byte) 0x54, (byte) 0x5E, (byte) 0x38,
+        (byte) 0x72, (byte) 0x76, (byte) 0x0A, (byte) 0xB7, (byte) 0x36,
+        (byte) 0x17, (byte) 0xDE, (byte) 0x4A, (byte) 0x96, (byte) 0x26,
+        (byte) 0x2C, (byte) 0x6F, (byte) 0x5D, (byte) 0x9E, (byte) 0x98,
+        (byte) 0xBF, (byte) 0x92, (byte) 0x92, (byte) 0xDC, (byte) 0x29,
+        (byte) 0xF8, (byte) 0xF4, (byte) 0x1D, (byte) 0xBD, (byte) 0x28,
+        (byte) 0x9A, (byte) 0x14, (byte) 0x7C, (byte) 0xE9, (byte) 0xDA,
+        (byte) 0x31, (byte) 0x13, (byte) 0xB5, (byte) 0xF0, (byte) 0xB8,
+        (byte) 0xC0, (byte) 0x0A, (byte) 0x60, (byte) 0xB1, (byte) 0xCE,
+        (byte) 0x1D, (byte) 0x7E, (byte) 0x81, (byte) 0x9D, (byte) 0x7A,
+        (byte) 0x43, (byte) 0x1D, (byte) 0x7C, (byte) 0x90, (byte) 0xEA,
+        (byte) 0x0E, (byte) 0x5F
+    };
+
+    /**
+     * Get the prime of the field of a built-in curve.
+     *
+     * @param group
+     * @return the prime or null if the curve is not built in
+     */
+    public static byte[] getField(byte group) {
+        switch (group) {
+            case GROUP_P256:
+                return P256_P;
+            case GROUP_P384:
+                return P384_P;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Get the coefficient A of a built-in curve.
+     *
+     * @param group
+     * @return A or null if the curve is not built in
+     */
+    public static byte[] getA(byte group) {
+        switch (group) {
+            case GROUP_P256:
+                return P256_A;
+            case GROUP_P384:
+                return P384_A;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Get the coefficient B of a built-in curve.
+     *
+     * @param group
+     * @return B or null if the curve is not built in
+     */
+    public static byte[] getB(byte group) {
+        switch (group) {
+            case GROUP_P256:
+                return P256_B;
+            case GROUP_P384:
+                return P384_B;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Get the uncompressed base point G of a built-in curve.
+     *
+     * @param group
+     * @return G or null if the curve is not built in
+     */
+    public static byte[] getG(byte group) {
+        switch (group) {
+            case GROUP_P256:
+                return P256_G;
+            case GROUP_P384:
+                return P384_G;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Get the order N of G of a built-in curve.
+     *
+     * @param group
+     * @return N or null if the curve is not built in
+     */
+    public static byte[] getN(byte group) {
+        switch (group) {
+            case GROUP_P256:
+                return P256_N;
+            case GROUP_P384:
+                return P384_N;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Get the key length in bits of a built-in curve.
+     *
+     * @param group
+     * @return length or 0 if the curve is not built in
+     */
+    public static short getKeyLength(byte group) {
+        switch (group) {
+            case GROUP_P256:
+                return KeyBuilder.LENGTH_EC_FP_256;
+            case GROUP_P384:
+                return KeyBuilder.LENGTH_EC_FP_384;
+            default:
+                return 0;
+        }
+    }
+}
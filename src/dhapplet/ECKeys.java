@@ -0,0 +1,70 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet;
+
+import javacard.framework.JCSystem;
+import javacard.security.CryptoException;
+import javacard.security.ECPublicKey;
+import javacard.security.KeyBuilder;
+
+/**
+ * Builds the EC public keys of ECDH in transient memory, which the key
+ * builder taking a memory type allows for public keys since Java Card 3.0.5.
+ * The card's W then never reaches the EEPROM.
+ *
+ * The jc304 build profile replaces this class with the one in compat/jc304
+ * like NativeDH.
+ *
+ * @author Thotheolh
+ */
+public class ECKeys {
+
+    private ECKeys() {
+    }
+
+    /**
+     * Builds an EC public key cleared on reset, or a persistent one if the
+     * card cannot keep it transient.
+     *
+     * @param bits
+     * @return the public key
+     * @throws CryptoException if the card does not support the size
+     */
+    public static ECPublicKey buildPublic(short bits) throws CryptoException {
+        try {
+            return (ECPublicKey) KeyBuilder.buildKey(KeyBuilder.ALG_TYPE_EC_FP_PUBLIC,
+                    JCSystem.MEMORY_TYPE_TRANSIENT_RESET, bits, false);
+        } catch (CryptoException e) {
+            return (ECPublicKey) KeyBuilder.buildKey(KeyBuilder.TYPE_EC_FP_PUBLIC, bits, false);
+        }
+    }
+}
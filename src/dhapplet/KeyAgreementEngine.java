@@ -0,0 +1,183 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet;
+
+/**
+ * The handshake side of a key agreement backend that DHApplet dispatches to.
+ *
+ * Y is the "public key" value exchanged with the peer. It holds the card's
+ * value after init() and the peer's value once set with setY(). The session
+ * keys of the channel are derived from the shared secret the same way for
+ * every backend.
+ *
+ * @author Thotheolh
+ */
+public interface KeyAgreementEngine {
+
+    public static final byte ENGINE_RSA = (byte) 0x00;
+    public static final byte ENGINE_NATIVE_DH = (byte) 0x01;
+    public static final byte ENGINE_EC = (byte) 0x02;
+
+    /**
+     * Generates a private key and the card's Y.
+     */
+    void init();
+
+    /**
+     * Loads the private key set in place of Y with setY() and replaces it
+     * with the card's Y.
+     */
+    void initFromY();
+
+    /**
+     * Generates a private key for exchange() without computing Y.
+     */
+    void genKey();
+
+    /**
+     * Generates a private key and its Y into the given arrays.
+     *
+     * @param exp
+     * @param expOffset
+     * @param y
+     * @param yOffset
+     * @return length of the private key written to exp
+     */
+    short generate(byte[] exp, short expOffset, byte[] y, short yOffset);
+
+    /**
+     * Loads a private key and its Y precomputed by generate().
+     *
+     * @param exp
+     * @param expOffset
+     * @param expLength
+     * @param y
+     * @param yOffset
+     */
+    void load(byte[] exp, short expOffset, short expLength, byte[] y, short yOffset);
+
+    /**
+     * Saves the loaded private key, if any, and Y into the given arrays for a
+     * later load().
+     *
+     * @param exp
+     * @param expOffset
+     * @param y
+     * @param yOffset
+     * @return length of the private key written to exp or 0 if none is loaded
+     */
+    short save(byte[] exp, short expOffset, byte[] y, short yOffset);
+
+    /**
+     * Opens the channel from the secret shared with the peer's Y set with
+     * setY().
+     *
+     * @param channel
+     */
+    void doFinal(SecureChannel channel);
+
+    /**
+     * Opens the channel from the secret shared with the peer's Y in the given
+     * array, which is used as scratch space and zeroized.
+     *
+     * @param channel
+     * @param peerY
+     * @param offset
+     */
+    void doFinal(SecureChannel channel, byte[] peerY, short offset);
+
+    /**
+     * Opens the channel from the secret shared with the peer's Y set with
+     * setY(). A fresh private key from genKey() then replaces Y with the
+     * card's Y, while a key from load() leaves Y zeroized for the caller to
+     * restore from its own copy.
+     *
+     * @param channel
+     * @param fresh true if the private key came from genKey()
+     */
+    void exchange(SecureChannel channel, boolean fresh);
+
+    /**
+     * Computes the secret shared with the peer's Y in the given array in place
+     * and keeps the private key, so it can be repeated for further peers.
+     *
+     * @param peerY
+     * @param offset
+     * @return length of the secret
+     */
+    short agree(byte[] peerY, short offset);
+
+    /**
+     * Clears the private key.
+     */
+    void clearKey();
+
+    /**
+     * @return ENGINE_RSA, ENGINE_NATIVE_DH or ENGINE_EC
+     */
+    byte getEngine();
+
+    /**
+     * @return the ID of the selected group
+     */
+    byte getGroup();
+
+    /**
+     * @return length in bytes of Y for the selected group
+     */
+    short getLength();
+
+    /**
+     * @return length in bytes of Y for the largest supported group
+     */
+    short getCapacity();
+
+    /**
+     * Get part of Y.
+     *
+     * @param output
+     * @param offset
+     * @param yOffset
+     * @param length
+     */
+    void getY(byte[] output, short offset, short yOffset, short length);
+
+    /**
+     * Set part of Y.
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @param yOffset
+     */
+    void setY(byte[] data, short offset, short length, short yOffset);
+}
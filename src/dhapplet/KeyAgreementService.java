@@ -0,0 +1,82 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet;
+
+import javacard.framework.Shareable;
+
+/**
+ * The key agreement of DHApplet offered to other applets on the card, so they
+ * can establish session keys without their own RSA keys, ciphers and buffers.
+ *
+ * A client gets the service with JCSystem.getAppletShareableInterfaceObject()
+ * if its AID is on the applet's allowlist and runs the card's side of a
+ * handshake with init() and doFinal() on the selected group. The key material
+ * K is derived from the shared secret as for SecureChannel and handed to the
+ * client, which loads it into keys of its own.
+ *
+ * Arrays passed to the service must be global arrays such as the APDU buffer
+ * as the firewall keeps the service from accessing the client's own arrays.
+ *
+ * @author Thotheolh
+ */
+public interface KeyAgreementService extends Shareable {
+
+    /**
+     * Starts a handshake and writes the card's Y for the peer. The buffer
+     * needs getLength() bytes from offset on.
+     *
+     * @param buffer
+     * @param offset
+     * @return length of Y
+     */
+    short init(byte[] buffer, short offset);
+
+    /**
+     * Finishes the handshake with the peer's Y and writes the key material
+     * of SecureChannel.KEY_MATERIAL_LENGTH bytes over its start. The rest of
+     * the peer's Y is zeroized.
+     *
+     * @param peerY
+     * @param offset
+     */
+    void doFinal(byte[] peerY, short offset);
+
+    /**
+     * @return the ID of the selected group
+     */
+    byte getGroup();
+
+    /**
+     * @return length in bytes of Y for the selected group
+     */
+    short getLength();
+}
@@ -0,0 +1,194 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet;
+
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+
+/**
+ * A pool of precomputed DH private keys and their "public key" Y values kept in
+ * persistent memory. The keys are generated by the selected key agreement
+ * engine.
+ *
+ * The host fills the pool with refill() while the card is idle or during
+ * provisioning. A handshake then calls take() which loads the next key into
+ * the DH instance so INS_INIT costs no keygen or modexp and the handshake
+ * drops to the single modexp of doFinal().
+ *
+ * The pool is a ring of depth slots out of the capacity allocated at
+ * construction. A slot is wiped as soon as its key has been taken so each
+ * precomputed key is used for one handshake only. All keys depend on the
+ * engine and its group, and for DH on the current P, G and private exponent
+ * length, so the pool must be cleared whenever any of them change.
+ *
+ * Note that the pooled private keys reside in persistent memory until they are
+ * taken.
+ *
+ * @author Thotheolh
+ */
+public class KeyPool {
+
+    public static final short DEFAULT_CAPACITY = 4;
+    public static final short DEFAULT_REFILL_COUNT = 1;
+
+    private KeyAgreementEngine engine;
+    private short capacity;
+    private short slotLength;
+    private byte[] exps;
+    private byte[] ys;
+    private short[] expLengths;
+    private short depth;
+    private short refillCount = DEFAULT_REFILL_COUNT;
+    private short head;
+    private short count;
+
+    /**
+     * Creates a pool with slots sized for the given engine, which must be the
+     * engine with the largest values.
+     *
+     * @param engine
+     * @param capacity
+     */
+    public KeyPool(KeyAgreementEngine engine, short capacity) {
+        this.engine = engine;
+        this.capacity = capacity;
+        this.depth = capacity;
+        slotLength = engine.getCapacity();
+        exps = new byte[(short) (capacity * slotLength)];
+        ys = new byte[(short) (capacity * slotLength)];
+        expLengths = new short[capacity];
+    }
+
+    /**
+     * Precomputes up to the given number of keys into the free slots.
+     *
+     * @param n
+     * @return number of keys available after the refill
+     */
+    public short refill(short n) {
+        while (n > 0 && count < depth) {
+            short slot = (short) ((short) (head + count) % depth);
+            short offset = (short) (slot * slotLength);
+            expLengths[slot] = engine.generate(exps, offset, ys, offset);
+
+            // A single persistent write publishes the slot
+            count++;
+            n--;
+        }
+        return count;
+    }
+
+    /**
+     * Loads the next precomputed key into the engine and wipes its slot.
+     *
+     * @return false if the pool is empty
+     */
+    public boolean take() {
+        if (count == 0) {
+            return false;
+        }
+        short slot = head;
+        short offset = (short) (slot * slotLength);
+        engine.load(exps, offset, expLengths[slot], ys, offset);
+
+        JCSystem.beginTransaction();
+        head = (short) ((short) (head + 1) % depth);
+        count--;
+        JCSystem.commitTransaction();
+
+        wipe(slot);
+        return true;
+    }
+
+    /**
+     * Wipes all precomputed keys.
+     */
+    public void clear() {
+        while (count > 0) {
+            wipe(head);
+            JCSystem.beginTransaction();
+            head = (short) ((short) (head + 1) % depth);
+            count--;
+            JCSystem.commitTransaction();
+        }
+        head = 0;
+    }
+
+    /**
+     * Set the number of slots in use and the default number of keys computed
+     * per refill. Clears the pool.
+     *
+     * @param depth
+     * @param refillCount
+     * @throws ISOException
+     */
+    public void configure(short depth, short refillCount) throws ISOException {
+        if (depth < 1 || depth > capacity || refillCount < 1 || refillCount > depth) {
+            ISOException.throwIt(ISO7816.SW_WRONG_DATA);
+        }
+        clear();
+        this.depth = depth;
+        this.refillCount = refillCount;
+    }
+
+    /**
+     * Switches the pool to another engine and clears it.
+     *
+     * @param engine with values no larger than those of the engine the pool
+     * was created for
+     */
+    public void setEngine(KeyAgreementEngine engine) {
+        clear();
+        this.engine = engine;
+    }
+
+    public short getCapacity() {
+        return capacity;
+    }
+
+    public short getDepth() {
+        return depth;
+    }
+
+    public short getRefillCount() {
+        return refillCount;
+    }
+
+    public short getCount() {
+        return count;
+    }
+
+    private void wipe(short slot) {
+        Utils.zeroize(exps, (short) (slot * slotLength), slotLength);
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet;
+
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import javacard.framework.Util;
+
+/**
+ * A fixed-size table of session keys derived by INS_BATCH, one per peer.
+ *
+ * Each entry holds the key material K of SecureChannel and is known to the
+ * host by its handle, the index of its slot. put() returns the handle with
+ * the key confirmation tag of the entry, the encryption of the given reply
+ * under its confirmation key as INS_TEST computes it, on the block cipher
+ * that the channels share. take() opens the
+ * channel with an entry and frees its slot, so a key is used by one channel
+ * only and its message counters never restart.
+ *
+ * The table is transient and cleared on reset unless Config places it in
+ * persistent memory.
+ *
+ * @author Thotheolh
+ */
+public class KeyTable {
+
+    public static final short DEFAULT_CAPACITY = 8;
+    public static final short ENTRY_LENGTH = 1 + SecureChannel.BLOCK_LENGTH;
+    public static final short SLOT_LENGTH = SecureChannel.KEY_MATERIAL_LENGTH + 1;
+
+    private byte[] keys;
+    private byte[] used;
+
+    /**
+     * @param capacity number of entries, 1 to 256
+     * @param event JCSystem.CLEAR_ON_RESET or JCSystem.NOT_A_TRANSIENT_OBJECT
+     */
+    public KeyTable(short capacity, byte event) {
+        keys = Utils.makeByteArray((short) (capacity * SecureChannel.KEY_MATERIAL_LENGTH), event);
+        used = Utils.makeByteArray(capacity, event);
+    }
+
+    /**
+     * Stores key material in a free slot and zeroizes it. Writes the handle
+     * followed by the key confirmation tag to the output.
+     *
+     * @param channel whose block cipher computes the tag
+     * @param material
+     * @param offset
+     * @param reply block to encrypt for the tag
+     * @param output
+     * @param outOffset
+     * @throws ISOException if the table is full
+     */
+    public void put(SecureChannel channel, byte[] material, short offset, byte[] reply, byte[] output, short outOffset) throws ISOException {
+        short slot = 0;
+        while (slot < (short) used.length && used[slot] != 0) {
+            slot++;
+        }
+        if (slot == (short) used.length) {
+            Utils.zeroize(material, offset, SecureChannel.KEY_MATERIAL_LENGTH);
+            ISOException.throwIt(ISO7816.SW_FILE_FULL);
+        }
+
+        Util.arrayCopyNonAtomic(material, offset, keys, (short) (slot * SecureChannel.KEY_MATERIAL_LENGTH),
+                SecureChannel.KEY_MATERIAL_LENGTH);
+        Utils.zeroize(material, offset, SecureChannel.KEY_MATERIAL_LENGTH);
+        used[slot] = 1;
+
+        // The output may overlap the material, so the tag is computed from
+        // the stored copy
+        output[outOffset] = (byte) slot;
+        channel.encryptBlock(keys, (short) (slot * SecureChannel.KEY_MATERIAL_LENGTH), reply, (short) 0,
+                output, (short) (outOffset + 1));
+    }
+
+    /**
+     * Opens the channel with the key of a handle and frees its slot.
+     *
+     * @param channel
+     * @param handle
+     * @return false if the handle holds no key
+     */
+    public boolean take(SecureChannel channel, short handle) {
+        if (handle >= (short) used.length || used[handle] == 0) {
+            return false;
+        }
+        short offset = (short) (handle * SecureChannel.KEY_MATERIAL_LENGTH);
+        channel.load(keys, offset);
+        Utils.zeroize(keys, offset, SecureChannel.KEY_MATERIAL_LENGTH);
+        used[handle] = 0;
+        return true;
+    }
+
+    /**
+     * Frees the slot of a handle without using its key.
+     *
+     * @param handle
+     */
+    public void free(short handle) {
+        Utils.zeroize(keys, (short) (handle * SecureChannel.KEY_MATERIAL_LENGTH), SecureChannel.KEY_MATERIAL_LENGTH);
+        used[handle] = 0;
+    }
+
+    /**
+     * Frees all slots.
+     */
+    public void clear() {
+        Utils.zeroize(keys);
+        Utils.zeroize(used);
+    }
+
+    public short getCapacity() {
+        return (short) used.length;
+    }
+
+    public short getCount() {
+        // Counted from the transient slots as they are cleared on reset
+        short count = 0;
+        for (short i = 0; i < (short) used.length; i++) {
+            count += used[i];
+        }
+        return count;
+    }
+}
@@ -0,0 +1,150 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet;
+
+import javacard.security.CryptoException;
+import javacard.security.DHPrivateKey;
+import javacard.security.KeyAgreement;
+import javacard.security.KeyBuilder;
+
+/**
+ * Plain Diffie-Hellman through KeyAgreement.ALG_DH_PLAIN with one transient
+ * DHPrivateKey per key size, both added in Java Card 3.1. DH runs its
+ * modexps here instead of on the RSA engine for the sizes the card supports
+ * them for.
+ *
+ * This is the only class referencing the 3.1 API. The jc304 build profile
+ * replaces it with the one in compat/jc304, which reports no support, so the
+ * applet also converts against the 3.0.4 export files and loads on older
+ * cards.
+ *
+ * @author Thotheolh
+ */
+public class NativeDH {
+
+    private KeyAgreement agreement;
+    private DHPrivateKey[] keys;
+    private DHPrivateKey key;
+
+    private NativeDH(byte sizes) throws CryptoException {
+        agreement = KeyAgreement.getInstance(KeyAgreement.ALG_DH_PLAIN, false);
+        keys = new DHPrivateKey[sizes];
+    }
+
+    /**
+     * Creates NativeDH if the card supports plain DH key agreement.
+     *
+     * @param sizes number of key sizes
+     * @return NativeDH or null if not supported
+     */
+    public static NativeDH getInstance(byte sizes) {
+        try {
+            return new NativeDH(sizes);
+        } catch (CryptoException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Creates the private key of a key size.
+     *
+     * @param index of the key size
+     * @param bits
+     * @return false if the card does not support the size
+     */
+    public boolean build(byte index, short bits) {
+        try {
+            keys[index] = (DHPrivateKey) KeyBuilder.buildKey(KeyBuilder.TYPE_DH_PRIVATE_TRANSIENT_RESET, bits, false);
+        } catch (CryptoException e) {
+            keys[index] = null;
+        }
+        return keys[index] != null;
+    }
+
+    /**
+     * Selects the private key of a key size.
+     *
+     * @param index of the key size
+     * @return false if the size has no native key
+     */
+    public boolean select(byte index) {
+        key = keys[index];
+        return key != null;
+    }
+
+    /**
+     * Loads a private exponent with P and G and initializes the agreement
+     * once for all modexps with this key.
+     *
+     * @param P
+     * @param pOffset
+     * @param G
+     * @param gOffset
+     * @param length of P and G
+     * @param exp
+     * @param offset
+     * @param expLength
+     */
+    public void setKey(byte[] P, short pOffset, byte[] G, short gOffset, short length,
+            byte[] exp, short offset, short expLength) {
+        key.setP(P, pOffset, length);
+        key.setG(G, gOffset, length);
+        key.setX(exp, offset, expLength);
+        agreement.init(key);
+    }
+
+    /**
+     * Computes base^x mod P.
+     *
+     * @param base
+     * @param offset
+     * @param length of base and output
+     * @param output
+     * @param outOffset
+     */
+    public void modexp(byte[] base, short offset, short length, byte[] output, short outOffset) {
+        agreement.generateSecret(base, offset, length, output, outOffset);
+    }
+
+    /**
+     * @param output
+     * @param offset
+     * @return length of the private exponent written or 0 if none is loaded
+     */
+    public short getX(byte[] output, short offset) {
+        return key.isInitialized() ? key.getX(output, offset) : 0;
+    }
+
+    public void clearKey() {
+        key.clearKey();
+    }
+}
@@ -0,0 +1,467 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet;
+
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import javacard.framework.Util;
+import javacard.security.AESKey;
+import javacard.security.KeyBuilder;
+import javacard.security.MessageDigest;
+import javacard.security.RandomData;
+import javacard.security.Signature;
+import javacardx.crypto.Cipher;
+
+/**
+ * The session keys derived from a handshake and the channel that protects
+ * payloads with them.
+ *
+ * open() derives the key material K from a shared secret Z with the single
+ * step KDF of NIST SP 800-56C:
+ *
+ * K = SHA-256(00000001 || Z || "DHApplet channel")
+ *
+ * The first 16 bytes of K are the confirmation key of the INS_TEST tag and
+ * of resumption tickets. Each direction d, WRAP for the card's messages and
+ * UNWRAP for the host's, has keys of its own
+ *
+ * encKey || macKey = SHA-256(K || d)
+ *
+ * so a message of one direction cannot be passed off as one of the other.
+ *
+ * A message of L bytes, a multiple of 16, is encrypted with AES-128-CBC under
+ * encKey as one continuous stream: the header block
+ *
+ * H = d || counter (2) || L (2) || 11 zero bytes
+ *
+ * is encrypted first and its ciphertext C0 serves as the IV of the payload.
+ * A message may be split over several commands in chunks of whole blocks and
+ * each chunk carries a tag, the AES-128 CBC-MAC under macKey of
+ *
+ * H with chunk offset (2) || chunk length (2) at byte 5 || T || ciphertext
+ *
+ * where T is the tag of the previous chunk, or C0 for the first one. The tags
+ * chain the chunks of a message in order and the length and the message
+ * counter in H keep messages from being cut short, replayed or reordered.
+ * Unwrap checks the tag of a chunk before it decrypts it, so no plaintext is
+ * released from a chunk that fails. Any error closes the channel and a new
+ * handshake is needed.
+ *
+ * Each channel has a CBC context and a MAC of its own for either direction.
+ * begin() keys them once per message, the chunks of the message then continue
+ * the CBC stream with update() up to the doFinal() of the last chunk, and the
+ * MAC returns to its keyed state after every tag. The cipher of single blocks,
+ * its scratch key, the digest and the random generator are shared by all the
+ * channels of the applet and also serve KeyTable and TicketCache.
+ *
+ * @author Thotheolh
+ */
+public class SecureChannel {
+
+    public static final byte WRAP = (byte) 0x01;
+    public static final byte UNWRAP = (byte) 0x02;
+    public static final short BLOCK_LENGTH = 16;
+    public static final short KEY_MATERIAL_LENGTH = 32;
+    private static final byte[] KDF_COUNTER = {(byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x01};
+    private static final byte[] KDF_INFO = {(byte) 0x44, (byte) 0x48, (byte) 0x41, (byte) 0x70,
+        (byte) 0x70, (byte) 0x6c, (byte) 0x65, (byte) 0x74, (byte) 0x20, (byte) 0x63,
+        (byte) 0x68, (byte) 0x61, (byte) 0x6e, (byte) 0x6e, (byte) 0x65, (byte) 0x6c};
+
+    // Indexes into state
+    private static final short STATE_DIRECTION = 0;
+    private static final short STATE_REMAINING = 1;
+    private static final short STATE_COUNTER = 2;
+
+    // Offsets into blocks, the header has to precede the chain
+    private static final short BLOCK_HEADER = 0;
+    private static final short BLOCK_CHAIN = 16;
+
+    private AESKey confirmKey;
+    private AESKey wrapEncKey;
+    private AESKey wrapMacKey;
+    private AESKey unwrapEncKey;
+    private AESKey unwrapMacKey;
+    private AESKey scratchKey;
+    private Cipher cipher;
+    private Cipher wrapCipher;
+    private Cipher unwrapCipher;
+    private Signature wrapMac;
+    private Signature unwrapMac;
+    private MessageDigest sha;
+    private RandomData rng;
+    private short[] state;
+    private byte[] blocks;
+
+    /**
+     * @param shared channel whose block cipher, digest and random generator
+     * to use, or null to create them
+     */
+    public SecureChannel(SecureChannel shared) {
+        confirmKey = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES_TRANSIENT_RESET, KeyBuilder.LENGTH_AES_128, false);
+        wrapEncKey = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES_TRANSIENT_RESET, KeyBuilder.LENGTH_AES_128, false);
+        wrapMacKey = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES_TRANSIENT_RESET, KeyBuilder.LENGTH_AES_128, false);
+        unwrapEncKey = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES_TRANSIENT_RESET, KeyBuilder.LENGTH_AES_128, false);
+        unwrapMacKey = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES_TRANSIENT_RESET, KeyBuilder.LENGTH_AES_128, false);
+        if (shared != null) {
+            scratchKey = shared.scratchKey;
+            cipher = shared.cipher;
+            sha = shared.sha;
+            rng = shared.rng;
+        } else {
+            scratchKey = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES_TRANSIENT_RESET, KeyBuilder.LENGTH_AES_128, false);
+            cipher = Cipher.getInstance(Cipher.ALG_AES_BLOCK_128_CBC_NOPAD, false);
+            sha = MessageDigest.getInstance(MessageDigest.ALG_SHA_256, false);
+            rng = RandomData.getInstance(RandomData.ALG_SECURE_RANDOM);
+        }
+        wrapCipher = Cipher.getInstance(Cipher.ALG_AES_BLOCK_128_CBC_NOPAD, false);
+        unwrapCipher = Cipher.getInstance(Cipher.ALG_AES_BLOCK_128_CBC_NOPAD, false);
+        wrapMac = Signature.getInstance(Signature.ALG_AES_MAC_128_NOPAD, false);
+        unwrapMac = Signature.getInstance(Signature.ALG_AES_MAC_128_NOPAD, false);
+        state = JCSystem.makeTransientShortArray((short) 3, JCSystem.CLEAR_ON_RESET);
+        blocks = JCSystem.makeTransientByteArray((short) (2 * BLOCK_LENGTH), JCSystem.CLEAR_ON_RESET);
+    }
+
+    /**
+     * Derives the session keys from a shared secret and opens the channel.
+     * The key material is written over the start of the secret and zeroized.
+     *
+     * @param secret
+     * @param offset
+     * @param length needs to leave at least KEY_MATERIAL_LENGTH bytes of
+     * space in secret from offset on
+     */
+    public void open(byte[] secret, short offset, short length) {
+        derive(secret, offset, length);
+        load(secret, offset);
+        Utils.zeroize(secret, offset, KEY_MATERIAL_LENGTH);
+    }
+
+    /**
+     * Derives the key material K from a shared secret over the start of the
+     * secret without opening the channel.
+     *
+     * @param secret
+     * @param offset
+     * @param length needs to leave at least KEY_MATERIAL_LENGTH bytes of
+     * space in secret from offset on
+     */
+    public void derive(byte[] secret, short offset, short length) {
+        sha.update(KDF_COUNTER, (short) 0, (short) KDF_COUNTER.length);
+        sha.update(secret, offset, length);
+        sha.doFinal(KDF_INFO, (short) 0, (short) KDF_INFO.length, secret, offset);
+    }
+
+    /**
+     * Opens the channel with key material from derive().
+     *
+     * @param keys
+     * @param offset
+     */
+    public void load(byte[] keys, short offset) {
+        confirmKey.setKey(keys, offset);
+        expand(keys, offset, WRAP, wrapEncKey, wrapMacKey);
+        expand(keys, offset, UNWRAP, unwrapEncKey, unwrapMacKey);
+        state[STATE_DIRECTION] = 0;
+        state[STATE_REMAINING] = 0;
+        state[STATE_COUNTER] = 0;
+    }
+
+    /**
+     * Derives the keys of one direction from the key material.
+     */
+    private void expand(byte[] keys, short offset, byte direction, AESKey encKey, AESKey macKey) {
+        blocks[BLOCK_HEADER] = direction;
+        sha.update(keys, offset, KEY_MATERIAL_LENGTH);
+        sha.doFinal(blocks, BLOCK_HEADER, (short) 1, blocks, BLOCK_HEADER);
+        encKey.setKey(blocks, BLOCK_HEADER);
+        macKey.setKey(blocks, BLOCK_LENGTH);
+        Utils.zeroize(blocks, BLOCK_HEADER, KEY_MATERIAL_LENGTH);
+    }
+
+    /**
+     * Closes the channel and clears the session keys.
+     */
+    public void close() {
+        confirmKey.clearKey();
+        wrapEncKey.clearKey();
+        wrapMacKey.clearKey();
+        unwrapEncKey.clearKey();
+        unwrapMacKey.clearKey();
+        Utils.zeroize(blocks, (short) 0, (short) blocks.length);
+        state[STATE_DIRECTION] = 0;
+        state[STATE_REMAINING] = 0;
+    }
+
+    public boolean isOpen() {
+        return confirmKey.isInitialized();
+    }
+
+    /**
+     * Get the session key confirmation key.
+     *
+     * @return confirmKey
+     */
+    public AESKey getConfirmKey() {
+        return confirmKey;
+    }
+
+    /**
+     * Encrypts a single block with the session key confirmation key.
+     *
+     * @param data
+     * @param offset
+     * @param output
+     * @param outOffset
+     */
+    public void encryptBlock(byte[] data, short offset, byte[] output, short outOffset) {
+        if (!isOpen()) {
+            ISOException.throwIt(ISO7816.SW_CONDITIONS_NOT_SATISFIED);
+        }
+        encryptBlock(confirmKey, data, offset, output, outOffset);
+    }
+
+    /**
+     * Encrypts a single block with the given key.
+     *
+     * @param key
+     * @param data
+     * @param offset
+     * @param output
+     * @param outOffset
+     */
+    public void encryptBlock(AESKey key, byte[] data, short offset, byte[] output, short outOffset) {
+        // A single block under CBC with a zero IV is its ECB encryption
+        cipher.init(key, Cipher.MODE_ENCRYPT);
+        cipher.doFinal(data, offset, BLOCK_LENGTH, output, outOffset);
+    }
+
+    /**
+     * Encrypts a single block with the confirmation key of the key material
+     * at keyOffset, the first 16 bytes of K.
+     *
+     * @param keys
+     * @param keyOffset
+     * @param data
+     * @param offset
+     * @param output
+     * @param outOffset
+     */
+    public void encryptBlock(byte[] keys, short keyOffset, byte[] data, short offset, byte[] output, short outOffset) {
+        scratchKey.setKey(keys, keyOffset);
+        encryptBlock(scratchKey, data, offset, output, outOffset);
+        scratchKey.clearKey();
+    }
+
+    /**
+     * Fills part of a buffer with random bytes.
+     *
+     * @param buffer
+     * @param offset
+     * @param length
+     */
+    public void random(byte[] buffer, short offset, short length) {
+        rng.generateData(buffer, offset, length);
+    }
+
+    /**
+     * Wraps the next chunk of a message. The first chunk of a message is
+     * preceded by L (2) and produces C0 before its ciphertext. Every chunk
+     * produces its tag after its ciphertext. The output is written to the
+     * start of the buffer, which has to hold it.
+     *
+     * @param buffer
+     * @param offset
+     * @param length
+     * @return length of the output
+     */
+    public short wrap(byte[] buffer, short offset, short length) {
+        short start = 0;
+        if (state[STATE_REMAINING] == 0) {
+            offset = begin(WRAP, buffer, offset, length);
+            length -= 2;
+            start = BLOCK_LENGTH;
+        }
+        short chunkOffset = chunk(WRAP, length, (short) (start + length + BLOCK_LENGTH), (short) buffer.length);
+
+        Util.arrayCopyNonAtomic(buffer, offset, buffer, start, length);
+        if (start != 0) {
+            // The header block opens the stream and its ciphertext is C0
+            wrapCipher.update(blocks, BLOCK_HEADER, BLOCK_LENGTH, buffer, (short) 0);
+            Util.arrayCopyNonAtomic(buffer, (short) 0, blocks, BLOCK_CHAIN, BLOCK_LENGTH);
+        }
+        crypt(wrapCipher, buffer, start, length);
+
+        startTag(wrapMac, chunkOffset, length);
+        wrapMac.sign(buffer, start, length, blocks, BLOCK_CHAIN);
+        length += start;
+        Util.arrayCopyNonAtomic(blocks, BLOCK_CHAIN, buffer, length, BLOCK_LENGTH);
+        if (state[STATE_REMAINING] == 0) {
+            end();
+        }
+        return (short) (length + BLOCK_LENGTH);
+    }
+
+    /**
+     * Unwraps the next chunk of a message. The first chunk of a message is
+     * preceded by L (2) and C0. Every chunk is followed by its tag, which is
+     * checked before the chunk is decrypted. The plaintext is written to the
+     * start of the buffer.
+     *
+     * @param buffer
+     * @param offset
+     * @param length
+     * @return length of the plaintext
+     */
+    public short unwrap(byte[] buffer, short offset, short length) {
+        if (state[STATE_REMAINING] == 0) {
+            offset = begin(UNWRAP, buffer, offset, length);
+            length -= (short) (2 + BLOCK_LENGTH);
+            if (length < 0) {
+                fail(ISO7816.SW_WRONG_LENGTH);
+            }
+
+            // C0 opens the stream and has to decrypt to the expected header
+            unwrapCipher.update(buffer, offset, BLOCK_LENGTH, blocks, BLOCK_CHAIN);
+            if (Util.arrayCompare(blocks, BLOCK_HEADER, blocks, BLOCK_CHAIN, BLOCK_LENGTH) != 0) {
+                fail(ISO7816.SW_DATA_INVALID);
+            }
+            Util.arrayCopyNonAtomic(buffer, offset, blocks, BLOCK_CHAIN, BLOCK_LENGTH);
+            offset += BLOCK_LENGTH;
+        }
+        length -= BLOCK_LENGTH;
+        short chunkOffset = chunk(UNWRAP, length, length, (short) buffer.length);
+
+        short tagOffset = (short) (offset + length);
+        startTag(unwrapMac, chunkOffset, length);
+        if (!unwrapMac.verify(buffer, offset, length, buffer, tagOffset, BLOCK_LENGTH)) {
+            fail(ISO7816.SW_DATA_INVALID);
+        }
+        Util.arrayCopyNonAtomic(buffer, tagOffset, blocks, BLOCK_CHAIN, BLOCK_LENGTH);
+
+        crypt(unwrapCipher, buffer, offset, length);
+        Util.arrayCopyNonAtomic(buffer, offset, buffer, (short) 0, length);
+        if (state[STATE_REMAINING] == 0) {
+            end();
+        }
+        return length;
+    }
+
+    /**
+     * Starts a message from its length prefix, writes its header block and
+     * keys the cipher and the MAC of its direction.
+     *
+     * @return offset of the data after the length prefix
+     */
+    private short begin(byte direction, byte[] buffer, short offset, short length) {
+        if (!isOpen()) {
+            ISOException.throwIt(ISO7816.SW_CONDITIONS_NOT_SATISFIED);
+        }
+        if (length < 2) {
+            fail(ISO7816.SW_WRONG_LENGTH);
+        }
+        short total = Util.getShort(buffer, offset);
+        if (total <= 0 || (short) (total % BLOCK_LENGTH) != 0) {
+            fail(ISO7816.SW_WRONG_DATA);
+        }
+        if (state[STATE_COUNTER] == Short.MAX_VALUE) {
+            fail(ISO7816.SW_CONDITIONS_NOT_SATISFIED);
+        }
+
+        Util.arrayFillNonAtomic(blocks, BLOCK_HEADER, BLOCK_LENGTH, (byte) 0x00);
+        blocks[BLOCK_HEADER] = direction;
+        Util.setShort(blocks, (short) (BLOCK_HEADER + 1), state[STATE_COUNTER]);
+        Util.setShort(blocks, (short) (BLOCK_HEADER + 3), total);
+        if (direction == WRAP) {
+            wrapCipher.init(wrapEncKey, Cipher.MODE_ENCRYPT);
+            wrapMac.init(wrapMacKey, Signature.MODE_SIGN);
+        } else {
+            unwrapCipher.init(unwrapEncKey, Cipher.MODE_DECRYPT);
+            unwrapMac.init(unwrapMacKey, Signature.MODE_VERIFY);
+        }
+        state[STATE_DIRECTION] = direction;
+        state[STATE_REMAINING] = total;
+        return (short) (offset + 2);
+    }
+
+    /**
+     * Accounts for the next chunk of the current message and checks that its
+     * output fits the buffer.
+     *
+     * @return offset of the chunk in the message
+     */
+    private short chunk(byte direction, short length, short output, short capacity) {
+        if (state[STATE_DIRECTION] != direction) {
+            fail(ISO7816.SW_CONDITIONS_NOT_SATISFIED);
+        }
+        if (length <= 0 || (short) (length % BLOCK_LENGTH) != 0 || length > state[STATE_REMAINING]) {
+            fail(ISO7816.SW_WRONG_LENGTH);
+        }
+        if (output > capacity) {
+            fail(ISO7816.SW_WRONG_LENGTH);
+        }
+        short chunkOffset = (short) (Util.getShort(blocks, (short) (BLOCK_HEADER + 3)) - state[STATE_REMAINING]);
+        state[STATE_REMAINING] -= length;
+        return chunkOffset;
+    }
+
+    /**
+     * Continues the CBC stream of the current message in place over a chunk,
+     * finishing it with the last chunk.
+     */
+    private void crypt(Cipher stream, byte[] buffer, short offset, short length) {
+        if (state[STATE_REMAINING] == 0) {
+            stream.doFinal(buffer, offset, length, buffer, offset);
+        } else {
+            stream.update(buffer, offset, length, buffer, offset);
+        }
+    }
+
+    /**
+     * Starts the tag of a chunk over its header and the previous tag.
+     */
+    private void startTag(Signature mac, short chunkOffset, short length) {
+        Util.setShort(blocks, (short) (BLOCK_HEADER + 5), chunkOffset);
+        Util.setShort(blocks, (short) (BLOCK_HEADER + 7), length);
+        mac.update(blocks, BLOCK_HEADER, (short) (2 * BLOCK_LENGTH));
+    }
+
+    private void end() {
+        state[STATE_DIRECTION] = 0;
+        state[STATE_COUNTER]++;
+    }
+
+    private void fail(short sw) {
+        close();
+        ISOException.throwIt(sw);
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet;
+
+import javacard.framework.JCSystem;
+
+/**
+ * The state of one host's session on a logical channel: its secure channel,
+ * its pending chained response, whether a ticket may be issued for its
+ * session key and, while another session uses the engine, its parked
+ * handshake.
+ *
+ * The engine holds the private key and Y of one handshake at a time. When a
+ * command arrives on another logical channel, the handshake in the engine is
+ * parked with save() into the session it belongs to and the handshake of the
+ * new session is restored with restore(), so handshakes on several channels
+ * can interleave. Sessions of an applet with a single session never park and
+ * allocate no space for it.
+ *
+ * The parked key, Y and the state of a logical channel's session are
+ * CLEAR_ON_DESELECT. As they are not cleared while the applet is still
+ * selected on another channel, close() clears them when the session's channel
+ * is deselected. The session of KeyAgreementService is used while other
+ * applets are selected and is CLEAR_ON_RESET. Config may place the parked
+ * key and Y in persistent memory instead, which close() zeroizes as well.
+ *
+ * A ticket may be issued once for a session key from a full handshake on the
+ * session's own channel. A key restored from a ticket or the key table does
+ * not allow one.
+ *
+ * @author Thotheolh
+ */
+public class Session {
+
+    // Indexes into state
+    private static final short STATE_PENDING_OFFSET = 0;
+    private static final short STATE_PENDING_REMAINING = 1;
+    private static final short STATE_EXP_LENGTH = 2;
+    private static final short STATE_ISSUABLE = 3;
+
+    private SecureChannel channel;
+    private short[] state;
+    private byte[] exp;
+    private byte[] y;
+
+    /**
+     * @param capacity length in bytes of the largest private key and Y to
+     * park, 0 for an applet with a single session
+     * @param event JCSystem.CLEAR_ON_DESELECT or JCSystem.CLEAR_ON_RESET
+     * @param parking event of the parked key and Y, the same or
+     * JCSystem.NOT_A_TRANSIENT_OBJECT
+     * @param shared channel of another session whose block cipher and digest
+     * to share, or null for the first session
+     */
+    public Session(short capacity, byte event, byte parking, SecureChannel shared) {
+        channel = new SecureChannel(shared);
+        state = JCSystem.makeTransientShortArray((short) 4, event);
+        if (capacity != 0) {
+            exp = Utils.makeByteArray(capacity, parking);
+            y = Utils.makeByteArray(capacity, parking);
+        }
+    }
+
+    public SecureChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Parks the engine's handshake in this session.
+     *
+     * @param engine
+     */
+    public void save(KeyAgreementEngine engine) {
+        state[STATE_EXP_LENGTH] = engine.save(exp, (short) 0, y, (short) 0);
+    }
+
+    /**
+     * Restores the parked handshake of this session into the engine.
+     *
+     * @param engine
+     */
+    public void restore(KeyAgreementEngine engine) {
+        if (state[STATE_EXP_LENGTH] != 0) {
+            engine.load(exp, (short) 0, state[STATE_EXP_LENGTH], y, (short) 0);
+        } else {
+            engine.clearKey();
+            if (y != null) {
+                engine.setY(y, (short) 0, engine.getLength(), (short) 0);
+            }
+        }
+        drop();
+    }
+
+    /**
+     * Drops the parked handshake, which no longer fits the engine after a
+     * change of the group or its parameters.
+     */
+    public void drop() {
+        if (exp != null) {
+            Utils.zeroize(exp);
+            Utils.zeroize(y);
+        }
+        state[STATE_EXP_LENGTH] = 0;
+    }
+
+    /**
+     * Closes the channel and clears the session.
+     */
+    public void close() {
+        channel.close();
+        drop();
+        state[STATE_PENDING_OFFSET] = 0;
+        state[STATE_PENDING_REMAINING] = 0;
+        state[STATE_ISSUABLE] = 0;
+    }
+
+    /**
+     * @return true if a ticket may be issued for the open channel
+     */
+    public boolean isIssuable() {
+        return state[STATE_ISSUABLE] != 0 && channel.isOpen();
+    }
+
+    /**
+     * Set whether a ticket may be issued for the session key, which is only
+     * the case right after a full handshake.
+     *
+     * @param issuable
+     */
+    public void setIssuable(boolean issuable) {
+        state[STATE_ISSUABLE] = issuable ? (short) 1 : (short) 0;
+    }
+
+    public short getPendingOffset() {
+        return state[STATE_PENDING_OFFSET];
+    }
+
+    public short getPendingRemaining() {
+        return state[STATE_PENDING_REMAINING];
+    }
+
+    /**
+     * Set the part of the response still to be sent.
+     *
+     * @param offset
+     * @param remaining
+     */
+    public void setPending(short offset, short remaining) {
+        state[STATE_PENDING_OFFSET] = offset;
+        state[STATE_PENDING_REMAINING] = remaining;
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet;
+
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+
+/**
+ * A semi-static card key for the ephemeral-static mode.
+ *
+ * When enabled, the private key and its Y are generated once into persistent
+ * memory and loaded by take() for every handshake, so INS_INIT costs no keygen
+ * or modexp and only the modexp of doFinal() is left per handshake. The key
+ * rotates automatically once it has been taken for lifetime handshakes or
+ * whenever the host asks for it with rotate().
+ *
+ * Like the keys of KeyPool the static key depends on the engine and its
+ * group, so it must be cleared whenever they change. It is then rotated on
+ * the next take().
+ *
+ * Note that the static private key resides in persistent memory and that
+ * sessions sharing it lose forward secrecy against a compromise of the card
+ * until it rotates.
+ *
+ * @author Thotheolh
+ */
+public class StaticKey {
+
+    public static final short DEFAULT_LIFETIME = 100;
+
+    private KeyAgreementEngine engine;
+    private short slotLength;
+    private byte[] exp;
+    private byte[] y;
+    private short expLength;
+    private boolean valid;
+    private short lifetime;
+    private short uses;
+    private short rotations;
+
+    /**
+     * Creates a disabled static key sized for the given engine, which must be
+     * the engine with the largest values.
+     *
+     * @param engine
+     */
+    public StaticKey(KeyAgreementEngine engine) {
+        this.engine = engine;
+        slotLength = engine.getCapacity();
+        exp = new byte[slotLength];
+        y = new byte[slotLength];
+    }
+
+    /**
+     * Loads the static key into the engine, rotating it first if it has
+     * expired.
+     *
+     * @return false if the ephemeral-static mode is disabled
+     */
+    public boolean take() {
+        if (lifetime == 0) {
+            return false;
+        }
+        if (!valid || uses >= lifetime) {
+            rotate();
+        }
+        engine.load(exp, (short) 0, expLength, y, (short) 0);
+        uses++;
+        return true;
+    }
+
+    /**
+     * Puts the Y of the static key back into the engine after exchange() has
+     * consumed the peer's Y in its place.
+     */
+    public void restoreY() {
+        engine.setY(y, (short) 0, engine.getLength(), (short) 0);
+    }
+
+    /**
+     * Replaces the static key with a new one.
+     */
+    public void rotate() {
+        // A torn rotation leaves the key invalid rather than mismatched
+        valid = false;
+        expLength = engine.generate(exp, (short) 0, y, (short) 0);
+        uses = 0;
+        rotations++;
+        valid = true;
+    }
+
+    /**
+     * Wipes the static key so the next take() rotates it.
+     */
+    public void clear() {
+        valid = false;
+        Utils.zeroize(exp);
+    }
+
+    /**
+     * Set the number of handshakes per static key, 0 disables the
+     * ephemeral-static mode. Clears the static key.
+     *
+     * @param lifetime
+     * @throws ISOException
+     */
+    public void configure(short lifetime) throws ISOException {
+        if (lifetime < 0) {
+            ISOException.throwIt(ISO7816.SW_WRONG_DATA);
+        }
+        clear();
+        this.lifetime = lifetime;
+    }
+
+    /**
+     * Switches the static key to another engine and clears it.
+     *
+     * @param engine with values no larger than those of the engine the static
+     * key was created for
+     */
+    public void setEngine(KeyAgreementEngine engine) {
+        clear();
+        this.engine = engine;
+    }
+
+    public boolean isEnabled() {
+        return lifetime != 0;
+    }
+
+    public short getLifetime() {
+        return lifetime;
+    }
+
+    public short getUses() {
+        return uses;
+    }
+
+    public short getRotations() {
+        return rotations;
+    }
+}
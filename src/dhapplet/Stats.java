@@ -0,0 +1,199 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet;
+
+import javacard.framework.ISO7816;
+import javacard.framework.JCSystem;
+import javacard.framework.Util;
+
+/**
+ * Operation counters and memory metrics for monitoring cards in the field.
+ *
+ * The counters are 4 byte big endian values in persistent memory that
+ * survive resets. Increments first go to a transient mirror and are added
+ * to the persistent value once FLUSH_INTERVAL of them have accumulated for a
+ * counter, when the counters are read or reset and on deselect, so a
+ * handshake costs no EEPROM write most of the time. A flush without a carry
+ * out of the low byte costs one non-atomic byte write with
+ * Util.arrayFillNonAtomic. A carry changes several bytes and runs in a
+ * transaction so a tear can never leave a counter off by more than the
+ * flush in progress. A reset or a tear loses the increments not flushed yet,
+ * less than FLUSH_INTERVAL per counter.
+ *
+ * A handshake is counted as started once per card key, by INS_INIT,
+ * INS_EXCHANGE or the service's init(), and as completed once that key has
+ * served its purpose, by INS_FINAL, INS_EXCHANGE, the service's doFinal() or
+ * the last INS_BATCH with it, however many peers that batch had. The
+ * difference is the number of handshakes abandoned or failed.
+ *
+ * write() lays out the counters in the order of their indexes below,
+ * followed by the failure counters in the order of FAILURES and the counter
+ * of all other failures, followed by the available persistent, transient
+ * reset and transient deselect memory as 4 byte values.
+ *
+ * @author Thotheolh
+ */
+public class Stats {
+
+    public static final short HANDSHAKES_STARTED = 0;
+    public static final short HANDSHAKES_COMPLETED = 1;
+    public static final short TESTS = 2;
+    public static final short POOL_HITS = 3;
+    public static final short POOL_MISSES = 4;
+    public static final short RESUMES = 5;
+    public static final short RESUME_MISSES = 6;
+    public static final short FAILURES_OFFSET = 7;
+    public static final short COUNTER_LENGTH = 4;
+    public static final short FLUSH_INTERVAL = 16;
+
+    // Status words with their own failure counter
+    private static final short[] FAILURES = {ISO7816.SW_WRONG_LENGTH, ISO7816.SW_CONDITIONS_NOT_SATISFIED,
+        ISO7816.SW_DATA_INVALID, ISO7816.SW_WRONG_DATA, ISO7816.SW_FUNC_NOT_SUPPORTED,
+        ISO7816.SW_INCORRECT_P1P2, ISO7816.SW_WRONG_P1P2, ISO7816.SW_INS_NOT_SUPPORTED,
+        ISO7816.SW_CLA_NOT_SUPPORTED};
+
+    public static final short COUNTERS = (short) (FAILURES_OFFSET + 10);
+    public static final short LENGTH = (short) ((COUNTERS + 3) * COUNTER_LENGTH);
+
+    private byte[] counters;
+    private short[] pending;
+    private short[] memory;
+
+    public Stats() {
+        counters = new byte[(short) (COUNTERS * COUNTER_LENGTH)];
+        pending = JCSystem.makeTransientShortArray(COUNTERS, JCSystem.CLEAR_ON_RESET);
+        memory = JCSystem.makeTransientShortArray((short) 2, JCSystem.CLEAR_ON_DESELECT);
+    }
+
+    /**
+     * Increments a counter.
+     *
+     * @param counter
+     */
+    public void count(short counter) {
+        pending[counter]++;
+        if (pending[counter] >= FLUSH_INTERVAL) {
+            flush(counter);
+        }
+    }
+
+    /**
+     * Adds the pending increments of all counters to persistent memory.
+     */
+    public void flush() {
+        for (short counter = 0; counter < COUNTERS; counter++) {
+            flush(counter);
+        }
+    }
+
+    /**
+     * Adds the pending increments of a counter to persistent memory.
+     */
+    private void flush(short counter) {
+        short carry = pending[counter];
+        if (carry == 0) {
+            return;
+        }
+        short start = (short) (counter * COUNTER_LENGTH);
+        short offset = (short) (start + COUNTER_LENGTH - 1);
+        carry += (short) (counters[offset] & 0xFF);
+        if (carry < 0x100) {
+            Util.arrayFillNonAtomic(counters, offset, (short) 1, (byte) carry);
+            pending[counter] = 0;
+            return;
+        }
+
+        // A carry is only written as a whole, within the transaction of the
+        // caller if there is one
+        boolean atomic = JCSystem.getTransactionDepth() == 0;
+        if (atomic) {
+            JCSystem.beginTransaction();
+        }
+        counters[offset] = (byte) carry;
+        carry = (short) (carry >> 8);
+        while (carry != 0 && offset > start) {
+            offset--;
+            carry += (short) (counters[offset] & 0xFF);
+            counters[offset] = (byte) carry;
+            carry = (short) (carry >> 8);
+        }
+        if (atomic) {
+            JCSystem.commitTransaction();
+        }
+        pending[counter] = 0;
+    }
+
+    /**
+     * Counts a failed command.
+     *
+     * @param sw the status word the command failed with
+     */
+    public void fail(short sw) {
+        for (short i = 0; i < (short) FAILURES.length; i++) {
+            if (FAILURES[i] == sw) {
+                count((short) (FAILURES_OFFSET + i));
+                return;
+            }
+        }
+        count((short) (COUNTERS - 1));
+    }
+
+    /**
+     * Writes LENGTH bytes of counters and memory metrics.
+     *
+     * @param output
+     * @param offset
+     */
+    public void write(byte[] output, short offset) {
+        flush();
+        offset = Util.arrayCopyNonAtomic(counters, (short) 0, output, offset, (short) counters.length);
+        offset = writeMemory(JCSystem.MEMORY_TYPE_PERSISTENT, output, offset);
+        offset = writeMemory(JCSystem.MEMORY_TYPE_TRANSIENT_RESET, output, offset);
+        writeMemory(JCSystem.MEMORY_TYPE_TRANSIENT_DESELECT, output, offset);
+    }
+
+    /**
+     * Resets all counters.
+     */
+    public void reset() {
+        Util.arrayFillNonAtomic(counters, (short) 0, (short) counters.length, (byte) 0x00);
+        for (short counter = 0; counter < COUNTERS; counter++) {
+            pending[counter] = 0;
+        }
+    }
+
+    private short writeMemory(byte type, byte[] output, short offset) {
+        JCSystem.getAvailableMemory(memory, (short) 0, type);
+        offset = Util.setShort(output, offset, memory[0]);
+        return Util.setShort(output, offset, memory[1]);
+    }
+}
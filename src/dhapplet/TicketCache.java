@@ -0,0 +1,275 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package dhapplet;
+
+import javacard.framework.ISO7816;
+import javacard.framework.ISOException;
+import javacard.framework.JCSystem;
+import javacard.framework.Util;
+import javacard.security.AESKey;
+import javacard.security.KeyBuilder;
+
+/**
+ * A fixed size cache of resumption secrets that lets a host which already
+ * completed a handshake with the card restore a session key without another
+ * modexp.
+ *
+ * After a full handshake the host asks for a ticket with issue(). The card
+ * derives a resumption secret from the session key and the ticket ID, keeps
+ * it in a free slot or the least recently used one and returns the ticket
+ * ID. To resume, the host sends the ticket and a nonce to resume() which
+ * answers with a card nonce and reopens the channel with the key derivation
+ * of SecureChannel over the seed:
+ *
+ * AES-128-ECB(secret, host nonce || card nonce)
+ *
+ * where secret is AES-128-ECB(confirmKey, ticket ID || 8 zero bytes).
+ *
+ * The card has no clock, so the lifetime of a ticket is counted in full
+ * handshakes reported with handshake(). Handshakes are only counted while a
+ * ticket is live, in a transient mirror that is added to the persistent
+ * epoch every EPOCH_FLUSH handshakes, so most handshakes write nothing here.
+ * A reset loses the handshakes not added yet and can extend the live tickets
+ * by less than EPOCH_FLUSH handshakes. A ticket is also dropped once it has
+ * been used for the configured number of resumptions. The block cipher and
+ * the random generator are those the channels share. Only one ticket can be
+ * issued per full handshake, on the channel that completed it, so resumed
+ * sessions cannot extend their own lifetime. Session keeps track of that.
+ *
+ * @author Thotheolh
+ */
+public class TicketCache {
+
+    public static final short DEFAULT_CAPACITY = 4;
+    public static final short DEFAULT_LIFETIME = 64;
+    public static final short DEFAULT_USES = 8;
+    public static final short TICKET_LENGTH = 8;
+    public static final short NONCE_LENGTH = 8;
+    public static final short SLOT_LENGTH = TICKET_LENGTH + 16 + 6;
+    public static final short EPOCH_FLUSH = 16;
+
+    private short capacity;
+    private byte[] ids;
+    private AESKey[] secrets;
+    private short[] expiries;
+    private short[] uses;
+    private short[] stamps;
+    private short epoch;
+    private short[] ticks;
+    private short clock;
+    private short lifetime = DEFAULT_LIFETIME;
+    private short maxUses = DEFAULT_USES;
+
+    public TicketCache(short capacity) {
+        this.capacity = capacity;
+        ids = new byte[(short) (capacity * TICKET_LENGTH)];
+        secrets = new AESKey[capacity];
+        for (short i = 0; i < capacity; i++) {
+            secrets[i] = (AESKey) KeyBuilder.buildKey(KeyBuilder.TYPE_AES, KeyBuilder.LENGTH_AES_128, false);
+        }
+        expiries = new short[capacity];
+        uses = new short[capacity];
+        stamps = new short[capacity];
+        ticks = JCSystem.makeTransientShortArray((short) 1, JCSystem.CLEAR_ON_RESET);
+    }
+
+    /**
+     * Records a completed full handshake and ages all tickets by one.
+     */
+    public void handshake() {
+        // Without a live ticket there is nothing to age
+        if (getCount() == 0) {
+            return;
+        }
+        ticks[0]++;
+        short now = now();
+        for (short slot = 0; slot < capacity; slot++) {
+            if (uses[slot] > 0 && (short) (expiries[slot] - now) <= 0) {
+                drop(slot);
+            }
+        }
+        if (ticks[0] >= EPOCH_FLUSH) {
+            epoch = now;
+            ticks[0] = 0;
+        }
+    }
+
+    /**
+     * Issues a ticket for the session key of the full handshake that opened
+     * a channel.
+     *
+     * @param channel
+     * @param buffer receives the ticket ID at offset and needs 32 bytes of
+     * scratch space from offset on
+     * @param offset
+     */
+    public void issue(SecureChannel channel, byte[] buffer, short offset) {
+        short slot = findSlot();
+        short secretOffset = (short) (offset + 16);
+        channel.random(buffer, offset, TICKET_LENGTH);
+        Util.arrayFillNonAtomic(buffer, (short) (offset + TICKET_LENGTH), TICKET_LENGTH, (byte) 0x00);
+        channel.encryptBlock(channel.getConfirmKey(), buffer, offset, buffer, secretOffset);
+
+        JCSystem.beginTransaction();
+        secrets[slot].setKey(buffer, secretOffset);
+        Util.arrayCopy(buffer, offset, ids, (short) (slot * TICKET_LENGTH), TICKET_LENGTH);
+        expiries[slot] = (short) (now() + lifetime);
+        uses[slot] = maxUses;
+        stamps[slot] = ++clock;
+        JCSystem.commitTransaction();
+
+        Utils.zeroize(buffer, secretOffset, (short) 16);
+    }
+
+    /**
+     * Reopens the channel from a ticket and a host nonce. On success the card
+     * nonce follows the host nonce in the buffer.
+     *
+     * @param channel
+     * @param buffer holds the ticket ID followed by the host nonce at offset
+     * and needs 56 bytes of scratch space from offset on
+     * @param offset
+     * @return false if the ticket is unknown, expired or used up
+     */
+    public boolean resume(SecureChannel channel, byte[] buffer, short offset) {
+        short slot = find(buffer, offset);
+        if (slot < 0) {
+            return false;
+        }
+
+        // The use is counted before the key is restored
+        uses[slot]--;
+        stamps[slot] = ++clock;
+
+        short nonceOffset = (short) (offset + TICKET_LENGTH);
+        short seedOffset = (short) (nonceOffset + 16);
+        channel.random(buffer, (short) (nonceOffset + NONCE_LENGTH), NONCE_LENGTH);
+        channel.encryptBlock(secrets[slot], buffer, nonceOffset, buffer, seedOffset);
+        channel.open(buffer, seedOffset, (short) 16);
+
+        if (uses[slot] == 0) {
+            drop(slot);
+        }
+        return true;
+    }
+
+    /**
+     * Drops all tickets.
+     */
+    public void clear() {
+        for (short slot = 0; slot < capacity; slot++) {
+            drop(slot);
+        }
+    }
+
+    /**
+     * Set the lifetime in full handshakes and the number of resumptions of
+     * tickets issued from now on.
+     *
+     * @param lifetime
+     * @param maxUses
+     * @throws ISOException
+     */
+    public void configure(short lifetime, short maxUses) throws ISOException {
+        if (lifetime < 1 || maxUses < 1) {
+            ISOException.throwIt(ISO7816.SW_WRONG_DATA);
+        }
+        this.lifetime = lifetime;
+        this.maxUses = maxUses;
+    }
+
+    public short getCapacity() {
+        return capacity;
+    }
+
+    public short getLifetime() {
+        return lifetime;
+    }
+
+    public short getMaxUses() {
+        return maxUses;
+    }
+
+    public short getCount() {
+        short count = 0;
+        for (short slot = 0; slot < capacity; slot++) {
+            if (uses[slot] > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of full handshakes counted so far
+     */
+    private short now() {
+        return (short) (epoch + ticks[0]);
+    }
+
+    /**
+     * @param buffer
+     * @param offset
+     * @return slot holding the live ticket at offset or -1
+     */
+    private short find(byte[] buffer, short offset) {
+        for (short slot = 0; slot < capacity; slot++) {
+            if (uses[slot] > 0 && Util.arrayCompare(buffer, offset, ids,
+                    (short) (slot * TICKET_LENGTH), TICKET_LENGTH) == 0) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return a free slot or else the least recently used one
+     */
+    private short findSlot() {
+        short oldest = 0;
+        for (short slot = 0; slot < capacity; slot++) {
+            if (uses[slot] == 0) {
+                return slot;
+            }
+            if ((short) (stamps[slot] - stamps[oldest]) < 0) {
+                oldest = slot;
+            }
+        }
+        return oldest;
+    }
+
+    private void drop(short slot) {
+        uses[slot] = 0;
+        secrets[slot].clearKey();
+        Util.arrayFillNonAtomic(ids, (short) (slot * TICKET_LENGTH), TICKET_LENGTH, (byte) 0x00);
+    }
+}
@@ -31,6 +31,7 @@
  */
 package dhapplet;
 
+import javacard.framework.JCSystem;
 import javacardx.framework.util.ArrayLogic;
 
 /**
@@ -50,4 +51,30 @@ public class Utils {
         ArrayLogic.arrayFillGenericNonAtomic(data, (short) 0, (short) data.length, data, (short) 0);
     }
 
+    /**
+     * Zeroize part of a byte array.
+     *
+     * @param data
+     * @param offset
+     * @param length
+     */
+    public static void zeroize(byte[] data, short offset, short length) {
+        data[offset] = (byte) 0x00;
+        ArrayLogic.arrayFillGenericNonAtomic(data, offset, length, data, offset);
+    }
+
+    /**
+     * Creates a byte array in the memory given by a transient event.
+     *
+     * @param length
+     * @param event JCSystem.NOT_A_TRANSIENT_OBJECT for persistent memory
+     * @return the array
+     */
+    public static byte[] makeByteArray(short length, byte event) {
+        if (event == JCSystem.NOT_A_TRANSIENT_OBJECT) {
+            return new byte[length];
+        }
+        return JCSystem.makeTransientByteArray(length, event);
+    }
+
 }
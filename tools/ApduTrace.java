@@ -0,0 +1,538 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.smartcardio.Card;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.TerminalFactory;
+
+/**
+ * Records APDU sessions with their timing and replays them to compare the
+ * latency of each instruction across builds or cards.
+ *
+ * A trace has one JSON object per line for each command: the command APDU,
+ * the response data, the status word and the time the card took in
+ * microseconds. A "reset" line stands for a card reset.
+ *
+ * {"cmd":"B010000000","rsp":"","sw":"9000","us":81234}
+ *
+ * The JDK's PC/SC provider normally answers 61xx with GET RESPONSE and 6Cxx
+ * by resending the command with the right Le inside transmit(), so the time
+ * of a command would include them. ApduTrace turns this off with the
+ * sun.security.smartcardio.t0GetResponse and t1GetResponse properties and
+ * sends these follow up commands itself. Each gets its own line and time,
+ * marked with "follow":1, and counts under its own instruction.
+ *
+ * Usage, with the JDK's PC/SC support and no build step:
+ *
+ * java tools/ApduTrace.java record scripts/dhapplet.scr dhapplet.trace [reader]
+ * java tools/ApduTrace.java replay dhapplet.trace [reader] [runs]
+ *
+ * record runs an apdutool script against the reader and writes the trace,
+ * replay sends the commands of a trace again, runs times, and reports per
+ * instruction the recorded and replayed mean latency and the change. The
+ * follow up commands are sent as the replaying card asks for them, not as
+ * recorded. Final status words that differ from the recorded ones are
+ * reported, and so are commands whose number of follow ups changed. Response
+ * data is not compared as it depends on the card's random keys. The reader
+ * is the first one whose name contains the given text or the first reader
+ * with a card.
+ *
+ * Recording and replaying go through a Transport, which is a PC/SC reader
+ * here and a simulated card in the host module's tests. DHClient's trace
+ * command records its own handshakes in the same format, so a trace of the
+ * host tool replays here.
+ *
+ * @author Thotheolh
+ */
+public class ApduTrace {
+
+    private static final Pattern FIELD = Pattern.compile("\"(\\w+)\":\"?([0-9A-Fa-f]*)\"?");
+
+    // Bounds the follow ups of one command, as the JDK does
+    private static final int MAX_FOLLOW_UPS = 256;
+
+    /**
+     * Sends command APDUs to one card and resets it.
+     */
+    interface Transport extends AutoCloseable {
+
+        /**
+         * @param command
+         * @return the response data followed by the status word
+         * @throws IOException
+         */
+        byte[] transmit(byte[] command) throws IOException;
+
+        /**
+         * Resets the card, as a reset line of a trace does.
+         *
+         * @throws IOException
+         */
+        void reset() throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    /**
+     * A card in a PC/SC reader, connected at the first command or reset.
+     */
+    static class PcscTransport implements Transport {
+
+        private final CardTerminal terminal;
+        private Card card;
+
+        PcscTransport(CardTerminal terminal) {
+            this.terminal = terminal;
+        }
+
+        @Override
+        public byte[] transmit(byte[] command) throws IOException {
+            try {
+                if (card == null) {
+                    card = terminal.connect("*");
+                }
+                return card.getBasicChannel().transmit(new CommandAPDU(command)).getBytes();
+            } catch (CardException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void reset() throws IOException {
+            try {
+                if (card != null) {
+                    card.disconnect(true);
+                }
+                card = terminal.connect("*");
+            } catch (CardException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (card != null) {
+                    card.disconnect(true);
+                    card = null;
+                }
+            } catch (CardException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * The latency of each instruction, recorded and replayed, and the
+     * differences a replay found.
+     */
+    static class Report {
+
+        // Count and latency sum per CLA and INS, recorded then replayed
+        final Map<String, long[]> stats = new TreeMap<>();
+        int mismatches;
+        int followUpChanges;
+
+        void print(PrintStream out) {
+            out.println("CLA INS  recorded  recorded us  replayed  replayed us   change");
+            for (Map.Entry<String, long[]> row : stats.entrySet()) {
+                long[] sums = row.getValue();
+                long before = sums[0] == 0 ? 0 : sums[1] / sums[0];
+                long after = sums[2] == 0 ? 0 : sums[3] / sums[2];
+                out.printf(Locale.ROOT, "%s  %8d  %11d  %8d  %11d  %+6.1f%%%n", row.getKey(), sums[0], before,
+                        sums[2], after, before == 0 ? 0.0 : (after - before) * 100.0 / before);
+            }
+            out.println(mismatches + " status word mismatches");
+            out.println(followUpChanges + " commands with changed follow ups");
+        }
+    }
+
+    /**
+     * One command of a trace.
+     */
+    static class Entry {
+
+        byte[] command;
+        byte[] response;
+        int sw;
+        long micros;
+        boolean follow;
+
+        /**
+         * @return the entry stands for a card reset
+         */
+        boolean isReset() {
+            return command == null;
+        }
+
+        String toJson() {
+            if (isReset()) {
+                return "{\"reset\":\"\"}";
+            }
+            return String.format("{\"cmd\":\"%s\",\"rsp\":\"%s\",\"sw\":\"%04X\",\"us\":%d%s}",
+                    hex(command), hex(response), sw, micros, follow ? ",\"follow\":1" : "");
+        }
+
+        static Entry fromJson(String line) {
+            Entry entry = new Entry();
+            Matcher matcher = FIELD.matcher(line);
+            while (matcher.find()) {
+                String value = matcher.group(2);
+                switch (matcher.group(1)) {
+                    case "cmd":
+                        entry.command = unhex(value);
+                        break;
+                    case "rsp":
+                        entry.response = unhex(value);
+                        break;
+                    case "sw":
+                        entry.sw = Integer.parseInt(value, 16);
+                        break;
+                    case "us":
+                        entry.micros = Long.parseLong(value);
+                        break;
+                    case "follow":
+                        entry.follow = !value.equals("0");
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return entry;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        // Read when the provider's channel class loads, so before any transmit
+        System.setProperty("sun.security.smartcardio.t0GetResponse", "false");
+        System.setProperty("sun.security.smartcardio.t1GetResponse", "false");
+        if (args.length >= 3 && args[0].equals("record")) {
+            record(args[1], args[2], args.length > 3 ? args[3] : null);
+        } else if (args.length >= 2 && args[0].equals("replay")) {
+            replay(args[1], args.length > 2 ? args[2] : null, args.length > 3 ? Integer.parseInt(args[3]) : 1);
+        } else {
+            System.err.println("usage: ApduTrace record <script.scr> <trace> [reader]");
+            System.err.println("       ApduTrace replay <trace> [reader] [runs]");
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Runs an apdutool script and writes its trace.
+     *
+     * @param script
+     * @param trace
+     * @param reader
+     * @throws Exception
+     */
+    static void record(String script, String trace, String reader) throws Exception {
+        List<Entry> entries = parseScript(script);
+        int lines;
+        try (Transport transport = new PcscTransport(terminal(reader));
+                PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(trace),
+                        StandardCharsets.US_ASCII))) {
+            lines = record(entries, transport, out);
+        }
+        System.out.println("recorded " + lines + " entries to " + trace);
+    }
+
+    /**
+     * Sends the commands of a script with their follow ups and writes a line
+     * for each.
+     *
+     * @param entries
+     * @param transport
+     * @param out
+     * @return the number of lines written
+     * @throws IOException
+     */
+    static int record(List<Entry> entries, Transport transport, PrintWriter out) throws IOException {
+        int lines = 0;
+        for (Entry entry : entries) {
+            if (entry.isReset()) {
+                transport.reset();
+                out.println(entry.toJson());
+                lines++;
+                continue;
+            }
+            for (Entry sent : exchange(transport, entry.command)) {
+                out.println(sent.toJson());
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Replays a trace and reports the latency of each instruction.
+     *
+     * @param trace
+     * @param reader
+     * @param runs
+     * @throws Exception
+     */
+    static void replay(String trace, String reader, int runs) throws Exception {
+        Report report;
+        try (Transport transport = new PcscTransport(terminal(reader))) {
+            report = replay(readTrace(Files.readAllLines(Paths.get(trace), StandardCharsets.US_ASCII)),
+                    transport, runs, System.out);
+        }
+        report.print(System.out);
+    }
+
+    /**
+     * Sends the commands of a trace again, runs times, with the follow ups the
+     * card asks for.
+     *
+     * @param recorded
+     * @param transport
+     * @param runs
+     * @param log gets a line for each mismatch and changed follow up
+     * @return the latencies and the differences found
+     * @throws IOException
+     */
+    static Report replay(List<Entry> recorded, Transport transport, int runs, PrintStream log) throws IOException {
+        Report report = new Report();
+        for (int run = 0; run < runs; run++) {
+            for (int i = 0; i < recorded.size(); i++) {
+                Entry entry = recorded.get(i);
+                if (entry.isReset()) {
+                    transport.reset();
+                    continue;
+                }
+                if (entry.follow) {
+                    // Replayed with the command it follows
+                    continue;
+                }
+                int last = i;
+                while (last + 1 < recorded.size() && recorded.get(last + 1).follow) {
+                    last++;
+                    add(report.stats, recorded.get(last), 0);
+                }
+                add(report.stats, entry, 0);
+                List<Entry> replayed = exchange(transport, entry.command);
+                for (Entry sent : replayed) {
+                    add(report.stats, sent, 2);
+                }
+
+                int recordedSw = recorded.get(last).sw;
+                int replayedSw = replayed.get(replayed.size() - 1).sw;
+                if (replayedSw != recordedSw) {
+                    report.mismatches++;
+                    log.printf("line %d: %s recorded %04X replayed %04X%n",
+                            i + 1, hex(entry.command), recordedSw, replayedSw);
+                } else if (replayed.size() != last - i + 1) {
+                    report.followUpChanges++;
+                    log.printf("line %d: %s recorded %d follow ups replayed %d%n",
+                            i + 1, hex(entry.command), last - i, replayed.size() - 1);
+                }
+            }
+        }
+        return report;
+    }
+
+    /**
+     * @param lines of a trace
+     * @return its entries, skipping blank lines
+     */
+    static List<Entry> readTrace(List<String> lines) {
+        List<Entry> entries = new ArrayList<>();
+        for (String line : lines) {
+            if (!line.trim().isEmpty()) {
+                entries.add(Entry.fromJson(line));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Reads the commands of an apdutool script: CLA INS P1 P2 Lc, the data
+     * and Le as hex bytes terminated by a semicolon. powerup and powerdown
+     * become card resets.
+     *
+     * @param script
+     * @return the entries without responses
+     * @throws IOException
+     */
+    static List<Entry> parseScript(String script) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        for (String line : Files.readAllLines(Paths.get(script), StandardCharsets.US_ASCII)) {
+            int comment = line.indexOf("//");
+            text.append(comment >= 0 ? line.substring(0, comment) : line).append(' ');
+        }
+        boolean powered = false;
+        for (String statement : text.toString().split(";")) {
+            String[] tokens = statement.trim().split("\\s+");
+            if (tokens[0].isEmpty() || tokens[0].equals("powerdown")) {
+                continue;
+            }
+            if (tokens[0].equals("powerup")) {
+                // The first powerup is the connection made before the first command
+                if (powered) {
+                    entries.add(new Entry());
+                }
+                powered = true;
+                continue;
+            }
+            byte[] fields = new byte[tokens.length];
+            for (int i = 0; i < tokens.length; i++) {
+                fields[i] = (byte) Integer.decode(tokens[i]).intValue();
+            }
+            int lc = fields[4] & 0xFF;
+            int le = fields[fields.length - 1] & 0xFF;
+            byte[] data = Arrays.copyOfRange(fields, 5, 5 + lc);
+            Entry entry = new Entry();
+            entry.command = new CommandAPDU(fields[0] & 0xFF, fields[1] & 0xFF, fields[2] & 0xFF,
+                    fields[3] & 0xFF, data, le).getBytes();
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Adds an entry's latency to the sums of its instruction.
+     *
+     * @param stats
+     * @param entry
+     * @param column 0 for a recorded entry, 2 for a replayed one
+     */
+    static void add(Map<String, long[]> stats, Entry entry, int column) {
+        String key = String.format("%02X %02X", entry.command[0], entry.command[1]);
+        long[] sums = stats.computeIfAbsent(key, k -> new long[4]);
+        sums[column]++;
+        sums[column + 1] += entry.micros;
+    }
+
+    /**
+     * Sends a command and the follow ups the card asks for: GET RESPONSE with
+     * the command's CLA for 61xx and the last command again with Le = SW2 for
+     * 6Cxx, as ISO 7816-4 and the JDK's provider do.
+     *
+     * @param transport
+     * @param command
+     * @return the command's entry followed by the follow ups' entries
+     * @throws IOException
+     */
+    static List<Entry> exchange(Transport transport, byte[] command) throws IOException {
+        List<Entry> sent = new ArrayList<>();
+        Entry entry = new Entry();
+        entry.command = command;
+        transmit(transport, entry);
+        sent.add(entry);
+        while (true) {
+            int sw1 = entry.sw >> 8;
+            int le = entry.sw & 0xFF;
+            CommandAPDU next;
+            if (sw1 == 0x61) {
+                next = new CommandAPDU(command[0] & 0xFF, 0xC0, 0x00, 0x00, le == 0 ? 256 : le);
+            } else if (sw1 == 0x6C && entry.response.length == 0) {
+                CommandAPDU last = new CommandAPDU(entry.command);
+                next = last.getNc() > 0
+                        ? new CommandAPDU(last.getCLA(), last.getINS(), last.getP1(), last.getP2(), last.getData(),
+                                le == 0 ? 256 : le)
+                        : new CommandAPDU(last.getCLA(), last.getINS(), last.getP1(), last.getP2(),
+                                le == 0 ? 256 : le);
+            } else {
+                return sent;
+            }
+            if (sent.size() > MAX_FOLLOW_UPS) {
+                throw new IOException("more than " + MAX_FOLLOW_UPS + " follow ups to " + hex(command));
+            }
+            entry = new Entry();
+            entry.command = next.getBytes();
+            entry.follow = true;
+            transmit(transport, entry);
+            sent.add(entry);
+        }
+    }
+
+    /**
+     * Sends the entry's command and fills in its response and timing.
+     *
+     * @param transport
+     * @param entry
+     * @throws IOException
+     */
+    static void transmit(Transport transport, Entry entry) throws IOException {
+        long start = System.nanoTime();
+        byte[] response = transport.transmit(entry.command);
+        entry.micros = (System.nanoTime() - start) / 1000;
+        if (response.length < 2) {
+            throw new IOException("no status word for " + hex(entry.command));
+        }
+        entry.response = Arrays.copyOf(response, response.length - 2);
+        entry.sw = ((response[response.length - 2] & 0xFF) << 8) | (response[response.length - 1] & 0xFF);
+    }
+
+    static CardTerminal terminal(String reader) throws CardException {
+        for (CardTerminal terminal : TerminalFactory.getDefault().terminals().list()) {
+            if (reader != null ? terminal.getName().contains(reader) : terminal.isCardPresent()) {
+                return terminal;
+            }
+        }
+        throw new CardException("no reader " + (reader != null ? "named " + reader : "with a card"));
+    }
+
+    static String hex(byte[] data) {
+        StringBuilder text = new StringBuilder();
+        for (byte b : data) {
+            text.append(String.format("%02X", b));
+        }
+        return text.toString();
+    }
+
+    static byte[] unhex(String text) {
+        byte[] data = new byte[text.length() / 2];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) Integer.parseInt(text.substring(2 * i, 2 * i + 2), 16);
+        }
+        return data;
+    }
+}
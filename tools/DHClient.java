@@ -0,0 +1,1166 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.TerminalFactory;
+
+/**
+ * A host client for the DHApplet protocol that runs handshakes on many
+ * readers at once.
+ *
+ * Client wraps the commands of one card in typed methods and times every
+ * command it sends. It talks to the card through a Transport, which is a PC/SC
+ * reader here and can be a simulated card in tests. provision() gives every
+ * card its own virtual thread, as a handshake mostly waits on the card, and
+ * bounds the number of handshakes in flight with a semaphore.
+ *
+ * handshakeAsync() overlaps the host's modexps with the card's commands, so
+ * a handshake takes about as long as the slower side. The host keys come from
+ * a KeyPool, which generates them ahead on the host's cores.
+ *
+ * Only the finite field groups are supported. The host side of the handshake
+ * is a BigInteger modexp.
+ *
+ * Usage, with the JDK 21 PC/SC support and no build step:
+ *
+ * java tools/DHClient.java run [reader] [handshakes] [parallel]
+ *
+ * run does the given number of handshakes, 10 by default, on every reader
+ * with a card, or on the readers whose name contains the given text, at most
+ * parallel of them at a time, all by default. It prints per card the number
+ * of handshakes, failures and the mean, minimum and maximum handshake time
+ * and the mean time the card took.
+ *
+ * java tools/DHClient.java pipeline [reader] [handshakes] [pool]
+ *
+ * pipeline runs the handshakes on the first matching card once step by step
+ * and once with handshakeAsync() and a key pool of the given size, 4 by
+ * default, and prints both timings.
+ *
+ * java tools/DHClient.java soak [reader] [handshakes] [sample] [drift]
+ *
+ * soak runs the given number of handshakes, 20000 by default, on the first
+ * matching card with host keys from a generator seeded with SOAK_SEED, so
+ * every run sends the same host keys. Every sample handshakes, 1000 by
+ * default, it reads INS_STATS and fails if a command failed, the counters
+ * differ from the handshakes sent, the available memory changed, or the mean
+ * handshake time rose more than drift percent, 25 by default, over the
+ * fastest earlier sample's. Comparing with the fastest sample keeps the host
+ * JIT's warm up out of the baseline.
+ *
+ * java tools/DHClient.java script [handshakes] > scripts/soak.scr
+ *
+ * script writes the apdutool soak script with the first handshakes, 32 by
+ * default, of the soak run on the default 2048 bit group.
+ *
+ * java tools/DHClient.java check-script [script] [reader]
+ *
+ * check-script replays the soak script, scripts/soak.scr by default, on the
+ * first matching card and checks its responses as soak does: the status
+ * words, every TEST tag against the seeded host keys, and the counters and
+ * available memory of every INS_STATS sample.
+ *
+ * java tools/DHClient.java trace <trace> [reader] [handshakes]
+ *
+ * trace records the given number of step by step handshakes, 10 by default,
+ * on the first matching card through a RecordingTransport and writes them as
+ * an ApduTrace trace, so that ApduTrace's replay can time them on later
+ * builds.
+ *
+ * @author Thotheolh
+ */
+public class DHClient {
+
+    static final byte[] AID = {(byte) 0xED, (byte) 0xE4, (byte) 0xFB, (byte) 0xEB, (byte) 0x9E, (byte) 0xD8};
+    static final int CLA = 0xB0;
+    static final int INS_INIT = 0x10;
+    static final int INS_GET = 0x11;
+    static final int INS_SET = 0x12;
+    static final int INS_EXCHANGE = 0x14;
+    static final int INS_FINAL = 0x1F;
+    static final int INS_TEST = 0x20;
+    static final int INS_STATS = 0x30;
+    static final int INS_GET_RESPONSE = 0xC0;
+    static final int P1_Y = 0x01;
+    static final int P1_P = 0x02;
+    static final int P1_G = 0x03;
+    static final int P1_GROUP = 0x06;
+    static final int OFFSET_UNIT = 4;
+    static final int SW_OK = 0x9000;
+    static final int TAG_LENGTH = 16;
+    static final int EXP_LENGTH = 40;
+    static final byte[] REPLY = "Hello Java Card.".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] KDF_INFO = "DHApplet channel".getBytes(StandardCharsets.US_ASCII);
+
+    // Value bytes per GET or SET command, a multiple of OFFSET_UNIT
+    private static final int PART_LENGTH = 128;
+
+    // Seeds the host keys of soak runs and of scripts/soak.scr
+    static final long SOAK_SEED = 0x44484170706C6574L;
+
+    // Offsets of the INS_STATS counters and of the available memory
+    static final int STATS_STARTED = 0;
+    static final int STATS_COMPLETED = 4;
+    static final int STATS_TESTS = 8;
+    static final int STATS_FAILURES = 28;
+    static final int STATS_MEMORY = 68;
+    static final int STATS_LENGTH = 80;
+
+    // RFC 3526 group 14, the applet's default group
+    static final String MODP_2048 = "FFFFFFFFFFFFFFFFC90FDAA22168C234C4C6628B80DC1CD129024E088A67CC74"
+            + "020BBEA63B139B22514A08798E3404DDEF9519B3CD3A431B302B0A6DF25F14374F"
+            + "E1356D6D51C245E485B576625E7EC6F44C42E9A637ED6B0BFF5CB6F406B7EDEE38"
+            + "6BFB5A899FA5AE9F24117C4B1FE649286651ECE45B3DC2007CB8A163BF0598DA48"
+            + "361C55D39A69163FA8FD24CF5F83655D23DCA3AD961C62F356208552BB9ED52907"
+            + "7096966D670C354E4ABC9804F1746C08CA18217C32905E462E36CE3BE39E772C18"
+            + "0E86039B2783A2EC07A28FB5C55DF06F4C52C9DE2BCBF6955817183995497CEA95"
+            + "6AE515D2261898FA051015728E5A8AACAA68FFFFFFFFFFFFFFFF";
+
+    /**
+     * Sends command APDUs to one card.
+     */
+    interface Transport extends AutoCloseable {
+
+        /**
+         * @param command
+         * @return the response data followed by the status word
+         * @throws IOException
+         */
+        byte[] transmit(byte[] command) throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    /**
+     * A card in a PC/SC reader.
+     */
+    static class PcscTransport implements Transport {
+
+        private final Card card;
+        private final CardChannel channel;
+
+        PcscTransport(CardTerminal terminal) throws IOException {
+            try {
+                card = terminal.connect("*");
+                channel = card.getBasicChannel();
+            } catch (CardException e) {
+                throw new IOException(terminal.getName(), e);
+            }
+        }
+
+        @Override
+        public byte[] transmit(byte[] command) throws IOException {
+            try {
+                return channel.transmit(new CommandAPDU(command)).getBytes();
+            } catch (CardException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                card.disconnect(true);
+            } catch (CardException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * Records the commands sent through another transport as an ApduTrace
+     * trace: one JSON line per command with the command, the response data,
+     * the status word and the time the card took in microseconds. A GET
+     * RESPONSE after 61xx, and a command resent with the same header after
+     * 6Cxx, is marked as a follow up, as ApduTrace marks the ones it sends.
+     */
+    static class RecordingTransport implements Transport {
+
+        private final Transport transport;
+        private final PrintWriter out;
+        private byte[] last;
+        private int lastSw = SW_OK;
+        private int entries;
+
+        /**
+         * @param transport
+         * @param out gets the trace lines, closed with the transport
+         */
+        RecordingTransport(Transport transport, PrintWriter out) {
+            this.transport = transport;
+            this.out = out;
+        }
+
+        @Override
+        public byte[] transmit(byte[] command) throws IOException {
+            long start = System.nanoTime();
+            byte[] response = transport.transmit(command);
+            long micros = (System.nanoTime() - start) / 1000;
+            int sw = ((response[response.length - 2] & 0xFF) << 8) | (response[response.length - 1] & 0xFF);
+            boolean follow = (lastSw >> 8) == 0x61 && command[1] == (byte) INS_GET_RESPONSE
+                    || (lastSw >> 8) == 0x6C && Arrays.equals(command, 0, 4, last, 0, 4);
+            out.printf("{\"cmd\":\"%s\",\"rsp\":\"%s\",\"sw\":\"%04X\",\"us\":%d%s}%n",
+                    hex(command, command.length), hex(response, response.length - 2), sw, micros,
+                    follow ? ",\"follow\":1" : "");
+            last = command;
+            lastSw = sw;
+            entries++;
+            return response;
+        }
+
+        int getEntries() {
+            return entries;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.close();
+            } finally {
+                transport.close();
+            }
+        }
+
+        private static String hex(byte[] data, int length) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < length; i++) {
+                text.append(String.format("%02X", data[i]));
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * A status word other than 9000.
+     */
+    static class StatusException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        final int sw;
+
+        StatusException(byte[] command, int sw) {
+            super(String.format("%02X %02X answered %04X", command[0], command[1], sw));
+            this.sw = sw;
+        }
+    }
+
+    /**
+     * The group selected on a card.
+     */
+    static class Group {
+
+        int id;
+        int length;
+        BigInteger p;
+        BigInteger g;
+    }
+
+    /**
+     * The host's key pair for one handshake.
+     */
+    static class HostKey {
+
+        final Group group;
+        final BigInteger x;
+        final byte[] y;
+
+        HostKey(Group group, BigInteger x) {
+            this.group = group;
+            this.x = x;
+            this.y = fixed(group.g.modPow(x, group.p), group.length);
+        }
+
+        static HostKey generate(Group group, Random random) {
+            return new HostKey(group, new BigInteger(EXP_LENGTH * 8, random).setBit(EXP_LENGTH * 8 - 1));
+        }
+
+        /**
+         * @param peerY
+         * @return S left padded to the group's length
+         */
+        byte[] agree(byte[] peerY) {
+            return fixed(new BigInteger(1, peerY).modPow(x, group.p), group.length);
+        }
+    }
+
+    /**
+     * Host key pairs generated ahead of the handshakes that use them.
+     */
+    static class KeyPool {
+
+        private final Group group;
+        private final Executor executor;
+        private final SecureRandom random = new SecureRandom();
+        private final ArrayDeque<CompletableFuture<HostKey>> keys = new ArrayDeque<>();
+
+        /**
+         * @param group
+         * @param size number of keys kept in generation, 0 to generate each
+         * key when it is taken
+         * @param executor runs the key generation
+         */
+        KeyPool(Group group, int size, Executor executor) {
+            this.group = group;
+            this.executor = executor;
+            for (int i = 0; i < size; i++) {
+                keys.add(generate());
+            }
+        }
+
+        /**
+         * Takes the oldest key and starts generating its replacement.
+         *
+         * @return the key, which may still be in generation
+         */
+        synchronized CompletableFuture<HostKey> take() {
+            keys.add(generate());
+            return keys.poll();
+        }
+
+        private CompletableFuture<HostKey> generate() {
+            return CompletableFuture.supplyAsync(() -> HostKey.generate(group, random), executor);
+        }
+    }
+
+    /**
+     * A card command for a CompletableFuture stage.
+     */
+    interface CardStep<T> {
+
+        T run() throws IOException;
+    }
+
+    /**
+     * The typed commands of one card, with the time the card took for them.
+     */
+    static class Client {
+
+        private final Transport transport;
+        private final int channel;
+        private long cardNanos;
+        private long commands;
+
+        Client(Transport transport) {
+            this(transport, 0);
+        }
+
+        /**
+         * @param transport
+         * @param channel logical channel, 0 to 3, the applet is selected on
+         */
+        Client(Transport transport, int channel) {
+            this.transport = transport;
+            this.channel = channel;
+        }
+
+        void select() throws IOException {
+            byte[] command = new CommandAPDU(channel, 0xA4, 0x04, 0x00, AID).getBytes();
+            check(command, send(command));
+        }
+
+        void init() throws IOException {
+            command(INS_INIT, 0x00, 0x00, null, 0);
+        }
+
+        Group getGroup() throws IOException {
+            byte[] info = command(INS_GET, P1_GROUP, 0x00, null, 4);
+            Group group = new Group();
+            group.id = info[0] & 0xFF;
+            group.length = ((info[1] & 0xFF) << 8) | (info[2] & 0xFF);
+            if (group.id == 0x17 || group.id == 0x18) {
+                throw new IOException("ECDH group " + group.id + " is not supported");
+            }
+            group.p = new BigInteger(1, get(P1_P, group.length));
+            group.g = new BigInteger(1, get(P1_G, group.length));
+            return group;
+        }
+
+        byte[] getY(int length) throws IOException {
+            return get(P1_Y, length);
+        }
+
+        void setY(byte[] y) throws IOException {
+            for (int offset = 0; offset < y.length; offset += PART_LENGTH) {
+                command(INS_SET, P1_Y, offset / OFFSET_UNIT,
+                        Arrays.copyOfRange(y, offset, Math.min(y.length, offset + PART_LENGTH)), 0);
+            }
+        }
+
+        void doFinal() throws IOException {
+            command(INS_FINAL, 0x00, 0x00, null, 0);
+        }
+
+        byte[] test() throws IOException {
+            return command(INS_TEST, 0x00, 0x00, null, TAG_LENGTH);
+        }
+
+        /**
+         * @param hostY
+         * @return the card's Y followed by the tag
+         * @throws IOException
+         */
+        byte[] exchange(byte[] hostY) throws IOException {
+            return command(INS_EXCHANGE, 0x00, 0x00, hostY, hostY.length + TAG_LENGTH);
+        }
+
+        /**
+         * @param reset
+         * @return the counters and memory metrics
+         * @throws IOException
+         */
+        byte[] stats(boolean reset) throws IOException {
+            return command(INS_STATS, reset ? 0x01 : 0x00, 0x00, null, STATS_LENGTH);
+        }
+
+        /**
+         * Runs a step by step handshake and checks the card's key
+         * confirmation tag.
+         *
+         * @param key
+         * @return the key material K
+         * @throws IOException if a command fails or the tags differ
+         */
+        byte[] handshake(HostKey key) throws IOException {
+            init();
+            byte[] cardY = getY(key.group.length);
+            setY(key.y);
+            doFinal();
+            byte[] tag = test();
+            byte[] material = kdf(key.agree(cardY));
+            if (!Arrays.equals(tag, confirmTag(material))) {
+                throw new IOException("key confirmation failed");
+            }
+            return material;
+        }
+
+        /**
+         * Runs a handshake with the host's work overlapped with the card's.
+         * INIT and GET Y run while the host key is generated, and SET Y,
+         * FINAL and TEST run while the host computes S and K. The card's
+         * commands stay in order, so a card has one handshake in flight at a
+         * time.
+         *
+         * @param group the card's group
+         * @param key the host key, which may still be in generation
+         * @param io runs the card's commands
+         * @param host runs the host's modexps
+         * @return the key material K, or an IOException wrapped in a
+         * CompletionException
+         */
+        CompletableFuture<byte[]> handshakeAsync(Group group, CompletableFuture<HostKey> key, Executor io,
+                Executor host) {
+            CompletableFuture<byte[]> cardY = CompletableFuture.supplyAsync(() -> unchecked(() -> {
+                init();
+                return getY(group.length);
+            }), io);
+            CompletableFuture<byte[]> tag = cardY.thenCombineAsync(key, (y, k) -> unchecked(() -> {
+                setY(k.y);
+                doFinal();
+                return test();
+            }), io);
+            CompletableFuture<byte[]> material = cardY.thenCombineAsync(key, (y, k) -> kdf(k.agree(y)), host);
+            return tag.thenCombine(material, (t, m) -> {
+                if (!Arrays.equals(t, confirmTag(m))) {
+                    throw new CompletionException(new IOException("key confirmation failed"));
+                }
+                return m;
+            });
+        }
+
+        long getCardNanos() {
+            return cardNanos;
+        }
+
+        long getCommands() {
+            return commands;
+        }
+
+        private byte[] get(int p1, int length) throws IOException {
+            byte[] value = new byte[length];
+            for (int offset = 0; offset < length; offset += PART_LENGTH) {
+                int part = Math.min(PART_LENGTH, length - offset);
+                byte[] data = command(INS_GET, p1, offset / OFFSET_UNIT, null, part);
+                if (data.length != part) {
+                    throw new IOException("short response to GET " + p1);
+                }
+                System.arraycopy(data, 0, value, offset, part);
+            }
+            return value;
+        }
+
+        /**
+         * Sends a command on the client's channel and fetches a response
+         * announced with 61xx.
+         *
+         * @return the response data
+         * @throws StatusException on a status word other than 9000
+         */
+        private byte[] command(int ins, int p1, int p2, byte[] data, int le) throws IOException {
+            byte[] command = data != null && data.length > 0
+                    ? new CommandAPDU(CLA | channel, ins, p1, p2, data, le).getBytes()
+                    : new CommandAPDU(CLA | channel, ins, p1, p2, le).getBytes();
+            byte[] response = send(command);
+            byte[] result = new byte[0];
+            while (response.length >= 2 && response[response.length - 2] == 0x61) {
+                result = concat(result, Arrays.copyOf(response, response.length - 2));
+                int remaining = response[response.length - 1] & 0xFF;
+                response = send(new CommandAPDU(channel, INS_GET_RESPONSE, 0x00, 0x00,
+                        remaining == 0 ? 256 : remaining).getBytes());
+            }
+            check(command, response);
+            return concat(result, Arrays.copyOf(response, response.length - 2));
+        }
+
+        private byte[] send(byte[] command) throws IOException {
+            long start = System.nanoTime();
+            byte[] response = transport.transmit(command);
+            cardNanos += System.nanoTime() - start;
+            commands++;
+            return response;
+        }
+
+        private static void check(byte[] command, byte[] response) throws StatusException {
+            int sw = ((response[response.length - 2] & 0xFF) << 8) | (response[response.length - 1] & 0xFF);
+            if (sw != SW_OK) {
+                throw new StatusException(command, sw);
+            }
+        }
+    }
+
+    /**
+     * The handshake times of one card.
+     */
+    static class Timing {
+
+        final String name;
+        int handshakes;
+        int failures;
+        long totalNanos;
+        long minNanos = Long.MAX_VALUE;
+        long maxNanos;
+        long cardNanos;
+        Exception error;
+
+        Timing(String name) {
+            this.name = name;
+        }
+
+        void add(long nanos) {
+            handshakes++;
+            totalNanos += nanos;
+            minNanos = Math.min(minNanos, nanos);
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        long meanNanos() {
+            return handshakes == 0 ? 0 : totalNanos / handshakes;
+        }
+
+        @Override
+        public String toString() {
+            if (error != null && handshakes == 0) {
+                return String.format(Locale.ROOT, "%-32s failed: %s", name, error.getMessage());
+            }
+            return String.format(Locale.ROOT, "%-32s %6d %6d %9.1f %9.1f %9.1f %9.1f", name, handshakes, failures,
+                    meanNanos() / 1e6, minNanos / 1e6, maxNanos / 1e6,
+                    handshakes == 0 ? 0.0 : cardNanos / 1e6 / handshakes);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 1 && args[0].equals("run")) {
+            String reader = args.length > 1 && !args[1].isEmpty() ? args[1] : null;
+            int handshakes = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+            Map<String, Callable<Transport>> cards = cards(reader);
+            int parallel = args.length > 3 ? Integer.parseInt(args[3]) : cards.size();
+            print(provision(cards, handshakes, parallel));
+        } else if (args.length >= 1 && args[0].equals("pipeline")) {
+            String reader = args.length > 1 && !args[1].isEmpty() ? args[1] : null;
+            int handshakes = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+            int pool = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+            Map<String, Callable<Transport>> cards = cards(reader);
+            Map.Entry<String, Callable<Transport>> card = cards.entrySet().iterator().next();
+            print(compare(card.getKey(), card.getValue(), handshakes, pool));
+        } else if (args.length >= 1 && args[0].equals("soak")) {
+            String reader = args.length > 1 && !args[1].isEmpty() ? args[1] : null;
+            int handshakes = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+            int sample = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+            int drift = args.length > 4 ? Integer.parseInt(args[4]) : 25;
+            try (Transport transport = cards(reader).values().iterator().next().call()) {
+                Client client = new Client(transport);
+                client.select();
+                soak(client, handshakes, sample, drift);
+            } catch (IOException e) {
+                System.out.println("soak failed: " + e.getMessage());
+                System.exit(1);
+            }
+        } else if (args.length >= 1 && args[0].equals("script")) {
+            System.out.print(script(args.length > 1 ? Integer.parseInt(args[1]) : 32));
+        } else if (args.length >= 1 && args[0].equals("check-script")) {
+            String file = args.length > 1 && !args[1].isEmpty() ? args[1] : "scripts/soak.scr";
+            String reader = args.length > 2 && !args[2].isEmpty() ? args[2] : null;
+            try (Transport transport = cards(reader).values().iterator().next().call()) {
+                int handshakes = checkScript(transport, Files.readString(Path.of(file)));
+                System.out.println("script passed: " + handshakes + " handshakes");
+            } catch (IOException e) {
+                System.out.println("script failed: " + e.getMessage());
+                System.exit(1);
+            }
+        } else if (args.length >= 2 && args[0].equals("trace")) {
+            // As in ApduTrace, the follow ups reach the client and get lines of their own
+            System.setProperty("sun.security.smartcardio.t0GetResponse", "false");
+            System.setProperty("sun.security.smartcardio.t1GetResponse", "false");
+            String reader = args.length > 2 && !args[2].isEmpty() ? args[2] : null;
+            int handshakes = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+            PrintWriter out = new PrintWriter(Files.newBufferedWriter(Path.of(args[1]), StandardCharsets.US_ASCII));
+            try (RecordingTransport transport = new RecordingTransport(
+                    cards(reader).values().iterator().next().call(), out)) {
+                trace(transport, handshakes);
+                System.out.println("recorded " + transport.getEntries() + " entries to " + args[1]);
+            } catch (IOException e) {
+                System.out.println("trace failed: " + e.getMessage());
+                System.exit(1);
+            }
+        } else {
+            System.err.println("usage: DHClient run [reader] [handshakes] [parallel]");
+            System.err.println("       DHClient pipeline [reader] [handshakes] [pool]");
+            System.err.println("       DHClient soak [reader] [handshakes] [sample] [drift]");
+            System.err.println("       DHClient script [handshakes]");
+            System.err.println("       DHClient check-script [script] [reader]");
+            System.err.println("       DHClient trace <trace> [reader] [handshakes]");
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Runs step by step handshakes on the card's selected group, for
+     * recording them.
+     *
+     * @param transport
+     * @param handshakes
+     * @throws IOException
+     */
+    static void trace(Transport transport, int handshakes) throws IOException {
+        Client client = new Client(transport);
+        client.select();
+        Group group = client.getGroup();
+        SecureRandom random = new SecureRandom();
+        for (int i = 0; i < handshakes; i++) {
+            client.handshake(HostKey.generate(group, random));
+        }
+    }
+
+    /**
+     * @param reader part of the reader names to use, or null for every reader
+     * with a card
+     * @return opens the transport of each card by its reader's name
+     * @throws CardException if there is no such reader
+     */
+    static Map<String, Callable<Transport>> cards(String reader) throws CardException {
+        Map<String, Callable<Transport>> cards = new LinkedHashMap<>();
+        for (CardTerminal terminal : TerminalFactory.getDefault().terminals().list()) {
+            if (reader != null ? terminal.getName().contains(reader) : terminal.isCardPresent()) {
+                cards.put(terminal.getName(), () -> new PcscTransport(terminal));
+            }
+        }
+        if (cards.isEmpty()) {
+            throw new CardException("no reader " + (reader != null ? "named " + reader : "with a card"));
+        }
+        return cards;
+    }
+
+    /**
+     * Runs handshakes on every card, each on its own virtual thread, with at
+     * most parallel handshakes in flight at a time.
+     *
+     * @param cards opens the transport of each card by its name
+     * @param handshakes per card
+     * @param parallel
+     * @return the timing of each card by its name
+     * @throws InterruptedException
+     */
+    static Map<String, Timing> provision(Map<String, Callable<Transport>> cards, int handshakes, int parallel)
+            throws InterruptedException {
+        Semaphore permits = new Semaphore(parallel);
+        Map<String, Future<Timing>> futures = new LinkedHashMap<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (Map.Entry<String, Callable<Transport>> card : cards.entrySet()) {
+                futures.put(card.getKey(), executor.submit(
+                        () -> runCard(card.getKey(), card.getValue(), handshakes, permits)));
+            }
+        }
+        Map<String, Timing> timings = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<Timing>> future : futures.entrySet()) {
+            try {
+                timings.put(future.getKey(), future.getValue().get());
+            } catch (ExecutionException e) {
+                Timing timing = new Timing(future.getKey());
+                timing.error = (Exception) e.getCause();
+                timings.put(future.getKey(), timing);
+            }
+        }
+        return timings;
+    }
+
+    /**
+     * Runs the handshakes of one card. A failed handshake is counted and the
+     * next one starts over.
+     */
+    static Timing runCard(String name, Callable<Transport> opener, int handshakes, Semaphore permits)
+            throws Exception {
+        Timing timing = new Timing(name);
+        SecureRandom random = new SecureRandom();
+        try (Transport transport = opener.call()) {
+            Client client = new Client(transport);
+            client.select();
+            Group group = client.getGroup();
+            for (int i = 0; i < handshakes; i++) {
+                permits.acquire();
+                try {
+                    HostKey key = HostKey.generate(group, random);
+                    long cardBefore = client.getCardNanos();
+                    long start = System.nanoTime();
+                    client.handshake(key);
+                    timing.add(System.nanoTime() - start);
+                    timing.cardNanos += client.getCardNanos() - cardBefore;
+                } catch (IOException e) {
+                    timing.failures++;
+                    timing.error = e;
+                } finally {
+                    permits.release();
+                }
+            }
+        }
+        return timing;
+    }
+
+    /**
+     * Runs the handshakes on one card step by step, then pipelined with a key
+     * pool.
+     *
+     * @param name
+     * @param opener
+     * @param handshakes of each kind
+     * @param pool size of the key pool
+     * @return the step by step and the pipelined timing
+     * @throws Exception if the card cannot be opened or selected
+     */
+    static Map<String, Timing> compare(String name, Callable<Transport> opener, int handshakes, int pool)
+            throws Exception {
+        Map<String, Timing> timings = new LinkedHashMap<>();
+        Timing sequential = new Timing(name + " step by step");
+        Timing pipelined = new Timing(name + " pipelined");
+        SecureRandom random = new SecureRandom();
+        try (Transport transport = opener.call();
+                ExecutorService io = Executors.newVirtualThreadPerTaskExecutor()) {
+            Client client = new Client(transport);
+            client.select();
+            Group group = client.getGroup();
+            for (int i = 0; i < handshakes; i++) {
+                long cardBefore = client.getCardNanos();
+                long start = System.nanoTime();
+                try {
+                    client.handshake(HostKey.generate(group, random));
+                    sequential.add(System.nanoTime() - start);
+                    sequential.cardNanos += client.getCardNanos() - cardBefore;
+                } catch (IOException e) {
+                    sequential.failures++;
+                    sequential.error = e;
+                }
+            }
+            KeyPool keys = new KeyPool(group, pool, ForkJoinPool.commonPool());
+            for (int i = 0; i < handshakes; i++) {
+                long cardBefore = client.getCardNanos();
+                long start = System.nanoTime();
+                try {
+                    client.handshakeAsync(group, keys.take(), io, ForkJoinPool.commonPool()).join();
+                    pipelined.add(System.nanoTime() - start);
+                    pipelined.cardNanos += client.getCardNanos() - cardBefore;
+                } catch (CompletionException e) {
+                    pipelined.failures++;
+                    pipelined.error = (Exception) e.getCause();
+                }
+            }
+        }
+        timings.put(sequential.name, sequential);
+        timings.put(pipelined.name, pipelined);
+        return timings;
+    }
+
+    /**
+     * Runs handshakes with the seeded host keys and checks the card every
+     * sample handshakes.
+     *
+     * @param client a client with the applet selected
+     * @param handshakes
+     * @param sample handshakes between the checks
+     * @param drift allowed rise of the mean handshake time over the fastest
+     * earlier sample's, in percent
+     * @throws IOException on the first failed handshake or check
+     */
+    static void soak(Client client, int handshakes, int sample, int drift) throws IOException {
+        client.stats(true);
+        Group group = client.getGroup();
+        Random random = new Random(SOAK_SEED);
+        byte[] memory = null;
+        long baseline = 0;
+        long windowNanos = 0;
+        long windowMax = 0;
+        System.out.println(String.format(Locale.ROOT, "%10s %9s %9s %10s %10s %10s", "handshakes", "mean ms",
+                "max ms", "persistent", "reset", "deselect"));
+        for (int i = 1; i <= handshakes; i++) {
+            HostKey key = HostKey.generate(group, random);
+            long start = System.nanoTime();
+            try {
+                client.handshake(key);
+            } catch (IOException e) {
+                throw new IOException("handshake " + i + ": " + e.getMessage(), e);
+            }
+            long nanos = System.nanoTime() - start;
+            windowNanos += nanos;
+            windowMax = Math.max(windowMax, nanos);
+            if (i % sample != 0 && i != handshakes) {
+                continue;
+            }
+
+            long mean = windowNanos / (i % sample == 0 ? sample : i % sample);
+            byte[] stats = client.stats(false);
+            System.out.println(String.format(Locale.ROOT, "%10d %9.1f %9.1f %10d %10d %10d", i, mean / 1e6,
+                    windowMax / 1e6, counter(stats, STATS_MEMORY), counter(stats, STATS_MEMORY + 4),
+                    counter(stats, STATS_MEMORY + 8)));
+            memory = checkStats(stats, i, memory);
+            if (baseline != 0 && mean > baseline * (100 + drift) / 100) {
+                throw new IOException(String.format(Locale.ROOT, "mean handshake time rose from %.1f ms to %.1f ms"
+                        + " after %d handshakes", baseline / 1e6, mean / 1e6, i));
+            }
+            if (baseline == 0 || mean < baseline) {
+                baseline = mean;
+            }
+            windowNanos = 0;
+            windowMax = 0;
+        }
+        System.out.println("soak passed");
+    }
+
+    /**
+     * Checks an INS_STATS response against the handshakes sent since the
+     * counters were reset.
+     *
+     * @param stats
+     * @param handshakes
+     * @param memory available memory of the first sample, or null for the
+     * first sample
+     * @return the available memory of this sample
+     * @throws IOException if the counters differ from the handshakes, a
+     * command failed or the available memory changed
+     */
+    static byte[] checkStats(byte[] stats, long handshakes, byte[] memory) throws IOException {
+        long started = counter(stats, STATS_STARTED);
+        long completed = counter(stats, STATS_COMPLETED);
+        long tests = counter(stats, STATS_TESTS);
+        if (started != handshakes || completed != handshakes || tests != handshakes) {
+            throw new IOException(String.format("after %d handshakes the card counted %d started, %d completed"
+                    + " and %d tests", handshakes, started, completed, tests));
+        }
+        for (int offset = STATS_FAILURES; offset < STATS_MEMORY; offset += 4) {
+            if (counter(stats, offset) != 0) {
+                throw new IOException("the card counted failed commands after " + handshakes + " handshakes");
+            }
+        }
+        byte[] available = Arrays.copyOfRange(stats, STATS_MEMORY, STATS_LENGTH);
+        if (memory != null && !Arrays.equals(memory, available)) {
+            throw new IOException("available memory changed after " + handshakes + " handshakes");
+        }
+        return available;
+    }
+
+    /**
+     * @return the applet's default group, the 2048 bit MODP group
+     */
+    static Group defaultGroup() {
+        Group group = new Group();
+        group.id = 0x0E;
+        group.length = 256;
+        group.p = new BigInteger(MODP_2048, 16);
+        group.g = BigInteger.valueOf(2);
+        return group;
+    }
+
+    /**
+     * @param handshakes
+     * @return the apdutool soak script with the first handshakes of a soak
+     * run on the default group
+     */
+    static String script(int handshakes) {
+        Group group = defaultGroup();
+        Random random = new Random(SOAK_SEED);
+        StringBuilder script = new StringBuilder();
+        script.append("//Soak script for Applet 'DHApplet'\n")
+                .append("//\n")
+                .append("//Generated by java tools/DHClient.java script ").append(handshakes).append(".\n")
+                .append("//Repeats the 2048 bit handshake ").append(handshakes).append(" times with the host keys\n")
+                .append("//of a soak run, drawn from a generator seeded with SOAK_SEED, and samples\n")
+                .append("//INS_STATS every 8 handshakes. The last 12 bytes of each INS_STATS\n")
+                .append("//response are the available persistent, transient reset and transient\n")
+                .append("//deselect memory, which must stay the same from sample to sample.\n")
+                .append("\n")
+                .append("powerup;\n")
+                .append("// Select DHApplet //aid/EDE4FBEB9E/D8\n")
+                .append(scriptLine(0x00, 0xA4, 0x04, 0x00, AID, 0x7F))
+                .append("\n")
+                .append("// INS_STATS resetting the counters\n")
+                .append(scriptLine(CLA, INS_STATS, 0x01, 0x00, null, STATS_LENGTH));
+        for (int i = 1; i <= handshakes; i++) {
+            byte[] y = HostKey.generate(group, random).y;
+            script.append("\n// Handshake ").append(i).append("\n")
+                    .append(scriptLine(CLA, INS_INIT, 0x00, 0x00, null, 0x7F));
+            for (int offset = 0; offset < y.length; offset += PART_LENGTH) {
+                script.append(scriptLine(CLA, INS_GET, P1_Y, offset / OFFSET_UNIT, null, PART_LENGTH));
+            }
+            for (int offset = 0; offset < y.length; offset += PART_LENGTH) {
+                script.append(scriptLine(CLA, INS_SET, P1_Y, offset / OFFSET_UNIT,
+                        Arrays.copyOfRange(y, offset, offset + PART_LENGTH), 0x7F));
+            }
+            script.append(scriptLine(CLA, INS_FINAL, 0x00, 0x00, null, 0x7F))
+                    .append(scriptLine(CLA, INS_TEST, 0x00, 0x00, null, TAG_LENGTH));
+            if (i % 8 == 0) {
+                script.append(scriptLine(CLA, INS_STATS, 0x00, 0x00, null, STATS_LENGTH));
+            }
+        }
+        return script.append("\npowerdown;\n").toString();
+    }
+
+    /**
+     * Replays a soak script written by script() and checks the responses as
+     * a soak run does. Every command must succeed, and each TEST tag must
+     * match the tag of the seeded host key and the card's Y read back. Each
+     * INS_STATS sample must count the handshakes so far, no failures and
+     * the same available memory.
+     *
+     * @param transport a card with the applet installed
+     * @param script
+     * @return the number of handshakes checked
+     * @throws IOException on the first failed command or check
+     */
+    static int checkScript(Transport transport, String script) throws IOException {
+        Group group = defaultGroup();
+        Random random = new Random(SOAK_SEED);
+        HostKey key = null;
+        byte[] cardY = new byte[0];
+        byte[] memory = null;
+        int handshakes = 0;
+        int samples = 0;
+        for (byte[] command : parseScript(script)) {
+            byte[] response = transport.transmit(command);
+            int sw = ((response[response.length - 2] & 0xFF) << 8) | (response[response.length - 1] & 0xFF);
+            if (sw != SW_OK) {
+                throw new StatusException(command, sw);
+            }
+            byte[] data = Arrays.copyOf(response, response.length - 2);
+            if ((command[0] & 0xFF) != CLA) {
+                continue;
+            }
+            int ins = command[1] & 0xFF;
+            if (ins == INS_INIT) {
+                handshakes++;
+                key = HostKey.generate(group, random);
+                cardY = new byte[0];
+            } else if (ins == INS_GET && command[2] == P1_Y) {
+                cardY = concat(cardY, data);
+            } else if (ins == INS_TEST && key != null) {
+                if (!Arrays.equals(data, confirmTag(kdf(key.agree(cardY))))) {
+                    throw new IOException("handshake " + handshakes + ": key confirmation failed");
+                }
+            } else if (ins == INS_STATS && command[2] == 0x00) {
+                memory = checkStats(data, handshakes, memory);
+                samples++;
+            }
+        }
+        if (handshakes == 0 || samples == 0) {
+            throw new IOException("the script has no handshakes or no INS_STATS samples");
+        }
+        return handshakes;
+    }
+
+    /**
+     * @param script apdutool script
+     * @return its commands, without powerup, powerdown and comments
+     */
+    static List<byte[]> parseScript(String script) {
+        List<byte[]> commands = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        for (String line : script.split("\\R")) {
+            int comment = line.indexOf("//");
+            text.append(comment >= 0 ? line.substring(0, comment) : line).append(' ');
+        }
+        for (String statement : text.toString().split(";")) {
+            String[] tokens = statement.trim().split("\\s+");
+            if (tokens[0].isEmpty() || tokens[0].equals("powerup") || tokens[0].equals("powerdown")) {
+                continue;
+            }
+            // CLA INS P1 P2 Lc, the data and Le; Lc 0 sends no Lc byte
+            byte[] line = new byte[tokens.length];
+            for (int i = 0; i < tokens.length; i++) {
+                line[i] = (byte) Integer.decode(tokens[i]).intValue();
+            }
+            if (line[4] == 0) {
+                commands.add(new byte[]{line[0], line[1], line[2], line[3], line[line.length - 1]});
+            } else {
+                commands.add(line);
+            }
+        }
+        return commands;
+    }
+
+    /**
+     * @return the command as an apdutool line: CLA INS P1 P2 Lc, the data
+     * and Le
+     */
+    static String scriptLine(int cla, int ins, int p1, int p2, byte[] data, int le) {
+        StringBuilder line = new StringBuilder(String.format("0x%02X 0x%02X 0x%02X 0x%02X 0x%02X", cla, ins, p1, p2,
+                data == null ? 0 : data.length));
+        if (data != null) {
+            for (byte b : data) {
+                line.append(String.format(" 0x%02X", b));
+            }
+        }
+        return line.append(String.format(" 0x%02X;\n", le)).toString();
+    }
+
+    /**
+     * @return the big endian counter at offset
+     */
+    static long counter(byte[] stats, int offset) {
+        return ((stats[offset] & 0xFFL) << 24) | ((stats[offset + 1] & 0xFF) << 16)
+                | ((stats[offset + 2] & 0xFF) << 8) | (stats[offset + 3] & 0xFF);
+    }
+
+    static void print(Map<String, Timing> timings) {
+        System.out.println(String.format(Locale.ROOT, "%-32s %6s %6s %9s %9s %9s %9s", "card", "hs", "failed",
+                "mean ms", "min ms", "max ms", "card ms"));
+        for (Timing timing : timings.values()) {
+            System.out.println(timing);
+        }
+    }
+
+    /**
+     * @param secret
+     * @return K = SHA-256(00000001 || secret || "DHApplet channel")
+     */
+    static byte[] kdf(byte[] secret) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(new byte[]{0, 0, 0, 1});
+            sha.update(secret);
+            return sha.digest(KDF_INFO);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param material K
+     * @return the INS_TEST tag, the reply encrypted under the first 16 bytes
+     * of K
+     */
+    static byte[] confirmTag(byte[] material) {
+        try {
+            Cipher aes = Cipher.getInstance("AES/ECB/NoPadding");
+            aes.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(material, 0, 16, "AES"));
+            return aes.doFinal(REPLY);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param step
+     * @return the step's result, with an IOException wrapped in a
+     * CompletionException
+     */
+    static <T> T unchecked(CardStep<T> step) {
+        try {
+            return step.run();
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    static byte[] fixed(BigInteger value, int length) {
+        byte[] bytes = value.toByteArray();
+        byte[] out = new byte[length];
+        int copy = Math.min(bytes.length, length);
+        System.arraycopy(bytes, bytes.length - copy, out, length - copy, copy);
+        return out;
+    }
+
+    static byte[] concat(byte[] a, byte[] b) {
+        byte[] out = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, out, a.length, b.length);
+        return out;
+    }
+}
@@ -0,0 +1,589 @@
+/**
+ * 3-Clause BSD License
+ * Copyright (c) 2016, Thotheolh
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ * this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation and
+ * /or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ * may be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * A host side DH engine with the API of dhapplet.DH for checking card
+ * results in bulk and standing in for the card in tests.
+ *
+ * The modexps use Montgomery multiplication on limbs of 27 bits held in
+ * longs. A row of the multiplication adds a limb times the other operand and
+ * a multiple of P to columns that take the products without carrying, so
+ * the row is a plain loop over arrays that HotSpot compiles to vector
+ * instructions, and carries are only propagated once per multiplication.
+ * G^x uses a table of G^(d * 16^i) built once per G, P and exponent length,
+ * so it needs no squarings. This suits the default generator G=2 as every
+ * handshake shares it. Y^x uses a sliding 5 bit window. All buffers are
+ * allocated when the engine is created or when P, G or the exponent length
+ * change, none per modexp. The modexps are not constant time, so keep the
+ * engine to checking and testing.
+ *
+ * On HotSpot, G^x is about three times as fast as BigInteger.modPow. Y^x is
+ * up to 1.8 times slower: it needs as many squarings as modPow, whose
+ * Montgomery multiplication is an intrinsic that beats the vector loop.
+ *
+ * Like the card, the engine keeps one Y: init() writes the engine's Y,
+ * setY() overwrites it with the peer's and doFinal() computes S from it.
+ *
+ * Usage, with no build step:
+ *
+ * java tools/ModExp.java bench [iterations] [expLength]
+ *
+ * bench checks the engine against BigInteger.modPow on 2048, 3072 and 4096
+ * bit moduli and prints the time per modexp of both, for G^x with G=2 and for
+ * Y^x.
+ *
+ * @author Thotheolh
+ */
+public class ModExp {
+
+    public static final int MIN_EXP_LENGTH = 28;
+    public static final int DEFAULT_EXP_LENGTH = 40;
+    public static final int MAX_LENGTH = 1024;
+
+    // Bits per limb, so that a column of the products of up to MAX_LENGTH
+    // byte operands fits in a long
+    private static final int W = 27;
+    private static final long MASK = (1L << W) - 1;
+
+    // Bits of the variable base window and per digit of the fixed base table
+    private static final int WINDOW = 5;
+    private static final int FIXED_WINDOW = 4;
+    private static final int FIXED_DIGITS = (1 << FIXED_WINDOW) - 1;
+
+    private final int length;
+    private final int limbs;
+    private final byte[] P;
+    private final byte[] G;
+    private final byte[] Y;
+    private final byte[] exp;
+    private int expLength = DEFAULT_EXP_LENGTH;
+    private int expBits;
+    private final SecureRandom rng = new SecureRandom();
+
+    // Montgomery form of P: the modulus, -P^-1 mod 2^W, R^2 mod P and R mod P
+    // with R = 2^(W * limbs), which is above 4P so that results below 2P
+    // need no subtraction
+    private final long[] mod;
+    private long n0;
+    private final long[] r2;
+    private final long[] rOne;
+    private final long[] one;
+    private boolean modChanged = true;
+
+    // Columns of montMul() and scratch for the exponentiations
+    private final long[] t;
+    private final long[] acc;
+    private final long[] base;
+    private final long[][] window;
+
+    // G^(d * 16^i) at fixed[i * FIXED_DIGITS + d - 1] in Montgomery form
+    private long[][] fixed = new long[0][];
+    private int fixedBits;
+    private boolean baseChanged = true;
+
+    /**
+     * @param length of P in bytes, up to MAX_LENGTH
+     */
+    public ModExp(int length) {
+        if (length <= 0 || length > MAX_LENGTH) {
+            throw new IllegalArgumentException("length " + length);
+        }
+        this.length = length;
+        limbs = (length * 8 + W - 1) / W + 1;
+        P = new byte[length];
+        G = new byte[length];
+        Y = new byte[length];
+        exp = new byte[length];
+        mod = new long[limbs];
+        r2 = new long[limbs];
+        rOne = new long[limbs];
+        one = new long[limbs];
+        one[0] = 1;
+        t = new long[limbs + 1];
+        acc = new long[limbs];
+        base = new long[limbs];
+        window = new long[1 << (WINDOW - 1)][limbs];
+        G[length - 1] = 2;
+    }
+
+    /**
+     * Generates a private exponent of expLength bytes and computes Y.
+     */
+    public void init() {
+        rng.nextBytes(exp);
+        Arrays.fill(exp, 0, length - expLength, (byte) 0);
+        exp[length - expLength] |= (byte) 0x80;
+        computeY();
+    }
+
+    /**
+     * Computes Y from a private exponent as long as P.
+     *
+     * @param privateKey
+     * @param offset
+     */
+    public void init(byte[] privateKey, int offset) {
+        System.arraycopy(privateKey, offset, exp, 0, length);
+        computeY();
+    }
+
+    /**
+     * Computes S = Y^x mod P from the peer's Y set with setY().
+     *
+     * @param output
+     * @param offset
+     */
+    public void doFinal(byte[] output, int offset) {
+        prepare();
+        toLimbs(Y, base);
+        montMul(base, r2, base);
+        powWindow(base, acc);
+        reduce(acc, acc);
+        fromLimbs(acc, output, offset);
+    }
+
+    public void getY(byte[] output, int offset) {
+        System.arraycopy(Y, 0, output, offset, length);
+    }
+
+    /**
+     * Set part of the Y value.
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @param yOffset
+     */
+    public void setY(byte[] data, int offset, int length, int yOffset) {
+        System.arraycopy(data, offset, Y, yOffset, length);
+    }
+
+    /**
+     * Set part of the P value. P must be odd.
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @param pOffset
+     */
+    public void setP(byte[] data, int offset, int length, int pOffset) {
+        System.arraycopy(data, offset, P, pOffset, length);
+        modChanged = true;
+        baseChanged = true;
+    }
+
+    /**
+     * Set part of the G value.
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @param gOffset
+     */
+    public void setG(byte[] data, int offset, int length, int gOffset) {
+        System.arraycopy(data, offset, G, gOffset, length);
+        baseChanged = true;
+    }
+
+    /**
+     * @param length of generated private exponents in bytes
+     */
+    public void setExpLength(int length) {
+        if (length < MIN_EXP_LENGTH || length > this.length) {
+            throw new IllegalArgumentException("exponent length " + length);
+        }
+        if (length != expLength) {
+            expLength = length;
+            baseChanged = true;
+        }
+    }
+
+    public int getExpLength() {
+        return expLength;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Computes Y = G^x mod P with the fixed base table, or with the window
+     * when the exponent is longer than the table.
+     */
+    private void computeY() {
+        prepare();
+        if (expBits <= fixedBits) {
+            powFixed(acc);
+        } else {
+            toLimbs(G, base);
+            montMul(base, r2, base);
+            powWindow(base, acc);
+        }
+        reduce(acc, acc);
+        fromLimbs(acc, Y, 0);
+    }
+
+    /**
+     * Rebuilds the Montgomery constants and the fixed base table after P, G
+     * or the exponent length changed, and measures the exponent.
+     */
+    private void prepare() {
+        if (modChanged) {
+            if ((P[length - 1] & 1) == 0) {
+                throw new IllegalStateException("P is even");
+            }
+            toLimbs(P, mod);
+            // Newton's iteration doubles the correct low bits of P^-1 each round
+            long inverse = mod[0];
+            for (int i = 0; i < 5; i++) {
+                inverse *= 2 - mod[0] * inverse;
+            }
+            n0 = -inverse & MASK;
+            BigInteger p = new BigInteger(1, P);
+            BigInteger r = BigInteger.ONE.shiftLeft(limbs * W);
+            toLimbs(fixed(r.multiply(r).mod(p)), r2);
+            toLimbs(fixed(r.mod(p)), rOne);
+            modChanged = false;
+        }
+        if (baseChanged) {
+            buildFixed();
+            baseChanged = false;
+        }
+        int top = 0;
+        while (top < length && exp[top] == 0) {
+            top++;
+        }
+        expBits = top == length ? 0 : (length - top) * 8 - Integer.numberOfLeadingZeros(exp[top] & 0xFF) + 24;
+    }
+
+    /**
+     * Builds G^(d * 16^i) for the exponent bits of generated keys.
+     */
+    private void buildFixed() {
+        int digits = (expLength * 8 + FIXED_WINDOW - 1) / FIXED_WINDOW;
+        if (fixed.length != digits * FIXED_DIGITS) {
+            fixed = new long[digits * FIXED_DIGITS][limbs];
+        }
+        fixedBits = digits * FIXED_WINDOW;
+        toLimbs(G, base);
+        montMul(base, r2, base);
+        for (int i = 0; i < digits; i++) {
+            int row = i * FIXED_DIGITS;
+            System.arraycopy(base, 0, fixed[row], 0, limbs);
+            for (int d = 1; d < FIXED_DIGITS; d++) {
+                montMul(fixed[row + d - 1], base, fixed[row + d]);
+            }
+            // The next row's base is G^(16^(i + 1))
+            montMul(fixed[row + FIXED_DIGITS - 1], base, base);
+        }
+    }
+
+    /**
+     * @param out G^x in Montgomery form
+     */
+    private void powFixed(long[] out) {
+        System.arraycopy(rOne, 0, out, 0, limbs);
+        for (int i = 0; i * FIXED_WINDOW < expBits; i++) {
+            int d = digit(i * FIXED_WINDOW, FIXED_WINDOW);
+            if (d != 0) {
+                montMul(out, fixed[i * FIXED_DIGITS + d - 1], out);
+            }
+        }
+    }
+
+    /**
+     * Sliding window exponentiation: every window starts and ends with a set
+     * bit, so the table only holds the odd powers b, b^3, ..., b^(2^WINDOW - 1).
+     *
+     * @param b the base in Montgomery form
+     * @param out b^x in Montgomery form
+     */
+    private void powWindow(long[] b, long[] out) {
+        System.arraycopy(b, 0, window[0], 0, limbs);
+        montMul(b, b, out);
+        for (int d = 1; d < window.length; d++) {
+            montMul(window[d - 1], out, window[d]);
+        }
+        System.arraycopy(rOne, 0, out, 0, limbs);
+        boolean started = false;
+        int i = expBits - 1;
+        while (i >= 0) {
+            if (digit(i, 1) == 0) {
+                if (started) {
+                    montMul(out, out, out);
+                }
+                i--;
+                continue;
+            }
+            int low = Math.max(i - WINDOW + 1, 0);
+            while (digit(low, 1) == 0) {
+                low++;
+            }
+            if (started) {
+                for (int s = low; s <= i; s++) {
+                    montMul(out, out, out);
+                }
+                montMul(out, window[digit(low, i - low + 1) >>> 1], out);
+            } else {
+                System.arraycopy(window[digit(low, i - low + 1) >>> 1], 0, out, 0, limbs);
+                started = true;
+            }
+            i = low - 1;
+        }
+    }
+
+    /**
+     * @param bit index of the lowest bit from the exponent's least
+     * significant end
+     * @param width
+     * @return the exponent's bits from bit to bit + width - 1
+     */
+    private int digit(int bit, int width) {
+        int d = 0;
+        for (int k = width - 1; k >= 0; k--) {
+            int index = bit + k;
+            int b = index >= length * 8 ? 0 : (exp[length - 1 - (index >>> 3)] >>> (index & 7)) & 1;
+            d = (d << 1) | b;
+        }
+        return d;
+    }
+
+    /**
+     * Montgomery multiplication out = a * b / R mod P, row by row. Each row
+     * adds a limb of a times b and the multiple of P that clears the lowest
+     * column, then drops that column and carries its high bits into the next.
+     * The columns are only normalized at the end. out may be a or b.
+     *
+     * @param a
+     * @param b
+     * @param out
+     */
+    private void montMul(long[] a, long[] b, long[] out) {
+        int n = limbs;
+        long[] t = this.t;
+        long[] mod = this.mod;
+        Arrays.fill(t, 0);
+        for (int i = 0; i < n; i++) {
+            long ai = a[i];
+            long m = ((t[0] + ai * b[0]) * n0) & MASK;
+            for (int j = 0; j < n; j++) {
+                t[j] += ai * b[j] + m * mod[j];
+            }
+            shift(t);
+        }
+        normalize(t, out);
+    }
+
+    /**
+     * Drops the cleared lowest column of a row and carries its high bits.
+     */
+    private void shift(long[] t) {
+        long carry = t[0] >>> W;
+        System.arraycopy(t, 1, t, 0, limbs);
+        t[0] += carry;
+    }
+
+    /**
+     * Propagates the carries of the columns into limbs of W bits.
+     */
+    private void normalize(long[] t, long[] out) {
+        long carry = 0;
+        for (int j = 0; j < limbs; j++) {
+            long x = t[j] + carry;
+            out[j] = x & MASK;
+            carry = x >>> W;
+        }
+    }
+
+    /**
+     * Converts out of Montgomery form into the residue below P.
+     *
+     * @param a below 2P in Montgomery form
+     * @param out
+     */
+    private void reduce(long[] a, long[] out) {
+        montMul(a, one, out);
+        // a * 1 / R is at most P, and equal to P only for a multiple of P
+        for (int j = limbs - 1; j >= 0; j--) {
+            if (out[j] != mod[j]) {
+                return;
+            }
+        }
+        Arrays.fill(out, 0);
+    }
+
+    /**
+     * @param value big endian, length bytes
+     * @param out little endian limbs of W bits
+     */
+    private void toLimbs(byte[] value, long[] out) {
+        long bits = 0;
+        int count = 0;
+        int j = 0;
+        for (int k = length - 1; k >= 0; k--) {
+            bits |= (long) (value[k] & 0xFF) << count;
+            count += 8;
+            if (count >= W) {
+                out[j++] = bits & MASK;
+                bits >>>= W;
+                count -= W;
+            }
+        }
+        while (j < limbs) {
+            out[j++] = bits;
+            bits = 0;
+        }
+    }
+
+    private void fromLimbs(long[] value, byte[] output, int offset) {
+        long bits = 0;
+        int count = 0;
+        int j = 0;
+        for (int k = offset + length - 1; k >= offset; k--) {
+            if (count < 8) {
+                bits |= value[j++] << count;
+                count += W;
+            }
+            output[k] = (byte) bits;
+            bits >>>= 8;
+            count -= 8;
+        }
+    }
+
+    private byte[] fixed(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        byte[] out = new byte[length];
+        int copy = Math.min(bytes.length, length);
+        System.arraycopy(bytes, bytes.length - copy, out, length - copy, copy);
+        return out;
+    }
+
+    public static void main(String[] args) {
+        if (args.length >= 1 && args[0].equals("bench")) {
+            int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+            int expLength = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_EXP_LENGTH;
+            System.out.println(String.format(Locale.ROOT, "%6s %6s %12s %12s %12s %12s", "bits", "exp",
+                    "G^x us", "modPow us", "Y^x us", "modPow us"));
+            for (int length : new int[]{256, 384, 512}) {
+                bench(length, expLength, iterations, new Random(length));
+            }
+        } else {
+            System.err.println("usage: ModExp bench [iterations] [expLength]");
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Checks the engine against BigInteger.modPow on a random odd modulus
+     * and prints the mean time per modexp of both.
+     *
+     * @param length of the modulus in bytes
+     * @param expLength
+     * @param iterations
+     * @param random
+     */
+    static void bench(int length, int expLength, int iterations, Random random) {
+        BigInteger p = new BigInteger(length * 8, random).setBit(length * 8 - 1).setBit(0);
+        BigInteger g = BigInteger.valueOf(2);
+        ModExp engine = new ModExp(length);
+        engine.setExpLength(expLength);
+        engine.setP(toBytes(p, length), 0, length, 0);
+
+        BigInteger[] exps = new BigInteger[iterations];
+        BigInteger[] peers = new BigInteger[iterations];
+        byte[][] expBytes = new byte[iterations][];
+        byte[][] peerBytes = new byte[iterations][];
+        for (int i = 0; i < iterations; i++) {
+            exps[i] = new BigInteger(expLength * 8, random).setBit(expLength * 8 - 1);
+            peers[i] = new BigInteger(length * 8, random).mod(p);
+            expBytes[i] = toBytes(exps[i], length);
+            peerBytes[i] = toBytes(peers[i], length);
+        }
+
+        // Check every result once, which also warms up both sides
+        byte[] out = new byte[length];
+        for (int i = 0; i < iterations; i++) {
+            engine.init(expBytes[i], 0);
+            engine.getY(out, 0);
+            check(out, g.modPow(exps[i], p), length, "G^x");
+            engine.setY(peerBytes[i], 0, length, 0);
+            engine.doFinal(out, 0);
+            check(out, peers[i].modPow(exps[i], p), length, "Y^x");
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            engine.init(expBytes[i], 0);
+        }
+        long fixedBase = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            g.modPow(exps[i], p);
+        }
+        long fixedBaseReference = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            engine.setY(peerBytes[i], 0, length, 0);
+            engine.doFinal(out, 0);
+        }
+        long variableBase = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            peers[i].modPow(exps[i], p);
+        }
+        long variableBaseReference = System.nanoTime() - start;
+
+        System.out.println(String.format(Locale.ROOT, "%6d %6d %12.1f %12.1f %12.1f %12.1f", length * 8,
+                expLength * 8, fixedBase / 1e3 / iterations, fixedBaseReference / 1e3 / iterations,
+                variableBase / 1e3 / iterations, variableBaseReference / 1e3 / iterations));
+    }
+
+    private static void check(byte[] actual, BigInteger expected, int length, String what) {
+        if (!Arrays.equals(actual, toBytes(expected, length))) {
+            throw new IllegalStateException(what + " differs from BigInteger.modPow at " + length * 8 + " bits");
+        }
+    }
+
+    private static byte[] toBytes(BigInteger value, int length) {
+        byte[] bytes = value.toByteArray();
+        byte[] out = new byte[length];
+        int copy = Math.min(bytes.length, length);
+        System.arraycopy(bytes, bytes.length - copy, out, length - copy, copy);
+        return out;
+    }
+}